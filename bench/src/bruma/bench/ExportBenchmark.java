@@ -0,0 +1,131 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.bench;
+
+import bruma.BrumaException;
+import bruma.impexp.AbstractMasterExport;
+import bruma.impexp.DelimMasterExport;
+import bruma.impexp.ISO2709Export;
+import bruma.impexp.IdMasterExport;
+import bruma.impexp.IsisMasterExport;
+import bruma.impexp.JSONMasterExport;
+import bruma.impexp.XmlMasterExport;
+import bruma.master.Master;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full master export with each AbstractMasterExport subclass. Each
+ * operation exports all records of the fixture master.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ExportBenchmark {
+    @Param({"10000"})
+    public int records;
+
+    @Param({"false", "true"})
+    public boolean ffi;
+
+    @Param({"iso2709", "xml", "json", "isis", "id", "delim"})
+    public String format;
+
+    private File dir;
+    private Master master;
+    private String outName;
+    private AbstractMasterExport export;
+
+    @Setup(Level.Trial)
+    public void setup() throws BrumaException, IOException {
+        final String dbName;
+
+        dir = Fixtures.createTempDir();
+        dbName = new File(dir, "export").getPath();
+        outName = new File(dir, "out").getPath();
+        Fixtures.createMaster(dbName, records, ffi, false);
+        master = Fixtures.openMaster(dbName, ffi, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws BrumaException {
+        if (master != null) {
+            master.close();
+        }
+        Fixtures.deleteTempDir(dir);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() throws BrumaException {
+        // IsisMasterExport does not overwrite an existing master.
+        new File(outName + ".mst").delete();
+        new File(outName + ".xrf").delete();
+        export = createExport();
+    }
+
+    @Benchmark
+    public void export() throws BrumaException {
+        export.export(0);
+    }
+
+    private AbstractMasterExport createExport() throws BrumaException {
+        final String enc = Fixtures.ENCODING;
+        final AbstractMasterExport ret;
+
+        if (format.equals("iso2709")) {
+            ret = new ISO2709Export(master, outName, enc);
+        } else if (format.equals("xml")) {
+            ret = new XmlMasterExport(master, outName, enc, false);
+        } else if (format.equals("json")) {
+            ret = new JSONMasterExport(master, outName, enc, false, -1);
+        } else if (format.equals("isis")) {
+            ret = new IsisMasterExport(master, outName, ffi, -1, 0);
+        } else if (format.equals("id")) {
+            ret = new IdMasterExport(master, outName, enc);
+        } else if (format.equals("delim")) {
+            ret = new DelimMasterExport(master, outName, enc, "|", "\t", "\n",
+                                                                        false);
+        } else {
+            throw new BrumaException("createExport/unknown format: " + format);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,96 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.bench;
+
+import bruma.BrumaException;
+import bruma.master.Field;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Field.getSubfields() splitting field contents into subfields. A new field
+ * is created at each operation because fields keep the split subfields.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldBenchmark {
+    private static final int POOL_SIZE = 256;
+
+    @Param({"0", "1", "5", "20"})
+    public int subfields;
+
+    @Param({"10", "100"})
+    public int length;
+
+    private String[] contents;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Random random = new Random(Fixtures.SEED);
+
+        contents = new String[POOL_SIZE];
+        for (int idx = 0; idx < POOL_SIZE; idx++) {
+            contents[idx] = (subfields == 0)
+                               ? Fixtures.randomContent(random, length)
+                                          .replace('^', ' ')
+                               : Fixtures.subfieldContent(random, subfields,
+                                                                     length);
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public void getSubfields(final Blackhole bh) throws BrumaException {
+        final Field field = new Field(1, contents[next]);
+
+        next = (next + 1) & (POOL_SIZE - 1);
+        bh.consume(field.getSubfields());
+    }
+
+    @Benchmark
+    public void getTagSubfields(final Blackhole bh) throws BrumaException {
+        final Field field = new Field(1, contents[next]);
+
+        next = (next + 1) & (POOL_SIZE - 1);
+        bh.consume(field.getTagSubfields('b'));
+    }
+}
@@ -0,0 +1,200 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.bench;
+
+import bruma.BrumaException;
+import bruma.master.Master;
+import bruma.master.MasterBulkWriter;
+import bruma.master.MasterFactory;
+import bruma.master.Record;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Synthetic masters and records used by the benchmarks. The contents are
+ * generated from a fixed seed so different runs use the same data.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public final class Fixtures {
+    public static final String ENCODING = "ISO-8859-1";
+    public static final long SEED = 20111018L;
+
+    private Fixtures() {
+    }
+
+    /**
+     * Creates a temporary directory to hold fixture databases.
+     * @return the directory
+     * @throws IOException
+     */
+    public static File createTempDir() throws IOException {
+        final File file = File.createTempFile("bruma-bench", "");
+
+        if (!file.delete() || !file.mkdir()) {
+            throw new IOException("createTempDir/" + file);
+        }
+        return file;
+    }
+
+    /**
+     * Removes a temporary directory and its files.
+     * @param dir directory created by createTempDir()
+     */
+    public static void deleteTempDir(final File dir) {
+        if (dir != null) {
+            final File[] files = dir.listFiles();
+
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * Gets a factory of a fixture master.
+     * @param dbName database name
+     * @param ffi true for a FFI master, false for a standard one
+     * @param swapped true for little endian, false for big endian masters
+     * @return the master factory
+     * @throws BrumaException
+     */
+    public static MasterFactory getFactory(final String dbName,
+                                           final boolean ffi,
+                                           final boolean swapped)
+                                                        throws BrumaException {
+        return MasterFactory.getInstance(dbName)
+                            .setEncoding(ENCODING)
+                            .setFFI(ffi)
+                            .setSwapped(swapped);
+    }
+
+    /**
+     * Creates a master with random records.
+     * @param dbName database name
+     * @param records number of records
+     * @param ffi true for a FFI master, false for a standard one
+     * @param swapped true for little endian, false for big endian masters
+     * @throws BrumaException
+     */
+    public static void createMaster(final String dbName,
+                                    final int records,
+                                    final boolean ffi,
+                                    final boolean swapped)
+                                                        throws BrumaException {
+        final Random random = new Random(SEED);
+        final MasterBulkWriter writer =
+                   getFactory(dbName, ffi, swapped).forceCreateBulkWriter();
+
+        try {
+            for (int idx = 0; idx < records; idx++) {
+                writer.write(randomRecord(random));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Opens a fixture master.
+     * @param dbName database name
+     * @param ffi true for a FFI master, false for a standard one
+     * @param swapped true for little endian, false for big endian masters
+     * @return the opened master
+     * @throws BrumaException
+     */
+    public static Master openMaster(final String dbName,
+                                    final boolean ffi,
+                                    final boolean swapped)
+                                                        throws BrumaException {
+        return getFactory(dbName, ffi, swapped).open();
+    }
+
+    /**
+     * Creates a record with 1 to 12 fields of random contents.
+     * @param random random number generator
+     * @return the new record
+     * @throws BrumaException
+     */
+    public static Record randomRecord(final Random random)
+                                                        throws BrumaException {
+        final Record record = new Record();
+        final int nfields = 1 + random.nextInt(12);
+
+        for (int idx = 0; idx < nfields; idx++) {
+            record.addField(1 + random.nextInt(30),
+                                  randomContent(random, random.nextInt(120)));
+        }
+        return record;
+    }
+
+    /**
+     * Creates a field content with words, subfields and latin characters.
+     * @param random random number generator
+     * @param len content length
+     * @return the field content
+     */
+    public static String randomContent(final Random random,
+                                       final int len) {
+        final StringBuilder builder = new StringBuilder(len + 2);
+
+        while (builder.length() < len) {
+            final int kind = random.nextInt(10);
+
+            if (kind == 0) {
+                builder.append('^').append((char)('a' + random.nextInt(4)));
+            } else if (kind == 1) {
+                builder.append((char)(0xC0 + random.nextInt(60)));
+            } else if (kind == 2) {
+                builder.append(' ');
+            } else {
+                builder.append((char)('a' + random.nextInt(26)));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Creates a field content with a given number of subfields.
+     * @param random random number generator
+     * @param subfields number of subfields
+     * @param len length of each subfield content
+     * @return the field content
+     */
+    public static String subfieldContent(final Random random,
+                                         final int subfields,
+                                         final int len) {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int idx = 0; idx < subfields; idx++) {
+            builder.append('^').append((char)('a' + (idx % 26)));
+            for (int pos = 0; pos < len; pos++) {
+                builder.append((char)('a' + random.nextInt(26)));
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,122 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.bench;
+
+import bruma.BrumaException;
+import bruma.master.Master;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Master.getRecord() reading records in sequential and random mfn order.
+ * Each operation reads one record.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MasterReadBenchmark {
+    private static final int RANDOM_MFNS = 1 << 16;
+
+    @Param({"10000", "100000"})
+    public int records;
+
+    @Param({"false", "true"})
+    public boolean ffi;
+
+    @Param({"false", "true"})
+    public boolean swapped;
+
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    private File dir;
+    private Master master;
+    private int[] mfns;
+    private int nextMfn;
+    private int nextRandom;
+
+    @Setup(Level.Trial)
+    public void setup() throws BrumaException, IOException {
+        final String dbName;
+        final Random random = new Random(Fixtures.SEED);
+
+        dir = Fixtures.createTempDir();
+        dbName = new File(dir, "read").getPath();
+        Fixtures.createMaster(dbName, records, ffi, swapped);
+        master = Fixtures.getFactory(dbName, ffi, swapped)
+                         .setMemoryMapped(mapped)
+                         .open();
+        mfns = new int[RANDOM_MFNS];
+        for (int idx = 0; idx < RANDOM_MFNS; idx++) {
+            mfns[idx] = 1 + random.nextInt(records);
+        }
+        nextMfn = 1;
+        nextRandom = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws BrumaException {
+        if (master != null) {
+            master.close();
+        }
+        Fixtures.deleteTempDir(dir);
+    }
+
+    @Benchmark
+    public void sequential(final Blackhole bh) throws BrumaException {
+        bh.consume(master.getRecord(nextMfn));
+        nextMfn = (nextMfn == records) ? 1 : nextMfn + 1;
+    }
+
+    @Benchmark
+    public void random(final Blackhole bh) throws BrumaException {
+        bh.consume(master.getRecord(mfns[nextRandom]));
+        nextRandom = (nextRandom + 1) & (RANDOM_MFNS - 1);
+    }
+
+    @Benchmark
+    public void sequentialView(final Blackhole bh) throws BrumaException {
+        bh.consume(master.getRecordView(nextMfn).getNvf());
+        nextMfn = (nextMfn == records) ? 1 : nextMfn + 1;
+    }
+}
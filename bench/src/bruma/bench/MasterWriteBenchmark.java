@@ -0,0 +1,153 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.bench;
+
+import bruma.BrumaException;
+import bruma.master.Master;
+import bruma.master.Record;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Master.writeRecord() appending new records and rewriting existing ones
+ * in place. Each operation writes one record. The append master is
+ * recreated at each iteration so it does not grow without limit.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MasterWriteBenchmark {
+    private static final int POOL_SIZE = 1024;
+
+    @Param({"10000"})
+    public int records;
+
+    @Param({"false", "true"})
+    public boolean ffi;
+
+    @Param({"false", "true"})
+    public boolean swapped;
+
+    @Param({"false", "true"})
+    public boolean inMemoryXrf;
+
+    @Param({"false", "true"})
+    public boolean batch;
+
+    private File dir;
+    private String appendName;
+    private Master append;
+    private Master update;
+    private Record[] newRecords;
+    private Record[] oldRecords;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws BrumaException, IOException {
+        final Random random = new Random(Fixtures.SEED);
+        final String updateName;
+
+        dir = Fixtures.createTempDir();
+        appendName = new File(dir, "append").getPath();
+        updateName = new File(dir, "update").getPath();
+        Fixtures.createMaster(updateName, records, ffi, swapped);
+        update = open(updateName);
+        if (batch) {
+            update.beginBatch();
+        }
+        newRecords = new Record[POOL_SIZE];
+        oldRecords = new Record[POOL_SIZE];
+        for (int idx = 0; idx < POOL_SIZE; idx++) {
+            newRecords[idx] = Fixtures.randomRecord(random);
+            // The last record is always rewritten in place, skip it.
+            oldRecords[idx] = update.getRecord(1 + random.nextInt(records - 1));
+        }
+        next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws BrumaException {
+        if (update != null) {
+            update.close();
+        }
+        Fixtures.deleteTempDir(dir);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() throws BrumaException {
+        Fixtures.getFactory(appendName, ffi, swapped).forceCreate().close();
+        append = open(appendName);
+        if (batch) {
+            append.beginBatch();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws BrumaException {
+        append.close();
+    }
+
+    @Benchmark
+    public int append() throws BrumaException {
+        final Record record = newRecords[next];
+
+        next = (next + 1) & (POOL_SIZE - 1);
+        record.setMfn(0);
+
+        return append.writeRecord(record);
+    }
+
+    @Benchmark
+    public int updateInPlace() throws BrumaException {
+        final Record record = oldRecords[next];
+
+        next = (next + 1) & (POOL_SIZE - 1);
+
+        return update.writeRecord(record);
+    }
+
+    private Master open(final String dbName) throws BrumaException {
+        return Fixtures.getFactory(dbName, ffi, swapped)
+                       .setInMemoryXrf(inMemoryXrf)
+                       .open();
+    }
+}
@@ -0,0 +1,132 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.bench;
+
+import bruma.BrumaException;
+import bruma.master.OffHeapMaster;
+import bruma.master.Record;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Record encoding (Record to master bytes) and decoding (master bytes to
+ * Record). The records are kept in an OffHeapMaster, so no file is read or
+ * written: encode rewrites a record in place and decode reads it. Single
+ * byte encodings (ISO-8859-1, IBM850) are converted with the conversion
+ * tables or with the charset coders, as the decoder parameter says
+ * ("table" or "charset"); UTF-8 always uses the charset coders.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordCodecBenchmark {
+    private static final int POOL_SIZE = 256;
+
+    @Param({"ISO-8859-1", "IBM850", "UTF-8"})
+    public String encoding;
+
+    @Param({"table", "charset"})
+    public String decoder;
+
+    @Param({"false", "true"})
+    public boolean ffi;
+
+    @Param({"false", "true"})
+    public boolean swapped;
+
+    private OffHeapMaster master;
+    private Record[] records;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws BrumaException {
+        final Random random = new Random(Fixtures.SEED);
+
+        // read by the codecs the master creates
+        System.setProperty("bruma.codec.tables",
+                                     Boolean.toString("table".equals(decoder)));
+        master = Fixtures.getFactory("codec", ffi, swapped)
+                         .setEncoding(encoding)
+                         .createOffHeap();
+        records = new Record[POOL_SIZE];
+        for (int idx = 0; idx < POOL_SIZE; idx++) {
+            final Record record = Fixtures.randomRecord(random);
+
+            record.setMfn(idx + 1);
+            master.writeRecord(record);
+            records[idx] = record;
+        }
+        next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws BrumaException {
+        if (master != null) {
+            master.close();
+        }
+    }
+
+    @Benchmark
+    public int encode() throws BrumaException {
+        final Record record = records[next];
+
+        next = (next + 1) & (POOL_SIZE - 1);
+
+        return master.writeRecord(record);
+    }
+
+    @Benchmark
+    public Record decode() throws BrumaException {
+        final int mfn = next + 1;
+
+        next = (next + 1) & (POOL_SIZE - 1);
+
+        return master.getRecord(mfn);
+    }
+
+    @Benchmark
+    public int recordLength() throws BrumaException {
+        final Record record = records[next];
+
+        next = (next + 1) & (POOL_SIZE - 1);
+
+        return record.getRecordLength(encoding, ffi);
+    }
+}
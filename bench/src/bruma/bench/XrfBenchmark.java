@@ -0,0 +1,143 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.bench;
+
+import bruma.BrumaException;
+import bruma.master.Master;
+import bruma.master.MasterFactory;
+import bruma.master.XrfFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Xrf pointer lookups with each XrfFile implementation: XrfFile (file),
+ * BufferedXrfFile (buffered), MappedXrfFile (mapped) and MemoryXrfFile
+ * (memory). The implementation is chosen with the master factory options
+ * and the lookups use the xrf object of the opened master.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XrfBenchmark {
+    private static final int RANDOM_MFNS = 1 << 16;
+
+    @Param({"100000", "1000000"})
+    public int records;
+
+    @Param({"false", "true"})
+    public boolean swapped;
+
+    @Param({"file", "buffered", "mapped", "memory"})
+    public String xrfType;
+
+    private File dir;
+    private Master master;
+    private XrfFile xrf;
+    private int[] mfns;
+    private int nextMfn;
+    private int nextRandom;
+
+    @Setup(Level.Trial)
+    public void setup() throws BrumaException, IOException {
+        final Random random = new Random(Fixtures.SEED);
+        final MasterFactory factory;
+        final String dbName;
+
+        dir = Fixtures.createTempDir();
+        dbName = new File(dir, "xrf").getPath();
+        Fixtures.createMaster(dbName, records, false, swapped);
+
+        factory = Fixtures.getFactory(dbName, false, swapped);
+        if (xrfType.equals("file")) {
+            factory.setInMemoryXrf(false);
+        } else if (xrfType.equals("buffered")) {
+            factory.setInMemoryXrf(true);
+        } else if (xrfType.equals("mapped")) {
+            factory.setMemoryMapped(true);
+        } else if (xrfType.equals("memory")) {
+            factory.setXrfPreload(true);
+        } else {
+            throw new BrumaException("setup/unknown xrf type: " + xrfType);
+        }
+        master = factory.open();
+        xrf = master.getXrf();
+        mfns = new int[RANDOM_MFNS];
+        for (int idx = 0; idx < RANDOM_MFNS; idx++) {
+            mfns[idx] = 1 + random.nextInt(records);
+        }
+        nextMfn = 1;
+        nextRandom = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws BrumaException {
+        if (master != null) {
+            master.close();
+        }
+        Fixtures.deleteTempDir(dir);
+    }
+
+    @Benchmark
+    public XrfFile.XrfInfo sequential() throws BrumaException {
+        final XrfFile.XrfInfo info = xrf.readXrfInfo(nextMfn);
+
+        nextMfn = (nextMfn == records) ? 1 : nextMfn + 1;
+        return info;
+    }
+
+    @Benchmark
+    public XrfFile.XrfInfo random() throws BrumaException {
+        final XrfFile.XrfInfo info = xrf.readXrfInfo(mfns[nextRandom]);
+
+        nextRandom = (nextRandom + 1) & (RANDOM_MFNS - 1);
+        return info;
+    }
+
+    @Benchmark
+    public XrfFile.XrfInfo randomConcurrent() throws BrumaException {
+        final XrfFile.XrfInfo info =
+                                xrf.readXrfInfoConcurrent(mfns[nextRandom]);
+
+        nextRandom = (nextRandom + 1) & (RANDOM_MFNS - 1);
+        return info;
+    }
+}
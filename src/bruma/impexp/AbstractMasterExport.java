@@ -88,9 +88,7 @@ public abstract class AbstractMasterExport {
         Writer writer = null;
         Master master = null;
         Control ctl;
-        Record rec;
-        
-        String buff;
+        Record rec = null;
         int cur = 0;
 
 
@@ -118,12 +116,9 @@ public abstract class AbstractMasterExport {
                 if (++cur % xtell == 0) {
                     System.out.println("++" + cur);
                 }
-                rec = master.getRecord(mfn);
+                rec = master.getRecord(mfn, rec);  // reuses the record
                 if ((rec != null) && (rec.getStatus() == Record.Status.ACTIVE)){
-                    buff = getRecord(rec);
-                    if ((buff != null) && (!buff.isEmpty())) {
-                        writer.write(buff);
-                    }
+                    writeRecord(rec, writer);
                 }
             }
             writer.write(epilogue());
@@ -151,4 +146,23 @@ public abstract class AbstractMasterExport {
     }
 
     protected abstract String getRecord(final Record rec) throws BrumaException;
+
+    /**
+     * Writes a record into the output file. The default implementation writes
+     * the getRecord() string; exporters that can write the record straight
+     * into the output override it to avoid building that string.
+     * @param rec the exported record
+     * @param writer the output file writer
+     * @throws BrumaException
+     * @throws IOException
+     */
+    protected void writeRecord(final Record rec,
+                               final Writer writer) throws BrumaException,
+                                                           IOException {
+        final String buff = getRecord(rec);
+
+        if ((buff != null) && (!buff.isEmpty())) {
+            writer.write(buff);
+        }
+    }
 }
\ No newline at end of file
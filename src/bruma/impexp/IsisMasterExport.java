@@ -25,6 +25,7 @@ import bruma.BrumaException;
 import bruma.master.Master;
 import bruma.master.MasterFactory;
 import bruma.master.Record;
+import java.util.Iterator;
 
 /**
  * Exports the master file to another Isis master file.
@@ -92,10 +93,13 @@ public class IsisMasterExport extends AbstractMasterExport {
                              .setMaxGigaSize(toMaxGigaSize)
                              .setSwapped(isToSwapped)
                              .create();
+        final Iterator<Record> iter = fromMst.iterator(true);
         int mfn = 0;
         int cur = 0;
 
-        for (Record rec : fromMst) {
+        while (iter.hasNext()) {
+            final Record rec = iter.next();
+
             if (++cur % xtell == 0) {
                 System.out.println("++" + cur);
             }
@@ -24,6 +24,8 @@ package bruma.impexp;
 import bruma.BrumaException;
 import bruma.master.Master;
 import bruma.master.Record;
+import java.io.IOException;
+import java.io.Writer;
 
 /**
  * Exports the master file using the JSON format.
@@ -68,4 +70,18 @@ public class JSONMasterExport extends AbstractMasterExport {
         
         return ret;
     }
+
+    @Override
+    protected void writeRecord(final Record rec,
+                               final Writer writer) throws BrumaException,
+                                                           IOException {
+        assert rec != null;
+
+        if (first) {
+            first = false;
+        } else {
+            writer.write(",\n");
+        }
+        rec.writeJSON3(writer, idTag, null);
+    }
 }
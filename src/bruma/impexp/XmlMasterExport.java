@@ -24,6 +24,8 @@ package bruma.impexp;
 import bruma.BrumaException;
 import bruma.master.Master;
 import bruma.master.Record;
+import java.io.IOException;
+import java.io.Writer;
 
 /**
  * Exports the master file using the XML format.
@@ -58,4 +60,14 @@ public class XmlMasterExport extends AbstractMasterExport {
 
         return rec.toXML() + "\n";
     }
+
+    @Override
+    protected void writeRecord(final Record rec,
+                               final Writer writer) throws BrumaException,
+                                                           IOException {
+        assert rec != null;
+
+        rec.writeXML(writer);
+        writer.write('\n');
+    }
 }
@@ -4,7 +4,8 @@ import bruma.BrumaException;
 import bruma.master.Record;
 
 /**
- *
+ * Gets the text of a record to be indexed. MasterIndexer calls the
+ * extractors from many threads, so implementations should be thread safe.
  * @author Heitor Barbieri
  * @date 08/07/2011
  */
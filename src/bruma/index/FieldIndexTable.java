@@ -9,6 +9,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.analysis.SimpleAnalyzer;
+import org.apache.lucene.analysis.StopAnalyzer;
+import org.apache.lucene.analysis.WhitespaceAnalyzer;
+import org.apache.lucene.analysis.standard.ClassicAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.util.Version;
 
 /**
  *
@@ -16,6 +23,9 @@ import org.apache.lucene.analysis.Analyzer;
  * @date 08/07/2011
  */
 public class FieldIndexTable {
+    /** Lucene version used by the analyzers. */
+    public static final Version VERSION = Version.LUCENE_33;
+
     class FieldIndexElement {
         String fieldName;
         Analyzer techName;
@@ -53,6 +63,7 @@ public class FieldIndexTable {
         
         final List<FieldIndexElement> ret = new ArrayList<FieldIndexElement>();
         final Map<String,Extractor> map = new HashMap<String,Extractor>();
+        final Map<String,Analyzer> analyzers = new HashMap<String,Analyzer>();
         final BufferedReader reader = new BufferedReader(
                                                        new FileReader(fitFile));
         
@@ -75,7 +86,12 @@ public class FieldIndexTable {
                 map.put(split[2], extr);
             }
                                
-            ret.add(new FieldIndexElement(split[0],parseTech(split[1]), extr));                              
+            Analyzer analyzer = analyzers.get(split[1]);
+            if (analyzer == null) {
+                analyzer = parseTech(split[1]);
+                analyzers.put(split[1], analyzer);
+            }
+            ret.add(new FieldIndexElement(split[0], analyzer, extr));
         }
         
         reader.close();
@@ -83,13 +99,45 @@ public class FieldIndexTable {
         return ret;
     }
     
-    private Analyzer parseTech(final String techName) {
+    /**
+     * Converts an analyzer name into a Lucene analyzer. The accepted names
+     * are standard, classic, simple, whitespace, stop and keyword, or the
+     * name of an Analyzer class with a (Version) or a default constructor.
+     */
+    private Analyzer parseTech(final String techName) throws Exception {
         assert techName != null;
-        
-        final Analyzer analyzer = null;
-        
-        
-        
+
+        final String name = techName.toLowerCase();
+        final Analyzer analyzer;
+
+        if (name.equals("standard")) {
+            analyzer = new StandardAnalyzer(VERSION);
+        } else if (name.equals("classic")) {
+            analyzer = new ClassicAnalyzer(VERSION);
+        } else if (name.equals("simple")) {
+            analyzer = new SimpleAnalyzer(VERSION);
+        } else if (name.equals("whitespace")) {
+            analyzer = new WhitespaceAnalyzer(VERSION);
+        } else if (name.equals("stop")) {
+            analyzer = new StopAnalyzer(VERSION);
+        } else if (name.equals("keyword")) {
+            analyzer = new KeywordAnalyzer();
+        } else {
+            final Class<?> clazz = Class.forName(techName);
+
+            if (!Analyzer.class.isAssignableFrom(clazz)) {
+                throw new IOException("invalid analyzer:" + techName);
+            }
+            Analyzer aux;
+            try {
+                aux = (Analyzer)clazz.getConstructor(Version.class)
+                                                        .newInstance(VERSION);
+            } catch (NoSuchMethodException nsme) {
+                aux = (Analyzer)clazz.newInstance();
+            }
+            analyzer = aux;
+        }
+
         return analyzer;
     }
 }
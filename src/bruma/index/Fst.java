@@ -0,0 +1,509 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.index;
+
+import bruma.BrumaException;
+import bruma.master.Field;
+import bruma.master.Record;
+import bruma.master.Subfield;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A CDS/ISIS field select table (FST). Each table line has the pattern
+ * "ID IT FORMAT" where ID is the posting tag, IT the indexing technique and
+ * FORMAT a subset of the ISIS formatting language:
+ * <ul>
+ * <li>vTAG and vTAG^s field/subfield selectors;</li>
+ * <li>repeatable groups (...) whose elements are evaluated once for each
+ *     field occurrence;</li>
+ * <li>the line break commands / and #;</li>
+ * <li>the mode commands mpl, mpu, mhl, mhu, mdl, mdu (ignored: keys are
+ *     always converted to upper case).</li>
+ * </ul>
+ * A selector outside a group writes each field occurrence on its own line.
+ * The supported techniques are: 0 (each line), 1 (each subfield),
+ * 2 (terms between &lt;&gt;), 3 (terms between //) and 4 (each word).
+ * The posting occ is the format output line number and the posting cnt is
+ * the key sequential number inside the line.
+ *
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class Fst {
+    /** Receives the keys extracted from a record. */
+    interface Collector {
+        void collect(final String key,
+                     final int tag,
+                     final int occ,
+                     final int cnt) throws BrumaException;
+    }
+
+    /** Format elements. */
+    private static class Element {
+    }
+
+    private static class Selector extends Element {
+        final int tag;
+        final char subId;     // 0 for the whole field
+
+        Selector(final int tag,
+                 final char subId) {
+            this.tag = tag;
+            this.subId = subId;
+        }
+
+        List<String> occurrences(final Record rec) throws BrumaException {
+            final List<Field> fields = rec.getFieldList(tag);
+            final List<String> ret = new ArrayList<String>(fields.size());
+
+            for (Field fld : fields) {
+                if (subId == 0) {
+                    ret.add(fld.getContent());
+                } else {
+                    List<Subfield> subs = fld.getTagSubfields(subId);
+                    if (subs.isEmpty()) {
+                        subs = fld.getTagSubfields(otherCase(subId));
+                    }
+                    ret.add(subs.isEmpty() ? "" : subs.get(0).getContent());
+                }
+            }
+            return ret;
+        }
+    }
+
+    private static class NewLine extends Element {
+    }
+
+    private static class Group extends Element {
+        final List<Element> elements = new ArrayList<Element>();
+    }
+
+    private static class Line {
+        final int id;
+        final int technique;
+        final List<Element> format;
+
+        Line(final int id,
+             final int technique,
+             final List<Element> format) {
+            this.id = id;
+            this.technique = technique;
+            this.format = format;
+        }
+    }
+
+    private static final NewLine NEW_LINE = new NewLine();
+
+    private final List<Line> lines;
+
+    /**
+     * Reads a field select table file.
+     * @param fstFile the fst file path
+     * @param encoding the file character encoding
+     * @throws BrumaException
+     */
+    public Fst(final String fstFile,
+               final String encoding) throws BrumaException {
+        if (fstFile == null) {
+            throw new BrumaException("Fst/null fst file");
+        }
+        if (encoding == null) {
+            throw new BrumaException("Fst/null encoding");
+        }
+        final List<String> text = new ArrayList<String>();
+
+        try {
+            final BufferedReader reader = new BufferedReader(
+                                 new InputStreamReader(
+                                 new FileInputStream(fstFile), encoding));
+            try {
+                while (true) {
+                    final String line = reader.readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    text.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+        lines = parse(text);
+    }
+
+    /**
+     * Creates a field select table from its lines.
+     * @param fstLines the table lines
+     * @throws BrumaException
+     */
+    public Fst(final List<String> fstLines) throws BrumaException {
+        if (fstLines == null) {
+            throw new BrumaException("Fst/null lines");
+        }
+        lines = parse(fstLines);
+    }
+
+    private static List<Line> parse(final List<String> text)
+                                                        throws BrumaException {
+        final List<Line> ret = new ArrayList<Line>();
+        int lineNum = 0;
+
+        for (String str : text) {
+            final String line = str.trim();
+
+            lineNum++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            final String[] split = line.split("\\s+", 3);
+            if (split.length != 3) {
+                throw new BrumaException("parse/invalid line format [" + lineNum
+                                                                       + "]");
+            }
+            final int id;
+            final int technique;
+            try {
+                id = Integer.parseInt(split[0]);
+                technique = Integer.parseInt(split[1]);
+            } catch (NumberFormatException nfe) {
+                throw new BrumaException("parse/invalid line [" + lineNum
+                                                                       + "]");
+            }
+            if ((id < 1) || (id > 0xffff)) {
+                throw new BrumaException("parse/invalid id [" + id + "]");
+            }
+            if ((technique < 0) || (technique > 4)) {
+                throw new BrumaException("parse/unsupported technique ["
+                                                          + technique + "]");
+            }
+            final int[] pos = new int[1];
+            final List<Element> format = new ArrayList<Element>();
+
+            parseFormat(split[2], pos, format, false);
+            ret.add(new Line(id, technique, format));
+        }
+        return ret;
+    }
+
+    private static void parseFormat(final String format,
+                                    final int[] pos,
+                                    final List<Element> out,
+                                    final boolean inGroup)
+                                                        throws BrumaException {
+        final int len = format.length();
+
+        while (pos[0] < len) {
+            final char ch = format.charAt(pos[0]);
+
+            if ((ch == ',') || Character.isWhitespace(ch)) {
+                pos[0]++;
+            } else if ((ch == '/') || (ch == '#')) {
+                out.add(NEW_LINE);
+                pos[0]++;
+            } else if ((ch == 'v') || (ch == 'V')) {
+                int end = ++pos[0];
+                while ((end < len) && Character.isDigit(format.charAt(end))) {
+                    end++;
+                }
+                if (end == pos[0]) {
+                    throw new BrumaException("parseFormat/missing tag [" +
+                                                               format + "]");
+                }
+                final int tag = Integer.parseInt(format.substring(pos[0], end));
+                char subId = 0;
+                if ((end + 1 < len) && (format.charAt(end) == '^')) {
+                    subId = format.charAt(end + 1);
+                    end += 2;
+                }
+                if (tag <= 0) {
+                    throw new BrumaException("parseFormat/invalid tag [" + tag
+                                                                       + "]");
+                }
+                out.add(new Selector(tag, subId));
+                pos[0] = end;
+            } else if (ch == '(') {
+                if (inGroup) {
+                    throw new BrumaException("parseFormat/nested group [" +
+                                                               format + "]");
+                }
+                final Group group = new Group();
+                pos[0]++;
+                parseFormat(format, pos, group.elements, true);
+                out.add(group);
+            } else if (ch == ')') {
+                if (!inGroup) {
+                    throw new BrumaException("parseFormat/unbalanced ) [" +
+                                                               format + "]");
+                }
+                pos[0]++;
+                return;
+            } else if ((pos[0] + 3 <= len) && format.substring(pos[0],
+                            pos[0] + 3).toLowerCase().matches("m[pdh][lu]")) {
+                pos[0] += 3;
+            } else {
+                throw new BrumaException("parseFormat/unsupported command ["
+                                           + format.substring(pos[0]) + "]");
+            }
+        }
+        if (inGroup) {
+            throw new BrumaException("parseFormat/unbalanced ( [" + format
+                                                                       + "]");
+        }
+    }
+
+    /**
+     * Extracts the keys of a record.
+     * @param rec the record
+     * @param collector receives the keys
+     * @throws BrumaException
+     */
+    void extract(final Record rec,
+                 final Collector collector) throws BrumaException {
+        final List<String> out = new ArrayList<String>();
+
+        for (Line line : lines) {
+            int occ = 0;
+
+            out.clear();
+            format(rec, line.format, out);
+            for (String str : out) {
+                occ++;
+                extract(str, line.id, line.technique,
+                                      Math.min(occ, 0xff), collector);
+            }
+        }
+    }
+
+    /**
+     * Extracts the keys of a record.
+     * @param rec the record
+     * @return the keys of the record, in table order
+     * @throws BrumaException
+     */
+    public List<String> getKeys(final Record rec) throws BrumaException {
+        final List<String> keys = new ArrayList<String>();
+
+        extract(rec, new Collector() {
+            @Override
+            public void collect(final String key,
+                                final int tag,
+                                final int occ,
+                                final int cnt) {
+                keys.add(key);
+            }
+        });
+
+        return keys;
+    }
+
+    private static void format(final Record rec,
+                               final List<Element> format,
+                               final List<String> out) throws BrumaException {
+        final StringBuilder builder = new StringBuilder();
+
+        for (Element elem : format) {
+            if (elem == NEW_LINE) {
+                endLine(builder, out);
+            } else if (elem instanceof Selector) {
+                for (String content : ((Selector)elem).occurrences(rec)) {
+                    append(builder, content);
+                    endLine(builder, out);
+                }
+            } else {
+                final List<List<String>> occs = new ArrayList<List<String>>();
+                final List<Element> elements = ((Group)elem).elements;
+                int max = 0;
+
+                for (Element gelem : elements) {
+                    final List<String> list = (gelem instanceof Selector)
+                                     ? ((Selector)gelem).occurrences(rec)
+                                     : Collections.<String>emptyList();
+                    occs.add(list);
+                    max = Math.max(max, list.size());
+                }
+                for (int idx = 0; idx < max; idx++) {
+                    for (int pos = 0; pos < elements.size(); pos++) {
+                        if (elements.get(pos) == NEW_LINE) {
+                            endLine(builder, out);
+                        } else if (idx < occs.get(pos).size()) {
+                            append(builder, occs.get(pos).get(idx));
+                        }
+                    }
+                }
+            }
+        }
+        endLine(builder, out);
+    }
+
+    private static void append(final StringBuilder builder,
+                               final String content) {
+        if (!content.isEmpty()) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(content);
+        }
+    }
+
+    private static void endLine(final StringBuilder builder,
+                                final List<String> out) {
+        if (builder.length() > 0) {
+            out.add(builder.toString());
+            builder.setLength(0);
+        }
+    }
+
+    private static void extract(final String line,
+                                final int tag,
+                                final int technique,
+                                final int occ,
+                                final Collector collector)
+                                                        throws BrumaException {
+        switch (technique) {
+            case 0:
+                emit(removeDelimiters(line), tag, occ, 0, collector);
+                break;
+            case 1:
+                subfields(line, tag, occ, collector);
+                break;
+            case 2:
+                enclosed(removeDelimiters(line), '<', '>', tag, occ,
+                                                              collector);
+                break;
+            case 3:
+                enclosed(removeDelimiters(line), '/', '/', tag, occ,
+                                                              collector);
+                break;
+            default:
+                words(removeDelimiters(line), tag, occ, collector);
+        }
+    }
+
+    private static void subfields(final String line,
+                                  final int tag,
+                                  final int occ,
+                                  final Collector collector)
+                                                        throws BrumaException {
+        int cnt = 0;
+
+        for (String sub : line.split("\\^.?")) {
+            cnt = emit(sub, tag, occ, cnt, collector);
+        }
+    }
+
+    private static void words(final String line,
+                              final int tag,
+                              final int occ,
+                              final Collector collector)
+                                                        throws BrumaException {
+        final int len = line.length();
+        int cnt = 0;
+        int start = -1;
+
+        for (int pos = 0; pos <= len; pos++) {
+            if ((pos < len) && Character.isLetterOrDigit(line.charAt(pos))) {
+                if (start == -1) {
+                    start = pos;
+                }
+            } else if (start != -1) {
+                cnt = emit(line.substring(start, pos), tag, occ, cnt,
+                                                                   collector);
+                start = -1;
+            }
+        }
+    }
+
+    private static void enclosed(final String line,
+                                 final char open,
+                                 final char close,
+                                 final int tag,
+                                 final int occ,
+                                 final Collector collector)
+                                                        throws BrumaException {
+        int cnt = 0;
+        int pos = 0;
+
+        while (true) {
+            final int start = line.indexOf(open, pos);
+            if (start == -1) {
+                break;
+            }
+            final int end = line.indexOf(close, start + 1);
+            if (end == -1) {
+                break;
+            }
+            cnt = emit(line.substring(start + 1, end), tag, occ, cnt,
+                                                                   collector);
+            pos = end + 1;
+        }
+    }
+
+    /** Sends an upper case key, returning the updated key counter. */
+    private static int emit(final String key,
+                            final int tag,
+                            final int occ,
+                            final int cnt,
+                            final Collector collector) throws BrumaException {
+        final String ukey = toUpperCase(key).trim();
+
+        if (ukey.isEmpty()) {
+            return cnt;
+        }
+        final int ncnt = Math.min(cnt + 1, 0xffff);
+        collector.collect(ukey, tag, occ, ncnt);
+
+        return ncnt;
+    }
+
+    /** Converts each char keeping the string length. */
+    private static String toUpperCase(final String str) {
+        final int len = str.length();
+        final char[] chars = new char[len];
+
+        for (int pos = 0; pos < len; pos++) {
+            final char ch = str.charAt(pos);
+            final char uch = Character.toUpperCase(ch);
+            chars[pos] = ((ch <= 0xff) && (uch > 0xff)) ? ch
+                                          : (Character.isISOControl(uch) ? ' '
+                                                                       : uch);
+        }
+        return new String(chars);
+    }
+
+    private static String removeDelimiters(final String line) {
+        return (line.indexOf('^') == -1) ? line
+                                         : line.replaceAll("\\^.?", " ");
+    }
+
+    private static char otherCase(final char ch) {
+        return Character.isUpperCase(ch) ? Character.toLowerCase(ch)
+                                         : Character.toUpperCase(ch);
+    }
+}
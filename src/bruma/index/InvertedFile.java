@@ -0,0 +1,700 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.index;
+
+import bruma.BrumaException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a CDS/ISIS inverted file (CISIS standard format, without LIND):
+ * the .cnt control file, the .n01/.n02 B-tree nodes, the .l01/.l02 leaves
+ * and the .ifp postings file. Keys with up to 10 bytes are stored in the
+ * first tree and keys with up to 30 bytes in the second one.
+ * Keys are compared byte by byte as stored by the indexer (usually in upper
+ * case), so the caller should convert them in the same way.
+ * This class is not thread safe.
+ *
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class InvertedFile {
+    static final int LE1 = 10;             // short keys length (.n01/.l01)
+    static final int LE2 = 30;             // long keys length (.n02/.l02)
+    static final int TWORDN = 10;          // entries in a node
+    static final int TWORDF = 10;          // entries in a leaf
+    static final int CNT_SIZE = 26;        // size of each .cnt record
+    static final int IFP_BLOCKSIZE = 512;
+    static final int IFP_WORDS = IFP_BLOCKSIZE / 4; // word 0 is block number
+    static final int POSTING_SIZE = 8;
+    static final byte BLANK = (byte)' ';
+    private static final int MAX_LEVELS = 64;
+
+    /** One of the two B-trees of the inverted file. */
+    private class Tree {
+        final int keyLen;
+        final int nodeSize;
+        final int leafSize;
+        final int levels;     // LIV: number of node levels - 1
+        final int root;       // POSRX: root node (or leaf if levels < 0)
+        final int lastLeaf;   // FMAXPOS
+        final FileChannel nodes;
+        final FileChannel leaves;
+        final ByteBuffer node;
+
+        Tree(final String indexName,
+             final int idtype,
+             final ByteBuffer cnt) throws IOException, BrumaException {
+            if (cnt.getShort(0) != idtype) {
+                throw new BrumaException("Tree/invalid idtype ["
+                                                   + cnt.getShort(0) + "]");
+            }
+            keyLen = (idtype == 1) ? LE1 : LE2;
+            nodeSize = nodeSize(keyLen);
+            leafSize = leafSize(keyLen);
+            levels = cnt.getShort(10);
+            root = cnt.getInt(12);
+            lastLeaf = cnt.getInt(20);
+            nodes = open(indexName + ".n0" + idtype);
+            leaves = open(indexName + ".l0" + idtype);
+            node = ByteBuffer.allocate(nodeSize).order(order);
+        }
+
+        /**
+         * Walks the nodes down to the leaf where the key should be.
+         * @param key key padded with blanks to keyLen
+         * @return the leaf number or 0 if the tree is empty
+         */
+        int findLeaf(final byte[] key) throws IOException, BrumaException {
+            int punt = root;
+
+            if (levels >= MAX_LEVELS) {
+                throw new BrumaException("findLeaf/invalid level [" + levels
+                                                                       + "]");
+            }
+            for (int lev = 0; lev <= levels; lev++) {
+                read(nodes, node, Math.abs(punt), nodeSize);
+                final int ock = node.getShort(4);
+                int idx = 0;
+
+                if ((ock < 1) || (ock > TWORDN)) {
+                    throw new BrumaException("findLeaf/invalid node ock ["
+                                                                 + ock + "]");
+                }
+                while ((idx + 1 < ock) &&
+                           (compare(key, node, 8 + (idx + 1) * (keyLen + 4),
+                                                               keyLen) >= 0)) {
+                    idx++;
+                }
+                punt = node.getInt(8 + idx * (keyLen + 4) + keyLen);
+            }
+            punt = Math.abs(punt);
+
+            return (punt > lastLeaf) ? 0 : punt;
+        }
+    }
+
+    /**
+     * Iterates over the leaf entries of a tree, in key order, starting at
+     * the first key greater or equal to the searched one.
+     */
+    private class Cursor {
+        final Tree tree;
+        final ByteBuffer leaf;
+        int ock;
+        int idx;
+
+        Cursor(final Tree tree,
+               final byte[] key) throws IOException, BrumaException {
+            this.tree = tree;
+            leaf = ByteBuffer.allocate(tree.leafSize).order(order);
+            ock = 0;
+            idx = 0;
+
+            final int first = tree.findLeaf(key);
+            if (first > 0) {
+                load(first);
+                while (valid() && (compare(key, leaf, offset(),
+                                                        tree.keyLen) > 0)) {
+                    next();
+                }
+            }
+        }
+
+        private void load(final int leafNum) throws IOException,
+                                                              BrumaException {
+            read(tree.leaves, leaf, leafNum, tree.leafSize);
+            ock = leaf.getShort(4);
+            idx = 0;
+            if ((ock < 0) || (ock > TWORDF)) {
+                throw new BrumaException("load/invalid leaf ock [" + ock
+                                                                       + "]");
+            }
+        }
+
+        private int offset() {
+            return 12 + idx * (tree.keyLen + 8);
+        }
+
+        boolean valid() {
+            return idx < ock;
+        }
+
+        void next() throws IOException, BrumaException {
+            idx++;
+            while (idx >= ock) {
+                final int ps = leaf.getInt(8);
+                if ((ps <= 0) || (ps > tree.lastLeaf)) {
+                    ock = 0;
+                    idx = 0;
+                    break;
+                }
+                load(ps);
+            }
+        }
+
+        /** Tells if the current key starts with prefix (no padding). */
+        boolean startsWith(final byte[] prefix) {
+            final byte[] key = key();
+
+            if (key.length < prefix.length) {
+                return false;
+            }
+            for (int pos = 0; pos < prefix.length; pos++) {
+                if (key[pos] != prefix[pos]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean matches(final byte[] key) {
+            return compare(key, leaf, offset(), tree.keyLen) == 0;
+        }
+
+        /** @return the current key without the blank padding */
+        byte[] key() {
+            final int off = offset();
+            int len = tree.keyLen;
+
+            while ((len > 0) && (leaf.get(off + len - 1) == BLANK)) {
+                len--;
+            }
+            final byte[] bkey = new byte[len];
+            for (int pos = 0; pos < len; pos++) {
+                bkey[pos] = leaf.get(off + pos);
+            }
+            return bkey;
+        }
+
+        int ifpBlock() {
+            return leaf.getInt(offset() + tree.keyLen);
+        }
+
+        int ifpOffset() {
+            return leaf.getInt(offset() + tree.keyLen + 4);
+        }
+    }
+
+    private final String encoding;
+    private final Tree tree1;
+    private final Tree tree2;
+    private final FileChannel ifp;
+    private final ByteBuffer block;
+    private final byte[] postBuf;
+    private ByteOrder order;
+    private int curBlock;
+    private int curWord;
+
+    /**
+     * Opens an inverted file with ISO-8859-1 keys.
+     * @param indexName index name (path without extension)
+     * @throws BrumaException
+     */
+    public InvertedFile(final String indexName) throws BrumaException {
+        this(indexName, "ISO-8859-1");
+    }
+
+    /**
+     * Opens an inverted file.
+     * @param indexName index name (path without extension)
+     * @param encoding the keys character encoding
+     * @throws BrumaException
+     */
+    public InvertedFile(final String indexName,
+                        final String encoding) throws BrumaException {
+        if (indexName == null) {
+            throw new BrumaException("InvertedFile/null index name");
+        }
+        if (encoding == null) {
+            throw new BrumaException("InvertedFile/null encoding");
+        }
+        this.encoding = encoding;
+        try {
+            final ByteBuffer cnt = readCnt(indexName + ".cnt");
+
+            cnt.position(0).limit(CNT_SIZE);
+            tree1 = new Tree(indexName, 1, cnt.slice().order(order));
+            cnt.clear().position(CNT_SIZE);
+            tree2 = new Tree(indexName, 2, cnt.slice().order(order));
+            ifp = open(indexName + ".ifp");
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+        block = ByteBuffer.allocate(IFP_BLOCKSIZE).order(order);
+        postBuf = new byte[POSTING_SIZE];
+        curBlock = 0;
+        curWord = 0;
+    }
+
+    static int nodeSize(final int keyLen) {
+        return 8 + TWORDN * (keyLen + 4);
+    }
+
+    static int leafSize(final int keyLen) {
+        return 12 + TWORDF * (keyLen + 8);
+    }
+
+    /**
+     * Reads the two control records and guesses the byte order of the
+     * index files from the first IDTYPE, which should be 1.
+     */
+    private ByteBuffer readCnt(final String cntName) throws IOException,
+                                                              BrumaException {
+        final FileChannel fc = open(cntName);
+        final ByteBuffer cnt = ByteBuffer.allocate(2 * CNT_SIZE);
+
+        try {
+            if (fc.read(cnt, 0) != 2 * CNT_SIZE) {
+                throw new BrumaException("readCnt/invalid file size");
+            }
+        } finally {
+            fc.close();
+        }
+        if (cnt.order(ByteOrder.LITTLE_ENDIAN).getShort(0) == 1) {
+            order = ByteOrder.LITTLE_ENDIAN;
+        } else if (cnt.order(ByteOrder.BIG_ENDIAN).getShort(0) == 1) {
+            order = ByteOrder.BIG_ENDIAN;
+        } else {
+            throw new BrumaException("readCnt/invalid idtype");
+        }
+        cnt.order(order);
+
+        return cnt;
+    }
+
+    private static FileChannel open(final String fname) throws IOException {
+        if (!new File(fname).isFile()) {
+            throw new IOException("file not found: " + fname);
+        }
+        return new RandomAccessFile(fname, "r").getChannel();
+    }
+
+    /** Reads the record number num (1..) of a node or leaf file. */
+    private static void read(final FileChannel fc,
+                             final ByteBuffer bb,
+                             final int num,
+                             final int size) throws IOException,
+                                                              BrumaException {
+        if (num < 1) {
+            throw new BrumaException("read/invalid record [" + num + "]");
+        }
+        final long pos = (long)(num - 1) * size;
+
+        bb.clear();
+        if (fc.read(bb, pos) != size) {
+            throw new BrumaException("read/record [" + num + "] not found");
+        }
+        if (bb.getInt(0) != num) {
+            throw new BrumaException("read/invalid record position ["
+                                            + bb.getInt(0) + "!=" + num + "]");
+        }
+    }
+
+    private static int compare(final byte[] key1,
+                               final byte[] key2) {
+        final int len = Math.min(key1.length, key2.length);
+
+        for (int pos = 0; pos < len; pos++) {
+            final int diff = (key1[pos] & 0xff) - (key2[pos] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return key1.length - key2.length;
+    }
+
+    /** Compares key with the stored key (both padded with blanks). */
+    private static int compare(final byte[] key,
+                               final ByteBuffer bb,
+                               final int offset,
+                               final int keyLen) {
+        for (int pos = 0; pos < keyLen; pos++) {
+            final int diff = (key[pos] & 0xff) - (bb.get(offset + pos) & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private byte[] toBytes(final String key) throws BrumaException {
+        if (key == null) {
+            throw new BrumaException("null key");
+        }
+        try {
+            final byte[] bkey = key.getBytes(encoding);
+
+            return (bkey.length > LE2) ? Arrays.copyOf(bkey, LE2) : bkey;
+        } catch (UnsupportedEncodingException uee) {
+            throw new BrumaException(uee);
+        }
+    }
+
+    private static byte[] pad(final byte[] key,
+                              final int keyLen) {
+        final byte[] padded = Arrays.copyOf(key, keyLen);
+
+        Arrays.fill(padded, key.length, keyLen, BLANK);
+
+        return padded;
+    }
+
+    /** Positions a cursor at the key, or returns null if it is absent. */
+    private Cursor seek(final String key) throws BrumaException {
+        final byte[] bkey = toBytes(key);
+        final Tree tree = (bkey.length <= LE1) ? tree1 : tree2;
+        final byte[] padded = pad(bkey, tree.keyLen);
+
+        try {
+            final Cursor cursor = new Cursor(tree, padded);
+
+            return (cursor.valid() && cursor.matches(padded)) ? cursor : null;
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+    }
+
+    /**
+     * @param key the searched key
+     * @return true if the key is in the inverted file
+     * @throws BrumaException
+     */
+    public boolean containsKey(final String key) throws BrumaException {
+        return seek(key) != null;
+    }
+
+    /**
+     * @param key the searched key
+     * @return the number of postings of the key, or 0 if it is absent
+     * @throws BrumaException
+     */
+    public int getTotalPostings(final String key) throws BrumaException {
+        final Cursor cursor = seek(key);
+        int total = 0;
+
+        if (cursor != null) {
+            try {
+                seekIfp(cursor.ifpBlock(), cursor.ifpOffset());
+                nextWord();                         // next segment block
+                nextWord();                         // next segment offset
+                total = nextWord();
+            } catch (IOException ioe) {
+                throw new BrumaException(ioe);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param key the searched key
+     * @return the key postings in mfn/tag/occ/cnt order. Empty if the key
+     * is absent.
+     * @throws BrumaException
+     */
+    public List<Posting> getPostings(final String key) throws BrumaException {
+        final Cursor cursor = seek(key);
+        final List<Posting> ret = new ArrayList<Posting>();
+
+        if (cursor != null) {
+            try {
+                readPostings(cursor.ifpBlock(), cursor.ifpOffset(), ret, null);
+            } catch (IOException ioe) {
+                throw new BrumaException(ioe);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param key the searched key
+     * @return the sorted master file numbers of the records having the key
+     * @throws BrumaException
+     */
+    public int[] getMfns(final String key) throws BrumaException {
+        final Cursor cursor = seek(key);
+        final MfnList mfns = new MfnList();
+
+        if (cursor != null) {
+            try {
+                readPostings(cursor.ifpBlock(), cursor.ifpOffset(), null,
+                                                                        mfns);
+            } catch (IOException ioe) {
+                throw new BrumaException(ioe);
+            }
+        }
+        return mfns.toArray();
+    }
+
+    /**
+     * @param prefix the keys prefix
+     * @param maxKeys maximum number of returned keys
+     * @return the keys starting with prefix, in key order
+     * @throws BrumaException
+     */
+    public List<String> getKeys(final String prefix,
+                                final int maxKeys) throws BrumaException {
+        final byte[] bprefix = toBytes(prefix);
+        final List<Cursor> cursors = prefixCursors(bprefix);
+        final List<String> keys = new ArrayList<String>();
+
+        try {
+            while (keys.size() < maxKeys) {
+                Cursor min = null;
+                byte[] minKey = null;
+
+                for (Cursor cursor : cursors) {  // merges both trees keys
+                    if (cursor.valid() && cursor.startsWith(bprefix)) {
+                        final byte[] key = cursor.key();
+                        if ((minKey == null) || (compare(key, minKey) < 0)) {
+                            min = cursor;
+                            minKey = key;
+                        }
+                    }
+                }
+                if (min == null) {
+                    break;
+                }
+                keys.add(new String(minKey, encoding));
+                min.next();
+            }
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+        return keys;
+    }
+
+    /**
+     * @param prefix the keys prefix
+     * @return the sorted master file numbers of the records having a key
+     * starting with prefix
+     * @throws BrumaException
+     */
+    public int[] getPrefixMfns(final String prefix) throws BrumaException {
+        final byte[] bprefix = toBytes(prefix);
+        final List<Cursor> cursors = prefixCursors(bprefix);
+        final MfnList mfns = new MfnList();
+
+        try {
+            for (Cursor cursor : cursors) {
+                while (cursor.valid() && cursor.startsWith(bprefix)) {
+                    readPostings(cursor.ifpBlock(), cursor.ifpOffset(), null,
+                                                                        mfns);
+                    cursor.next();
+                }
+            }
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+        return mfns.toArray();
+    }
+
+    /**
+     * Short prefixes can match keys of both trees.
+     */
+    private List<Cursor> prefixCursors(final byte[] prefix)
+                                                        throws BrumaException {
+        final List<Cursor> cursors = new ArrayList<Cursor>();
+
+        try {
+            if (prefix.length <= LE1) {
+                cursors.add(new Cursor(tree1, pad(prefix, LE1)));
+            }
+            cursors.add(new Cursor(tree2, pad(prefix, LE2)));
+            for (Cursor cursor : cursors) {
+                // a prefix ending with blanks is equal to a shorter padded key
+                if (cursor.valid() && !cursor.startsWith(prefix)
+                       && cursor.matches(pad(prefix, cursor.tree.keyLen))) {
+                    cursor.next();
+                }
+            }
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+        return cursors;
+    }
+
+    private void seekIfp(final int blk,
+                         final int word) throws IOException, BrumaException {
+        if ((word < 1) || (word >= IFP_WORDS)) {
+            throw new BrumaException("seekIfp/invalid offset [" + word + "]");
+        }
+        loadBlock(blk);
+        curWord = word;
+    }
+
+    private void loadBlock(final int blk) throws IOException,
+                                                              BrumaException {
+        if (blk != curBlock) {
+            if (blk < 1) {
+                throw new BrumaException("loadBlock/invalid block [" + blk
+                                                                       + "]");
+            }
+            curBlock = 0;
+            block.clear();
+            if (ifp.read(block, (long)(blk - 1) * IFP_BLOCKSIZE)
+                                                           != IFP_BLOCKSIZE) {
+                throw new BrumaException("loadBlock/block [" + blk
+                                                             + "] not found");
+            }
+            if (block.getInt(0) != blk) {
+                throw new BrumaException("loadBlock/invalid block number ["
+                                         + block.getInt(0) + "!=" + blk + "]");
+            }
+            curBlock = blk;
+        }
+    }
+
+    /** Moves to the next ifp word, skipping the block numbers. */
+    private int nextOffset() throws IOException, BrumaException {
+        if (curWord >= IFP_WORDS) {
+            loadBlock(curBlock + 1);
+            curWord = 1;
+        }
+        return 4 * curWord++;
+    }
+
+    private int nextWord() throws IOException, BrumaException {
+        return block.getInt(nextOffset());
+    }
+
+    /**
+     * Reads the postings list segments of a key. The postings are stored
+     * as 8 bytes (3 mfn, 2 tag, 1 occ, 2 cnt) in big endian order.
+     */
+    private void readPostings(final int blk,
+                              final int word,
+                              final List<Posting> postings,
+                              final MfnList mfns) throws IOException,
+                                                              BrumaException {
+        int nxtb = blk;
+        int nxtp = word;
+        int total = -1;
+        int read = 0;
+
+        while (nxtb != 0) {
+            seekIfp(nxtb, nxtp);
+            nxtb = nextWord();
+            nxtp = nextWord();
+            final int totp = nextWord();
+            final int segp = nextWord();
+            nextWord();                                 // segment capacity
+            if (total < 0) {
+                total = totp;
+            }
+            for (int cur = 0; (cur < segp) && (read < total); cur++) {
+                for (int pos = 0; pos < POSTING_SIZE; pos += 4) {
+                    final int off = nextOffset();
+                    for (int bt = 0; bt < 4; bt++) {
+                        postBuf[pos + bt] = block.get(off + bt);
+                    }
+                }
+                final int mfn = ((postBuf[0] & 0xff) << 16)
+                              | ((postBuf[1] & 0xff) << 8)
+                              | (postBuf[2] & 0xff);
+                if (postings != null) {
+                    final int tag = ((postBuf[3] & 0xff) << 8)
+                                  | (postBuf[4] & 0xff);
+                    final int cnt = ((postBuf[6] & 0xff) << 8)
+                                  | (postBuf[7] & 0xff);
+                    postings.add(new Posting(mfn, tag, postBuf[5] & 0xff, cnt));
+                }
+                if (mfns != null) {
+                    mfns.add(mfn);
+                }
+                read++;
+            }
+            if (read >= total) {
+                break;
+            }
+        }
+    }
+
+    /** A growing list of mfns. */
+    private static class MfnList {
+        private int[] mfns = new int[16];
+        private int size = 0;
+
+        void add(final int mfn) {
+            if ((size == 0) || (mfns[size - 1] != mfn)) {
+                if (size == mfns.length) {
+                    mfns = Arrays.copyOf(mfns, 2 * size);
+                }
+                mfns[size++] = mfn;
+            }
+        }
+
+        /** @return the sorted mfns without duplicates */
+        int[] toArray() {
+            int last = 0;
+
+            Arrays.sort(mfns, 0, size);
+            for (int pos = 0; pos < size; pos++) {
+                if ((last == 0) || (mfns[pos] != mfns[last - 1])) {
+                    mfns[last++] = mfns[pos];
+                }
+            }
+            return Arrays.copyOf(mfns, last);
+        }
+    }
+
+    /** Closes the inverted file. */
+    public void close() throws BrumaException {
+        try {
+            tree1.nodes.close();
+            tree1.leaves.close();
+            tree2.nodes.close();
+            tree2.leaves.close();
+            ifp.close();
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+    }
+}
@@ -0,0 +1,566 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.index;
+
+import bruma.BrumaException;
+import bruma.master.Master;
+import bruma.master.MasterInterface;
+import bruma.master.Record;
+import bruma.master.RecordVisitor;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Creates a CISIS inverted file from the keys that a field select table
+ * extracts from the master records.
+ * The records are read and their keys extracted by many threads. Each
+ * thread keeps a bounded buffer of (key, posting) entries that is sorted
+ * and written to a temporary run file when full. At the end, the run files
+ * are merged, at most 64 at a time, and the sorted keys are written by
+ * InvertedFileWriter, so the memory and the open files used depend only on
+ * the run size and on the number of threads.
+ *
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class InvertedFileBuilder {
+    public static final int DEFAULT_RUN_SIZE = 200000; // entries per thread
+
+    private static final int MAX_MFN = 0xffffff;   // 3 bytes posting mfn
+    private static final int BUFFER_SIZE = 64 * 1024;
+    static final int MAX_MERGE_RUNS = 64;          // runs merged at a time
+
+    /**
+     * An entry has the key length, the key bytes and the 8 posting bytes
+     * (big endian mfn, tag, occ and cnt). Entries are sorted by the blank
+     * padded key and then by the posting.
+     */
+    private static final Comparator<byte[]> ENTRY_COMPARATOR =
+                                                   new Comparator<byte[]>() {
+        @Override
+        public int compare(final byte[] entry1,
+                           final byte[] entry2) {
+            int ret = compareKeys(entry1, entry2);
+
+            if (ret == 0) {
+                final int off1 = entry1.length - InvertedFile.POSTING_SIZE;
+                final int off2 = entry2.length - InvertedFile.POSTING_SIZE;
+
+                for (int pos = 0; pos < InvertedFile.POSTING_SIZE; pos++) {
+                    ret = (entry1[off1 + pos] & 0xff)
+                                                 - (entry2[off2 + pos] & 0xff);
+                    if (ret != 0) {
+                        break;
+                    }
+                }
+            }
+            return ret;
+        }
+    };
+
+    /** Thread entries buffer. */
+    private static class RunBuffer {
+        final byte[][] entries;
+        int size;
+
+        RunBuffer(final int runSize) {
+            entries = new byte[runSize][];
+            size = 0;
+        }
+    }
+
+    /** Sorted entries of a run file or of a memory buffer. */
+    private static class Run {
+        final DataInputStream in;
+        final RunBuffer buffer;
+        int pos;
+        byte[] current;
+
+        Run(final File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(
+                                     new FileInputStream(file), BUFFER_SIZE));
+            buffer = null;
+            pos = 0;
+        }
+
+        Run(final RunBuffer buffer) {
+            in = null;
+            this.buffer = buffer;
+            pos = 0;
+        }
+
+        /** @return false if there are no more entries */
+        boolean next() throws IOException {
+            if (buffer == null) {
+                try {
+                    final int len = in.readUnsignedByte();
+
+                    current = new byte[1 + len + InvertedFile.POSTING_SIZE];
+                    current[0] = (byte)len;
+                    in.readFully(current, 1, current.length - 1);
+                } catch (EOFException eofe) {
+                    current = null;
+                }
+            } else {
+                current = (pos < buffer.size) ? buffer.entries[pos++] : null;
+            }
+            return current != null;
+        }
+
+        void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    private final String indexName;
+    private final Fst fst;
+    private String encoding;
+    private int threads;
+    private int runSize;
+    private File tempDir;
+    private ByteOrder order;
+
+    private List<RunBuffer> buffers;
+    private List<File> runFiles;
+    private ThreadLocal<RunBuffer> local;
+
+    /**
+     * @param indexName the inverted file name (path without extension)
+     * @param fst the field select table
+     * @throws BrumaException
+     */
+    public InvertedFileBuilder(final String indexName,
+                               final Fst fst) throws BrumaException {
+        if (indexName == null) {
+            throw new BrumaException("InvertedFileBuilder/null index name");
+        }
+        if (fst == null) {
+            throw new BrumaException("InvertedFileBuilder/null fst");
+        }
+        this.indexName = indexName;
+        this.fst = fst;
+        encoding = MasterInterface.DEFAULT_ENCODING;
+        threads = Runtime.getRuntime().availableProcessors();
+        runSize = DEFAULT_RUN_SIZE;
+        tempDir = null;
+        order = ByteOrder.LITTLE_ENDIAN;
+    }
+
+    /**
+     * @param encoding the keys character encoding (default ISO-8859-1)
+     * @return this object
+     * @throws BrumaException
+     */
+    public InvertedFileBuilder setEncoding(final String encoding)
+                                                        throws BrumaException {
+        if (encoding == null) {
+            throw new BrumaException("setEncoding/null encoding");
+        }
+        this.encoding = encoding;
+        return this;
+    }
+
+    /**
+     * @param threads number of threads that read the master records and
+     * extract their keys (default: number of processors)
+     * @return this object
+     * @throws BrumaException
+     */
+    public InvertedFileBuilder setThreads(final int threads)
+                                                        throws BrumaException {
+        if (threads <= 0) {
+            throw new BrumaException("setThreads/threads[" + threads
+                                                                   + "] <= 0");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param runSize maximum number of (key, posting) entries kept in memory
+     * by each thread before being written to a temporary run file
+     * @return this object
+     * @throws BrumaException
+     */
+    public InvertedFileBuilder setRunSize(final int runSize)
+                                                        throws BrumaException {
+        if (runSize <= 0) {
+            throw new BrumaException("setRunSize/runSize[" + runSize
+                                                                   + "] <= 0");
+        }
+        this.runSize = runSize;
+        return this;
+    }
+
+    /**
+     * @param tempDir directory of the temporary run files (default: the
+     * system temporary directory)
+     * @return this object
+     */
+    public InvertedFileBuilder setTempDir(final File tempDir) {
+        this.tempDir = tempDir;
+        return this;
+    }
+
+    /**
+     * @param order byte order of the index files integers (default: little
+     * endian, as written by CISIS on PCs)
+     * @return this object
+     * @throws BrumaException
+     */
+    public InvertedFileBuilder setByteOrder(final ByteOrder order)
+                                                        throws BrumaException {
+        if (order == null) {
+            throw new BrumaException("setByteOrder/null order");
+        }
+        this.order = order;
+        return this;
+    }
+
+    /**
+     * Creates the inverted file of the active master records.
+     * @param mst the master
+     * @return the number of index keys
+     * @throws BrumaException
+     */
+    public int build(final MasterInterface mst) throws BrumaException {
+        if (mst == null) {
+            throw new BrumaException("build/null master");
+        }
+        buffers = Collections.synchronizedList(new ArrayList<RunBuffer>());
+        runFiles = Collections.synchronizedList(new ArrayList<File>());
+        local = new ThreadLocal<RunBuffer>() {
+            @Override
+            protected RunBuffer initialValue() {
+                final RunBuffer buffer = new RunBuffer(runSize);
+                buffers.add(buffer);
+                return buffer;
+            }
+        };
+        try {
+            final RecordVisitor visitor = new RecordVisitor() {
+                @Override
+                public void visit(final Record rec) throws BrumaException {
+                    extract(rec);
+                }
+            };
+            if ((threads > 1) && (mst instanceof Master)) {
+                ((Master)mst).parallelScan(visitor, threads);
+            } else {
+                final int last = mst.getControlRecord().getNxtmfn() - 1;
+
+                for (int mfn = 1; mfn <= last; mfn++) {
+                    visitor.visit(mst.getRecord(mfn));
+                }
+            }
+            return merge();
+        } finally {
+            for (File file : runFiles) {
+                file.delete();
+            }
+            buffers = null;
+            runFiles = null;
+            local = null;
+        }
+    }
+
+    private void extract(final Record rec) throws BrumaException {
+        if (rec.isActive()) {
+            final int mfn = rec.getMfn();
+            final RunBuffer buffer = local.get();
+
+            if (mfn > MAX_MFN) {
+                throw new BrumaException("extract/mfn[" + mfn + "] > "
+                                                                   + MAX_MFN);
+            }
+            fst.extract(rec, new Fst.Collector() {
+                @Override
+                public void collect(final String key,
+                                    final int tag,
+                                    final int occ,
+                                    final int cnt) throws BrumaException {
+                    final byte[] entry = entry(key, mfn, tag, occ, cnt);
+
+                    if (entry != null) {
+                        if (buffer.size == buffer.entries.length) {
+                            spill(buffer);
+                        }
+                        buffer.entries[buffer.size++] = entry;
+                    }
+                }
+            });
+        }
+    }
+
+    private byte[] entry(final String key,
+                         final int mfn,
+                         final int tag,
+                         final int occ,
+                         final int cnt) throws BrumaException {
+        final byte[] bkey;
+
+        try {
+            bkey = key.getBytes(encoding);
+        } catch (UnsupportedEncodingException uee) {
+            throw new BrumaException(uee);
+        }
+        int len = Math.min(bkey.length, InvertedFile.LE2);
+        while ((len > 0) && (bkey[len - 1] == InvertedFile.BLANK)) {
+            len--;
+        }
+        if (len == 0) {
+            return null;
+        }
+        final byte[] entry = new byte[1 + len + InvertedFile.POSTING_SIZE];
+        int pos = 0;
+
+        entry[pos++] = (byte)len;
+        System.arraycopy(bkey, 0, entry, pos, len);
+        pos += len;
+        entry[pos++] = (byte)(mfn >> 16);
+        entry[pos++] = (byte)(mfn >> 8);
+        entry[pos++] = (byte)mfn;
+        entry[pos++] = (byte)(tag >> 8);
+        entry[pos++] = (byte)tag;
+        entry[pos++] = (byte)occ;
+        entry[pos++] = (byte)(cnt >> 8);
+        entry[pos] = (byte)cnt;
+
+        return entry;
+    }
+
+    /** Sorts the buffer entries and writes them to a new run file. */
+    private void spill(final RunBuffer buffer) throws BrumaException {
+        try {
+            final File file = File.createTempFile("bruma", ".run", tempDir);
+            runFiles.add(file);
+
+            final DataOutputStream out = new DataOutputStream(
+                                         new BufferedOutputStream(
+                                         new FileOutputStream(file),
+                                                                BUFFER_SIZE));
+            try {
+                byte[] last = null;
+
+                Arrays.sort(buffer.entries, 0, buffer.size, ENTRY_COMPARATOR);
+                for (int pos = 0; pos < buffer.size; pos++) {
+                    final byte[] entry = buffer.entries[pos];
+                    if ((last == null)
+                            || (ENTRY_COMPARATOR.compare(last, entry) != 0)) {
+                        out.write(entry);
+                        last = entry;
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+        Arrays.fill(buffer.entries, 0, buffer.size, null);
+        buffer.size = 0;
+    }
+
+    /**
+     * Merges the run files and the memory buffers into the index. At most
+     * MAX_MERGE_RUNS runs are opened at a time: while there are more, the
+     * oldest run files are merged into a new one. The index files are only
+     * written if the whole merge succeeds.
+     */
+    private int merge() throws BrumaException {
+        for (RunBuffer buffer : buffers) {
+            Arrays.sort(buffer.entries, 0, buffer.size, ENTRY_COMPARATOR);
+        }
+        while (runFiles.size() + buffers.size() > MAX_MERGE_RUNS) {
+            if (runFiles.size() < 2) {  // more threads than merged runs
+                spill(buffers.remove(buffers.size() - 1));
+            } else {
+                mergeRunFiles(Math.min(MAX_MERGE_RUNS, runFiles.size()));
+            }
+        }
+
+        final List<Run> runs = new ArrayList<Run>();
+        final InvertedFileWriter writer = new InvertedFileWriter(indexName,
+                                                                       order);
+        boolean ok = false;
+
+        try {
+            for (RunBuffer buffer : buffers) {
+                runs.add(new Run(buffer));
+            }
+            for (File file : runFiles) {
+                runs.add(new Run(file));
+            }
+
+            final PriorityQueue<Run> queue = queue(runs);
+            byte[] last = null;
+
+            while (!queue.isEmpty()) {
+                final Run run = queue.poll();
+                final byte[] entry = run.current;
+
+                if ((last == null) || (compareKeys(last, entry) != 0)) {
+                    writer.startKey(Arrays.copyOfRange(entry, 1,
+                                                      1 + (entry[0] & 0xff)));
+                    writer.addPosting(entry, entry.length
+                                                 - InvertedFile.POSTING_SIZE);
+                } else if (ENTRY_COMPARATOR.compare(last, entry) != 0) {
+                    writer.addPosting(entry, entry.length
+                                                 - InvertedFile.POSTING_SIZE);
+                }
+                last = entry;
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+            writer.close();
+            ok = true;
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        } finally {
+            close(runs);
+            if (!ok) {
+                writer.abort();
+            }
+        }
+        return writer.getKeys();
+    }
+
+    /**
+     * Merges the oldest run files into a new run file, placed after the
+     * others so that each pass merges runs of similar sizes.
+     * @param count number of merged run files
+     */
+    private void mergeRunFiles(final int count) throws BrumaException {
+        final List<Run> runs = new ArrayList<Run>(count);
+        final List<File> merged = new ArrayList<File>(runFiles.subList(0,
+                                                                      count));
+        try {
+            final File file = File.createTempFile("bruma", ".run", tempDir);
+            runFiles.add(file);
+
+            final DataOutputStream out = new DataOutputStream(
+                                         new BufferedOutputStream(
+                                         new FileOutputStream(file),
+                                                                BUFFER_SIZE));
+            try {
+                for (File mfile : merged) {
+                    runs.add(new Run(mfile));
+                }
+
+                final PriorityQueue<Run> queue = queue(runs);
+                byte[] last = null;
+
+                while (!queue.isEmpty()) {
+                    final Run run = queue.poll();
+                    final byte[] entry = run.current;
+
+                    if ((last == null)
+                            || (ENTRY_COMPARATOR.compare(last, entry) != 0)) {
+                        out.write(entry);
+                        last = entry;
+                    }
+                    if (run.next()) {
+                        queue.add(run);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        } finally {
+            close(runs);
+        }
+        for (File mfile : merged) {
+            runFiles.remove(mfile);
+            mfile.delete();
+        }
+    }
+
+    /** @return a queue with the first entry of each not empty run */
+    private static PriorityQueue<Run> queue(final List<Run> runs)
+                                                           throws IOException {
+        final PriorityQueue<Run> queue = new PriorityQueue<Run>(
+                                   Math.max(1, runs.size()),
+                                   new Comparator<Run>() {
+            @Override
+            public int compare(final Run run1,
+                               final Run run2) {
+                return ENTRY_COMPARATOR.compare(run1.current, run2.current);
+            }
+        });
+
+        for (Run run : runs) {
+            if (run.next()) {
+                queue.add(run);
+            }
+        }
+        return queue;
+    }
+
+    private static void close(final List<Run> runs) {
+        for (Run run : runs) {
+            try {
+                run.close();
+            } catch (IOException ioe) {
+                // ignore
+            }
+        }
+    }
+
+    /** Compares the keys of two entries as if padded with blanks. */
+    private static int compareKeys(final byte[] entry1,
+                                   final byte[] entry2) {
+        final int len1 = entry1[0] & 0xff;
+        final int len2 = entry2[0] & 0xff;
+        final int len = Math.max(len1, len2);
+
+        for (int pos = 1; pos <= len; pos++) {
+            final int ch1 = (pos <= len1) ? (entry1[pos] & 0xff)
+                                          : (InvertedFile.BLANK & 0xff);
+            final int ch2 = (pos <= len2) ? (entry2[pos] & 0xff)
+                                          : (InvertedFile.BLANK & 0xff);
+            if (ch1 != ch2) {
+                return ch1 - ch2;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,399 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.index;
+
+import bruma.BrumaException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a CISIS inverted file (see InvertedFile) from keys received in
+ * ascending order. Leaves and nodes are written as soon as they are full, so
+ * only one leaf and one node per tree level are kept in memory. Each key
+ * postings list is written as a single .ifp segment.
+ *
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+class InvertedFileWriter {
+    private static final int ORDN = InvertedFile.TWORDN / 2;
+    private static final int ORDF = InvertedFile.TWORDF / 2;
+    private static final int HEAD_WORDS = 5;   // ifp segment header
+
+    /** Node entries not yet written for a tree level. */
+    private static class Pending {
+        final byte[][] keys = new byte[InvertedFile.TWORDN][];
+        final int[] punts = new int[InvertedFile.TWORDN];
+        int count = 0;
+    }
+
+    private class TreeWriter {
+        final int idtype;
+        final int keyLen;
+        final int nodeSize;
+        final int leafSize;
+        final FileChannel nodes;
+        final FileChannel leaves;
+        final ByteBuffer leaf;
+        final ByteBuffer node;
+        final List<Pending> levels;
+        byte[] firstKey;          // first key of the current leaf
+        int leafOck;
+        int leafCount;
+        int nodeCount;
+        int liv;
+        int posrx;
+
+        TreeWriter(final String indexName,
+                   final int idtype) throws IOException {
+            this.idtype = idtype;
+            keyLen = (idtype == 1) ? InvertedFile.LE1 : InvertedFile.LE2;
+            nodeSize = InvertedFile.nodeSize(keyLen);
+            leafSize = InvertedFile.leafSize(keyLen);
+            nodes = create(indexName + ".n0" + idtype);
+            leaves = create(indexName + ".l0" + idtype);
+            leaf = ByteBuffer.allocate(leafSize).order(order);
+            node = ByteBuffer.allocate(nodeSize).order(order);
+            levels = new ArrayList<Pending>();
+            firstKey = null;
+            leafOck = 0;
+            leafCount = 0;
+            nodeCount = 0;
+            liv = -1;
+            posrx = 0;
+        }
+
+        void add(final byte[] key,
+                 final int blk,
+                 final int word) throws IOException {
+            final byte[] padded = pad(key, keyLen);
+
+            if (leafOck == InvertedFile.TWORDF) {
+                writeLeaf(leafCount + 2);
+            }
+            if (leafOck == 0) {
+                firstKey = padded;
+            }
+            leaf.position(12 + leafOck * (keyLen + 8));
+            leaf.put(padded);
+            leaf.putInt(blk);
+            leaf.putInt(word);
+            leafOck++;
+        }
+
+        private void writeLeaf(final int next) throws IOException {
+            final int num = ++leafCount;
+
+            leaf.putInt(0, num);
+            leaf.putShort(4, (short)leafOck);
+            leaf.putShort(6, (short)idtype);
+            leaf.putInt(8, next);
+            write(leaves, leaf, num, leafSize);
+            addNode(0, firstKey, -num);
+            leafOck = 0;
+        }
+
+        private void addNode(final int level,
+                             final byte[] key,
+                             final int punt) throws IOException {
+            if (levels.size() == level) {
+                levels.add(new Pending());
+            }
+            final Pending pending = levels.get(level);
+
+            if (pending.count == InvertedFile.TWORDN) {
+                addNode(level + 1, pending.keys[0], writeNode(pending));
+            }
+            pending.keys[pending.count] = key;
+            pending.punts[pending.count] = punt;
+            pending.count++;
+        }
+
+        private int writeNode(final Pending pending) throws IOException {
+            final int num = ++nodeCount;
+
+            node.putInt(0, num);
+            node.putShort(4, (short)pending.count);
+            node.putShort(6, (short)idtype);
+            node.position(8);
+            for (int idx = 0; idx < pending.count; idx++) {
+                node.put(pending.keys[idx]);
+                node.putInt(pending.punts[idx]);
+            }
+            write(nodes, node, num, nodeSize);
+            pending.count = 0;
+
+            return num;
+        }
+
+        /**
+         * Writes the last leaf and the incomplete nodes. The root is the
+         * single entry of the highest level (a leaf if there is no node).
+         */
+        void finish() throws IOException {
+            if (leafOck > 0) {
+                writeLeaf(0);
+            }
+            for (int level = 0; level < levels.size(); level++) {
+                final Pending pending = levels.get(level);
+                final boolean top = (level == levels.size() - 1);
+
+                if (top && (pending.count == 1)) {
+                    liv = level - 1;
+                    posrx = pending.punts[0];
+                    break;
+                }
+                if (pending.count > 0) {
+                    addNode(level + 1, pending.keys[0], writeNode(pending));
+                }
+            }
+            nodes.close();
+            leaves.close();
+        }
+
+        void writeCnt(final ByteBuffer cnt) {
+            cnt.putShort((short)idtype);
+            cnt.putShort((short)ORDN);
+            cnt.putShort((short)ORDF);
+            cnt.putShort((short)15);                     // N
+            cnt.putShort((short)5);                      // K
+            cnt.putShort((short)liv);
+            cnt.putInt(posrx);
+            cnt.putInt(nodeCount);
+            cnt.putInt(leafCount);
+            cnt.putShort((short)0);                      // ABNORMAL
+        }
+    }
+
+    private final String indexName;
+    private final ByteOrder order;
+    private final TreeWriter tree1;
+    private final TreeWriter tree2;
+    private final FileChannel ifp;
+    private final ByteBuffer block;
+    private int curBlock;
+    private int curWord;
+    private int headBlock;     // current key segment header
+    private int headWord;
+    private int total;         // current key postings
+    private int keys;
+
+    InvertedFileWriter(final String indexName,
+                       final ByteOrder order) throws BrumaException {
+        assert indexName != null;
+        assert order != null;
+
+        this.indexName = indexName;
+        this.order = order;
+        try {
+            tree1 = new TreeWriter(indexName, 1);
+            tree2 = new TreeWriter(indexName, 2);
+            ifp = create(indexName + ".ifp");
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+        block = ByteBuffer.allocate(InvertedFile.IFP_BLOCKSIZE).order(order);
+        block.putInt(0, 1);
+        curBlock = 1;
+        curWord = 3;              // words 1 and 2: next free block/word
+        headBlock = 0;
+        keys = 0;
+    }
+
+    private static FileChannel create(final String fname) throws IOException {
+        final File file = new File(fname);
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("could not delete file: " + fname);
+        }
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    private static void write(final FileChannel fc,
+                              final ByteBuffer bb,
+                              final int num,
+                              final int size) throws IOException {
+        bb.clear();
+        fc.write(bb, (long)(num - 1) * size);
+        bb.clear();
+        Arrays.fill(bb.array(), (byte)0);
+    }
+
+    private static byte[] pad(final byte[] key,
+                              final int keyLen) {
+        final byte[] padded = Arrays.copyOf(key, keyLen);
+
+        Arrays.fill(padded, key.length, keyLen, InvertedFile.BLANK);
+
+        return padded;
+    }
+
+    /**
+     * Starts a new key. Keys should be received in ascending order.
+     * @param key key bytes without blank padding (at most 30 bytes)
+     */
+    void startKey(final byte[] key) throws BrumaException {
+        assert (key.length > 0) && (key.length <= InvertedFile.LE2);
+
+        try {
+            endKey();
+            if (InvertedFile.IFP_WORDS - curWord < HEAD_WORDS) {
+                nextBlock();
+            }
+            headBlock = curBlock;
+            headWord = curWord;
+            curWord += HEAD_WORDS;
+            total = 0;
+            if (key.length <= InvertedFile.LE1) {
+                tree1.add(key, headBlock, headWord);
+            } else {
+                tree2.add(key, headBlock, headWord);
+            }
+            keys++;
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+    }
+
+    /**
+     * Adds a posting to the current key.
+     * @param posting buffer with the 8 posting bytes (mfn, tag, occ, cnt)
+     * @param offset position of the posting in the buffer
+     */
+    void addPosting(final byte[] posting,
+                    final int offset) throws BrumaException {
+        assert headBlock > 0;
+
+        try {
+            for (int pos = 0; pos < InvertedFile.POSTING_SIZE; pos += 4) {
+                if (curWord == InvertedFile.IFP_WORDS) {
+                    nextBlock();
+                }
+                block.position(4 * curWord++);
+                block.put(posting, offset + pos, 4);
+            }
+            total++;
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+    }
+
+    /** Writes the header (totp, segp and segc) of the current key. */
+    private void endKey() throws IOException {
+        if (headBlock > 0) {
+            if (headBlock == curBlock) {
+                block.putInt(4 * (headWord + 2), total);
+                block.putInt(4 * (headWord + 3), total);
+                block.putInt(4 * (headWord + 4), total);
+            } else {
+                final ByteBuffer head = ByteBuffer.allocate(12).order(order);
+
+                head.putInt(total).putInt(total).putInt(total);
+                head.flip();
+                ifp.write(head, (long)(headBlock - 1)
+                          * InvertedFile.IFP_BLOCKSIZE + 4 * (headWord + 2));
+            }
+            headBlock = 0;
+        }
+    }
+
+    private void nextBlock() throws IOException {
+        block.clear();
+        ifp.write(block, (long)(curBlock - 1) * InvertedFile.IFP_BLOCKSIZE);
+        Arrays.fill(block.array(), (byte)0);
+        curBlock++;
+        curWord = 1;
+        block.clear();
+        block.putInt(0, curBlock);
+    }
+
+    /** @return the number of written keys */
+    int getKeys() {
+        return keys;
+    }
+
+    /**
+     * Closes the files and removes them, after a failed build. The .cnt
+     * file is only written by close(), so a removed index is never taken
+     * for a complete one.
+     */
+    void abort() {
+        final List<FileChannel> channels = Arrays.asList(ifp,
+                      tree1.nodes, tree1.leaves, tree2.nodes, tree2.leaves);
+
+        for (FileChannel fc : channels) {
+            try {
+                fc.close();
+            } catch (IOException ioe) {
+                // the file is removed anyway
+            }
+        }
+        for (String ext : new String[] {".cnt", ".ifp", ".n01", ".l01",
+                                                          ".n02", ".l02"}) {
+            new File(indexName + ext).delete();
+        }
+    }
+
+    /** Writes the pending data and the .cnt file. */
+    void close() throws BrumaException {
+        try {
+            endKey();
+            if (curBlock == 1) {
+                block.putInt(4, curBlock);
+                block.putInt(8, curWord);
+            } else {
+                final ByteBuffer ctl = ByteBuffer.allocate(8).order(order);
+
+                ctl.putInt(curBlock).putInt(curWord);
+                ctl.flip();
+                ifp.write(ctl, 4);
+            }
+            block.clear();
+            ifp.write(block, (long)(curBlock - 1) * InvertedFile.IFP_BLOCKSIZE);
+            ifp.close();
+            tree1.finish();
+            tree2.finish();
+
+            final ByteBuffer cnt =
+                   ByteBuffer.allocate(2 * InvertedFile.CNT_SIZE).order(order);
+            tree1.writeCnt(cnt);
+            tree2.writeCnt(cnt);
+            cnt.flip();
+
+            final FileChannel fc = create(indexName + ".cnt");
+            try {
+                fc.write(cnt, 0);
+            } finally {
+                fc.close();
+            }
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.index;
+
+import bruma.BrumaException;
+import bruma.index.FieldIndexTable.FieldIndexElement;
+import bruma.master.Master;
+import bruma.master.MasterInterface;
+import bruma.master.Record;
+import bruma.master.RecordVisitor;
+import bruma.master.XrfFile;
+import bruma.master.XrfFile.XrfInfo;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.analysis.PerFieldAnalyzerWrapper;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Creates and updates a Lucene index of the master records. Each active
+ * record is a document with a stored, not analyzed, "mfn" field plus one
+ * field for each FieldIndexTable element, whose text is given by the
+ * element extractor and analyzed by the element analyzer.
+ * The records are read and their documents created by many threads that
+ * share the same IndexWriter.
+ *
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class MasterIndexer {
+    /** Name of the document field with the record mfn. */
+    public static final String MFN_FIELD = "mfn";
+
+    public static final double DEFAULT_RAM_BUFFER_MB = 64;
+    public static final double DEFAULT_SEGMENTS_PER_TIER = 10;
+    public static final int DEFAULT_MAX_MERGE_AT_ONCE = 10;
+
+    private static final int QUEUE_PER_THREAD = 64;    // waiting records
+
+    private final String indexDir;
+    private final FieldIndexTable fit;
+    private final PerFieldAnalyzerWrapper analyzer;
+    private int threads;
+    private double ramBufferMB;
+    private double segmentsPerTier;
+    private int maxMergeAtOnce;
+    private boolean optimize;
+
+    /**
+     * @param indexDir the Lucene index directory
+     * @param fit the table with the document fields
+     * @throws BrumaException
+     */
+    public MasterIndexer(final String indexDir,
+                         final FieldIndexTable fit) throws BrumaException {
+        if (indexDir == null) {
+            throw new BrumaException("MasterIndexer/null index directory");
+        }
+        if (fit == null) {
+            throw new BrumaException("MasterIndexer/null field index table");
+        }
+        this.indexDir = indexDir;
+        this.fit = fit;
+        analyzer = new PerFieldAnalyzerWrapper(new KeywordAnalyzer());
+        for (FieldIndexElement elem : fit.getElements()) {
+            analyzer.addAnalyzer(elem.fieldName, elem.techName);
+        }
+        threads = Runtime.getRuntime().availableProcessors();
+        ramBufferMB = DEFAULT_RAM_BUFFER_MB;
+        segmentsPerTier = DEFAULT_SEGMENTS_PER_TIER;
+        maxMergeAtOnce = DEFAULT_MAX_MERGE_AT_ONCE;
+        optimize = false;
+    }
+
+    /**
+     * @param threads number of threads that read the records and create
+     * their documents (default: number of processors)
+     * @return this object
+     * @throws BrumaException
+     */
+    public MasterIndexer setThreads(final int threads) throws BrumaException {
+        if (threads <= 0) {
+            throw new BrumaException("setThreads/threads[" + threads
+                                                                   + "] <= 0");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param ramBufferMB memory used to buffer documents before they are
+     * flushed to a new segment (default 64 MB)
+     * @return this object
+     * @throws BrumaException
+     */
+    public MasterIndexer setRAMBufferSizeMB(final double ramBufferMB)
+                                                        throws BrumaException {
+        if (ramBufferMB <= 0) {
+            throw new BrumaException("setRAMBufferSizeMB/size[" + ramBufferMB
+                                                                   + "] <= 0");
+        }
+        this.ramBufferMB = ramBufferMB;
+        return this;
+    }
+
+    /**
+     * Merge policy settings. See Lucene TieredMergePolicy.
+     * @param segmentsPerTier allowed segments per tier (default 10)
+     * @param maxMergeAtOnce segments merged at a time (default 10)
+     * @return this object
+     * @throws BrumaException
+     */
+    public MasterIndexer setMergePolicy(final double segmentsPerTier,
+                                        final int maxMergeAtOnce)
+                                                        throws BrumaException {
+        if (segmentsPerTier < 2) {
+            throw new BrumaException("setMergePolicy/segmentsPerTier["
+                                                + segmentsPerTier + "] < 2");
+        }
+        if (maxMergeAtOnce < 2) {
+            throw new BrumaException("setMergePolicy/maxMergeAtOnce["
+                                                 + maxMergeAtOnce + "] < 2");
+        }
+        this.segmentsPerTier = segmentsPerTier;
+        this.maxMergeAtOnce = maxMergeAtOnce;
+        return this;
+    }
+
+    /**
+     * @param optimize if true, the index is merged into a single segment
+     * after a full indexing (default false)
+     * @return this object
+     */
+    public MasterIndexer setOptimize(final boolean optimize) {
+        this.optimize = optimize;
+        return this;
+    }
+
+    /**
+     * Creates the index of all active master records, replacing the
+     * previous one. If it fails, the previous index is kept.
+     * @param mst the master
+     * @return the number of indexed records
+     * @throws BrumaException
+     */
+    public int index(final MasterInterface mst) throws BrumaException {
+        if (mst == null) {
+            throw new BrumaException("index/null master");
+        }
+        final IndexWriter writer =
+                           openWriter(IndexWriterConfig.OpenMode.CREATE);
+        final AtomicInteger count = new AtomicInteger();
+        boolean ok = false;
+
+        try {
+            final RecordVisitor visitor = new RecordVisitor() {
+                @Override
+                public void visit(final Record rec) throws BrumaException {
+                    if (rec.isActive()) {
+                        try {
+                            writer.addDocument(document(rec));
+                        } catch (IOException ioe) {
+                            throw new BrumaException(ioe);
+                        }
+                        count.incrementAndGet();
+                    }
+                }
+            };
+            if ((threads > 1) && (mst instanceof Master)) {
+                ((Master)mst).parallelScan(visitor, threads);
+            } else {
+                final int last = mst.getControlRecord().getNxtmfn() - 1;
+                final Feeder feeder = new Feeder(visitor);
+
+                try {
+                    for (int mfn = 1; mfn <= last; mfn++) {
+                        feeder.feed(mst.getRecord(mfn));
+                    }
+                    feeder.finish();
+                } finally {
+                    feeder.abort();
+                }
+            }
+            if (optimize) {
+                writer.optimize();
+            }
+            writer.close();
+            ok = true;
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        } finally {
+            if (!ok) {
+                rollback(writer);
+            }
+        }
+
+        return count.get();
+    }
+
+    /**
+     * Updates the documents of some records: active records are reindexed
+     * and deleted ones are removed from the index.
+     * @param mst the master
+     * @param mfns the changed records
+     * @return the number of updated documents
+     * @throws BrumaException
+     */
+    public int update(final MasterInterface mst,
+                      final Collection<Integer> mfns) throws BrumaException {
+        if (mst == null) {
+            throw new BrumaException("update/null master");
+        }
+        if (mfns == null) {
+            throw new BrumaException("update/null mfn collection");
+        }
+        final IndexWriter writer =
+                 openWriter(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        final AtomicInteger count = new AtomicInteger();
+        boolean ok = false;
+
+        try {
+            final Feeder feeder = new Feeder(new RecordVisitor() {
+                @Override
+                public void visit(final Record rec) throws BrumaException {
+                    final Term term = new Term(MFN_FIELD,
+                                               Integer.toString(rec.getMfn()));
+                    try {
+                        if (rec.isActive()) {
+                            writer.updateDocument(term, document(rec));
+                        } else {
+                            writer.deleteDocuments(term);
+                        }
+                    } catch (IOException ioe) {
+                        throw new BrumaException(ioe);
+                    }
+                    count.incrementAndGet();
+                }
+            });
+            try {
+                for (Integer mfn : mfns) {
+                    feeder.feed(mst.getRecord(mfn));
+                }
+                feeder.finish();
+            } finally {
+                feeder.abort();
+            }
+            writer.close();
+            ok = true;
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        } finally {
+            if (!ok) {
+                rollback(writer);
+            }
+        }
+
+        return count.get();
+    }
+
+    /**
+     * Updates the documents of the records whose xrf new or pending bits are
+     * set (see Master.writeRecord()) and then clears these bits. Only the xrf
+     * file is scanned, so the cost depends on the number of changed records.
+     * A bit is cleared only if the record pointer was not changed during the
+     * update, so records written meanwhile are updated by the next call.
+     * @param mst the master
+     * @return the number of updated documents
+     * @throws BrumaException
+     */
+    public int updatePending(final Master mst) throws BrumaException {
+        if (mst == null) {
+            throw new BrumaException("updatePending/null master");
+        }
+        final XrfFile xrf = mst.getXrf();
+        if (xrf == null) {
+            throw new BrumaException("updatePending/master is not opened");
+        }
+        final List<XrfInfo> pending = xrf.getPendingUpdates(
+                                     mst.getControlRecord().getNxtmfn() - 1);
+        final List<Integer> mfns = new ArrayList<Integer>(pending.size());
+
+        for (XrfInfo info : pending) {
+            mfns.add(info.getMfn());
+        }
+        final int count = update(mst, mfns);
+
+        for (XrfInfo info : pending) {
+            mst.clearPendingUpdate(info);
+        }
+
+        return count;
+    }
+
+    private IndexWriter openWriter(final IndexWriterConfig.OpenMode mode)
+                                                        throws BrumaException {
+        final IndexWriterConfig config = new IndexWriterConfig(
+                                         FieldIndexTable.VERSION, analyzer);
+        final TieredMergePolicy policy = new TieredMergePolicy();
+
+        policy.setSegmentsPerTier(segmentsPerTier);
+        policy.setMaxMergeAtOnce(maxMergeAtOnce);
+        config.setOpenMode(mode);
+        config.setRAMBufferSizeMB(ramBufferMB);
+        config.setMergePolicy(policy);
+        config.setMaxThreadStates(threads);
+
+        try {
+            return new IndexWriter(FSDirectory.open(new File(indexDir)),
+                                                                       config);
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+    }
+
+    private static void rollback(final IndexWriter writer) {
+        try {
+            writer.rollback();
+        } catch (IOException ioe) {
+            // the original exception is more relevant
+        }
+    }
+
+    private Document document(final Record rec) throws BrumaException {
+        final Document doc = new Document();
+
+        doc.add(new Field(MFN_FIELD, Integer.toString(rec.getMfn()),
+                    Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        for (FieldIndexElement elem : fit.getElements()) {
+            final String text = elem.extractor.extract(rec);
+
+            if ((text != null) && !text.isEmpty()) {
+                doc.add(new Field(elem.fieldName, text, Field.Store.NO,
+                                                        Field.Index.ANALYZED));
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Sends records read by the calling thread to the worker threads. The
+     * queue is bounded, so the caller creates the documents itself when the
+     * workers are busy.
+     */
+    private class Feeder {
+        private final RecordVisitor visitor;
+        private final ThreadPoolExecutor pool;
+        private final AtomicReference<BrumaException> error;
+
+        Feeder(final RecordVisitor visitor) {
+            this.visitor = visitor;
+            pool = new ThreadPoolExecutor(threads, threads, 0,
+                   TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                                               threads * QUEUE_PER_THREAD),
+                   new ThreadPoolExecutor.CallerRunsPolicy());
+            error = new AtomicReference<BrumaException>();
+        }
+
+        void feed(final Record rec) throws BrumaException {
+            if (error.get() != null) {
+                finish();
+            }
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (error.get() == null) {
+                        try {
+                            visitor.visit(rec);
+                        } catch (BrumaException zex) {
+                            error.compareAndSet(null, zex);
+                        }
+                    }
+                }
+            });
+        }
+
+        void finish() throws BrumaException {
+            pool.shutdown();
+            try {
+                while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                    // waits the pending records
+                }
+            } catch (InterruptedException ie) {
+                pool.shutdownNow();
+                throw new BrumaException(ie);
+            }
+            if (error.get() != null) {
+                throw error.get();
+            }
+        }
+
+        /**
+         * Discards the records not yet visited and waits for the ones being
+         * visited, so no thread is left running. Does nothing after
+         * finish().
+         */
+        void abort() {
+            if (!pool.isTerminated()) {
+                pool.shutdownNow();
+                try {
+                    while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                        // waits the running records
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
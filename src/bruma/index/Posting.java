@@ -0,0 +1,100 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.index;
+
+/**
+ * An inverted file posting: the record, field and occurrence where a key
+ * was found and the key sequential number inside the field.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class Posting implements Comparable<Posting> {
+    private final int mfn;
+    private final int tag;
+    private final int occ;
+    private final int cnt;
+
+    public Posting(final int mfn,
+                   final int tag,
+                   final int occ,
+                   final int cnt) {
+        this.mfn = mfn;
+        this.tag = tag;
+        this.occ = occ;
+        this.cnt = cnt;
+    }
+
+    public int getMfn() {
+        return mfn;
+    }
+
+    public int getTag() {
+        return tag;
+    }
+
+    public int getOcc() {
+        return occ;
+    }
+
+    public int getCnt() {
+        return cnt;
+    }
+
+    @Override
+    public int compareTo(final Posting other) {
+        int ret = compare(mfn, other.mfn);
+
+        if (ret == 0) {
+            ret = compare(tag, other.tag);
+            if (ret == 0) {
+                ret = compare(occ, other.occ);
+                if (ret == 0) {
+                    ret = compare(cnt, other.cnt);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static int compare(final int i1,
+                               final int i2) {
+        return (i1 < i2) ? -1 : ((i1 == i2) ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof Posting)) {
+            return false;
+        }
+        return compareTo((Posting)obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return (((mfn * 31) + tag) * 31 + occ) * 31 + cnt;
+    }
+
+    @Override
+    public String toString() {
+        return "mfn=" + mfn + " tag=" + tag + " occ=" + occ + " cnt=" + cnt;
+    }
+}
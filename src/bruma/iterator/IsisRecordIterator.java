@@ -38,6 +38,8 @@ public class IsisRecordIterator extends AbstractRecordIterator {
     private Master master;
     private int id;
     private int last;
+    private Record[] reuse;  // records refilled in turn (reusing mode)
+    private int cur;
 
     public IsisRecordIterator(final String dbName) {
         this(dbName, null);
@@ -45,6 +47,19 @@ public class IsisRecordIterator extends AbstractRecordIterator {
 
     public IsisRecordIterator(final String dbName,
                               final String encoding) {
+        this(dbName, encoding, false);
+    }
+
+    /**
+     * @param dbName master file name
+     * @param encoding master character encoding or null to guess it
+     * @param reusing if true, the returned records are refilled by the
+     *                following calls to next(), so a returned record is only
+     *                valid until the next call to next().
+     */
+    public IsisRecordIterator(final String dbName,
+                              final String encoding,
+                              final boolean reusing) {
         super();
         try {
             String encod = (encoding == null) ? Master.GUESS_ISO_IBM_ENCODING
@@ -54,6 +69,11 @@ public class IsisRecordIterator extends AbstractRecordIterator {
                                   .setEncoding(encod)
                                   .open();
             last = master.getControlRecord().getNxtmfn() - 1;
+            // two records because the next record is read before the
+            // current one is returned
+            reuse = reusing ? new Record[] { master.newRecord(),
+                                             master.newRecord() } : null;
+            cur = 0;
             getNextRecord();
         } catch (BrumaException ex) {
             Logger.getLogger(IsisRecordIterator.class.getName()).
@@ -95,8 +115,12 @@ public class IsisRecordIterator extends AbstractRecordIterator {
         record = null;
 
         try {
+            if (reuse != null) {
+                cur = 1 - cur;
+            }
             while (++id <= last) {
-                rec = master.getRecord(id);
+                rec = master.getRecord(id, (reuse == null) ? null
+                                                           : reuse[cur]);
                 if (rec.getStatus() == Status.ACTIVE) {
                     record = rec;
                     break;
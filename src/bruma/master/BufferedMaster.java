@@ -23,40 +23,58 @@ package bruma.master;
 
 import bruma.BrumaException;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.TreeMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- *
+ * Master that keeps the last read records and the written ones in memory.
+ * Written records are kept in a dirty set and are written into the master
+ * files in mfn order, using the master batch mode, when the dirty set gets
+ * bigger than the maximum dirty bytes (see
+ * MasterFactory.setMaxDirtyBytes()), when flush() is called or when the
+ * master is closed. In write behind mode (see
+ * MasterFactory.setWriteBehind()) a background thread writes the dirty
+ * records shortly after they are written and writers only wait for it when
+ * the dirty set is full. If writing the dirty records fails, they stay in
+ * the dirty set and the error is thrown to the flush() caller or to the
+ * writers waiting for room in the dirty set (a background failure is also
+ * logged); the next write or flush() tries to write them again. The records
+ * are copied when they are written and when they are read, so changing a
+ * returned record does not change the buffered one. All functions can be
+ * called by many threads. Multiuser masters are not supported: new mfns are
+ * taken from the buffered last mfn, so they could overwrite records
+ * appended by other processes.
  * @author Heitor Barbieri
  * @date 20111216
  */
 public class BufferedMaster implements MasterInterface {
     public static final int MAX_RECORDS = 1000;
-    
-    private class RecordHolder {
-        final boolean save;
-        final long date;
+
+    /**
+     * Time in milliseconds the flusher waits for more writes before writing
+     * the dirty records.
+     */
+    private static final long FLUSH_DELAY = 50;
+
+    private static class RecordHolder {
         final Record rec;
-        
+        final int size;  // record length in bytes
+
         RecordHolder(final Record rec,
-                      final boolean save) {
+                     final int size) {
             assert rec != null;
-            
-            this.save = save;
-            this.date = Calendar.getInstance().getTimeInMillis();
-            this.rec = rec;            
+
+            this.rec = rec;
+            this.size = size;
         }
     }
-    
+
     /**
      * Implements an iterator of the database records.
      */
@@ -69,7 +87,7 @@ public class BufferedMaster implements MasterInterface {
         }
         @Override
         public boolean hasNext() {
-            return (curMfn + 1) <= lastMfn;
+            return (curMfn + 1) <= getLastMfn();
         }
         @Override
         public Record next() {
@@ -77,10 +95,7 @@ public class BufferedMaster implements MasterInterface {
                 throw new NoSuchElementException();
             }
             try {
-                final Long date = mfns.get(++curMfn);
-                
-                rec = (date == null) ? getRecord(curMfn) : memory.get(date).rec;
-                addBufferedRecord(rec, false);
+                rec = getRecord(++curMfn);
             } catch (BrumaException zex) {
                 rec = null;
                 Logger.getLogger(
@@ -88,32 +103,89 @@ public class BufferedMaster implements MasterInterface {
             }
             return rec;
         }
-        
+
         @Override
         public void remove() {
             throw new UnsupportedOperationException();
         }
     }
 
-    private final HashMap<Integer,Long> mfns;
-    private final TreeMap<Long,RecordHolder> memory;    
+    /**
+     * Writes the dirty records in background.
+     */
+    private class Flusher extends Thread {
+        private Flusher() {
+            super("BufferedMaster flusher [" + info.getMstName() + "]");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (waitDirty()) {
+                    try {
+                        flushBatch();
+                    } catch (BrumaException zex) {
+                        Logger.getLogger(BufferedMaster.class.getName())
+                                                 .log(Level.SEVERE, null, zex);
+                    }
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     private final Master mst;
     private final MasterPlatformInfo info;
-    
+    private final boolean writeBehind;
+    private final long maxDirtyBytes;
+    private final Map<Integer,Record> clean;  // last read records (LRU)
+    private TreeMap<Integer,RecordHolder> dirty;
+    private TreeMap<Integer,RecordHolder> flushing;  // batch being written
+    private long dirtyBytes;         // bytes of the dirty and flushing records
+    private long writeSeq;           // number of writes
+    private long flushedSeq;         // number of writes already in the files
+    private long writes;             // clean cache invalidation stamp
+    private BrumaException flushError;
+    private boolean flushRequested;
+    private boolean stopping;
+    private volatile Flusher flusher;
     private int lastMfn;
-    
+
     BufferedMaster(final MasterPlatformInfo mpi) throws BrumaException {
         assert mpi != null;
-        
-        // mfns: (mfn -> dade)
-        // memory: (date -> RecordHolder)        
-        mfns = new HashMap<Integer,Long>();
-        memory = new TreeMap<Long,RecordHolder>();        
+
+        if (mpi.isMultiuser()) {
+            throw new BrumaException(
+                          "BufferedMaster/multiuser mode is not supported");
+        }
         mst = new Master(mpi);
         info = mpi;
+        writeBehind = mpi.isWriteBehind();
+        maxDirtyBytes = mpi.getMaxDirtyBytes();
+        clean = new LinkedHashMap<Integer,Record>(MAX_RECORDS, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                                  final Map.Entry<Integer,Record> eldest) {
+                return size() > MAX_RECORDS;
+            }
+        };
+        dirty = new TreeMap<Integer,RecordHolder>();
+        flushing = null;
+        dirtyBytes = 0;
+        writeSeq = 0;
+        flushedSeq = 0;
+        writes = 0;
+        flushError = null;
+        flushRequested = false;
+        stopping = false;
+        flusher = null;
         lastMfn = 0;
     }
-    
+
     /**
      * Checks if an Isis database exists.
      * @param dbName the database name.
@@ -123,7 +195,7 @@ public class BufferedMaster implements MasterInterface {
     public static boolean exists(final String dbName) throws BrumaException {
         return Master.exists(dbName);
     }
-    
+
     /**
      * Opens an existing Isis database.
      * @return this BufferedMaster object
@@ -131,12 +203,15 @@ public class BufferedMaster implements MasterInterface {
      */
     BufferedMaster open() throws BrumaException {
         close();
-        mst.open();
-        lastMfn = mst.getControlRecord().getNxtmfn() - 1;
-        
+        synchronized (mst) {
+            mst.open();
+            lastMfn = mst.getControlRecord().getNxtmfn() - 1;
+        }
+        startFlusher();
+
         return this;
     }
-    
+
     /**
      * Creates a new Isis database.
      * @return this Master object
@@ -144,50 +219,107 @@ public class BufferedMaster implements MasterInterface {
      */
     BufferedMaster create() throws BrumaException {
         close();
-        mst.create();
-        lastMfn = 0;
-        
+        synchronized (mst) {
+            mst.create();
+            lastMfn = 0;
+        }
+        startFlusher();
+
         return this;
     }
-    
+
+    /**
+     * @return true if the dirty records are written by a background thread.
+     */
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * @return the number of bytes of the records not yet written into the
+     *         master files.
+     */
+    public synchronized long getDirtyBytes() {
+        return dirtyBytes;
+    }
+
+    /**
+     * Writes into the master files all records written before this call.
+     * In write behind mode it waits for the background thread.
+     * @throws BrumaException
+     */
+    public void flush() throws BrumaException {
+        if (flusher == null) {
+            synchronized (this) {
+                flushError = null;
+            }
+            flushBatch();
+        } else {
+            synchronized (this) {
+                final long target = writeSeq;
+
+                flushError = null;
+                flushRequested = true;
+                notifyAll();
+                try {
+                    while (flushedSeq < target) {
+                        if (flushError != null) {
+                            throw new BrumaException("flush/"
+                                                   + flushError.getMessage());
+                        }
+                        wait();
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new BrumaException("flush/interrupted");
+                }
+            }
+        }
+    }
+
     /**
-     * Closes frees all database used resources.
+     * Writes the dirty records and closes the master files.
      * @throws BrumaException
      */
     @Override
     public void close() throws BrumaException {
-        for (RecordHolder holder : memory.values()) {
-            if ((holder != null) && (holder.save)) {
-                final Record rec = holder.rec;
-                
-                if (rec.isActive()) {
-                    mst.writeRecord(rec);
-                } else {
-                    rec.setStatus(Record.Status.ACTIVE);                    
-                    mst.writeRecord(rec);
-                    mst.deleteRecord(rec.getMfn());
-                }                
+        stopFlusher();
+        try {
+            flushBatch();
+        } finally {
+            synchronized (this) {
+                clean.clear();
+                dirty.clear();
+                dirtyBytes = 0;
+                flushError = null;
+                lastMfn = 0;
+            }
+            synchronized (mst) {
+                mst.close();
             }
         }
-        mfns.clear();
-        memory.clear();        
-        mst.close();
-        lastMfn = 0;
     }
-    
+
     /**
-     * Deletes Isis master files (mst and xrf)
+     * Deletes Isis master files (mst and xrf). The dirty records are lost.
      * @return true if all files were deleted, false otherwise.
      * @throws BrumaException
      */
     @Override
     public boolean delete() throws BrumaException {
-        mfns.clear();
-        memory.clear();        
-        
-        return mst.delete();
+        stopFlusher();
+        synchronized (this) {
+            clean.clear();
+            dirty.clear();
+            dirtyBytes = 0;
+            flushError = null;
+            lastMfn = 0;
+        }
+        synchronized (mst) {
+            return mst.delete();
+        }
     }
-    
+
     /**
      * Deletes an Isis record.
      * @param mfn - master file number of the record.
@@ -195,21 +327,17 @@ public class BufferedMaster implements MasterInterface {
      */
     @Override
     public void deleteRecord(final int mfn) throws BrumaException {
-        if ((mfn <= 0) || (mfn > lastMfn)) {
-            throw new BrumaException("deleteRecord/mfn[" + mfn 
-                                                 + "] is outside valid range.");
-        }
-        final Long date = mfns.get(mfn);
-        
-        if (date == null) {
-            mst.deleteRecord(mfn);
-        } else {
-            final Record rec = memory.get(date).rec;
-            rec.setStatus(Record.Status.LOGDEL);
-            addBufferedRecord(rec, true);            
+        final Record rec = getRecord(mfn);
+
+        if (rec.getStatus() != Record.Status.ACTIVE) {
+            throw new BrumaException("deleteRecord/record status is not " +
+                                        "active: " + rec.getStatus());
         }
+        rec.setStatus(Record.Status.LOGDEL);
+        rec.setActiveStatus(null);
+        writeRecord(rec);
     }
-    
+
     /**
      * Forces the unlock of a Isis record.
      * @param mfn - record number to unlock
@@ -227,13 +355,16 @@ public class BufferedMaster implements MasterInterface {
      */
     @Override
     public Control getControlRecord() throws BrumaException {
-        final Control ctl = mst.getControlRecord();
-        
-        ctl.setNxtmfn(lastMfn + 1);
-        
+        final Control ctl;
+
+        synchronized (mst) {
+            ctl = mst.getControlRecord();
+        }
+        ctl.setNxtmfn(getLastMfn() + 1);
+
         return ctl;
     }
-    
+
     @Override
     public int getDataAlignment() {
         return info.getDataAlignment();
@@ -244,7 +375,7 @@ public class BufferedMaster implements MasterInterface {
      * @return the database encoding.
      */
     public String getEncoding() {
-        return info.getEncoding();
+        return mst.getEncoding();
     }
 
     /**
@@ -265,8 +396,8 @@ public class BufferedMaster implements MasterInterface {
      * @throws org.bruma.BrumaException
      */
     @Override
-    public Record getLockRecord(final int mfn, 
-                                 final Lock.RecordLock[] recLock) 
+    public Record getLockRecord(final int mfn,
+                                 final Lock.RecordLock[] recLock)
                                                         throws BrumaException {
         throw new UnsupportedOperationException();
     }
@@ -281,15 +412,23 @@ public class BufferedMaster implements MasterInterface {
 
     @Override
     public int getMaxRecSize() throws BrumaException {
-        int max = mst.getMaxRecSize();
-        int recLen;
-
-        for (RecordHolder holder : memory.values()) {
-            final Record rec = holder.rec;
-            
-            if (rec.getStatus() == Record.Status.ACTIVE) {
-                recLen = rec.getRecordLength(info.getEncoding(), info.isFfi());
-                max = Math.max(max, recLen);
+        int max;
+
+        synchronized (mst) {
+            max = mst.getMaxRecSize();
+        }
+        synchronized (this) {
+            for (RecordHolder holder : dirty.values()) {
+                if (holder.rec.getStatus() == Record.Status.ACTIVE) {
+                    max = Math.max(max, holder.size);
+                }
+            }
+            if (flushing != null) {
+                for (RecordHolder holder : flushing.values()) {
+                    if (holder.rec.getStatus() == Record.Status.ACTIVE) {
+                        max = Math.max(max, holder.size);
+                    }
+                }
             }
         }
 
@@ -304,17 +443,42 @@ public class BufferedMaster implements MasterInterface {
      */
     @Override
     public Record getRecord(final int mfn) throws BrumaException {
-        if ((mfn <= 0) || (mfn > lastMfn)) {
-            throw new BrumaException("getRecord/mfn[" + mfn 
+        final long stamp;
+
+        synchronized (this) {
+            if ((mfn <= 0) || (mfn > lastMfn)) {
+                throw new BrumaException("getRecord/mfn[" + mfn
                                                  + "] is outside valid range.");
+            }
+            RecordHolder holder = dirty.get(mfn);
+
+            if ((holder == null) && (flushing != null)) {
+                holder = flushing.get(mfn);
+            }
+            if (holder != null) {
+                return copy(holder.rec);
+            }
+            final Record rec = clean.get(mfn);
+
+            if (rec != null) {
+                return copy(rec);
+            }
+            stamp = writes;
         }
-        
-        final Long date = mfns.get(mfn);
-        final Record rec = (date == null) ? mst.getRecord(mfn) 
-                                          : memory.get(date).rec;
-        addBufferedRecord(rec, false);
-                    
-        return rec;
+
+        final Record rec;
+
+        synchronized (mst) {
+            rec = mst.getRecord(mfn);
+        }
+        synchronized (this) {
+            if (stamp == writes) {  // no write since the buffers were checked
+                clean.put(mfn, rec);
+                return copy(rec);
+            }
+        }
+
+        return getRecord(mfn);
     }
 
     /**
@@ -325,7 +489,7 @@ public class BufferedMaster implements MasterInterface {
     public boolean isFFI() {
         return info.isFfi();
     }
-    
+
     /**
      * @return tells if the master is in memory.
      */
@@ -355,9 +519,9 @@ public class BufferedMaster implements MasterInterface {
         return iter;
 
     }
-    
+
     @Override
-    public Lock.RecordLock lockRecord(final Record record) 
+    public Lock.RecordLock lockRecord(final Record record)
                                                          throws BrumaException {
         throw new UnsupportedOperationException();
     }
@@ -373,8 +537,8 @@ public class BufferedMaster implements MasterInterface {
     }
 
     @Override
-    public List<Integer> regExpSearch(final String expression, 
-                                       final int maxHits) 
+    public List<Integer> regExpSearch(final String expression,
+                                       final int maxHits)
                                                          throws BrumaException {
         if (expression == null) {
             throw new BrumaException("null regular expression");
@@ -382,25 +546,8 @@ public class BufferedMaster implements MasterInterface {
         if (maxHits < 1) {
             throw new BrumaException("maxHits <= 0");
         }
-        final List<Integer> ret = new ArrayList<Integer>();
-        final Matcher mat = Pattern.compile(expression).matcher("");
-        int curHits = 0;
-
-        for (Record rec : this) {
-            if (rec.getStatus() == Record.Status.ACTIVE) {
-                for (Field fld : rec) {
-                    mat.reset(fld.getContent());
-                    if (mat.find()) {
-                        if (++curHits > maxHits) {
-                            break;
-                        }
-                        ret.add(rec.getMfn());
-                    }
-                }
-            }
-        }
-
-        return ret;        
+        return new MasterSearch().addRegExp(expression)
+                                 .search(this, maxHits);
     }
 
     /**
@@ -419,13 +566,15 @@ public class BufferedMaster implements MasterInterface {
      * @throws org.bruma.BrumaException
      */
     @Override
-    public void unlockRecord(final Lock.RecordLock recLock) 
+    public void unlockRecord(final Lock.RecordLock recLock)
                                                          throws BrumaException {
         throw new UnsupportedOperationException();
     }
 
     /**
-     * Writes a record into a database.
+     * Writes a record into the dirty set. If the dirty set is full, the
+     * caller writes it into the master files or, in write behind mode, waits
+     * for the background thread.
      * @param record Isis record
      * @throws org.bruma.BrumaException
      * @return record master file number
@@ -435,56 +584,211 @@ public class BufferedMaster implements MasterInterface {
         if (record == null) {
             throw new BrumaException("writeRecord/null record");
         }
-                
-        final int mfn = record.getMfn();
+        if (record.getMfn() < 0) {
+            throw new BrumaException("writeRecord/id out of range < 0");
+        }
+
         final boolean isFFI = info.isFfi();
-        final int size = 
-                      record.getRecordLength(info.getEncoding(), isFFI);
-        
+        final int size =
+                      record.getRecordLength(mst.getEncoding(), isFFI);
+        final Record rec = copy(record);
+        final boolean full;
+        int mfn;
+
         if (isFFI) {
             if (size > MasterInterface.MAXMFRL_POSSIBLE) {
-                throw new BrumaException("writeRecord/record size[" + size 
+                throw new BrumaException("writeRecord/record size[" + size
                         + "] > " +  MasterInterface.MAXMFRL_POSSIBLE);
             }
         } else {
             if (size > MasterInterface.MAXMFRL_ISIS) {
-                throw new BrumaException("writeRecord/record size[" + size 
+                throw new BrumaException("writeRecord/record size[" + size
                         + "] > " +  MasterInterface.MAXMFRL_ISIS);
             }
         }
-                
-        
-        return addBufferedRecord(record, true);
-    }
-    
-    private void removeOldRecordHolder() {
-        final Map.Entry<Long,RecordHolder> entry = memory.firstEntry();                
-        final RecordHolder holder = entry.getValue();
-        
-        mfns.remove(holder.rec.getMfn());
-        memory.remove(holder.date);
-    }
-    
-    private int addBufferedRecord(final Record record,
-                                    final boolean save) throws BrumaException {
-        assert record != null;
-        
-        int mfn = record.getMfn();
-        boolean sv = save;
-        
-        if (mfn == 0) {
-            mfn = lastMfn++;
-            record.setMfn(mfn);
-            sv = true;
-        }
-        final RecordHolder newHolder = new RecordHolder(record, sv);
-        
-        if ((!mfns.containsKey(mfn)) && (memory.size() > MAX_RECORDS)) {
-            removeOldRecordHolder();
-        } 
-        mfns.put(mfn, newHolder.date);
-        memory.put(newHolder.date, newHolder);
-        
+
+        synchronized (this) {
+            if (flushError != null) {   // the dirty records are tried again
+                flushError = null;
+                notifyAll();
+            }
+            mfn = rec.getMfn();
+            if (mfn == 0) {
+                mfn = ++lastMfn;
+                rec.setMfn(mfn);
+                record.setMfn(mfn);
+            } else if (mfn > lastMfn) {
+                lastMfn = mfn;
+            }
+
+            final RecordHolder old = dirty.put(mfn,
+                                                new RecordHolder(rec, size));
+            final boolean wasEmpty = (old == null) && (dirty.size() == 1);
+
+            if (old != null) {
+                dirtyBytes -= old.size;
+            }
+            dirtyBytes += size;
+            writeSeq++;
+            writes++;
+            clean.remove(mfn);
+            full = (dirtyBytes > maxDirtyBytes);
+            if ((flusher != null) &&
+                            (wasEmpty || (dirtyBytes >= maxDirtyBytes / 2))) {
+                notifyAll();
+            }
+            if (full && (flusher != null)) {
+                try {
+                    while ((dirtyBytes > maxDirtyBytes) && (flushError == null)
+                                                           && (!stopping)) {
+                        wait();
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new BrumaException("writeRecord/interrupted");
+                }
+                if (flushError != null) {
+                    throw new BrumaException("writeRecord/"
+                                                   + flushError.getMessage());
+                }
+            }
+        }
+        if (full && (flusher == null)) {
+            flushBatch();
+        }
+
         return mfn;
     }
-}
\ No newline at end of file
+
+    private synchronized int getLastMfn() {
+        return lastMfn;
+    }
+
+    /**
+     * @param record record to be copied
+     * @return a new record with the same mfn, status and fields
+     * @throws BrumaException
+     */
+    private Record copy(final Record record) throws BrumaException {
+        final Record rec = mst.newRecord();
+
+        rec.setMfn(record.getMfn());
+        rec.setStatus(record.getStatus());
+        rec.setActiveStatus(record.getActiveStatus());
+        rec.setLockStatus(record.getLockStatus());
+        for (Field field : record) {
+            rec.addField(field.getId(), field.getIdStr(), field.getContent());
+        }
+
+        return rec;
+    }
+
+    private void startFlusher() {
+        if (writeBehind) {
+            synchronized (this) {
+                stopping = false;
+            }
+            flusher = new Flusher();
+            flusher.start();
+        }
+    }
+
+    private void stopFlusher() throws BrumaException {
+        final Flusher thread = flusher;
+
+        if (thread != null) {
+            synchronized (this) {
+                stopping = true;
+                notifyAll();
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new BrumaException("close/interrupted");
+            }
+            flusher = null;
+        }
+    }
+
+    /**
+     * Waits until there are dirty records to be written. After the first
+     * write it waits a little more so that the next writes go in the same
+     * batch, unless the dirty set is half full or a flush was requested.
+     * @return false if the flusher should stop
+     * @throws InterruptedException
+     */
+    private synchronized boolean waitDirty() throws InterruptedException {
+        while ((!stopping) && (dirty.isEmpty() || (flushError != null))) {
+            wait();
+        }
+        if ((!stopping) && (!flushRequested)
+                                     && (dirtyBytes < maxDirtyBytes / 2)) {
+            wait(FLUSH_DELAY);
+        }
+        flushRequested = false;
+
+        return !stopping;
+    }
+
+    /**
+     * Writes all dirty records into the master files in mfn order. Only one
+     * batch is written at a time, so older versions of a record are never
+     * written after newer ones. If the write fails, the records go back to
+     * the dirty set.
+     * @throws BrumaException
+     */
+    private void flushBatch() throws BrumaException {
+        synchronized (mst) {
+            final TreeMap<Integer,RecordHolder> batch;
+            final long seq;
+            BrumaException error = null;
+
+            synchronized (this) {
+                if (dirty.isEmpty()) {
+                    flushedSeq = writeSeq;
+                    notifyAll();
+                    return;
+                }
+                batch = dirty;
+                dirty = new TreeMap<Integer,RecordHolder>();
+                flushing = batch;
+                seq = writeSeq;
+            }
+            try {
+                final List<Record> recs = new ArrayList<Record>(batch.size());
+
+                // the buffered records can be read while they are written
+                for (RecordHolder holder : batch.values()) {
+                    recs.add(copy(holder.rec));
+                }
+                mst.writeRecords(recs);
+            } catch (BrumaException zex) {
+                error = zex;
+            }
+            synchronized (this) {
+                flushing = null;
+                if (error == null) {
+                    for (RecordHolder holder : batch.values()) {
+                        dirtyBytes -= holder.size;
+                    }
+                    flushedSeq = seq;
+                } else {
+                    for (Map.Entry<Integer,RecordHolder> entry
+                                                        : batch.entrySet()) {
+                        if (dirty.containsKey(entry.getKey())) {
+                            dirtyBytes -= entry.getValue().size;
+                        } else {
+                            dirty.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    flushError = error;
+                }
+                notifyAll();
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
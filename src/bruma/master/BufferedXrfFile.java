@@ -23,7 +23,10 @@ package bruma.master;
 
 import bruma.BrumaException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  *
@@ -35,6 +38,9 @@ public class BufferedXrfFile extends XrfFile {
     private int lastMfn;
     private boolean modified;
     private boolean autoCommit;
+    private boolean batch;
+    /** file blocks written in batch mode, as they were before the batch */
+    private final Map<Integer,byte[]> savedBlocks;
 
     /**
      * Create a new BufferedXrfFile object.
@@ -77,6 +83,8 @@ public class BufferedXrfFile extends XrfFile {
         }
         this.lastMfn = lastMfn;
         this.autoCommit = autoCommit;
+        batch = false;
+        savedBlocks = new HashMap<Integer,byte[]>();
         buffer = new int[XRF_NRINBUFFER + 1];
         modified = false;
         /*try {
@@ -91,7 +99,7 @@ public class BufferedXrfFile extends XrfFile {
      * @throws BrumaException
      */
     @Override
-    void close() throws BrumaException {
+    synchronized void close() throws BrumaException {
         try {
             writeBuffer();
         } catch(IOException ioe) {
@@ -105,11 +113,79 @@ public class BufferedXrfFile extends XrfFile {
      * @throws BrumaException
      */
     @Override
-    void reset() throws BrumaException {
+    synchronized void reset() throws BrumaException {
         super.reset();
         initializeBuffer(1);
     }
 
+    /**
+     * Starts the batch mode. The pointers are already buffered, so it writes
+     * the buffer and suspends the auto commit.
+     * @throws BrumaException
+     */
+    @Override
+    synchronized void beginBatch() throws BrumaException {
+        if (batch) {
+            throw new BrumaException("beginBatch/already in batch mode");
+        }
+        try {
+            writeBuffer();
+        } catch(IOException ioe) {
+            throw new BrumaException("beginBatch/" + ioe.getMessage());
+        }
+        savedBlocks.clear();
+        batch = true;
+    }
+
+    /**
+     * Writes the buffer if necessary and leaves the batch mode.
+     * @throws BrumaException
+     */
+    @Override
+    synchronized void commitBatch() throws BrumaException {
+        if (batch) {
+            batch = false;
+            savedBlocks.clear();
+            try {
+                writeBuffer();
+            } catch(IOException ioe) {
+                throw new BrumaException("commitBatch/" + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Leaves the batch mode discarding the buffered pointers. The blocks
+     * written when the buffer moved to another block are written back as
+     * they were before the batch.
+     * @param lastMfn last mfn of the master control record
+     * @throws BrumaException
+     */
+    @Override
+    synchronized void abortBatch(final int lastMfn) throws BrumaException {
+        if (batch) {
+            batch = false;
+            this.lastMfn = lastMfn;
+            Arrays.fill(buffer, 0);   // no block, read again when needed
+            modified = false;
+            try {
+                for (Map.Entry<Integer,byte[]> entry : savedBlocks.entrySet()) {
+                    fc.write(ByteBuffer.wrap(entry.getValue()),
+                                 (entry.getKey() - 1) * (long)XRF_BLOCKSIZE);
+                }
+            } catch(IOException ioe) {
+                throw new BrumaException("abortBatch/" + ioe.getMessage());
+            } finally {
+                savedBlocks.clear();
+            }
+        }
+    }
+
+    @Override
+    boolean inBatch() {
+        return batch;
+    }
+
     /**
      * Reads the xrf info of a specif record.
      * @param mfn record id
@@ -117,13 +193,64 @@ public class BufferedXrfFile extends XrfFile {
      * @throws BrumaException
      */
     @Override
-    public XrfInfo readXrfInfo(final int mfn) throws BrumaException {
+    public synchronized XrfInfo readXrfInfo(final int mfn)
+                                                        throws BrumaException {
         final int packedMfp = buffer[getBufferPos(mfn)];
 
 //System.out.println("mfn=" + mfn + " packedMfp=" + packedMfp);
         return readXrfInfoAux(mfn, packedMfp);
     }
 
+    /**
+     * Reads the xrf info of a specif record without changing the buffer. If
+     * the pointer is in the buffered block it is taken from there (it can
+     * have changes not yet written), otherwise it is read from the file.
+     * @param mfn record id
+     * @return XrfInfo - xrf pointer information
+     * @throws BrumaException
+     */
+    @Override
+    public XrfInfo readXrfInfoConcurrent(final int mfn)
+                                                        throws BrumaException {
+        final int packedMfp;
+
+        synchronized (this) {
+            if ((mfn <= 0) || (mfn > lastMfn)) {
+                throw new BrumaException("readXrfInfoConcurrent/mfn[" + mfn +
+                                                              "] out of range");
+            }
+            final int cBlock = ((mfn - 1) / XRF_NRINBUFFER) + 1;
+
+            packedMfp = (cBlock == Math.abs(buffer[0]))
+                                 ? buffer[((mfn - 1) % XRF_NRINBUFFER) + 1] : 0;
+        }
+
+        return (packedMfp == 0) ? super.readXrfInfoConcurrent(mfn)
+                                : readXrfInfoAux(mfn, packedMfp);
+    }
+
+    /**
+     * Reads the pointers of a block from the file or from the buffer, if it
+     * is the buffered block (it can have changes not yet written).
+     * @param blk block number (0..)
+     * @param ptrs array that receives the pointers
+     * @return false if the block does not exist
+     * @throws BrumaException
+     */
+    @Override
+    synchronized boolean readBlock(final int blk,
+                                   final int[] ptrs) throws BrumaException {
+        final boolean ret;
+
+        if (blk + 1 == Math.abs(buffer[0])) {
+            System.arraycopy(buffer, 1, ptrs, 0, XRF_NRINBUFFER);
+            ret = true;
+        } else {
+            ret = super.readBlock(blk, ptrs);
+        }
+        return ret;
+    }
+
     /**
      * Writes the xrf pointer of a record in the xrf file.
      * @param info XrfInfo xrf pointer info
@@ -131,7 +258,8 @@ public class BufferedXrfFile extends XrfFile {
      * @throws BrumaException
      */
     @Override
-    public int writeXrfInfo(final XrfInfo info) throws BrumaException {
+    public synchronized int writeXrfInfo(final XrfInfo info)
+                                                        throws BrumaException {
         if (info == null) {
             throw new BrumaException("writeXrfInfo/null info");
         }
@@ -153,7 +281,7 @@ public class BufferedXrfFile extends XrfFile {
         buffer[getBufferPos(info.getMfn())] = packedMfp;
         modified = true;
         try {
-            if (autoCommit) {
+            if (autoCommit && !batch) {
                 writeBuffer();
             }
         } catch (IOException ioe) {
@@ -267,6 +395,9 @@ public class BufferedXrfFile extends XrfFile {
     private void writeBuffer() throws IOException {
 //System.out.println("writeBuffer - modified=" + modified + " bloco=" + buffer[0]);
         if (modified) {
+            if (batch) {
+                saveBlock(Math.abs(buffer[0]));
+            }
             fc.position((Math.abs(buffer[0]) - 1) * XRF_BLOCKSIZE);
             bBuffer.clear();
             bBuffer.asIntBuffer().put(buffer);
@@ -275,4 +406,28 @@ public class BufferedXrfFile extends XrfFile {
             modified = false;
         }
     }
+
+    /**
+     * Keeps the file image of a block the first time it is written in batch
+     * mode, so that abortBatch() can put it back. Blocks beyond the end of
+     * the file are not kept, their pointers are past the last mfn.
+     * @param bNum xrf block number
+     * @throws IOException
+     */
+    private void saveBlock(final int bNum) throws IOException {
+        assert bNum > 0;
+
+        final long pos = (bNum - 1) * (long)XRF_BLOCKSIZE;
+
+        if (!savedBlocks.containsKey(bNum) && (pos < fc.size())) {
+            final ByteBuffer image = ByteBuffer.allocate(XRF_BLOCKSIZE);
+
+            while (image.hasRemaining()) {
+                if (fc.read(image, pos + image.position()) < 0) {
+                    break;
+                }
+            }
+            savedBlocks.put(bNum, image.array());
+        }
+    }
 }
@@ -0,0 +1,403 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MasterInterface that keeps the most read records of another one in a
+ * RecordCache. The records are cached as compact byte arrays, not as Record
+ * objects, and each getRecord call returns a new Record object that can be
+ * changed by the caller. Only getRecord calls go through the cache: writes,
+ * deletions and locks are passed to the other master and remove the record
+ * from the cache, and the iterator reads the other master directly so that
+ * a full scan does not flush the cache. Records changed by other processes
+ * are not noticed, so do not use it with masters shared in multiuser mode.
+ * Usage:
+ * <pre>
+ *   final CachedMaster mst = new CachedMaster(
+ *                             MasterFactory.getInstance("lilacs").open(),
+ *                             new ClockRecordCache(64 * 1024 * 1024));
+ * </pre>
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class CachedMaster implements MasterInterface {
+    private static final int HEADER_SIZE = 19;
+    private static final int DIR_ENTRY_SIZE = 8;
+    private static final Record.Status[] STATUS = Record.Status.values();
+    private static final Record.ActiveStatus[] ACT_STATUS =
+                                                Record.ActiveStatus.values();
+    private static final Record.LockStatus[] LCK_STATUS =
+                                                  Record.LockStatus.values();
+
+    private final MasterInterface mst;
+    private final RecordCache cache;
+    private final String encoding;
+    private final ThreadLocal<RecordCodec> codecs;
+    private long writes;  // number of cache invalidations
+
+    /**
+     * @param mst the cached master
+     * @param cache the record cache
+     * @throws BrumaException
+     */
+    public CachedMaster(final MasterInterface mst,
+                        final RecordCache cache) throws BrumaException {
+        if (mst == null) {
+            throw new BrumaException("CachedMaster/null master");
+        }
+        if (cache == null) {
+            throw new BrumaException("CachedMaster/null cache");
+        }
+        this.mst = mst;
+        this.cache = cache;
+        // records of a Master were decoded from its encoding, so they can be
+        // encoded back without loss, records of other masters can not.
+        encoding = (mst instanceof Master) ? mst.getEncoding() : "UTF-8";
+        codecs = new ThreadLocal<RecordCodec>();
+        writes = 0;
+        cache.clear();
+    }
+
+    /**
+     * @return the record cache with its hit and miss counters
+     */
+    public RecordCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the cached master
+     */
+    public MasterInterface getMaster() {
+        return mst;
+    }
+
+    @Override
+    public void close() throws BrumaException {
+        invalidateAll();
+        mst.close();
+    }
+
+    @Override
+    public boolean delete() throws BrumaException {
+        invalidateAll();
+        return mst.delete();
+    }
+
+    @Override
+    public void deleteRecord(final int mfn) throws BrumaException {
+        try {
+            mst.deleteRecord(mfn);
+        } finally {
+            invalidate(mfn);
+        }
+    }
+
+    @Override
+    public void forceUnlockRecord(final int mfn) throws BrumaException {
+        try {
+            mst.forceUnlockRecord(mfn);
+        } finally {
+            invalidate(mfn);
+        }
+    }
+
+    @Override
+    public Control getControlRecord() throws BrumaException {
+        return mst.getControlRecord();
+    }
+
+    @Override
+    public int getDataAlignment() {
+        return mst.getDataAlignment();
+    }
+
+    @Override
+    public String getEncoding() {
+        return mst.getEncoding();
+    }
+
+    @Override
+    public int getGigaSize() {
+        return mst.getGigaSize();
+    }
+
+    @Override
+    public Record getLockRecord(final int mfn,
+                                final Lock.RecordLock[] recLock)
+                                                        throws BrumaException {
+        try {
+            return mst.getLockRecord(mfn, recLock);
+        } finally {
+            invalidate(mfn);
+        }
+    }
+
+    @Override
+    public String getMasterName() {
+        return mst.getMasterName();
+    }
+
+    @Override
+    public int getMaxRecSize() throws BrumaException {
+        return mst.getMaxRecSize();
+    }
+
+    /**
+     * Reads a record from the cache or, if it is not there, from the cached
+     * master. This function can be called by many threads at the same time
+     * if the cached master supports it.
+     * @param mfn record master file number
+     * @return the readen record.
+     * @throws BrumaException
+     */
+    @Override
+    public Record getRecord(final int mfn) throws BrumaException {
+        final byte[] bytes = cache.get(mfn);
+        final Record rec;
+
+        if (bytes == null) {
+            final long stamp = getWrites();
+
+            rec = mst.getRecord(mfn);
+            if (rec != null) {
+                final byte[] encoded = encode(rec);
+
+                if (encoded != null) {
+                    synchronized (this) {
+                        if (stamp == writes) { // no write during the read
+                            cache.put(mfn, encoded);
+                        }
+                    }
+                }
+            }
+        } else {
+            rec = decode(bytes);
+        }
+
+        return rec;
+    }
+
+    @Override
+    public boolean isFFI() {
+        return mst.isFFI();
+    }
+
+    @Override
+    public boolean isInMemoryMst() {
+        return mst.isInMemoryMst();
+    }
+
+    @Override
+    public boolean isMultiuser() {
+        return mst.isMultiuser();
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return mst.iterator();
+    }
+
+    @Override
+    public Lock.RecordLock lockRecord(final Record record)
+                                                        throws BrumaException {
+        try {
+            return mst.lockRecord(record);
+        } finally {
+            if (record != null) {
+                invalidate(record.getMfn());
+            }
+        }
+    }
+
+    @Override
+    public Record newRecord() throws BrumaException {
+        return mst.newRecord();
+    }
+
+    @Override
+    public List<Integer> regExpSearch(final String expression,
+                                      final int maxHits) throws BrumaException {
+        return mst.regExpSearch(expression, maxHits);
+    }
+
+    @Override
+    public void unlock() throws BrumaException {
+        try {
+            mst.unlock();
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void unlockRecord(final Lock.RecordLock recLock)
+                                                        throws BrumaException {
+        try {
+            mst.unlockRecord(recLock);
+        } finally {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public int writeRecord(final Record record) throws BrumaException {
+        final int mfn;
+
+        try {
+            mfn = mst.writeRecord(record);
+        } finally {
+            if (record != null) {
+                invalidate(record.getMfn());
+            }
+        }
+        invalidate(mfn);
+
+        return mfn;
+    }
+
+    private synchronized long getWrites() {
+        return writes;
+    }
+
+    private synchronized void invalidate(final int mfn) {
+        writes++;
+        cache.remove(mfn);
+    }
+
+    private synchronized void invalidateAll() {
+        writes++;
+        cache.clear();
+    }
+
+    private RecordCodec getCodec() throws BrumaException {
+        RecordCodec codec = codecs.get();
+
+        if (codec == null) {
+            codec = new RecordCodec(encoding);
+            codecs.set(codec);
+        }
+
+        return codec;
+    }
+
+    /**
+     * Record bytes layout: mfn(4) mfbwb(4) mfbwp(4) status(1) actStatus(1)
+     * lckStatus(1) nvf(4), nvf * [tag(4) length(4)], field contents.
+     * @return the record bytes or null if a field has no numeric tag or a
+     *         tag name that is not in the master tag table
+     */
+    private byte[] encode(final Record rec) throws BrumaException {
+        final List<Field> fields = rec.getFields();
+        final int nvf = fields.size();
+        final Map<Integer,String> tags = getTags();
+
+        for (Field fld : fields) {
+            final String name = fld.getIdStr();
+
+            if (fld.getId() <= 0) {
+                return null;
+            }
+            if ((name != null) && ((tags == null)
+                                   || !name.equals(tags.get(fld.getId())))) {
+                return null;
+            }
+        }
+
+        final RecordCodec codec = getCodec();
+        final int dataLen = codec.encode(fields);
+        final ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE
+                                           + nvf * DIR_ENTRY_SIZE + dataLen);
+
+        bb.putInt(rec.getMfn());
+        bb.putInt(rec.getBlockNumber());
+        bb.putInt(rec.getBlockPos());
+        bb.put(ordinal(rec.getStatus()));
+        bb.put(ordinal(rec.getActiveStatus()));
+        bb.put(ordinal(rec.getLockStatus()));
+        bb.putInt(nvf);
+        for (int idx = 0; idx < nvf; idx++) {
+            bb.putInt(fields.get(idx).getId());
+            bb.putInt(codec.getLength(idx));
+        }
+        bb.put(codec.getBytes());
+
+        return bb.array();
+    }
+
+    private Record decode(final byte[] bytes) throws BrumaException {
+        final RecordCodec codec = getCodec();
+        final ByteBuffer bb = ByteBuffer.wrap(bytes);
+        final Record rec = mst.newRecord();
+        final Map<Integer,String> tags = getTags();
+
+        try {
+            rec.setMfn(bb.getInt());
+            rec.setBlockNumber(bb.getInt());
+            rec.setBlockPos(bb.getInt());
+
+            final byte status = bb.get();
+            final byte actStatus = bb.get();
+            final byte lckStatus = bb.get();
+            final int nvf = bb.getInt();
+            final ByteBuffer data = bb.duplicate();
+            int pos = HEADER_SIZE + nvf * DIR_ENTRY_SIZE;
+
+            rec.setStatus((status < 0) ? null : STATUS[status]);
+            rec.setActiveStatus((actStatus < 0) ? null
+                                                : ACT_STATUS[actStatus]);
+            rec.setLockStatus((lckStatus < 0) ? null : LCK_STATUS[lckStatus]);
+            for (int idx = 0; idx < nvf; idx++) {
+                final int tag = bb.getInt();
+                final int len = bb.getInt();
+                final String name = (tags == null) ? null : tags.get(tag);
+
+                data.limit(pos + len);
+                data.position(pos);
+                rec.addField((name == null)
+                             ? new Field(tag, codec.decode(data))
+                             : new Field(tag, name, codec.decode(data)));
+                pos += len;
+            }
+        } catch (BrumaException zex) {
+            throw zex;
+        } catch (Exception ex) {
+            throw new BrumaException("CachedMaster/decode/" + ex);
+        }
+
+        return rec;
+    }
+
+    private Map<Integer,String> getTags() {
+        return (mst instanceof Master) ? ((Master)mst).getTags() : null;
+    }
+
+    private static byte ordinal(final Enum<?> value) {
+        return (byte)((value == null) ? -1 : value.ordinal());
+    }
+}
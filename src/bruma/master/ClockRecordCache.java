@@ -0,0 +1,225 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * RecordCache bounded by the number of bytes of the cached records. It uses
+ * a generalized CLOCK policy: each record has a small reference counter that
+ * is incremented by each hit and decremented each time the clock hand passes
+ * over it, and the first record found with a zero counter is evicted. New
+ * records enter with a zero counter, so records read only once do not push
+ * the frequently read ones out of the cache.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class ClockRecordCache implements RecordCache {
+    /**
+     * Maximum value of the record reference counter.
+     */
+    public static final int MAX_COUNT = 3;
+
+    private static final int ENTRY_OVERHEAD = 64; // bytes per cached record
+
+    private static class Entry {
+        private final int mfn;
+        private final byte[] bytes;
+        private int count;
+        private int slot;
+
+        private Entry(final int mfn,
+                      final byte[] bytes) {
+            this.mfn = mfn;
+            this.bytes = bytes;
+            count = 0;
+            slot = -1;
+        }
+
+        private int weight() {
+            return bytes.length + ENTRY_OVERHEAD;
+        }
+    }
+
+    private final long maxWeight;
+    private final Map<Integer,Entry> entries;
+    private Entry[] ring;      // clock slots, null if the slot is free
+    private int ringSize;      // number of used slots (including free ones)
+    private int[] free;        // free slots
+    private int nfree;
+    private int hand;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxWeight maximum number of bytes of the cached records
+     * @throws BrumaException
+     */
+    public ClockRecordCache(final long maxWeight) throws BrumaException {
+        if (maxWeight <= 0) {
+            throw new BrumaException("ClockRecordCache/maxWeight["
+                                                      + maxWeight + "] <= 0");
+        }
+        this.maxWeight = maxWeight;
+        entries = new HashMap<Integer,Entry>();
+        ring = new Entry[1024];
+        free = new int[1024];
+        clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public synchronized byte[] get(final int mfn) {
+        final Entry entry = entries.get(mfn);
+        final byte[] ret;
+
+        if (entry == null) {
+            misses++;
+            ret = null;
+        } else {
+            hits++;
+            if (entry.count < MAX_COUNT) {
+                entry.count++;
+            }
+            ret = entry.bytes;
+        }
+
+        return ret;
+    }
+
+    @Override
+    public synchronized void put(final int mfn,
+                                 final byte[] bytes) {
+        assert bytes != null;
+
+        final Entry entry = new Entry(mfn, bytes);
+        final int eweight = entry.weight();
+
+        remove(mfn);
+        if (eweight <= maxWeight) {
+            while (weight + eweight > maxWeight) {
+                evict();
+            }
+            if (nfree > 0) {
+                entry.slot = free[--nfree];
+            } else {
+                if (ringSize == ring.length) {
+                    ring = Arrays.copyOf(ring, 2 * ring.length);
+                    free = Arrays.copyOf(free, 2 * free.length);
+                }
+                entry.slot = ringSize++;
+            }
+            ring[entry.slot] = entry;
+            entries.put(mfn, entry);
+            weight += eweight;
+        }
+    }
+
+    @Override
+    public synchronized void remove(final int mfn) {
+        final Entry entry = entries.get(mfn);
+
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+        Arrays.fill(ring, null);
+        ringSize = 0;
+        nfree = 0;
+        hand = 0;
+        weight = 0;
+    }
+
+    @Override
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    @Override
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return the maximum number of bytes of the cached records
+     */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Moves the clock hand until a record with a zero counter is found and
+     * evicts it. Must be called only if the cache is not empty.
+     */
+    private void evict() {
+        assert !entries.isEmpty();
+
+        while (true) {
+            if (hand >= ringSize) {
+                hand = 0;
+            }
+            final Entry entry = ring[hand++];
+
+            if (entry != null) {
+                if (entry.count == 0) {
+                    removeEntry(entry);
+                    evictions++;
+                    break;
+                }
+                entry.count--;
+            }
+        }
+    }
+
+    private void removeEntry(final Entry entry) {
+        entries.remove(entry.mfn);
+        ring[entry.slot] = null;
+        free[nfree++] = entry.slot;
+        weight -= entry.weight();
+    }
+}
@@ -62,19 +62,15 @@ class DbType {
         }
         bBuffer.rewind();
         block = bBuffer.getInt();
-        if (block < 1) {
-            throw new IOException("DbType/block[" + block + "] < 1");
-        }
         pos = bBuffer.getShort();
-        if (pos < 1) {
-            throw new IOException("DbType/pos[" + pos + "] < 1");
-        }
+        // A big endian master read as little endian may have negative values.
         //fpos = ((block > 0) ? ((long)(block - 1) * 512) : 0) + pos - 1;
         fpos = (long)(pos == 1 ? (block - 1) : block) * 512;
 //System.out.println("bloco=" + block + " pos=" + pos + " fpos=" + fpos);        
         //if (size == fpos) {
         //if ((size >= fpos - 512) && (size <= fpos + 512)) {
-        if ((size >= fpos - 1024) && (size <= fpos + 1024)) {
+        if ((block >= 1) && (pos >= 1) &&
+                           (size >= fpos - 1024) && (size <= fpos + 1024)) {
             swapped = true;
         } else {
             bBuffer =
@@ -87,7 +83,13 @@ class DbType {
             }
             bBuffer.rewind();
             block = bBuffer.getInt();
+            if (block < 1) {
+                throw new IOException("DbType/block[" + block + "] < 1");
+            }
             pos = bBuffer.getShort();
+            if (pos < 1) {
+                throw new IOException("DbType/pos[" + pos + "] < 1");
+            }
             //fpos = ((block > 0) ? ((long)(block - 1) * 512) : 0) + pos - 1;
             //if (size == fpos) {
             fpos = (long)(pos == 1 ? (block - 1) : block) * 512;
@@ -22,11 +22,11 @@
 package bruma.master;
 
 import bruma.BrumaException;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  *
@@ -34,13 +34,20 @@ import java.util.regex.Pattern;
  */
 public class Field implements Iterable<Subfield>, Comparable<Field> {
     public static final int NO_TAG = -1;
-    private static final Pattern pat = Pattern.compile(            
-      "(\\^([A-Za-z0-9]))?(.*?)(?=\\^[A-Za-z0-9]|$)");//"(\\^(\\w))?([^\\^]+)");
-    
-    private final int tag;
-    private final String tagStr;
-    private final String content;
+
+    static final String XML_CHARS = "<>";
+    static final String[] XML_ENTITIES = {"&lt;", "&gt;"};
+    static final String QUOTE_CHARS = "\"";
+    static final String[] QUOTE_ENTITIES = {"&quot;"};
+    static final String[] QUOTE_ESCAPES = {"\\\""};
+    static final String JSON_CHARS = "\\\"";
+    static final String[] JSON_ESCAPES = {"\\\\", "\\\""};
+
+    private int tag;
+    private String tagStr;
+    private String content;
     private List<Subfield> subfields;
+    private int[] subIndex;  // (id, begin, end) of each content subfield
 
     public Field(final int tag,
                  final CharSequence content) throws BrumaException {
@@ -102,6 +109,28 @@ public class Field implements Iterable<Subfield>, Comparable<Field> {
         subfields = null;
     }
 
+    /**
+     * Refills a field created by a record being reused. The caller is the
+     * owner of the field, so no validation is done here.
+     * @param tag field tag
+     * @param tagStr field tag string or null
+     * @param content field content
+     * @return this object
+     */
+    Field reset(final int tag,
+                final String tagStr,
+                final String content) {
+        assert content != null;
+
+        this.tag = tag;
+        this.tagStr = tagStr;
+        this.content = content;
+        subfields = null;
+        subIndex = null;
+
+        return this;
+    }
+
     /* Get field identifier. */
     public int getId() {
         return tag;
@@ -178,22 +207,14 @@ public class Field implements Iterable<Subfield>, Comparable<Field> {
      */
     public List<Subfield> getSubfields() throws BrumaException {
         if (subfields == null) {
-            final Matcher matcher = pat.matcher(content);
-
-            subfields = new ArrayList<Subfield>();
-
-            while (matcher.find()) {
-                final String sid = matcher.group(2);
-                final String subfield = matcher.group(3);
-                
-                if (sid == null) {
-                    if (!subfield.isEmpty()) {
-                        subfields.add(
-                                 new Subfield(Subfield.FIRST_SUB_ID, subfield));
-                    }
-                } else {
-                   subfields.add(new Subfield(sid.charAt(0), subfield));
-                }                
+            final int[] index = getSubIndex();
+
+            subfields = new ArrayList<Subfield>(index.length / 3);
+            for (int pos = 0; pos < index.length; pos += 3) {
+                final String sub = content.substring(index[pos + 1],
+                                                     index[pos + 2]);
+
+                subfields.add(new Subfield((char)index[pos], sub));
             }
         }
 
@@ -208,8 +229,14 @@ public class Field implements Iterable<Subfield>, Comparable<Field> {
      */
     public List<Subfield> getTagSubfields(final char id) throws BrumaException {
         final List<Subfield> ret = new ArrayList<Subfield>();
-        
-        if (id == Subfield.FIRST_SUB_ID) {
+
+        if (content == null) {
+            for (Subfield subfield : subfields) {
+                if (subfield.getId() == id) {
+                    ret.add(subfield);
+                }
+            }
+        } else if (id == Subfield.FIRST_SUB_ID) {
             final int idx = content.indexOf('^');
             if (idx == -1) {
                 ret.add(new Subfield(Subfield.FIRST_SUB_ID, content));
@@ -218,19 +245,14 @@ public class Field implements Iterable<Subfield>, Comparable<Field> {
                                                     content.substring(0, idx)));
             }
         } else {
-            final Matcher matcher = pat.matcher(content);
-            char id2;
-            String sid;
-            String subfield;
-
-            while (matcher.find()) {
-                sid = matcher.group(2);
-                if ((sid != null) && !sid.isEmpty()) {
-                    id2 = sid.charAt(0);
-                    if (id == id2) {
-                        subfield = matcher.group(3);
-                        ret.add(new Subfield(id, subfield));
-                    }
+            final int[] index = getSubIndex();
+
+            for (int pos = 0; pos < index.length; pos += 3) {
+                if (index[pos] == id) {
+                    final String sub = content.substring(index[pos + 1],
+                                                         index[pos + 2]);
+
+                    ret.add(new Subfield(id, sub));
                 }
             }
         }
@@ -252,9 +274,74 @@ public class Field implements Iterable<Subfield>, Comparable<Field> {
             throw new BrumaException("subfield occ[" + occ
                                                     + "] out of range <= 0");
         }
-        final List<Subfield> sub = getTagSubfields(id);
-        
-        return (sub.size() >= occ) ? sub.get(occ - 1) : null;
+        Subfield ret = null;
+
+        if ((content == null) || (id == Subfield.FIRST_SUB_ID)) {
+            final List<Subfield> sub = getTagSubfields(id);
+
+            ret = (sub.size() >= occ) ? sub.get(occ - 1) : null;
+        } else {
+            final int[] index = getSubIndex();
+            int curOcc = 0;
+
+            for (int pos = 0; pos < index.length; pos += 3) {
+                if ((index[pos] == id) && (++curOcc == occ)) {
+                    ret = new Subfield(id, content.substring(index[pos + 1],
+                                                             index[pos + 2]));
+                    break;
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Splits the content in subfields delimited by ^ followed by a letter or
+     * a digit. The first subfield (content before the first delimiter) is
+     * only included if it is not empty.
+     * @return a table with the id, begin and end positions of each subfield.
+     */
+    private int[] getSubIndex() {
+        if (subIndex == null) {
+            final int len = content.length();
+            int[] index = new int[24];
+            int size = 0;
+            int id = Subfield.FIRST_SUB_ID;
+            int begin = 0;
+
+            for (int pos = 0; pos < len - 1; pos++) {
+                if ((content.charAt(pos) == '^')
+                                       && isSubId(content.charAt(pos + 1))) {
+                    if ((id != Subfield.FIRST_SUB_ID) || (pos > 0)) {
+                        if (size + 3 > index.length) {
+                            index = Arrays.copyOf(index, 2 * index.length);
+                        }
+                        index[size++] = id;
+                        index[size++] = begin;
+                        index[size++] = pos;
+                    }
+                    id = content.charAt(++pos);
+                    begin = pos + 1;
+                }
+            }
+            if ((id != Subfield.FIRST_SUB_ID) || (len > 0)) {
+                if (size + 3 > index.length) {
+                    index = Arrays.copyOf(index, index.length + 3);
+                }
+                index[size++] = id;
+                index[size++] = begin;
+                index[size++] = len;
+            }
+            subIndex = Arrays.copyOf(index, size);
+        }
+
+        return subIndex;
+    }
+
+    private static boolean isSubId(final char ch) {
+        return ((ch >= 'a') && (ch <= 'z')) || ((ch >= 'A') && (ch <= 'Z'))
+                                            || ((ch >= '0') && (ch <= '9'));
     }
 
     @Override
@@ -268,72 +355,125 @@ public class Field implements Iterable<Subfield>, Comparable<Field> {
     }
 
     public String toXML() {
-        final String cont =
-                        getContent().replace("<", "&lt;").replace(">", "&gt;");
         final StringBuilder sb = new StringBuilder();
 
+        try {
+            writeXML(sb);
+        } catch (IOException ioe) {  // StringBuilder does not throw it
+            throw new IllegalStateException(ioe);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the field in the toXML() format.
+     * @param out output sink
+     * @throws IOException
+     */
+    public void writeXML(final Appendable out) throws IOException {
         if (tagStr == null) {
-            sb.append("<field tag='");
-            sb.append(tag);
-            sb.append("'>");
-            sb.append(cont);
-            sb.append("</field>");
+            out.append("<field tag='");
+            out.append(Integer.toString(tag));
+            out.append("'>");
+            appendEscaped(out, getContent(), XML_CHARS, XML_ENTITIES);
+            out.append("</field>");
         } else {
-            sb.append("<");
-            sb.append(tagStr);
-            sb.append(">");
-            sb.append(cont);
-            sb.append("</");
-            sb.append(tagStr);
-            sb.append(">");
+            out.append("<");
+            out.append(tagStr);
+            out.append(">");
+            appendEscaped(out, getContent(), XML_CHARS, XML_ENTITIES);
+            out.append("</");
+            out.append(tagStr);
+            out.append(">");
         }
-        return sb.toString();
     }
 
     public String toJSON() {
-        final String cont = getContent().replace("\"", "&quot;");
         final StringBuilder sb = new StringBuilder();
 
-        if (tagStr == null) {
-            sb.append("\"");
-            sb.append(tag);
-            sb.append("\" : \"");
-            sb.append(cont);
-            sb.append("\"");
-        } else {
-            sb.append("\"");
-            sb.append(tagStr);
-            sb.append("\" : \"");
-            sb.append(cont);
-            sb.append("\"");
+        try {
+            writeJSON(sb);
+        } catch (IOException ioe) {  // StringBuilder does not throw it
+            throw new IllegalStateException(ioe);
         }
         return sb.toString();
     }
-    
+
+    /**
+     * Writes the field in the toJSON() format.
+     * @param out output sink
+     * @throws IOException
+     */
+    public void writeJSON(final Appendable out) throws IOException {
+        out.append("\"");
+        out.append((tagStr == null) ? Integer.toString(tag) : tagStr);
+        out.append("\" : \"");
+        appendEscaped(out, getContent(), QUOTE_CHARS, QUOTE_ENTITIES);
+        out.append("\"");
+    }
+
     @Override
     public String toString() {
-        final String cont = getContent();
-                      //getContent().replace("<", "&lt;").replace(">", "&gt;");
         final StringBuilder sb = new StringBuilder();
 
-        if (tagStr == null) {
-            sb.append("<");
-            sb.append(tag);
-            sb.append(">");
-            sb.append(cont);
-            sb.append("</");
-            sb.append(tag);
-            sb.append(">");
-        } else {
-            sb.append("<");
-            sb.append(tagStr);
-            sb.append(">");
-            sb.append(cont);
-            sb.append("</");
-            sb.append(tagStr);
-            sb.append(">");
+        try {
+            writeWithTag(sb);
+        } catch (IOException ioe) {  // StringBuilder does not throw it
+            throw new IllegalStateException(ioe);
         }
-
         return sb.toString();
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes the field in the toString() format: &lt;tag&gt;content&lt;/tag&gt;
+     * @param out output sink
+     * @throws IOException
+     */
+    public void writeWithTag(final Appendable out) throws IOException {
+        final String id = (tagStr == null) ? Integer.toString(tag) : tagStr;
+
+        out.append("<");
+        out.append(id);
+        out.append(">");
+        out.append(getContent());
+        out.append("</");
+        out.append(id);
+        out.append(">");
+    }
+
+    /**
+     * Appends a text replacing each character found in chars by the string
+     * with the same index in replacements. Text runs without those characters
+     * are appended without copies.
+     * @param out output sink
+     * @param text text to be appended
+     * @param chars characters to be replaced
+     * @param replacements the replacement of each character
+     * @throws IOException
+     */
+    static void appendEscaped(final Appendable out,
+                              final String text,
+                              final String chars,
+                              final String[] replacements)
+                                                           throws IOException {
+        final int len = text.length();
+        int begin = 0;
+
+        for (int pos = 0; pos < len; pos++) {
+            final int idx = chars.indexOf(text.charAt(pos));
+
+            if (idx != -1) {
+                if (pos > begin) {
+                    out.append(text, begin, pos);
+                }
+                out.append(replacements[idx]);
+                begin = pos + 1;
+            }
+        }
+        if (begin == 0) {
+            out.append(text);
+        } else if (begin < len) {
+            out.append(text, begin, len);
+        }
+    }
+}
@@ -25,15 +25,15 @@ import bruma.BrumaException;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
 import java.util.GregorianCalendar;
 
 /**
- * 
+ * CISIS compatible master file locks. Threads of the same process are
+ * coordinated by a LockManager shared by all Lock objects of the same master
+ * file; the file locks are only used against other processes.
  * @author Heitor Barbieri
  */
 public class Lock {
@@ -41,7 +41,7 @@ public class Lock {
 
     private static final int SEGMENT_CONTROL_POS = 24;
     private static final int SEGMENT_LENGTH = 8;
-    private static final int DEFAULT_SEGMENT_TIMES = 3000;
+    private static final int CONTROL_SIZE = 32;
     private static final int DEFAULT_DEEWL_TIMES = 3000;
     private static final int DEFAULT_RECORDL_TIMES = 3000;
     private static long lockcount = 0L;
@@ -51,7 +51,7 @@ public class Lock {
         private int len;
         private int val1;
         private int val2;
-        private FileLock lock;
+        private LockManager.Hold lock;
 
         private SegmentLock(final long pos,
                             final int len) {
@@ -100,30 +100,41 @@ public class Lock {
         }
     }
 
+    private final LockManager manager;
     private final FileChannel fc;
     private final ByteOrder order;
     private final Master mst;
     private final boolean FFI;
-    private final int segmentTimes;
-    private final Object fileSync;
+    private final LockWaitPolicy policy;
     private int deewlTimes;
     private int reclTimes;
 
     public Lock(final Master mst) throws BrumaException {
+        this(mst, null);
+    }
+
+    /**
+     * @param mst master whose records will be locked
+     * @param policy how to wait for the locks. If null the master lock wait
+     *               policy is used.
+     * @throws BrumaException
+     */
+    public Lock(final Master mst,
+                final LockWaitPolicy policy) throws BrumaException {
         if (mst == null) {
             throw new BrumaException("Lock/null master file");
         }
         try {
             this.mst = mst;
             this.FFI = mst.isFFI();
-            segmentTimes = DEFAULT_SEGMENT_TIMES;
+            this.policy = (policy == null) ? mst.getLockWaitPolicy() : policy;
             deewlTimes = DEFAULT_DEEWL_TIMES;
             reclTimes = DEFAULT_RECORDL_TIMES;
-            fc = new RandomAccessFile(mst.getMasterName() + ".mst", "rw").
-                                                                   getChannel();
+            manager = LockManager.getInstance(mst.getMasterName() + ".mst",
+                                                                 CONTROL_SIZE);
+            fc = manager.getChannel();
             order = (mst.isSwapped() ?  ByteOrder.LITTLE_ENDIAN
                                      :  ByteOrder.BIG_ENDIAN);
-            fileSync = new Object();
         } catch(Exception ex) {
             throw new BrumaException(ex.toString());
         }
@@ -145,24 +156,14 @@ public class Lock {
         }
 
         final SegmentLock ret = new SegmentLock(pos, len);
+        final LockWaitPolicy.Wait wait = policy.start("segment");
 
         try {
-            for (int counter = 0; counter < segmentTimes; counter++) {
-                synchronized(fileSync) {
-                    ret.lock = fc.tryLock(pos, len, shared);
-                }
-                if (ret.lock != null) {
-                    break;
-                }
-                Thread.sleep(50);
-            }
-        }  catch(Exception ex) {
-            throw new BrumaException("lockSegment/" + ex.toString());
-        }
-
-        if (ret.lock == null) {
-            throw new BrumaException(
-                    "lockSegment/segment is locked by another");
+            ret.lock = manager.lock(pos, len, shared, policy, wait);
+            wait.done(true);
+        }  catch(BrumaException zex) {
+            wait.done(false, true);
+            throw new BrumaException("lockSegment/" + zex.getMessage());
         }
 
         assert (!ret.isUnlocked()) : "lockSegment/isUnlocked()";
@@ -177,11 +178,10 @@ public class Lock {
         }
 
         try {
-            if (sLock.lock != null) {
-                sLock.lock.release();
-            }
-        } catch(IOException ioe) {
-            throw new BrumaException("releaseLockSegment/ " + ioe.toString());
+            manager.unlock(sLock.lock);
+        } catch(BrumaException zex) {
+            throw new BrumaException("releaseLockSegment/ "
+                                                          + zex.getMessage());
         } finally {
             sLock.reset();
         }
@@ -197,14 +197,13 @@ public class Lock {
         }
 
         final ByteBuffer bb = ByteBuffer.allocate(SEGMENT_LENGTH).order(order);
-        final SegmentLock segLock = lockSegment(pos, SEGMENT_LENGTH, true);
+        // Exclusive because the segment is changed by writeUnlockSegment().
+        final SegmentLock segLock = lockSegment(pos, SEGMENT_LENGTH, false);
 
         try {
-            synchronized(fileSync) {
-                fc.position(pos);
-                if (fc.read(bb) != SEGMENT_LENGTH) {
-                    throw new BrumaException("readLockSegment/file read failed");
-                }
+            if (fc.read(bb, pos) != SEGMENT_LENGTH) {
+                releaseLockSegment(segLock);
+                throw new BrumaException("readLockSegment/file read failed");
             }
             bb.rewind();
             segLock.val1 = bb.getInt();
@@ -236,10 +235,7 @@ public class Lock {
                 bb.putShort((short)segLock.val2);
             }
             bb.rewind();
-            synchronized(fileSync) {
-                fc.position(pos);
-                fc.write(bb);
-            }
+            fc.write(bb, pos);
         } catch (IOException ioe) {
             throw new BrumaException("writeUnlockSegment/" + ioe.toString());
         } finally {
@@ -250,55 +246,66 @@ public class Lock {
     }
 
     public void setDataEntryLock() throws BrumaException {
+        final LockWaitPolicy.Wait wait = policy.start("dataEntry");
         int counter = 0;
-        SegmentLock segLock = null;
+        SegmentLock segLock;
 
-        while (counter++ < deewlTimes) {
+        while (true) {
             segLock = readLockSegment(SEGMENT_CONTROL_POS);
 
-            if (segLock.val1 < 0) { // DEL_Flag
+            final int del = segLock.val1; // DEL_Flag
+            final int ewl = segLock.val2; // EWL_Flag
+
+            if (del < 0) {
                 releaseLockSegment(segLock);
+                wait.done(false);
                 throw new BrumaException("setDataEntryLock/DEL_Flag["
-                                                    + segLock.val1 +  "] < 0");
+                                                            + del +  "] < 0");
             }
-            if (segLock.val2 == 0) { // EWL_Flag
+            if (ewl == 0) {
                 break;
             }
             releaseLockSegment(segLock);
+            if ((++counter >= deewlTimes) || !wait.pause()) {
+                wait.done(false, true);
+                throw new BrumaException("setDataEntryLock/EWL_Flag["
+                                                            + ewl + "] != 0");
+            }
         }
-
-        if (segLock.val2 != 0) { // EWL_Flag
-            releaseLockSegment(segLock);
-            throw new BrumaException("setDataEntryLock/EWL_Flag["
-                                                    + segLock.val2 + "] != 0");
-        }
+        wait.done(true);
 
         segLock.val1++; // DEL_Flag
         writeUnlockSegment(segLock);
     }
 
     public void resetDataEntryLock() throws BrumaException {
+        final LockWaitPolicy.Wait wait = policy.start("resetDataEntry");
         int counter = 0;
-        SegmentLock segLock = null;
+        SegmentLock segLock;
 
-        while (counter++ < deewlTimes) {
+        while (true) {
             segLock = readLockSegment(SEGMENT_CONTROL_POS);
-            if (segLock.val1 <= 0) { // DEL_Flag
+
+            final int del = segLock.val1; // DEL_Flag
+            final int ewl = segLock.val2; // EWL_Flag
+
+            if (del <= 0) {
                 releaseLockSegment(segLock);
+                wait.done(false);
                 throw new BrumaException("resetDataEntryLock/DEL_Flag["
-                                                    + segLock.val1 +  "] <= 0");
+                                                            + del +  "] <= 0");
             }
-            if (segLock.val2 == 0) { // EWL_Flag
+            if (ewl == 0) {
                 break;
             }
             releaseLockSegment(segLock);
+            if ((++counter >= deewlTimes) || !wait.pause()) {
+                wait.done(false, true);
+                throw new BrumaException("(resetDataEntryLock/EWL_Flag["
+                                                            + ewl + "] != 0)");
+            }
         }
-
-        if (segLock.val2 != 0) { // EWL_Flag
-            releaseLockSegment(segLock);
-            throw new BrumaException("(resetDataEntryLock/EWL_Flag["
-                                                    + segLock.val2 + "] != 0)");
-        }
+        wait.done(true);
 
         segLock.val1--; // DEL_Flag
 
@@ -306,27 +313,31 @@ public class Lock {
     }
 
     public EWLock setExclusiveWriteLock() throws BrumaException {
+        final LockWaitPolicy.Wait wait = policy.start("exclusiveWrite");
         int counter = 0;
-        SegmentLock segLock = null;
+        SegmentLock segLock;
 
-        while(counter++ < deewlTimes) {
+        while (true) {
             segLock = readLockSegment(SEGMENT_CONTROL_POS);
-            // DEL_Flag, EWL_Flag
-            if ((segLock.val1 == 0) && (segLock.val2 == 0)) {
+
+            final int del = segLock.val1; // DEL_Flag
+            final int ewl = segLock.val2; // EWL_Flag
+
+            if ((del == 0) && (ewl == 0)) {
                 break;
             }
             releaseLockSegment(segLock);
+            if ((++counter >= deewlTimes) || !wait.pause()) {
+                wait.done(false, true);
+                if (del != 0) {
+                    throw new BrumaException("setExclusiveWriteLock/DEL_Flag["
+                                                            + del +  "] < 0");
+                }
+                throw new BrumaException("setExclusiveWriteLock/EWL_Flag["
+                                                            + ewl + "] != 0)");
+            }
         }
-        if (segLock.val1 != 0) { // DEL_Flag
-            releaseLockSegment(segLock);
-            throw new BrumaException("setExclusiveWriteLock/DEL_Flag["
-                                                    + segLock.val1 +  "] < 0");
-        }
-        if (segLock.val2 != 0) { // EWL_Flag
-            releaseLockSegment(segLock);
-            throw new BrumaException("setExclusiveWriteLock/EWL_Flag["
-                                                    + segLock.val2 + "] != 0)");
-        }
+        wait.done(true);
 
         segLock.val2++;  // EWL_Flag
         writeUnlockSegment(segLock);
@@ -380,6 +391,7 @@ public class Lock {
 
         final Record.Status[] recStatus = new Record.Status[1];
         final Record.ActiveStatus[] actStatus = new Record.ActiveStatus[1];
+        final RecordLock ret = new RecordLock(mfn);
         long pos = mst.getMasterPosition(mfn, recStatus, actStatus);
         int counter = 0;
         SegmentLock segLock = null;
@@ -390,6 +402,15 @@ public class Lock {
             throw new BrumaException("lockRecord/record is not active");
         }
 
+        final LockWaitPolicy.Wait wait = policy.start("record");
+
+        // Waits for the threads of this process without reading the file.
+        try {
+            manager.lockRecord(mfn, ret, wait);
+        } catch (BrumaException zex) {
+            wait.done(false, true);
+            throw zex;
+        }
         try {
             while (counter++ < reclTimes) {
                 setDataEntryLock();
@@ -413,8 +434,14 @@ public class Lock {
                 sLock = false;
                 resetDataEntryLock();
                 delLock = false;
+                if (!wait.pause()) {
+                    counter = reclTimes + 1;
+                    break;
+                }
             }
         } catch(BrumaException exc) {
+            wait.done(false, true);
+            manager.unlockRecord(mfn, ret);
             if (sLock) {
                 releaseLockSegment(segLock);
             }
@@ -424,11 +451,14 @@ public class Lock {
             throw exc;
         }
 
-        if (counter == reclTimes) { // Record locked
+        if (counter > reclTimes) { // Record locked
+            wait.done(false, true);
+            manager.unlockRecord(mfn, ret);
             throw new BrumaException("lockRecord/record locked by another");
         }
+        wait.done(true);
 
-        return new RecordLock(mfn);
+        return ret;
     }
 
     public void unlockRecord(final RecordLock lock) throws BrumaException {
@@ -466,6 +496,7 @@ public class Lock {
 
             writeUnlockSegment(segLock);
             sLock = false;
+            manager.unlockRecord(lock.mfn, lock);
             resetDataEntryLock();
         } catch(BrumaException exc) {
             if (sLock == true) {
@@ -478,6 +509,20 @@ public class Lock {
         }
     }
 
+    /**
+     * Releases the lock of a record that was rewritten by its owner. The
+     * written record leader already has the lock flag cleared, so only the
+     * lock of the threads of this process is released.
+     * @param lock the record lock
+     * @throws BrumaException
+     */
+    void releaseRewrittenRecord(final RecordLock lock) throws BrumaException {
+        if (lock == null) {
+            throw new BrumaException("releaseRewrittenRecord/null _lock");
+        }
+        manager.unlockRecord(lock.mfn, lock);
+    }
+
     public void forceUnlockRecord(final int mfn) throws BrumaException {
         if (mfn <= 0) {
             throw new BrumaException("forceUnlockRecord/mfn[" + mfn + "] < 0");
@@ -506,6 +551,7 @@ public class Lock {
             segLock.val2 *= -1; // Unlock record
 
             writeUnlockSegment(segLock);
+            manager.unlockRecord(mfn, null);
         } catch(BrumaException exc) {
             if (sLock) {
                 releaseLockSegment(segLock);
@@ -515,13 +561,7 @@ public class Lock {
     }
 
     public void close() throws BrumaException {
-        try {
-            if (fc != null) {
-                fc.close();
-            }
-        } catch (IOException ioe) {
-            throw new BrumaException(ioe.toString());
-        }
+        manager.release();
     }
 
     public static boolean isRecordLockedByAnother(final String ownerId,
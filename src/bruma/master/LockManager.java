@@ -0,0 +1,377 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In process manager of the master file locks. There is one manager per
+ * master file in the jvm. Threads coordinate through a striped read/write
+ * lock table and the manager is the only owner of the operating system file
+ * locks, which are only used for the exclusion of other processes. So
+ * threads of the same process wait without syscalls or sleep polling and
+ * the jvm never tries to get overlapping file locks (that would throw
+ * OverlappingFileLockException).
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+class LockManager {
+    private static final int STRIPES = 64;            // power of two
+
+    /** Managers of the opened master files (canonical path -> manager) */
+    private static final Map<String,LockManager> MANAGERS =
+                                            new HashMap<String,LockManager>();
+
+    /**
+     * A file region locked by threads of this process.
+     */
+    class Region {
+        private final long pos;
+        private final int len;
+        private int users;        // threads using or waiting for the region
+        private FileLock fileLock;
+
+        private Region(final long pos,
+                       final int len) {
+            this.pos = pos;
+            this.len = len;
+            this.users = 0;
+            this.fileLock = null;
+        }
+    }
+
+    /**
+     * A lock got by a thread. It should be released with unlock().
+     */
+    class Hold {
+        private final Region region;
+        private final ReentrantReadWriteLock.ReadLock readLock;
+        private final ReentrantReadWriteLock.WriteLock writeLock;
+
+        private Hold(final Region region,
+                     final ReentrantReadWriteLock.ReadLock readLock,
+                     final ReentrantReadWriteLock.WriteLock writeLock) {
+            this.region = region;
+            this.readLock = readLock;
+            this.writeLock = writeLock;
+        }
+    }
+
+    private final String path;
+    private final FileChannel fc;
+    private final ReentrantReadWriteLock[] stripes;
+    private final Map<Long,Region> regions;   // regions locked by the jvm
+    private final Map<Integer,Object> records; // mfn -> record lock owner
+    private final int controlSize;
+    private int references;
+
+    private LockManager(final String path,
+                        final int controlSize) throws IOException {
+        this.path = path;
+        this.fc = new RandomAccessFile(path, "rw").getChannel();
+        this.stripes = new ReentrantReadWriteLock[STRIPES];
+        for (int idx = 0; idx < STRIPES; idx++) {
+            stripes[idx] = new ReentrantReadWriteLock();
+        }
+        this.regions = new HashMap<Long,Region>();
+        this.records = new HashMap<Integer,Object>();
+        this.controlSize = controlSize;
+        this.references = 0;
+    }
+
+    /**
+     * Gets the lock manager of a master file, creating it if needed. Each
+     * call should be followed by a call to release().
+     * @param mstName master file name
+     * @param controlSize size of the control record. Regions starting inside
+     *                    the control record are locked as the whole record.
+     * @return the lock manager
+     * @throws BrumaException
+     */
+    static LockManager getInstance(final String mstName,
+                                   final int controlSize)
+                                                        throws BrumaException {
+        assert mstName != null;
+
+        synchronized (MANAGERS) {
+            try {
+                final String key = new File(mstName).getCanonicalPath();
+                LockManager manager = MANAGERS.get(key);
+
+                if (manager == null) {
+                    manager = new LockManager(key, controlSize);
+                    MANAGERS.put(key, manager);
+                }
+                manager.references++;
+
+                return manager;
+            } catch (IOException ioe) {
+                throw new BrumaException("LockManager/" + ioe.toString());
+            }
+        }
+    }
+
+    /**
+     * Releases a reference got with getInstance(). The master file channel
+     * is closed when the last reference is released.
+     * @throws BrumaException
+     */
+    void release() throws BrumaException {
+        synchronized (MANAGERS) {
+            if (--references == 0) {
+                MANAGERS.remove(path);
+                try {
+                    fc.close();
+                } catch (IOException ioe) {
+                    throw new BrumaException("release/" + ioe.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the channel used to read and write the lock flags. It should
+     *         only be used with positional reads and writes.
+     */
+    FileChannel getChannel() {
+        return fc;
+    }
+
+    /**
+     * Locks a master file region. Threads of this process wait for each
+     * other blocked in the stripe lock; other processes are waited as told
+     * by the lock wait policy.
+     * @param pos region position
+     * @param len region length. Regions starting at the same position are
+     *            supposed to have the same length.
+     * @param shared true for a shared lock, false for an exclusive one
+     * @param policy how to wait for other processes
+     * @param wait wait state, it limits the whole wait to the deadline
+     * @return the lock to be released with unlock()
+     * @throws BrumaException if the region could not be locked
+     */
+    Hold lock(final long pos,
+              final int len,
+              final boolean shared,
+              final LockWaitPolicy policy,
+              final LockWaitPolicy.Wait wait) throws BrumaException {
+        final long rpos = (pos < controlSize) ? 0 : pos;
+        final int rlen = (pos < controlSize) ? controlSize : len;
+        final ReentrantReadWriteLock stripe = getStripe(rpos);
+        final ReentrantReadWriteLock.ReadLock readLock =
+                                            shared ? stripe.readLock() : null;
+        final ReentrantReadWriteLock.WriteLock writeLock =
+                                            shared ? null : stripe.writeLock();
+        final Region region;
+
+        try {
+            boolean got = shared ? readLock.tryLock() : writeLock.tryLock();
+
+            if (!got) {
+                final long timeout = wait.remaining();
+
+                wait.blocked();
+                got = shared
+                      ? readLock.tryLock(timeout, TimeUnit.NANOSECONDS)
+                      : writeLock.tryLock(timeout, TimeUnit.NANOSECONDS);
+            }
+            if (!got) {
+                throw new BrumaException(
+                                  "lock/segment is locked by another thread");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new BrumaException("lock/" + ie.toString());
+        }
+
+        synchronized (regions) {
+            Region reg = regions.get(rpos);
+
+            if (reg == null) {
+                reg = new Region(rpos, rlen);
+                regions.put(rpos, reg);
+            }
+            reg.users++;
+            region = reg;
+        }
+        try {
+            lockFile(region, shared, policy, wait);
+        } catch (BrumaException zex) {
+            unlock(new Hold(region, readLock, writeLock));
+            throw zex;
+        } catch (RuntimeException rex) {
+            unlock(new Hold(region, readLock, writeLock));
+            throw rex;
+        }
+
+        return new Hold(region, readLock, writeLock);
+    }
+
+    /**
+     * Releases a lock got with lock().
+     * @param hold the lock
+     * @throws BrumaException
+     */
+    void unlock(final Hold hold) throws BrumaException {
+        assert hold != null;
+
+        final Region region = hold.region;
+
+        try {
+            // The file lock is released before the region leaves the map,
+            // otherwise a new region at the same position could try to lock
+            // the file while this process still has it.
+            synchronized (regions) {
+                if (--region.users == 0) {
+                    final FileLock fileLock = region.fileLock;
+
+                    region.fileLock = null;
+                    try {
+                        if ((fileLock != null) && fileLock.isValid()) {
+                            fileLock.release();
+                        }
+                    } finally {
+                        regions.remove(region.pos);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            throw new BrumaException("unlock/" + ioe.toString());
+        } finally {
+            if (hold.readLock == null) {
+                hold.writeLock.unlock();
+            } else {
+                hold.readLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Registers the in process owner of a record lock, waiting if another
+     * owner of this process has the record locked.
+     * @param mfn record master file number
+     * @param owner record lock owner
+     * @param wait wait state, it limits the wait to the deadline
+     * @throws BrumaException if the record is still locked at the deadline
+     */
+    void lockRecord(final int mfn,
+                    final Object owner,
+                    final LockWaitPolicy.Wait wait) throws BrumaException {
+        assert owner != null;
+
+        synchronized (records) {
+            while (records.containsKey(mfn)) {
+                final long remaining = wait.remaining();
+
+                if (remaining <= 0) {
+                    throw new BrumaException("lockRecord/record locked by "
+                                                     + "another thread");
+                }
+                wait.blocked();
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(records, remaining);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new BrumaException("lockRecord/" + ie.toString());
+                }
+            }
+            records.put(mfn, owner);
+        }
+    }
+
+    /**
+     * Removes the in process owner of a record lock.
+     * @param mfn record master file number
+     * @param owner record lock owner or null to remove any owner
+     */
+    void unlockRecord(final int mfn,
+                      final Object owner) {
+        synchronized (records) {
+            final Object current = records.get(mfn);
+
+            if ((current != null) && ((owner == null) || (current == owner))) {
+                records.remove(mfn);
+                records.notifyAll();
+            }
+        }
+    }
+
+    private ReentrantReadWriteLock getStripe(final long pos) {
+        final long hash = pos ^ (pos >>> 17);
+
+        return stripes[(int)(hash ^ (hash >>> 7)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Gets the file lock of a region if this process does not have it yet.
+     * Only one thread waits for the file lock, the others wait for it in the
+     * region monitor.
+     */
+    private void lockFile(final Region region,
+                          final boolean shared,
+                          final LockWaitPolicy policy,
+                          final LockWaitPolicy.Wait wait)
+                                                        throws BrumaException {
+        synchronized (region) {
+            if (region.fileLock != null) {
+                if (!shared && region.fileLock.isShared()) {
+                    throw new BrumaException(
+                                      "lock/shared to exclusive lock upgrade");
+                }
+                return;
+            }
+            try {
+                while (true) {
+                    region.fileLock = fc.tryLock(region.pos, region.len,
+                                                                      shared);
+                    if (region.fileLock != null) {
+                        break;
+                    }
+                    if (policy.isBlocking()) {
+                        wait.blocked();
+                        region.fileLock = fc.lock(region.pos, region.len,
+                                                                      shared);
+                        break;
+                    }
+                    if (!wait.pause()) {
+                        break;
+                    }
+                }
+            } catch (IOException ioe) {
+                throw new BrumaException("lock/" + ioe.toString());
+            }
+            if (region.fileLock == null) {
+                throw new BrumaException(
+                                 "lock/segment is locked by another process");
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+/**
+ * Receives the time spent waiting for master locks. See
+ * LockWaitPolicy.setListener(). It can be called by many threads at the
+ * same time, so implementations should be thread safe.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public interface LockWaitListener {
+    /**
+     * Called after each lock wait, ie, when a lock could not be got at the
+     * first try.
+     * @param lockName lock kind: "segment", "record", "dataEntry",
+     *                 "resetDataEntry" or "exclusiveWrite"
+     * @param nanos wait time in nanoseconds
+     * @param acquired true if the lock was got, false if the wait failed
+     */
+    void lockWaited(final String lockName,
+                    final long nanos,
+                    final boolean acquired);
+}
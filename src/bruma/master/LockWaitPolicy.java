@@ -0,0 +1,366 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tells how threads wait for a master lock (file segment, record, data
+ * entry and exclusive write locks) held by another thread or process.
+ * <ul>
+ * <li>FIXED_SLEEP - sleeps a fixed interval between tries (the old
+ *     behavior, 50 milliseconds)</li>
+ * <li>SPIN_THEN_PARK - retries some times without waiting, then parks the
+ *     thread a short time between tries</li>
+ * <li>EXPONENTIAL_BACKOFF - waits between tries doubling the wait time,
+ *     from the initial to the maximum delay, with random jitter</li>
+ * <li>BLOCKING - waits for the other processes file locks in
+ *     FileChannel.lock(). The flag locks (record, data entry and exclusive
+ *     write), that are not file locks, wait as EXPONENTIAL_BACKOFF.</li>
+ * </ul>
+ * Threads of the same process always wait blocked (see LockManager), only
+ * limited by the deadline. A blocking file lock wait can not be limited
+ * by the deadline.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class LockWaitPolicy {
+    public enum Strategy {
+        FIXED_SLEEP, SPIN_THEN_PARK, EXPONENTIAL_BACKOFF, BLOCKING
+    }
+
+    public static final long DEFAULT_DEADLINE = 150000;       // milliseconds
+    public static final long DEFAULT_INTERVAL = 50;           // milliseconds
+    public static final int DEFAULT_SPINS = 100;
+    public static final long DEFAULT_PARK = 100000;           // nanoseconds
+    public static final long DEFAULT_INITIAL_DELAY = 1;       // milliseconds
+    public static final long DEFAULT_MAX_DELAY = 50;          // milliseconds
+
+    /**
+     * Wait state of one lock acquisition.
+     */
+    class Wait {
+        private final String lockName;
+        private final long start;
+        private final long end;       // deadline (System.nanoTime() value)
+        private int tries;
+        private boolean waited;
+        private boolean reported;
+
+        private Wait(final String lockName) {
+            this.lockName = lockName;
+            this.start = System.nanoTime();
+            this.end = (deadline <= 0) ? Long.MAX_VALUE
+                                     : start + TimeUnit.MILLISECONDS
+                                                       .toNanos(deadline);
+            this.tries = 0;
+            this.waited = false;
+            this.reported = false;
+        }
+
+        /**
+         * Waits before the next try.
+         * @return false if the deadline was reached, true otherwise
+         */
+        boolean pause() {
+            final long now = System.nanoTime();
+
+            if (now - end >= 0) {
+                return false;
+            }
+            final long delay = Math.min(getDelay(tries++), end - now);
+
+            waited = true;
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            return !Thread.currentThread().isInterrupted();
+        }
+
+        /**
+         * Tells that the thread is going to wait blocked.
+         */
+        void blocked() {
+            waited = true;
+        }
+
+        /**
+         * @return the remaining time in nanoseconds until the deadline
+         */
+        long remaining() {
+            return (end == Long.MAX_VALUE)
+                              ? Long.MAX_VALUE
+                              : Math.max(0, end - System.nanoTime());
+        }
+
+        /**
+         * Tells the listener how long the wait took. Only real waits (pauses
+         * or blocked waits) are reported, unless forced.
+         * @param acquired true if the lock was got
+         * @param force report even if there was no pause
+         */
+        void done(final boolean acquired,
+                  final boolean force) {
+            if ((listener != null) && !reported && (force || waited)) {
+                reported = true;
+                listener.lockWaited(lockName, System.nanoTime() - start,
+                                                                    acquired);
+            }
+        }
+
+        void done(final boolean acquired) {
+            done(acquired, false);
+        }
+    }
+
+    private final Strategy strategy;
+    private long deadline;
+    private long interval;
+    private int spins;
+    private long park;
+    private long initialDelay;
+    private long maxDelay;
+    private boolean jitter;
+    private LockWaitListener listener;
+
+    /**
+     * Creates a policy with the default values: deadline of 150 seconds,
+     * fixed interval of 50 milliseconds, 100 spins followed by parks of
+     * 0.1 millisecond and exponential backoff from 1 to 50 milliseconds with
+     * jitter.
+     * @param strategy how to wait between tries
+     */
+    public LockWaitPolicy(final Strategy strategy) {
+        if (strategy == null) {
+            throw new NullPointerException("strategy");
+        }
+        this.strategy = strategy;
+        deadline = DEFAULT_DEADLINE;
+        interval = DEFAULT_INTERVAL;
+        spins = DEFAULT_SPINS;
+        park = DEFAULT_PARK;
+        initialDelay = DEFAULT_INITIAL_DELAY;
+        maxDelay = DEFAULT_MAX_DELAY;
+        jitter = true;
+        listener = null;
+    }
+
+    /**
+     * @return the policy used when none is set: exponential backoff from 1
+     *         to 50 milliseconds and a deadline of 150 seconds (the old
+     *         3000 tries * 50 milliseconds).
+     */
+    public static LockWaitPolicy getDefault() {
+        return new LockWaitPolicy(Strategy.EXPONENTIAL_BACKOFF);
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param deadline maximum wait time in milliseconds for each lock.
+     *                 Zero or negative waits forever.
+     * @return this object
+     */
+    public LockWaitPolicy setDeadline(final long deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param interval FIXED_SLEEP wait time in milliseconds
+     * @return this object
+     */
+    public LockWaitPolicy setInterval(final long interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval < 0");
+        }
+        this.interval = interval;
+        return this;
+    }
+
+    public int getSpins() {
+        return spins;
+    }
+
+    /**
+     * @param spins SPIN_THEN_PARK number of tries without waiting
+     * @return this object
+     */
+    public LockWaitPolicy setSpins(final int spins) {
+        if (spins < 0) {
+            throw new IllegalArgumentException("spins < 0");
+        }
+        this.spins = spins;
+        return this;
+    }
+
+    public long getPark() {
+        return park;
+    }
+
+    /**
+     * @param park SPIN_THEN_PARK wait time in nanoseconds after the spins
+     * @return this object
+     */
+    public LockWaitPolicy setPark(final long park) {
+        if (park < 0) {
+            throw new IllegalArgumentException("park < 0");
+        }
+        this.park = park;
+        return this;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * @param initialDelay EXPONENTIAL_BACKOFF first wait in milliseconds
+     * @param maxDelay EXPONENTIAL_BACKOFF maximum wait in milliseconds
+     * @return this object
+     */
+    public LockWaitPolicy setBackoff(final long initialDelay,
+                                     final long maxDelay) {
+        if ((initialDelay <= 0) || (maxDelay < initialDelay)) {
+            throw new IllegalArgumentException(
+                               "initialDelay <= 0 or maxDelay < initialDelay");
+        }
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        return this;
+    }
+
+    public boolean isJitter() {
+        return jitter;
+    }
+
+    /**
+     * @param jitter true if EXPONENTIAL_BACKOFF waits should be a random
+     *               value between the half and the whole computed delay
+     * @return this object
+     */
+    public LockWaitPolicy setJitter(final boolean jitter) {
+        this.jitter = jitter;
+        return this;
+    }
+
+    public LockWaitListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @param listener receives the wait times or null
+     * @return this object
+     */
+    public LockWaitPolicy setListener(final LockWaitListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @return true if other processes file locks should be waited in
+     *         FileChannel.lock()
+     */
+    boolean isBlocking() {
+        return strategy == Strategy.BLOCKING;
+    }
+
+    /**
+     * Starts waiting for a lock.
+     * @param lockName lock kind reported to the listener
+     * @return the wait state
+     */
+    Wait start(final String lockName) {
+        return new Wait(lockName);
+    }
+
+    /**
+     * Creates a policy from its name, used by the database profile.
+     * @param name "fixed", "spin", "backoff" or "blocking"
+     * @return the policy with the default values
+     */
+    static LockWaitPolicy fromName(final String name) {
+        final Strategy strat;
+
+        if ("fixed".equalsIgnoreCase(name)) {
+            strat = Strategy.FIXED_SLEEP;
+        } else if ("spin".equalsIgnoreCase(name)) {
+            strat = Strategy.SPIN_THEN_PARK;
+        } else if ("backoff".equalsIgnoreCase(name)) {
+            strat = Strategy.EXPONENTIAL_BACKOFF;
+        } else if ("blocking".equalsIgnoreCase(name)) {
+            strat = Strategy.BLOCKING;
+        } else {
+            throw new IllegalArgumentException("unknown lock wait policy: "
+                                                                     + name);
+        }
+        return new LockWaitPolicy(strat);
+    }
+
+    /**
+     * @param tries number of previous pauses
+     * @return the wait time in nanoseconds before the next try
+     */
+    private long getDelay(final int tries) {
+        final long ret;
+
+        switch (strategy) {
+            case FIXED_SLEEP:
+                ret = TimeUnit.MILLISECONDS.toNanos(interval);
+                break;
+            case SPIN_THEN_PARK:
+                if (tries < spins) {
+                    Thread.yield();
+                    ret = 0;
+                } else {
+                    ret = park;
+                }
+                break;
+            default: // EXPONENTIAL_BACKOFF and BLOCKING flag waits
+                final long max = TimeUnit.MILLISECONDS.toNanos(maxDelay);
+                final long first = TimeUnit.MILLISECONDS.toNanos(initialDelay);
+                final long delay = ((tries >= 63) || (first > (max >> tries)))
+                                                   ? max : (first << tries);
+                ret = jitter ? (delay / 2) +
+                         ThreadLocalRandom.current().nextLong(delay / 2 + 1)
+                             : delay;
+                break;
+        }
+        return ret;
+    }
+}
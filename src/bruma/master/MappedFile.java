@@ -0,0 +1,226 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only memory mapped view of a master or cross reference file. The file
+ * is mapped in fixed size chunks so files bigger than 2 gigabytes can be
+ * used. The mapping is extended when a read goes beyond the mapped region
+ * and the file has grown.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+class MappedFile {
+    static final int CHUNK_BITS = 30;  // 1 gigabyte chunks
+    static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final FileChannel fc;
+    private final ByteOrder order;
+    private volatile MappedByteBuffer[] chunks;
+    private volatile long mappedSize;
+
+    /**
+     * Creates a new MappedFile object.
+     * @param fc channel of the file to be mapped
+     * @param swapped tells if the file bytes are little or big endian
+     * @throws IOException
+     */
+    MappedFile(final FileChannel fc,
+               final boolean swapped) throws IOException {
+        assert fc != null;
+
+        this.fc = fc;
+        this.order = (swapped ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        this.chunks = new MappedByteBuffer[0];
+        this.mappedSize = 0;
+        remap();
+    }
+
+    /**
+     * @return the number of mapped bytes.
+     */
+    long size() {
+        return mappedSize;
+    }
+
+    /**
+     * Guarantees that the region [0, end) is mapped, remapping the file if
+     * it has grown.
+     * @param end first position after the desired region
+     * @throws IOException if the file is smaller than end
+     */
+    void ensureMapped(final long end) throws IOException {
+        if (end > mappedSize) {
+            remap();
+            if (end > mappedSize) {
+                throw new IOException("ensureMapped/position[" + end
+                                     + "] > file size[" + mappedSize + "]");
+            }
+        }
+    }
+
+    /**
+     * Maps the file regions not mapped yet. Full chunks already mapped are
+     * kept, only the last partial chunk and the new ones are (re)mapped.
+     * @throws IOException
+     */
+    synchronized void remap() throws IOException {
+        final long size = fc.size();
+
+        if (size != mappedSize) {
+            final MappedByteBuffer[] old = chunks;
+            final int num = (int)((size + CHUNK_MASK) >>> CHUNK_BITS);
+            final MappedByteBuffer[] nchunks = new MappedByteBuffer[num];
+            final int keep = (int)(Math.min(size, mappedSize) >>> CHUNK_BITS);
+
+            System.arraycopy(old, 0, nchunks, 0, Math.min(keep, old.length));
+            for (int idx = keep; idx < num; idx++) {
+                final long pos = ((long)idx) << CHUNK_BITS;
+                final long len = Math.min(CHUNK_SIZE, size - pos);
+
+                nchunks[idx] = fc.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                nchunks[idx].order(order);
+            }
+            chunks = nchunks;
+            mappedSize = size;
+        }
+    }
+
+    /**
+     * Reads a 4 bytes integer.
+     * @param pos file position
+     * @return the integer value
+     * @throws IOException
+     */
+    int getInt(final long pos) throws IOException {
+        ensureMapped(pos + 4);
+
+        final int off = (int)(pos & CHUNK_MASK);
+        final int ret;
+
+        if (off + 4 <= CHUNK_SIZE) {
+            ret = chunks[(int)(pos >>> CHUNK_BITS)].getInt(off);
+        } else {
+            final ByteBuffer aux = ByteBuffer.allocate(4).order(order);
+            get(pos, aux);
+            ret = aux.getInt(0);
+        }
+        return ret;
+    }
+
+    /**
+     * Reads a 2 bytes integer.
+     * @param pos file position
+     * @return the short value
+     * @throws IOException
+     */
+    short getShort(final long pos) throws IOException {
+        ensureMapped(pos + 2);
+
+        final int off = (int)(pos & CHUNK_MASK);
+        final short ret;
+
+        if (off + 2 <= CHUNK_SIZE) {
+            ret = chunks[(int)(pos >>> CHUNK_BITS)].getShort(off);
+        } else {
+            final ByteBuffer aux = ByteBuffer.allocate(2).order(order);
+            get(pos, aux);
+            ret = aux.getShort(0);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a view of a file region without copying it.
+     * @param pos initial file position
+     * @param len region length
+     * @return a buffer with position zero and limit len or null if the region
+     *         crosses a chunk boundary (see get()).
+     * @throws IOException
+     */
+    ByteBuffer slice(final long pos,
+                     final int len) throws IOException {
+        assert pos >= 0;
+        assert len >= 0;
+
+        ensureMapped(pos + len);
+
+        final int off = (int)(pos & CHUNK_MASK);
+        final ByteBuffer ret;
+
+        if (off + len <= CHUNK_SIZE) {
+            final ByteBuffer dup =
+                               chunks[(int)(pos >>> CHUNK_BITS)].duplicate();
+            dup.limit(off + len);
+            dup.position(off);
+            ret = dup.slice().order(order);
+        } else {
+            ret = null;
+        }
+        return ret;
+    }
+
+    /**
+     * Copies a file region into a buffer. The number of copied bytes is
+     * dst.remaining().
+     * @param pos initial file position
+     * @param dst destination buffer
+     * @throws IOException
+     */
+    void get(final long pos,
+             final ByteBuffer dst) throws IOException {
+        assert pos >= 0;
+        assert dst != null;
+
+        ensureMapped(pos + dst.remaining());
+
+        final MappedByteBuffer[] chks = chunks;
+        long cur = pos;
+
+        while (dst.hasRemaining()) {
+            final int off = (int)(cur & CHUNK_MASK);
+            final int len = Math.min(dst.remaining(), CHUNK_SIZE - off);
+            final ByteBuffer dup = chks[(int)(cur >>> CHUNK_BITS)].duplicate();
+
+            dup.limit(off + len);
+            dup.position(off);
+            dst.put(dup);
+            cur += len;
+        }
+    }
+
+    /**
+     * Releases the mapped regions. They will be effectively unmapped when
+     * garbage collected.
+     */
+    synchronized void close() {
+        chunks = new MappedByteBuffer[0];
+        mappedSize = 0;
+    }
+}
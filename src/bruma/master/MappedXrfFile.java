@@ -0,0 +1,122 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.io.IOException;
+
+/**
+ * Cross reference file whose pointers are read from a memory mapped view of
+ * the file. Writes still go through the file channel and are seen by the
+ * mapping.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class MappedXrfFile extends XrfFile {
+    private MappedFile mapped;
+
+    /**
+     * Create a new MappedXrfFile object.
+     * @param dbasename database name
+     * @param shift master file shift
+     * @param swapped tells if the master bytes are litle or big engian
+     * @param create tells if the xrf file should be created.
+     * @throws BrumaException
+     */
+    MappedXrfFile(final String dbasename,
+                  final int shift,
+                  final boolean swapped,
+                  final boolean create) throws BrumaException {
+        super(dbasename, shift, swapped, create);
+        try {
+            mapped = new MappedFile(fc, swapped);
+        } catch (IOException ioe) {
+            super.close();
+            throw new BrumaException("MappedXrfFile/" + ioe.getMessage());
+        }
+    }
+
+    @Override
+    void close() throws BrumaException {
+        if (mapped != null) {
+            mapped.close();
+            mapped = null;
+        }
+        super.close();
+    }
+
+    @Override
+    void reset() throws BrumaException {
+        super.reset();
+        if (mapped != null) {
+            try {
+                mapped.remap();
+            } catch (IOException ioe) {
+                throw new BrumaException("reset/" + ioe.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads the xrf info of a specif record.
+     * @param mfn record id
+     * @return XrfInfo - xrf pointer information
+     * @throws BrumaException
+     */
+    @Override
+    public XrfInfo readXrfInfo(final int mfn) throws BrumaException {
+        if (mfn <= 0) {
+            throw new BrumaException("readXrfInfo/mfn <= 0");
+        }
+        if (inBatch()) {  // pointers can be in the batch blocks
+            return super.readXrfInfo(mfn);
+        }
+
+        final int quot = ((mfn - 1) / XRF_NRINBUFFER);
+        final int rem = ((mfn - 1) % XRF_NRINBUFFER);
+        final long pos = (((long)quot * XRF_BLOCKSIZE)
+                                                  + ((rem + 1) * XRF_PTRSIZE));
+        final int packedMfp;
+
+        try {
+            packedMfp = mapped.getInt(pos);
+        } catch (IOException ioe) {
+            throw new BrumaException("readXrfInfo/id[" + mfn + "]/"
+                                                         + ioe.getMessage());
+        }
+
+        return readXrfInfoAux(mfn, packedMfp);
+    }
+
+    /**
+     * Reads the xrf info of a specif record. Reading the mapped file does not
+     * change this object state, so it is the same as readXrfInfo().
+     * @param mfn record id
+     * @return XrfInfo - xrf pointer information
+     * @throws BrumaException
+     */
+    @Override
+    public XrfInfo readXrfInfoConcurrent(final int mfn)
+                                                        throws BrumaException {
+        return readXrfInfo(mfn);
+    }
+}
@@ -32,15 +32,14 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /* OBS - Se o valor de campo nxtmfp do registro de controle para uma base com
          R registros contem o valor X, entao quando a base tiver R+1 registros,
@@ -52,15 +51,18 @@ import java.util.regex.Pattern;
  */
 public class Master implements MasterInterface {
     /**
-     * Implements an iterator of the database records.
+     * Implements an iterator of the database records. In the reusing mode
+     * every call to next() clears and refills the same Record object.
      */
     public class MstIterator implements Iterator<Record> {
         private final int lastMfn;
+        private final Record reuse;
         private int curMfn;
         private Record rec;
 
-        private MstIterator() throws BrumaException {
+        private MstIterator(final boolean reusing) throws BrumaException {
             lastMfn = getControlRecord().getNxtmfn() - 1;
+            reuse = reusing ? new Record(shift, filler) : null;
             curMfn = 0;
         }
         @Override
@@ -73,7 +75,7 @@ public class Master implements MasterInterface {
                 throw new NoSuchElementException();
             }
             try {
-                rec = getRecord(++curMfn);
+                rec = getRecord(++curMfn, reuse);
             } catch (BrumaException zex) {
                 rec = null;
                 Logger.getGlobal().severe(zex.getMessage());
@@ -86,12 +88,381 @@ public class Master implements MasterInterface {
         }
     }
 
+    /**
+     * Reads records from the master file using its own buffer. Readers
+     * created with the concurrent flag set only use positional reads and a
+     * xrf lookup that does not change the xrf object state, so different
+     * threads can use different readers at the same time.
+     */
+    private class RecordReader {
+        private final boolean concurrent;
+        private final Record.Status recStatus[];  // readRaw output
+        private final Record.ActiveStatus actStatus[];
+        private final boolean locked[];
+        private ByteBuffer buffer;
+        private ByteBuffer checkBuffer;  // optimistic read second copy
+        private RecordCodec codec;
+
+        private RecordReader(final boolean concurrent) {
+            this.concurrent = concurrent;
+            this.recStatus = new Record.Status[1];
+            this.actStatus = new Record.ActiveStatus[1];
+            this.locked = new boolean[1];
+            this.buffer = null;
+            this.checkBuffer = null;
+            this.codec = null;
+        }
+
+        private ByteBuffer getBuffer(final int size) throws BrumaException {
+            assert size > 0;
+
+            if ((buffer == null) || (buffer.capacity() < size)) {
+                if (size > MF_BLOCKSIZE) {
+                    checkMfrl(size);
+                }
+                buffer = ByteBuffer.allocateDirect(roundToBlock(size))
+                                .order(swapped ? ByteOrder.LITTLE_ENDIAN :
+                                                 ByteOrder.BIG_ENDIAN);
+            }
+            buffer.clear();
+            buffer.limit(size);
+
+            return buffer;
+        }
+
+        private Record read(final int mfn,
+                            final Record reuse) throws BrumaException {
+            final Record record;
+            final ByteBuffer recBuffer = readRaw(mfn, recStatus, actStatus,
+                                                                locked, false);
+
+            if (recBuffer == null) {
+                record = (reuse == null) ? new Record(shift, filler)
+                                         : reuse.reset(shift, filler);
+                record.setMfn(mfn);
+            } else {
+                try {
+                    if (codec == null) {
+                        codec = new RecordCodec(encoding);
+                    }
+                    record = rbb.fromByteBuffer(recBuffer, codec, reuse);
+                } catch (BrumaException zex) {
+                    throw new BrumaException("getRecord[mfn=" + mfn + "]/"
+                                                                        + zex);
+                }
+            }
+            record.setStatus(recStatus[0]);
+            if (recStatus[0] == Record.Status.ACTIVE) {
+                record.setLockStatus(locked[0] ? Record.LockStatus.LOCKED
+                                               : Record.LockStatus.NORMAL);
+                record.setActiveStatus(actStatus[0]);
+            } else {
+                record.setLockStatus(null);
+                record.setActiveStatus(null);
+            }
+
+            return record;
+        }
+
+        private RecordView readView(final int mfn) throws BrumaException {
+            final RecordView view;
+            final ByteBuffer recBuffer = readRaw(mfn, recStatus, actStatus,
+                                                                 locked, true);
+
+            if (recBuffer == null) {
+                view = new RecordView(rbb, null, encoding, null, mfn,
+                                          new int[0], new int[0], new int[0]);
+            } else {
+                view = rbb.viewFromByteBuffer(recBuffer, encoding);
+            }
+            view.setStatus(recStatus[0]);
+            if (recStatus[0] == Record.Status.ACTIVE) {
+                view.setLockStatus(locked[0] ? Record.LockStatus.LOCKED
+                                             : Record.LockStatus.NORMAL);
+                view.setActiveStatus(actStatus[0]);
+            } else {
+                view.setLockStatus(null);
+                view.setActiveStatus(null);
+            }
+
+            return view;
+        }
+
+        /**
+         * Reads the record bytes.
+         * @param mfn record master file number
+         * @param recStatus output record status
+         * @param actStatus output record active status
+         * @param locked output record lock flag
+         * @param owned if true the returned buffer is not shared with
+         *              following reads
+         * @return a buffer with the record bytes or null if the record is
+         *         physically deleted
+         * @throws BrumaException
+         */
+        private ByteBuffer readRaw(final int mfn,
+                                   final Record.Status recStatus[],
+                                   final Record.ActiveStatus actStatus[],
+                                   final boolean locked[],
+                                   final boolean owned)
+                                                        throws BrumaException {
+            if ((lock != null) && info.isOptimisticReads()) {
+                final boolean stale[] = new boolean[1];
+
+                for (int tries = 0; tries < OPTIMISTIC_TRIES; tries++) {
+                    final ByteBuffer ret = readRaw(mfn, recStatus, actStatus,
+                                                 locked, owned, true, stale);
+                    if (!stale[0]) {
+                        return ret;
+                    }
+                }
+                // Too many concurrent changes, reads with the segment lock.
+            }
+            return readRaw(mfn, recStatus, actStatus, locked, owned, false,
+                                                                        null);
+        }
+
+        /**
+         * Reads the record bytes.
+         * @param optimistic if true, the record is read without the segment
+         *        lock and read again, with its xrf pointer, to check if it
+         *        was not changed meanwhile
+         * @param stale set to true if optimistic and the record was changed
+         *        by another thread or process during the read
+         */
+        private ByteBuffer readRaw(final int mfn,
+                                   final Record.Status recStatus[],
+                                   final Record.ActiveStatus actStatus[],
+                                   final boolean locked[],
+                                   final boolean owned,
+                                   final boolean optimistic,
+                                   final boolean stale[])
+                                                        throws BrumaException {
+            ByteBuffer recBuffer = null;
+            final long position;
+            final int auxMfn;
+            final int size = 4 + (FFI ? 4 : 2);
+
+            int mfrl;
+            int aMfrl;
+            SegmentLock sl = null;
+
+            if (optimistic) {
+                stale[0] = false;
+            }
+            try {
+                position = getMasterPosition(mfn, recStatus, actStatus,
+                                                                   concurrent);
+/*System.out.println("mfn=" + mfn + " position=" + position +
+                " recStatus=" + recStatus[0] + " actStatus=" + actStatus[0]);*/
+                final Record.Status xrfStatus = recStatus[0];
+                final Record.ActiveStatus xrfActStatus = actStatus[0];
+
+                if (actStatus[0] == Record.ActiveStatus.NEW) {
+                    actStatus[0] = Record.ActiveStatus.NORMAL;
+                }
+
+                if (recStatus[0] != Record.Status.PHYDEL) {
+                    if (batchPending) { // the record can be in the buffer
+                        flushBatchBuffer();
+                    }
+                    if ((lock != null) && !optimistic) {
+                        sl = lock.lockSegment(position, RECORD_LOCK_SIZE, true);
+                    }
+                    if (mapped == null) {
+                        final ByteBuffer bb = getBuffer(size);
+                        if (fc.read(bb, position) != size) {
+                            throw new BrumaException("read/1 error");
+                        }
+                        bb.rewind();
+
+                        auxMfn = bb.getInt();
+//System.out.println("read auxMfn = " + auxMfn);
+                        mfrl = readInt(bb);
+                    } else {
+                        auxMfn = mapped.getInt(position);
+                        mfrl = FFI ? mapped.getInt(position + 4)
+                                   : mapped.getShort(position + 4);
+                    }
+                    aMfrl = Math.abs(mfrl);
+//System.out.println("status=" + recStatus[0]);
+
+                    if (optimistic &&
+                                ((aMfrl < neverSplit) || (mfn != auxMfn))) {
+                        stale[0] = true;  // record being moved or rewritten
+                        return null;
+                    }
+                    if (aMfrl < neverSplit) {
+                        throw new BrumaException("mfrl[" + aMfrl + "] < "
+                                                                  + neverSplit);
+                    }
+                    if (mfn != auxMfn) {
+                        throw new BrumaException("getRecord/MST_FIL_BAD/[mfn="
+                                            + mfn + " != " + auxMfn + "]");
+                    }
+                    locked[0] = (mfrl < 0);
+                    if ((mapped != null) && !optimistic) {
+                        recBuffer = mapped.slice(position, aMfrl);
+                    }
+                    if (recBuffer == null) {
+                        if (owned) {
+                            if (aMfrl > MF_BLOCKSIZE) {
+                                checkMfrl(aMfrl);
+                            }
+                            recBuffer = ByteBuffer.allocate(aMfrl);
+                        } else {
+                            recBuffer = getBuffer(aMfrl);
+                        }
+                        if (mapped == null) {
+                            if (fc.read(recBuffer, position) != aMfrl) {
+                                throw new BrumaException("read/2 error");
+                            }
+                        } else { // record crosses a mapped chunk boundary
+                            mapped.get(position, recBuffer);
+                        }
+                    }
+                    if (optimistic) {
+                        stale[0] = isChanged(mfn, position, xrfStatus,
+                                             xrfActStatus, recBuffer, aMfrl);
+                    }
+                }
+            } catch (Exception ex) {
+                if (optimistic) {
+                    stale[0] = true;
+                    return null;
+                }
+                throw new BrumaException("getRecord[mfn=" + mfn + "]/" + ex);
+            } finally {
+                if (sl != null) {
+                    lock.releaseLockSegment(sl);
+                }
+            }
+
+            return recBuffer;
+        }
+
+        /**
+         * Checks if a record read without lock was changed during the read:
+         * its xrf pointer and status should be the same and a second read
+         * should give the same bytes (leader included).
+         */
+        private boolean isChanged(final int mfn,
+                                  final long position,
+                                  final Record.Status xrfStatus,
+                                  final Record.ActiveStatus xrfActStatus,
+                                  final ByteBuffer recBuffer,
+                                  final int len)
+                                         throws BrumaException, IOException {
+            final Record.Status status[] = new Record.Status[1];
+            final Record.ActiveStatus actStatus[] =
+                                                  new Record.ActiveStatus[1];
+
+            if ((getMasterPosition(mfn, status, actStatus, concurrent)
+                                                                 != position)
+                    || (status[0] != xrfStatus)
+                    || (actStatus[0] != xrfActStatus)) {
+                return true;
+            }
+            if ((checkBuffer == null) || (checkBuffer.capacity() < len)) {
+                checkBuffer = ByteBuffer.allocateDirect(roundToBlock(len));
+            }
+            checkBuffer.clear();
+            checkBuffer.limit(len);
+            if (mapped == null) {
+                if (fc.read(checkBuffer, position) != len) {
+                    return true;
+                }
+            } else {
+                mapped.get(position, checkBuffer);
+            }
+            checkBuffer.flip();
+
+            final ByteBuffer first = recBuffer.duplicate();
+            first.rewind();
+            first.limit(len);
+
+            return !first.equals(checkBuffer);
+        }
+    }
+
+    /**
+     * Visits a range of mfns. Ranges bigger than SCAN_CHUNK are split in two
+     * subtasks, smaller ones are read by a RecordReader of its own. The mfns
+     * equal to or greater than the scan limit are skipped.
+     */
+    private class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int first;
+        private final int last;
+        private final RecordVisitor visitor;
+        private final RecordViewVisitor viewVisitor;
+        private final ScanLimit limit;
+
+        private ScanTask(final int first,
+                         final int last,
+                         final RecordVisitor visitor,
+                         final RecordViewVisitor viewVisitor,
+                         final ScanLimit limit) {
+            this.first = first;
+            this.last = last;
+            this.visitor = visitor;
+            this.viewVisitor = viewVisitor;
+            this.limit = limit;
+        }
+
+        @Override
+        protected void compute() {
+            if ((limit != null) && (first >= limit.getLimit())) {
+                return;
+            }
+            if (last - first < SCAN_CHUNK) {
+                final RecordReader rreader = new RecordReader(true);
+
+                try {
+                    for (int mfn = first; mfn <= last; mfn++) {
+                        if ((limit != null) && (mfn >= limit.getLimit())) {
+                            break;
+                        }
+                        if (visitor == null) {
+                            viewVisitor.visit(rreader.readView(mfn));
+                        } else {
+                            visitor.visit(rreader.read(mfn, null));
+                        }
+                    }
+                } catch (BrumaException zex) {
+                    throw new ScanException(zex);
+                }
+            } else {
+                final int middle = first + ((last - first) / 2);
+
+                invokeAll(new ScanTask(first, middle, visitor, viewVisitor,
+                                                                        limit),
+                          new ScanTask(middle + 1, last, visitor, viewVisitor,
+                                                                       limit));
+            }
+        }
+    }
+
+    /**
+     * Carries a BrumaException out of a ScanTask.
+     */
+    private static class ScanException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private ScanException(final BrumaException cause) {
+            super(cause);
+        }
+    }
+
     static final int MSNVSPLT = 20;  // cisis em ffi
     static final int MF_BLOCKSIZE = 512;
 
     private static final int CONTROL_SIZE = 32;
     private static final int LEADER_SIZE = 26;
     private static final int RECORD_LOCK_SIZE = 8;
+    private static final int SCAN_CHUNK = 4096;  // mfns read by a scan task
+    private static final int OPTIMISTIC_TRIES = 16; // reads before locking
+    private static final int BATCH_BUFFER_SIZE = 4 * 1024 * 1024;
 
     private final byte[] page;
     private MasterPlatformInfo info;
@@ -104,8 +475,11 @@ public class Master implements MasterInterface {
     private int neverSplit;
     private int neverSplitRec;
     private RecordByteBuffer rbb;
+    private RecordReader reader;
+    private ThreadLocal<RecordReader> readers;
     private RandomAccessFile raf;
     private FileChannel fc;
+    private MappedFile mapped;
     private XrfFile xrf;
     private Lock lock;
     private boolean FFI;
@@ -113,6 +487,13 @@ public class Master implements MasterInterface {
     private int shift;
     private int maxmfrl;
     private ByteBuffer bBuffer;
+    private RecordCodec wcodec; // field encoder of the write functions
+    private Control batchCtl;       // control record kept in batch mode
+    private int batchLastMfn;       // last mfn in the file at beginBatch()
+    private ByteBuffer batchBuffer; // master appends not yet written
+    private long batchBufferPos;    // file position of the batchBuffer start
+    private final Object batchLock; // guards the batchBuffer
+    private volatile boolean batchPending; // batchBuffer has bytes
     private String mstExtension;
     private String xrfExtension;
     private Map<Integer,String> tags;
@@ -139,8 +520,16 @@ public class Master implements MasterInterface {
         filler = (align == 0) ? 0 : 2;
         //filler = (align == 0) ? 0 : (align - 2); // 2 = short size
         rbb = null;
+        reader = null;
+        readers = null;
         raf = null;
+        mapped = null;
         lock = null;
+        batchCtl = null;
+        batchLastMfn = 0;
+        batchBuffer = null;
+        batchLock = new Object();
+        batchPending = false;
         FFI = mpi.isFfi();
         ffiSize = FFI ? 2 : 0;
         neverSplit = (FFI ? 22 : 18) + filler;
@@ -159,26 +548,8 @@ public class Master implements MasterInterface {
         assert newSize > 0;
 
         if (maxmfrl < newSize) {
-            if (newSize < MSNVSPLT) {
-                throw new BrumaException("mfrl[" + newSize + "] <" + MSNVSPLT);
-            }
-            if (newSize > MAXMFRL_POSSIBLE) {
-                throw new BrumaException("mfrl[" + newSize + "] >"
-                                                            + MAXMFRL_POSSIBLE);
-            }
-            if (!FFI && (newSize > MAXMFRL_ISIS)) {
-                throw new BrumaException("mfrl[" + newSize + "] >"
-                                                            + MAXMFRL_ISIS);
-            }
-            final int minAlloc = MF_BLOCKSIZE;
-            final int div = newSize/minAlloc;
-            final int rem = newSize%minAlloc;
-
-            if (div == 0) {
-                maxmfrl = minAlloc;
-            } else {
-               maxmfrl = (rem == 0) ? (div * minAlloc) : ((div + 1) * minAlloc);
-            }
+            checkMfrl(newSize);
+            maxmfrl = roundToBlock(newSize);
             bBuffer = ByteBuffer.allocateDirect(maxmfrl)
                             .order(swapped ? ByteOrder.LITTLE_ENDIAN :
                                              ByteOrder.BIG_ENDIAN);
@@ -187,6 +558,44 @@ public class Master implements MasterInterface {
         bBuffer.rewind();
     }
 
+    private void checkMfrl(final int size) throws BrumaException {
+        if (size < MSNVSPLT) {
+            throw new BrumaException("mfrl[" + size + "] <" + MSNVSPLT);
+        }
+        if (size > MAXMFRL_POSSIBLE) {
+            throw new BrumaException("mfrl[" + size + "] >"
+                                                        + MAXMFRL_POSSIBLE);
+        }
+        if (!FFI && (size > MAXMFRL_ISIS)) {
+            throw new BrumaException("mfrl[" + size + "] >" + MAXMFRL_ISIS);
+        }
+    }
+
+    private static int roundToBlock(final int size) {
+        final int minAlloc = MF_BLOCKSIZE;
+        final int div = size/minAlloc;
+        final int rem = size%minAlloc;
+
+        return (div == 0) ? minAlloc
+                          : ((rem == 0) ? (div * minAlloc)
+                                        : ((div + 1) * minAlloc));
+    }
+
+    private void createReaders() throws BrumaException {
+        wcodec = new RecordCodec(encoding);
+        reader = new RecordReader(false);
+        if (info.isConcurrentReads()) {
+            readers = new ThreadLocal<RecordReader>() {
+                @Override
+                protected RecordReader initialValue() {
+                    return new RecordReader(true);
+                }
+            };
+        } else {
+            readers = null;
+        }
+    }
+
     /**
      * Checks if an Isis database exists.
      * @param dbName the database name.
@@ -286,7 +695,19 @@ public class Master implements MasterInterface {
             if (sysfile != 0) {
                 throw new IOException("open/unsupported master file type");
             }
-            if ((multiUser) || (!info.isInMemoryXrf())) {
+            if (info.isMemoryMapped()) {
+                mapped = new MappedFile(fc, swapped);
+            }
+            if (info.isXrfPreload() && !multiUser) {
+                xrf = new MemoryXrfFile(dbName + xrfExtension, shift, swapped,
+                                                            false, autoCommit);
+            } else if (info.isMemoryMapped()) {
+                xrf = new MappedXrfFile(dbName + xrfExtension, shift, swapped,
+                                                                        false);
+                if (multiUser) {
+                    lock = new Lock(this);
+                }
+            } else if ((multiUser) || (!info.isInMemoryXrf())) {
                 xrf = new XrfFile(dbName + xrfExtension, shift, swapped, false);
                 if (multiUser) {
                     lock = new Lock(this);
@@ -317,6 +738,7 @@ public class Master implements MasterInterface {
                     MF_BLOCKSIZE - (4 + ffiSize + filler + 4 + 2 + ffiSize) - 1;
             //rba = new RecordByteArray(FFI, swapped, filler, shift);
             rbb = new RecordByteBuffer(FFI, swapped, filler, shift);
+            createReaders();
             reallocBuffer(FFI ? DEFMFRL_FFI : MAXMFRL_ISIS);
         } catch (IOException ioex) {
             try {
@@ -365,11 +787,24 @@ public class Master implements MasterInterface {
             }
             //rba = new RecordByteArray(FFI, swapped, filler, shift);
             rbb = new RecordByteBuffer(FFI, swapped, filler, shift);
+            createReaders();
             sysfile = reset().getMftype();
             if (sysfile != 0) {
                 throw new IOException("create/unsupported master file type");
             }
-            if ((multiUser) || (!info.isInMemoryXrf())) {
+            if (info.isMemoryMapped()) {
+                mapped = new MappedFile(fc, swapped);
+            }
+            if (info.isXrfPreload() && !multiUser) {
+                xrf = new MemoryXrfFile(dbName + xrfExtension, shift, swapped,
+                                                             true, autoCommit);
+            } else if (info.isMemoryMapped()) {
+                if (multiUser) {
+                    lock = new Lock(this);
+                }
+                xrf = new MappedXrfFile(dbName + xrfExtension, shift, swapped,
+                                                                         true);
+            } else if ((multiUser) || (!info.isInMemoryXrf())) {
                 if (multiUser) {
                     lock = new Lock(this);
                 }
@@ -411,11 +846,24 @@ public class Master implements MasterInterface {
 
     @Override
     public Iterator<Record> iterator() {
+        return iterator(false);
+    }
+
+    /**
+     * @param reusing if true, all calls to next() return the same Record
+     *                object, cleared and refilled with the next record, so
+     *                that a full scan allocates almost nothing per record.
+     *                The returned record and its fields are only valid until
+     *                the next call to next().
+     * @return an iterator of the database records or null if the master is
+     *         not opened
+     */
+    public Iterator<Record> iterator(final boolean reusing) {
         Iterator<Record> iter = null;
 
         if (raf != null) {
             try {
-                iter = new MstIterator();
+                iter = new MstIterator(reusing);
             } catch (BrumaException zex) {
                 iter = null;
             }
@@ -424,6 +872,94 @@ public class Master implements MasterInterface {
         return iter;
     }
 
+    /**
+     * Visits all master records (from mfn 1 to nxtmfn-1) using many threads.
+     * The mfn range is split in chunks and each worker reads its chunks with
+     * its own buffer, so the records are not visited in mfn order.
+     * @param visitor object that will receive the records
+     * @param parallelism number of worker threads
+     * @throws BrumaException
+     */
+    public void parallelScan(final RecordVisitor visitor,
+                             final int parallelism) throws BrumaException {
+        if (raf == null) {
+            throw new BrumaException("parallelScan/master file is not opened");
+        }
+        if (visitor == null) {
+            throw new BrumaException("parallelScan/null visitor");
+        }
+        scan(visitor, null, null, parallelism);
+    }
+
+    /**
+     * Visits all master records (from mfn 1 to nxtmfn-1) using many threads,
+     * like parallelScan(), but the records are not decoded. Each view is
+     * owned by the visitor and can be kept after the visit.
+     * @param visitor object that will receive the record views
+     * @param parallelism number of worker threads
+     * @throws BrumaException
+     */
+    public void parallelScanViews(final RecordViewVisitor visitor,
+                                  final int parallelism)
+                                                        throws BrumaException {
+        parallelScanViews(visitor, null, parallelism);
+    }
+
+    /**
+     * Visits the master records below a limit using many threads, like
+     * parallelScanViews(RecordViewVisitor, int). The limit can be lowered
+     * during the scan (a search that already has enough hits, for example),
+     * and the records at or above it are no longer read.
+     * @param visitor object that will receive the record views
+     * @param limit the scan limit or null to visit all records
+     * @param parallelism number of worker threads
+     * @throws BrumaException
+     */
+    public void parallelScanViews(final RecordViewVisitor visitor,
+                                  final ScanLimit limit,
+                                  final int parallelism)
+                                                        throws BrumaException {
+        if (raf == null) {
+            throw new BrumaException(
+                                "parallelScanViews/master file is not opened");
+        }
+        if (visitor == null) {
+            throw new BrumaException("parallelScanViews/null visitor");
+        }
+        scan(null, visitor, limit, parallelism);
+    }
+
+    private void scan(final RecordVisitor visitor,
+                      final RecordViewVisitor viewVisitor,
+                      final ScanLimit limit,
+                      final int parallelism) throws BrumaException {
+        if (parallelism <= 0) {
+            throw new BrumaException("parallelScan/parallelism[" + parallelism
+                                                                   + "] <= 0");
+        }
+        final int lastMfn = getControlRecord().getNxtmfn() - 1;
+
+        if (lastMfn > 0) {
+            final ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+            try {
+                pool.invoke(new ScanTask(1, lastMfn, visitor, viewVisitor,
+                                                                       limit));
+            } catch (RuntimeException rex) {
+                Throwable cause = rex;
+                while (cause != null) {
+                    if (cause instanceof BrumaException) {
+                        throw (BrumaException)cause;
+                    }
+                    cause = cause.getCause();
+                }
+                throw new BrumaException("parallelScan/" + rex);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
     /**
      * Convert the gigabytes dbase size to the associated ((power of 2) - 1)
      * shift
@@ -515,13 +1051,55 @@ public class Master implements MasterInterface {
         return xrf;
     }
 
+    /**
+     * Clears the new and pending bits of a record pointer if it was not
+     * changed since it was read (see XrfFile.clearPendingUpdate()). The
+     * pointer is compared and cleared under the same locks used by
+     * writeRecord(), so a concurrent write is never reverted.
+     * @param info the record pointer returned by XrfFile.getPendingUpdates()
+     * @return false if the pointer was changed and was not cleared
+     * @throws BrumaException
+     */
+    public boolean clearPendingUpdate(final XrfInfo info)
+                                                        throws BrumaException {
+        if (raf == null) {
+            throw new BrumaException(
+                               "clearPendingUpdate/master file is not opened");
+        }
+        SegmentLock sl = null;
+        boolean del = false;
+
+        try {
+            if (lock != null) {
+                lock.setDataEntryLock();
+                del = true;
+                sl = lock.lockSegment(0, CONTROL_SIZE, false);
+            }
+            return xrf.clearPendingUpdate(info);
+        } finally {
+            if (del) {
+                if (sl != null) {
+                    lock.releaseLockSegment(sl);
+                }
+                lock.resetDataEntryLock();
+            }
+        }
+    }
+
     /**
      * Closes frees all database used resources.
      * @exception BrumaException
      */
     @Override
     public void close() throws BrumaException {
+        if (batchCtl != null) {
+            commit();
+        }
         try {
+            if (mapped != null) {
+                mapped.close();
+                mapped = null;
+            }
             if (raf != null) {
                 raf.close();
                 raf = null;
@@ -575,6 +1153,13 @@ public class Master implements MasterInterface {
         return multiUser;
     }
 
+    /**
+     * @return the policy used to wait for the master locks.
+     */
+    LockWaitPolicy getLockWaitPolicy() {
+        return info.getLockWaitPolicy();
+    }
+
     /**
      * @return the database encoding.
      */
@@ -651,25 +1236,38 @@ public class Master implements MasterInterface {
         if (raf == null) {
             throw new BrumaException("master file is not opened");
         }
+        if (batchCtl != null) { // the file control record is not updated yet
+            return new Control(batchCtl.getCtlmfn(),
+                               batchCtl.getNxtmfn(),
+                               batchCtl.getNxtmfb(),
+                               batchCtl.getNxtmfp(),
+                               batchCtl.getMftype(),
+                               batchCtl.getReccnt(),
+                               batchCtl.getMfcxx1(),
+                               batchCtl.getMfcxx2(),
+                               batchCtl.getMfcxx3());
+        }
         try {
             if (lock != null) {
                 sl = lock.lockSegment(0, CONTROL_SIZE, true);
             }
-            bBuffer.clear();
-            bBuffer.limit(CONTROL_SIZE);
-            if (fc.read(bBuffer, 0) != CONTROL_SIZE) {
+            // Local buffer, so concurrent readers can call this function.
+            final ByteBuffer cBuffer = ByteBuffer.allocate(CONTROL_SIZE)
+                                .order(swapped ? ByteOrder.LITTLE_ENDIAN :
+                                                 ByteOrder.BIG_ENDIAN);
+            if (fc.read(cBuffer, 0) != CONTROL_SIZE) {
                 throw new BrumaException("read error");
             }
-            bBuffer.rewind();
-            ctl = new Control(bBuffer.getInt(),
-                              bBuffer.getInt(),
-                              bBuffer.getInt(),
-                              bBuffer.getShort(),
-                              bBuffer.getShort(),
-                              bBuffer.getInt(),
-                              bBuffer.getInt(),
-                              bBuffer.getInt(),
-                              bBuffer.getInt());
+            cBuffer.rewind();
+            ctl = new Control(cBuffer.getInt(),
+                              cBuffer.getInt(),
+                              cBuffer.getInt(),
+                              cBuffer.getShort(),
+                              cBuffer.getShort(),
+                              cBuffer.getInt(),
+                              cBuffer.getInt(),
+                              cBuffer.getInt(),
+                              cBuffer.getInt());
             shift = ctl.getMftype() / 256;
             ctl.setMftype(ctl.getMftype() & 0x00FF);
 
@@ -745,25 +1343,15 @@ public class Master implements MasterInterface {
     }
 
     /**
-     * Reads a record from the database.
+     * Reads a record from the database. If the master was opened with
+     * concurrent reads (see MasterFactory.setConcurrentReads()) this function
+     * can be called by many threads at the same time.
      * @param mfn record master file number
      * @return the readen record.
      * @exception BrumaException
      */
     @Override
     public Record getRecord(final int mfn) throws BrumaException {
-        Record record = null;
-        final long position;
-        final Record.Status recStatus[] = new Record.Status[1];
-        final Record.ActiveStatus actStatus[] = new Record.ActiveStatus[1];
-        final int auxMfn;
-        final int size = 4 + (FFI ? 4 : 2);
-
-        int mfrl;
-        int aMfrl;
-        SegmentLock sl = null;
-        boolean locked = false;
-
         if (raf == null) {
             throw new BrumaException("master file is not opened");
         }
@@ -771,85 +1359,52 @@ public class Master implements MasterInterface {
             throw new BrumaException("getRecord/id[" + mfn + "] <= 0");
         }
 
-        try {
-            position = getMasterPosition(mfn, recStatus, actStatus);
-/*System.out.println("mfn=" + mfn + " position=" + position +
-                " recStatus=" + recStatus[0] + " actStatus=" + actStatus[0]);*/
-
-            if (actStatus[0] == Record.ActiveStatus.NEW) {
-                actStatus[0] = Record.ActiveStatus.NORMAL;
-            }
+        return getRecord(mfn, null);
+    }
 
-            if (recStatus[0] == Record.Status.PHYDEL) {
-                record = new Record(shift, filler);
-                record.setStatus(Record.Status.PHYDEL);
-                record.setActiveStatus(null);
-                record.setLockStatus(null);
-                record.setMfn(mfn);
-            } else {
-                if (lock != null) {
-                    sl = lock.lockSegment(position, RECORD_LOCK_SIZE, true);
-                }
-                bBuffer.clear();
-                bBuffer.limit(size);
-                if (fc.read(bBuffer, position) != size) {
-                    throw new BrumaException("read/1 error");
-                }
-                bBuffer.rewind();
+    /**
+     * Reads a record from the database into a caller owned Record object.
+     * The reused record is cleared and refilled, and the Field objects of its
+     * previous refills are reused, so scan loops do not need to allocate a
+     * new record for every read. Fields taken from the reused record should
+     * not be kept after its next refill.
+     * @param mfn record master file number
+     * @param reuse the record to be refilled or null to create a new one
+     * @return the readen record (reuse if it is not null).
+     * @exception BrumaException
+     */
+    public Record getRecord(final int mfn,
+                            final Record reuse) throws BrumaException {
+        if (raf == null) {
+            throw new BrumaException("master file is not opened");
+        }
+        if (mfn <= 0) {
+            throw new BrumaException("getRecord/id[" + mfn + "] <= 0");
+        }
 
-                auxMfn = bBuffer.getInt();
-//System.out.println("read auxMfn = " + auxMfn);
-                mfrl = readInt(bBuffer);
-                aMfrl = Math.abs(mfrl);
-//System.out.println("status=" + recStatus[0]);
+        return (readers == null) ? reader.read(mfn, reuse)
+                                 : readers.get().read(mfn, reuse);
+    }
 
-                if (aMfrl < neverSplit) {
-                    throw new BrumaException("mfrl[" + aMfrl + "] < "
-                                                                  + neverSplit);
-                }
-                reallocBuffer(aMfrl);
-                if (mfn == auxMfn) {
-                    if (mfrl < 0) {
-                        locked = true;
-                    }
-                    bBuffer.clear();
-                    bBuffer.limit(aMfrl);
-                    if (fc.read(bBuffer, position) != aMfrl) {
-                        throw new BrumaException("read/2 error");
-                    }
-                    //bBuffer.rewind();
-                    //bBuffer.get(buffer, 0, mfrl);
-//System.out.println ("auxMfn=" + auxMfn + " mfrl=" + mfrl + " buffer len="
-                                              //+ buffer.length);
-                    //record = rbb.fromByteArray(buffer, encoding);
-                    record = rbb.fromByteBuffer(bBuffer, encoding);
-                    record.setStatus(recStatus[0]);
-                    if (recStatus[0] == Record.Status.LOGDEL) {
-                        record.setLockStatus(null);
-                        record.setActiveStatus(null);
-                    } else {
-                        if (locked) {
-                            record.setLockStatus(Record.LockStatus.LOCKED);
-                        } else {
-                            record.setLockStatus(Record.LockStatus.NORMAL);
-                        }
-                        record.setActiveStatus(actStatus[0]);
-                    }
-                    //System.out.println ("status2 = " + record.getStatus());
-                } else {
-                    throw new BrumaException("getRecord/MST_FIL_BAD/[mfn=" + mfn
-                                                    + " != " + auxMfn + "]");
-                }
-            }
-        } catch (Exception ex) {
-            throw new BrumaException("getRecord[mfn=" + mfn + "]/" + ex);
-        } finally {
-            if (lock != null) {
-                lock.releaseLockSegment(sl);
-            }
+    /**
+     * Reads a record from the database without decoding its fields. The
+     * fields are decoded only when they are retrieved from the view. If the
+     * master was opened with concurrent reads this function can be called by
+     * many threads at the same time.
+     * @param mfn record master file number
+     * @return a view of the record
+     * @exception BrumaException
+     */
+    public RecordView getRecordView(final int mfn) throws BrumaException {
+        if (raf == null) {
+            throw new BrumaException("master file is not opened");
+        }
+        if (mfn <= 0) {
+            throw new BrumaException("getRecordView/id[" + mfn + "] <= 0");
         }
 
-        return record;
+        return (readers == null) ? reader.readView(mfn)
+                                 : readers.get().readView(mfn);
     }
 
     /**
@@ -914,6 +1469,14 @@ public class Master implements MasterInterface {
                                   final Record.Status recStatus[],
                                   final Record.ActiveStatus activeStatus[])
                                                         throws BrumaException {
+        return getMasterPosition(mfn, recStatus, activeStatus, false);
+    }
+
+    private long getMasterPosition(final int mfn,
+                                   final Record.Status recStatus[],
+                                   final Record.ActiveStatus activeStatus[],
+                                   final boolean concurrent)
+                                                        throws BrumaException {
         assert (mfn > 0) : "getMasterPosition/mfn[" + mfn + "] <= 0";
         assert (recStatus != null) : "getMasterPosition/null record status";
         assert (activeStatus != null) :
@@ -922,7 +1485,8 @@ public class Master implements MasterInterface {
         final long pos;
 
         if (sysfile == 0) { // user data base file
-            final XrfInfo xinfo = xrf.readXrfInfo(mfn);
+            final XrfInfo xinfo = concurrent ? xrf.readXrfInfoConcurrent(mfn)
+                                             : xrf.readXrfInfo(mfn);
             long auxPos = (Math.abs(xinfo.getBlock()) - 1);
 
             auxPos *= MF_BLOCKSIZE;
@@ -951,6 +1515,7 @@ public class Master implements MasterInterface {
         final Record.Status status;
 
         try {
+            flushBatchBuffer();
             bBuffer.clear();
             bBuffer.limit(LEADER_SIZE);
             if (fc.read(bBuffer, position) != LEADER_SIZE) {
@@ -1015,6 +1580,7 @@ public class Master implements MasterInterface {
 
     private void writeRecord(final Control ctl,
                              final Record record,
+                             final int recLen,
                              final int block,
                              final int offset,
                              final boolean wasNew) throws BrumaException {
@@ -1038,26 +1604,25 @@ public class Master implements MasterInterface {
 //System.out.println("write : mfn=" + record.getMfn() + " bloco=" + block
         //+ " offset=" + offset);
         try {
-            final Leader leaders = record.getLeader(encoding, FFI);
+            final int recMfn = record.getMfn();
 
             // Checa se auxMfn e' maior que o proximo da base
-            if (leaders.getMfn() > ctl.getNxtmfn()) {
-                throw new BrumaException("id[" + leaders.getMfn() +
+            if (recMfn > ctl.getNxtmfn()) {
+                throw new BrumaException("id[" + recMfn +
                           "] > ctl.nxtmfn[" + ctl.getNxtmfn() + "]");
             }
 
             // Checa tamanho do registro
-            final int recLen = leaders.getMfrl();
             if (recLen < neverSplit) {
                 throw new BrumaException("mfrl[" + recLen + "] <" + neverSplit);
             }
 
             reallocBuffer(recLen);
-            rbb.toByteBuffer(record, encoding, bBuffer);
+            rbb.toByteBuffer(record, wcodec, bBuffer);
 
             if (bBuffer.position() != recLen) {
                 throw new BrumaException("bBuffer.position()["
-                   + bBuffer.position() + "] != leaders.mfrl[" + recLen +  "]");
+                   + bBuffer.position() + "] != mfrl[" + recLen +  "]");
             }
             filepos = ((long)(block - 1) * MF_BLOCKSIZE) + offset;
             assert filepos > 0 : "filepos=" + filepos;
@@ -1070,8 +1635,10 @@ public class Master implements MasterInterface {
                 sl = lock.lockSegment(filepos, RECORD_LOCK_SIZE, false);
             }
             // Grava registro.
-            if (fc.write(bBuffer, filepos) != recLen) {
-                throw new BrumaException("write/1 error");
+            if ((lock != null) && !writeAtTheEnd) {
+                writeInPlace(filepos);
+            } else {
+                writeMaster(bBuffer, filepos, "write/1 error");
             }
 
             // Grava registro no final do master.
@@ -1085,9 +1652,7 @@ public class Master implements MasterInterface {
                     bBuffer.limit(rem);
                     bBuffer.put(page, 0, rem);
                     bBuffer.rewind();
-                    if (fc.write(bBuffer, filepos + recLen) != rem) {
-                        throw new BrumaException("write/2 error");
-                    }
+                    writeMaster(bBuffer, filepos + recLen, "write/2 error");
                 }
                 // Atualiza registro de controle.
                 filepos += recLen;
@@ -1102,7 +1667,9 @@ public class Master implements MasterInterface {
                     nxtmfp = 1;
                 }
                 ctl.setNxtmfp(nxtmfp);
-                writeControlRecord(ctl);
+                if (batchCtl == null) {
+                    writeControlRecord(ctl);
+                }
             }
 
             // Libera registro.
@@ -1115,7 +1682,7 @@ public class Master implements MasterInterface {
                 if (actStatus == Record.ActiveStatus.NEW) { // Registro novo
                     // Soma 1024 para indicar que a atualizacao inv esta
                     // pendente e que e novo.
-                    xrf.writeXrfInfo(xrf.new XrfInfo(leaders.getMfn(),
+                    xrf.writeXrfInfo(xrf.new XrfInfo(recMfn,
                                                  block,
                                                  (offset + 1024),
                                                   status,
@@ -1123,7 +1690,7 @@ public class Master implements MasterInterface {
                 } else {
                     // Soma 512 para indicar que a atualizacao inv esta
                     // pendente.
-                    xrf.writeXrfInfo(xrf.new XrfInfo(leaders.getMfn(),
+                    xrf.writeXrfInfo(xrf.new XrfInfo(recMfn,
                                                      block,
                                                     (offset + 512),
                                                      status,
@@ -1131,20 +1698,20 @@ public class Master implements MasterInterface {
                 }
             } else if (status == Record.Status.LOGDEL) {
                 if  (wasNew) {
-                    xrf.writeXrfInfo(xrf.new XrfInfo(leaders.getMfn(),
+                    xrf.writeXrfInfo(xrf.new XrfInfo(recMfn,
                                                         -block,
                                                         offset + 1024,
                                                         status,
                                                         actStatus));
                 } else {
-                    xrf.writeXrfInfo(xrf.new XrfInfo(leaders.getMfn(),
+                    xrf.writeXrfInfo(xrf.new XrfInfo(recMfn,
                                                         -block,
                                                         offset + 512,
                                                         status,
                                                         actStatus));
                 }
             } else { // fisicamente apagado
-                xrf.writeXrfInfo(xrf.new XrfInfo(leaders.getMfn(),
+                xrf.writeXrfInfo(xrf.new XrfInfo(recMfn,
                                                     -1,
                                                     0,
                                                     status,
@@ -1170,7 +1737,8 @@ public class Master implements MasterInterface {
             if (lock != null) {
                 sl = lock.lockSegment(0, CONTROL_SIZE, false);
             }
-            final Control ctl = getControlRecord();
+            final Control ctl = (batchCtl == null) ? getControlRecord()
+                                                   : batchCtl;
             int mfn = ctl.getNxtmfn();
 
             for (int counter = 0; counter < recNum; counter++) {
@@ -1178,7 +1746,9 @@ public class Master implements MasterInterface {
                        xrf.new XrfInfo(mfn, -1, 0, Record.Status.PHYDEL, null));
                 ctl.setNxtmfn(++mfn);
             }
-            writeControlRecord(ctl);
+            if (batchCtl == null) {
+                writeControlRecord(ctl);
+            }
         } finally {
             if (sl != null) {
                 lock.releaseLockSegment(sl);
@@ -1187,7 +1757,8 @@ public class Master implements MasterInterface {
     }
 
     private int newRecord(final Control ctl,
-                          final Record record) throws BrumaException {
+                          final Record record,
+                          final int recLen) throws BrumaException {
         assert (ctl != null): "newRecord/null control";
         assert (record != null) : "newRecord/null record";
 
@@ -1220,7 +1791,7 @@ public class Master implements MasterInterface {
             ctl.setNxtmfn(mfn + 1);
 
             // Escreve no fim do mst.
-            writeRecord(ctl, record, ctl.getNxtmfb(),
+            writeRecord(ctl, record, recLen, ctl.getNxtmfb(),
                                                 ctl.getNxtmfp() - 1, false);
         }
         return mfn;
@@ -1228,6 +1799,7 @@ public class Master implements MasterInterface {
 
     private int updateRecord(final Control ctl,
                              final Record record,
+                             final int recLen,
                              final boolean allowDeleted) throws BrumaException {
         assert (ctl != null) : "updateRecord/null control";
         assert (record != null) : "updateRecord/null record";
@@ -1281,19 +1853,19 @@ public class Master implements MasterInterface {
         }
         
         if (phyDel) { // Grava no final do arquivo master.
-            writeRecord(ctl, record, ctl.getNxtmfb(),
+            writeRecord(ctl, record, recLen, ctl.getNxtmfb(),
                                                   ctl.getNxtmfp() - 1, wasNew);
         } else if (mfn == nxtmfn-1) { // Ultimo registro da base.
             // Grava no mesmo local da versao anterior do registro.
-            writeRecord(ctl, record, bl, pos, wasNew);
-        } else if (leader.getMfrl() < record.getRecordLength(encoding, FFI)) {
+            writeRecord(ctl, record, recLen, bl, pos, wasNew);
+        } else if (leader.getMfrl() < recLen) {
             // Grava no final do arquivo master.
 //System.out.println("grava no final");
-            writeRecord(ctl, record, ctl.getNxtmfb(),
+            writeRecord(ctl, record, recLen, ctl.getNxtmfb(),
                                                   ctl.getNxtmfp() - 1, wasNew);
         } else { // Grava no mesmo local da versao anterior do registro.
 //System.out.println("grava no mesmo local");
-            writeRecord(ctl, record, bl, pos, wasNew);
+            writeRecord(ctl, record, recLen, bl, pos, wasNew);
         }
 
         return mfn;
@@ -1356,6 +1928,208 @@ public class Master implements MasterInterface {
     }    
     */
     
+    /**
+     * Rewrites a record over its previous version in multiuser mode. The
+     * leader mfn is written as 0 until the rest of the record is written, so
+     * an optimistic reader of the record (that does not wait for the segment
+     * lock) sees it changing even if both of its reads hit the same partly
+     * written record.
+     * @param filepos master file position of the record
+     * @throws IOException
+     * @throws BrumaException
+     */
+    private void writeInPlace(final long filepos) throws IOException,
+                                                         BrumaException {
+        final int recLen = bBuffer.limit();
+        final ByteBuffer mfnBuffer = ByteBuffer.allocate(4);
+
+        mfnBuffer.putInt(0, 0);
+        writeMaster(mfnBuffer, filepos, "write/1 error");
+        bBuffer.position(4);
+        writeMaster(bBuffer, filepos + 4, "write/1 error");
+        bBuffer.position(0);
+        bBuffer.limit(4);
+        writeMaster(bBuffer, filepos, "write/1 error");
+        bBuffer.limit(recLen);
+    }
+
+    /**
+     * Writes bytes into the master file. In batch mode consecutive writes are
+     * coalesced in the batch buffer.
+     * @param src bytes to be written
+     * @param filepos master file position
+     * @param errMsg error message if the write fails
+     * @throws IOException
+     * @throws BrumaException
+     */
+    private void writeMaster(final ByteBuffer src,
+                             final long filepos,
+                             final String errMsg) throws IOException,
+                                                         BrumaException {
+        final int len = src.remaining();
+
+        if (batchCtl == null) {
+            if (fc.write(src, filepos) != len) {
+                throw new BrumaException(errMsg);
+            }
+        } else {
+            synchronized (batchLock) {
+                if ((batchBuffer.position() > 0) &&
+                    ((filepos != batchBufferPos + batchBuffer.position()) ||
+                                            (len > batchBuffer.remaining()))) {
+                    flushBatchBuffer();
+                }
+                if (len > batchBuffer.capacity()) {
+                    if (fc.write(src, filepos) != len) {
+                        throw new BrumaException(errMsg);
+                    }
+                } else {
+                    if (batchBuffer.position() == 0) {
+                        batchBufferPos = filepos;
+                    }
+                    batchBuffer.put(src);
+                    batchPending = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the master appends kept in the batch buffer. Concurrent readers
+     * call it too, because the xrf pointers of the buffered records can
+     * already be visible to them.
+     * @throws IOException
+     */
+    private void flushBatchBuffer() throws IOException {
+        synchronized (batchLock) {
+            if ((batchBuffer != null) && (batchBuffer.position() > 0)) {
+                batchBuffer.flip();
+                while (batchBuffer.hasRemaining()) {
+                    fc.write(batchBuffer,
+                                   batchBufferPos + batchBuffer.position());
+                }
+                batchBuffer.clear();
+            }
+            batchPending = false;
+        }
+    }
+
+    /**
+     * Starts the batch mode. Until commit() is called the control record is
+     * kept in memory, consecutive master writes are coalesced and the changed
+     * xrf pointers are buffered. Records written in batch mode can be read by
+     * this master object. Concurrent readers see them before the commit if
+     * the xrf implementation keeps the changed pointers in memory
+     * (INMEMORYXRF, XRFPRELOAD, buffered xrf), so they write the batch buffer
+     * before reading a record. Other processes only see them after the
+     * commit. Not available in multiuser mode.
+     * @exception BrumaException
+     */
+    public void beginBatch() throws BrumaException {
+        if (raf == null) {
+            throw new BrumaException("beginBatch/master file is not opened");
+        }
+        if (lock != null) {
+            throw new BrumaException("beginBatch/not available in multiuser "
+                                                                   + "mode");
+        }
+        if (batchCtl != null) {
+            throw new BrumaException("beginBatch/already in batch mode");
+        }
+        final Control ctl = getControlRecord();
+
+        if (batchBuffer == null) {
+            batchBuffer = ByteBuffer.allocateDirect(BATCH_BUFFER_SIZE);
+        }
+        batchBuffer.clear();
+        xrf.beginBatch();
+        batchLastMfn = ctl.getNxtmfn() - 1;
+        batchCtl = ctl;
+    }
+
+    /**
+     * Writes the buffered master records, the control record and the xrf
+     * pointers and leaves the batch mode.
+     * @exception BrumaException
+     */
+    public void commit() throws BrumaException {
+        if (batchCtl == null) {
+            throw new BrumaException("commit/not in batch mode");
+        }
+        final Control ctl = batchCtl;
+        boolean flushed = false;
+
+        batchCtl = null;
+        try {
+            flushBatchBuffer();
+            flushed = true;
+            xrf.commitBatch();
+            writeControlRecord(ctl);
+        } catch (IOException ioe) {
+            throw new BrumaException("commit/" + ioe.getMessage());
+        } finally {
+            if (!flushed) {
+                abortBatch();
+            }
+        }
+    }
+
+    /**
+     * Leaves the batch mode after the batch master bytes could not be
+     * written. The batch buffer and the xrf batch changes are discarded and
+     * the control record in the file was not changed, so the master is as
+     * before beginBatch() (but for the xrf blocks a buffered xrf already
+     * wrote) and can be written again. It does not read the master file,
+     * that has just failed.
+     * @throws BrumaException
+     */
+    private void abortBatch() throws BrumaException {
+        synchronized (batchLock) {
+            batchBuffer.clear();
+            batchPending = false;
+        }
+        xrf.abortBatch(batchLastMfn);
+    }
+
+    /**
+     * @return true if the master is in batch mode. See beginBatch()
+     */
+    public boolean isBatch() {
+        return (batchCtl != null);
+    }
+
+    /**
+     * Writes many records using the batch mode. If the master is not already
+     * in batch mode, the records are committed at the end.
+     * @param records records to be written
+     * @return the number of written records
+     * @exception BrumaException
+     */
+    public int writeRecords(final Iterable<Record> records)
+                                                        throws BrumaException {
+        if (records == null) {
+            throw new BrumaException("writeRecords/null records");
+        }
+        final boolean started = (batchCtl == null);
+        int total = 0;
+
+        if (started) {
+            beginBatch();
+        }
+        try {
+            for (Record record : records) {
+                writeRecord(record);
+                total++;
+            }
+        } finally {
+            if (started) {
+                commit();
+            }
+        }
+
+        return total;
+    }
+
     private int adjustFilePos(final int fpos) {
         assert fpos > 0;
 
@@ -1392,6 +2166,7 @@ public class Master implements MasterInterface {
         SegmentLock sl = null;
         boolean del = false; //data entry lock
         boolean rl = false;  //record lock
+        boolean written = false;
 
         if (raf == null) {
             throw new BrumaException("writeRecord/master file is not opened");
@@ -1406,7 +2181,7 @@ public class Master implements MasterInterface {
 
         record.setShift(shift);
         record.setFiller(filler);
-        len = record.getRecordLength(encoding, FFI);
+        len = rbb.encode(record, wcodec);
 
         reallocBuffer(len);
         mfn = record.getMfn();
@@ -1420,20 +2195,21 @@ public class Master implements MasterInterface {
             sl = lock.lockSegment(0, CONTROL_SIZE, false);
         }
         try {
-            ctl = getControlRecord();
+            ctl = (batchCtl == null) ? getControlRecord() : batchCtl;
             //ctl.setNxtmfp(ctl.getNxtmfp() - 1);
             // ajuste pois posicao de arquivo comeca de 0.
 
             nxtmfn = ctl.getNxtmfn();
 
             if ((mfn == 0) || (mfn >= nxtmfn)) {  // Registro novo
-                mfn = newRecord(ctl, record);
+                mfn = newRecord(ctl, record, len);
             } else { // Registro existente.
                 if (lock != null) {
                     recLock = lock.lockRecord(mfn);
                     rl = true;
                 }
-                mfn = updateRecord(ctl, record, true);
+                mfn = updateRecord(ctl, record, len, true);
+                written = true;
             }
         } finally {
             if (lock != null) {
@@ -1442,7 +2218,11 @@ public class Master implements MasterInterface {
                         lock.releaseLockSegment(sl);
                     }
                     if (rl) {
-                        lock.unlockRecord(recLock);
+                        if (written) { // the new leader is not locked
+                            lock.releaseRewrittenRecord(recLock);
+                        } else {
+                            lock.unlockRecord(recLock);
+                        }
                     }
                     lock.resetDataEntryLock();
                 }
@@ -1508,25 +2288,8 @@ public class Master implements MasterInterface {
         if (maxHits < 1) {
             throw new BrumaException("maxHits <= 0");
         }
-        final List<Integer> ret = new ArrayList<Integer>();
-        final Matcher mat = Pattern.compile(expression).matcher("");
-        int curHits = 0;
-
-        for (Record rec : this) {
-            if (rec.getStatus() == Record.Status.ACTIVE) {
-                for (Field fld : rec) {
-                    mat.reset(fld.getContent());
-                    if (mat.find()) {
-                        if (++curHits > maxHits) {
-                            break;
-                        }
-                        ret.add(rec.getMfn());
-                    }
-                }
-            }
-        }
-
-        return ret;
+        return new MasterSearch().addRegExp(expression)
+                                 .search(this, maxHits);
     }
 
     /**
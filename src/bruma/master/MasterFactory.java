@@ -53,7 +53,9 @@ public class MasterFactory {
      * @param dbProfile database profile file.
      * This file has the following pattern (one per line): PROPERTY=VALUE
      * Accepted properties are: DBNAME, ENCODING, SWAPPED, FFI, MAXGIGASIZE,
-     *    MAXMFRL, DATAALIGNMENT, INMEMORYXRF, XRFWRITECOMMIT and MULTIUSER.
+     *    MAXMFRL, DATAALIGNMENT, INMEMORYXRF, XRFWRITECOMMIT, MULTIUSER,
+     *    MEMORYMAPPED, CONCURRENTREADS, XRFPRELOAD, LOCKWAIT, LOCKDEADLINE,
+     *    OPTIMISTICREADS, WRITEBEHIND and MAXDIRTYBYTES.
      * @return an instance of the MasterFactory object.
      * @throws IOException
      * @throws BrumaException
@@ -113,6 +115,38 @@ public class MasterFactory {
         if (prop != null) {
             factory.setMultiuser(Boolean.parseBoolean(prop));
         }
+        prop = props.getProperty("MEMORYMAPPED");
+        if (prop != null) {
+            factory.setMemoryMapped(Boolean.parseBoolean(prop));
+        }
+        prop = props.getProperty("CONCURRENTREADS");
+        if (prop != null) {
+            factory.setConcurrentReads(Boolean.parseBoolean(prop));
+        }
+        prop = props.getProperty("XRFPRELOAD");
+        if (prop != null) {
+            factory.setXrfPreload(Boolean.parseBoolean(prop));
+        }
+        prop = props.getProperty("LOCKWAIT");
+        if (prop != null) {
+            factory.setLockWaitPolicy(LockWaitPolicy.fromName(prop));
+        }
+        prop = props.getProperty("LOCKDEADLINE");
+        if (prop != null) {
+            factory.getLockWaitPolicy().setDeadline(Long.parseLong(prop));
+        }
+        prop = props.getProperty("OPTIMISTICREADS");
+        if (prop != null) {
+            factory.setOptimisticReads(Boolean.parseBoolean(prop));
+        }
+        prop = props.getProperty("WRITEBEHIND");
+        if (prop != null) {
+            factory.setWriteBehind(Boolean.parseBoolean(prop));
+        }
+        prop = props.getProperty("MAXDIRTYBYTES");
+        if (prop != null) {
+            factory.setMaxDirtyBytes(Long.parseLong(prop));
+        }
         reader.close();
 
         return factory;
@@ -321,6 +355,62 @@ public class MasterFactory {
         return this;
     }
 
+    /**
+     * @return true if the whole xrf file is loaded in memory when the master
+     * is opened. See setXrfPreload()
+     */
+    public boolean isXrfPreload() {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+
+        return info.isXrfPreload();
+    }
+
+    /**
+     * Tells if the whole xrf file should be loaded in memory (about 4 bytes
+     * per record) when the master is opened. Only the changed xrf blocks are
+     * written back, when the master is closed, a batch is committed or at
+     * every change if XrfWriteCommit is set. Ignored in multiuser mode.
+     * @param opt true if the xrf file should be loaded, false otherwise.
+     * @return this object
+     */
+    public MasterFactory setXrfPreload(final boolean opt) {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+
+        info.setXrfPreload(opt);
+
+        return this;
+    }
+
+    /**
+     * @return the policy used to wait for the master locks
+     */
+    public LockWaitPolicy getLockWaitPolicy() {
+        return info.getLockWaitPolicy();
+    }
+
+    /**
+     * Tells how threads should wait for record and file segment locks held
+     * by other threads or processes (multiuser mode). See LockWaitPolicy.
+     * The default is exponential backoff from 1 to 50 milliseconds with a
+     * deadline of 150 seconds.
+     * @param policy the lock wait policy
+     * @return this object
+     */
+    public MasterFactory setLockWaitPolicy(final LockWaitPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("null policy");
+        }
+        info.setLockWaitPolicy(policy);
+
+        return this;
+    }
+
     /**
      * @return true if the master is in multiuser mode, false if in monouser mode
      */
@@ -343,6 +433,141 @@ public class MasterFactory {
         return this;
     }
 
+    /**
+     * @return true if the master and xrf files are read through memory
+     * mapped buffers. See setMemoryMapped()
+     */
+    public boolean isMemoryMapped() {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+        return info.isMemoryMapped();
+    }
+
+    /**
+     * Tells if the master and xrf files should be read through memory mapped
+     * buffers instead of file channel reads. The mapping is extended when the
+     * files grow. Writes are not affected.
+     * @param opt true if memory mapped, false otherwise.
+     * @return this object
+     */
+    public MasterFactory setMemoryMapped(final boolean opt) {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+        info.setMemoryMapped(opt);
+        return this;
+    }
+
+    /**
+     * @return true if many threads can call getRecord() at the same time.
+     * See setConcurrentReads()
+     */
+    public boolean isConcurrentReads() {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+        return info.isConcurrentReads();
+    }
+
+    /**
+     * Tells if the master should accept getRecord() calls from many threads
+     * at the same time. Each thread gets its own record buffer and the xrf
+     * pointers are read without changing shared state. Writes are still
+     * single threaded.
+     * @param opt true if concurrent reads are allowed, false otherwise.
+     * @return this object
+     */
+    public MasterFactory setConcurrentReads(final boolean opt) {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+        info.setConcurrentReads(opt);
+        return this;
+    }
+
+    /**
+     * @return true if multiuser record reads are done without file locks.
+     * See setOptimisticReads()
+     */
+    public boolean isOptimisticReads() {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+        return info.isOptimisticReads();
+    }
+
+    /**
+     * Tells if multiuser getRecord() calls should read the record without
+     * locking its master file segment. The record is read twice, together
+     * with its xrf pointer, and the read is retried if another process
+     * changed it meanwhile. After some failed retries the segment lock is
+     * used. Has no effect if the master is not multiuser.
+     * @param opt true if record reads are optimistic, false otherwise.
+     * @return this object
+     */
+    public MasterFactory setOptimisticReads(final boolean opt) {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+        info.setOptimisticReads(opt);
+        return this;
+    }
+
+    /**
+     * @return true if a BufferedMaster writes its dirty records in
+     * background. See setWriteBehind()
+     */
+    public boolean isWriteBehind() {
+        return info.isWriteBehind();
+    }
+
+    /**
+     * Tells if a BufferedMaster (see openBuffered()) should write its dirty
+     * records into the master files with a background thread. Otherwise they
+     * are written when the dirty set is full, when flush() is called or when
+     * the master is closed.
+     * @param opt true if the records are written in background
+     * @return this object
+     */
+    public MasterFactory setWriteBehind(final boolean opt) {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+        info.setWriteBehind(opt);
+        return this;
+    }
+
+    /**
+     * @return the maximum number of bytes of the records a BufferedMaster
+     * keeps before writing them. See setMaxDirtyBytes()
+     */
+    public long getMaxDirtyBytes() {
+        return info.getMaxDirtyBytes();
+    }
+
+    /**
+     * Sets the maximum number of bytes of the written records a
+     * BufferedMaster keeps in memory. Writers wait for (or do) the write of
+     * the dirty records when this limit is reached.
+     * @param bytes number of bytes (bytes > 0)
+     * @return this object
+     */
+    public MasterFactory setMaxDirtyBytes(final long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("bytes <= 0");
+        }
+        info.setMaxDirtyBytes(bytes);
+        return this;
+    }
+
     /**
      * Adjust this factory according to a master file settings.
      * @param other other master
@@ -375,15 +600,99 @@ public class MasterFactory {
         return new Master(info).open();
     }
 
+    /**
+     * Opens an existing master through a BufferedMaster.
+     * Not available in multiuser mode.
+     * @return the buffered master
+     * @throws BrumaException
+     */
+    public BufferedMaster openBuffered() throws BrumaException {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+        return new BufferedMaster(info).open();
+    }
+
+    /**
+     * Creates a new master accessed through a BufferedMaster.
+     * Not available in multiuser mode.
+     * @return the buffered master
+     * @throws BrumaException
+     */
+    public BufferedMaster createBuffered() throws BrumaException {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+        return new BufferedMaster(info).create();
+    }
+
     public MasterInterface create() throws BrumaException {
         return isInMemoryMst() ? new MemoryMaster(info).create()
                                : new Master(info).create();
     }
 
+    /**
+     * Creates an empty master kept out of the java heap. See OffHeapMaster.
+     * @return the new master
+     * @throws BrumaException
+     */
+    public OffHeapMaster createOffHeap() throws BrumaException {
+        return new OffHeapMaster(info);
+    }
+
+    /**
+     * Opens the master and copies all of its records out of the java heap.
+     * The master files are closed after the copy. See OffHeapMaster.
+     * @return the loaded master
+     * @throws BrumaException
+     */
+    public OffHeapMaster openOffHeap() throws BrumaException {
+        final Master mst = open();
+
+        try {
+            info.setEncoding(mst.getEncoding());  // the guessed one
+            return new OffHeapMaster(info).load(mst);
+        } finally {
+            mst.close();
+        }
+    }
+
     public boolean exists() throws BrumaException {
         return isInMemoryMst() ? false : Master.exists(info.getMstName());
     }
 
+    /**
+     * Creates a new master to be filled by appending records. See
+     * MasterBulkWriter.
+     * @return the bulk writer of the new master
+     * @throws BrumaException
+     */
+    public MasterBulkWriter createBulkWriter() throws BrumaException {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+        return new MasterBulkWriter(info);
+    }
+
+    /**
+     * Deletes the master if it exists and creates a new one to be filled by
+     * appending records. See MasterBulkWriter.
+     * @return the bulk writer of the new master
+     * @throws BrumaException
+     */
+    public MasterBulkWriter forceCreateBulkWriter() throws BrumaException {
+        if (isInMemoryMst()) {
+            throw new IllegalArgumentException(
+                            "this feature is not available with memory master");
+        }
+        new Master(info).delete();
+
+        return new MasterBulkWriter(info);
+    }
+
     public MasterInterface forceCreate() throws BrumaException {
         if (isInMemoryMst()) {
             return new MemoryMaster(info);
@@ -38,6 +38,13 @@ public class MasterPlatformInfo {
     private boolean inMemoryMst;
     private boolean inMemoryXrf;
     private boolean xrfWriteCommit;
+    private boolean memoryMapped;
+    private boolean concurrentReads;
+    private boolean optimisticReads;
+    private boolean xrfPreload;
+    private boolean writeBehind;
+    private long maxDirtyBytes;
+    private LockWaitPolicy lockWaitPolicy;
 
     MasterPlatformInfo(final String mstName) {
         assert mstName != null;
@@ -54,6 +61,13 @@ public class MasterPlatformInfo {
         inMemoryMst = false;
         inMemoryXrf = true;
         xrfWriteCommit = false;
+        memoryMapped = false;
+        concurrentReads = false;
+        optimisticReads = false;
+        xrfPreload = false;
+        writeBehind = false;
+        maxDirtyBytes = 16 * 1024 * 1024;
+        lockWaitPolicy = LockWaitPolicy.getDefault();
     }
 
     public String getMstName() {
@@ -149,4 +163,61 @@ public class MasterPlatformInfo {
     void setXrfWriteCommit(final boolean opt) {
         this.xrfWriteCommit = opt;
     }
-}
\ No newline at end of file
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    void setMemoryMapped(final boolean opt) {
+        this.memoryMapped = opt;
+    }
+
+    public boolean isConcurrentReads() {
+        return concurrentReads;
+    }
+
+    void setConcurrentReads(final boolean opt) {
+        this.concurrentReads = opt;
+    }
+
+    public boolean isOptimisticReads() {
+        return optimisticReads;
+    }
+
+    void setOptimisticReads(final boolean opt) {
+        this.optimisticReads = opt;
+    }
+
+    public boolean isXrfPreload() {
+        return xrfPreload;
+    }
+
+    void setXrfPreload(final boolean opt) {
+        this.xrfPreload = opt;
+    }
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    void setWriteBehind(final boolean opt) {
+        this.writeBehind = opt;
+    }
+
+    public long getMaxDirtyBytes() {
+        return maxDirtyBytes;
+    }
+
+    void setMaxDirtyBytes(final long bytes) {
+        assert bytes > 0;
+        this.maxDirtyBytes = bytes;
+    }
+
+    public LockWaitPolicy getLockWaitPolicy() {
+        return lockWaitPolicy;
+    }
+
+    void setLockWaitPolicy(final LockWaitPolicy policy) {
+        this.lockWaitPolicy = policy;
+    }
+}
@@ -0,0 +1,668 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searches the active records of a master for a set of terms. Each term is a
+ * literal or a regular expression restricted to some field tags, and a record
+ * is a hit if any term is found in one of its fields. Each record is reported
+ * only once.
+ * When searching a Master object the records are not decoded: the literals
+ * are looked for in the raw field bytes with an Aho-Corasick automaton, only
+ * the fields checked against regular expressions are decoded, and the mfn
+ * range is split among many threads. A literal that every match of a regular
+ * expression must contain (see requiredLiteral()) goes into the automaton
+ * too, and the fields where it is not found are not decoded for that
+ * expression. Other MasterInterface objects are
+ * searched sequentially record by record.
+ * Usage:
+ * <pre>
+ *   final List&lt;Integer&gt; hits = new MasterSearch()
+ *                                          .addLiteral("malaria", tags)
+ *                                          .addRegExp("^19[0-9]{2}$")
+ *                                          .setIgnoreCase(true)
+ *                                          .search(mst, 1000);
+ * </pre>
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class MasterSearch {
+    private static class Term {
+        private final String expression;
+        private final boolean literal;
+        private final Set<Integer> tags;  // null means any tag
+
+        private Term(final String expression,
+                     final boolean literal,
+                     final Set<Integer> tags) {
+            this.expression = expression;
+            this.literal = literal;
+            this.tags = (tags == null) ? null : new HashSet<Integer>(tags);
+        }
+
+        private boolean accepts(final int tag) {
+            return (tags == null) || tags.contains(tag);
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton of the literals encoded with the master
+     * encoding. The failure links are folded into a full transition table.
+     */
+    private static class Automaton {
+        private final int[][] next;    // [state][byte] -> state
+        private final int[][] output;  // terms ending at the state or null
+        private final boolean fold;    // ascii case folding
+
+        private Automaton(final List<byte[]> keys,
+                          final List<Integer> ids,
+                          final boolean fold) {
+            final List<int[]> gotos = new ArrayList<int[]>();
+            final List<int[]> outs = new ArrayList<int[]>();
+
+            gotos.add(newState());
+            outs.add(null);
+            for (int idx = 0; idx < keys.size(); idx++) {
+                int state = 0;
+
+                for (byte b : keys.get(idx)) {
+                    final int ch = fold ? FOLD[b & 0xff] : (b & 0xff);
+
+                    if (gotos.get(state)[ch] == -1) {
+                        gotos.get(state)[ch] = gotos.size();
+                        gotos.add(newState());
+                        outs.add(null);
+                    }
+                    state = gotos.get(state)[ch];
+                }
+                outs.set(state, append(outs.get(state), ids.get(idx)));
+            }
+
+            final int size = gotos.size();
+            final int[] fail = new int[size];
+            final int[] queue = new int[size];
+            int head = 0;
+            int tail = 0;
+
+            next = gotos.toArray(new int[size][]);
+            output = outs.toArray(new int[size][]);
+            for (int ch = 0; ch < 256; ch++) {
+                if (next[0][ch] == -1) {
+                    next[0][ch] = 0;
+                } else {
+                    queue[tail++] = next[0][ch];
+                }
+            }
+            while (head < tail) {
+                final int state = queue[head++];
+
+                for (int ch = 0; ch < 256; ch++) {
+                    final int child = next[state][ch];
+
+                    if (child == -1) {
+                        next[state][ch] = next[fail[state]][ch];
+                    } else {
+                        fail[child] = next[fail[state]][ch];
+                        final int[] inherited = output[fail[child]];
+                        if (inherited != null) {
+                            for (int id : inherited) {
+                                output[child] = append(output[child], id);
+                            }
+                        }
+                        queue[tail++] = child;
+                    }
+                }
+            }
+            this.fold = fold;
+        }
+
+        /**
+         * Looks for the keys in buffer[from, to). The required literals of
+         * regular expression terms found are flagged in the found array.
+         * @return true if a literal term accepted by the field tag is found
+         */
+        private boolean find(final ByteBuffer buffer,
+                             final int from,
+                             final int to,
+                             final int tag,
+                             final Term[] terms,
+                             final boolean[] found) {
+            int state = 0;
+
+            for (int pos = from; pos < to; pos++) {
+                final int ch = buffer.get(pos) & 0xff;
+
+                state = next[state][fold ? FOLD[ch] : ch];
+                if (output[state] != null) {
+                    for (int id : output[state]) {
+                        if (terms[id].accepts(tag)) {
+                            if (terms[id].literal) {
+                                return true;
+                            }
+                            found[id] = true;
+                        }
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        private static int[] newState() {
+            final int[] state = new int[256];
+
+            Arrays.fill(state, -1);
+
+            return state;
+        }
+
+        private static int[] append(final int[] ids,
+                                    final int id) {
+            final int[] ret;
+
+            if (ids == null) {
+                ret = new int[] {id};
+            } else {
+                ret = Arrays.copyOf(ids, ids.length + 1);
+                ret[ids.length] = id;
+            }
+
+            return ret;
+        }
+    }
+
+    /**
+     * Collects the hits of the parallel scan keeping only the maxHits lowest
+     * mfns.
+     */
+    private static class Hits implements ScanLimit {
+        private final BitSet mfns;
+        private final int maxHits;
+        private volatile int limit;  // mfns above it can not be a hit
+        private int count;
+
+        private Hits(final int maxHits) {
+            this.maxHits = maxHits;
+            mfns = new BitSet();
+            limit = Integer.MAX_VALUE;
+            count = 0;
+        }
+
+        private boolean isCandidate(final int mfn) {
+            return mfn < limit;
+        }
+
+        @Override
+        public int getLimit() {
+            return limit;
+        }
+
+        private synchronized void add(final int mfn) {
+            if (mfn < limit) {
+                mfns.set(mfn);
+                if (++count > maxHits) {
+                    mfns.clear(limit);
+                    count--;
+                }
+                if (count == maxHits) {
+                    limit = mfns.length() - 1;
+                }
+            }
+        }
+
+        private synchronized List<Integer> toList() {
+            final List<Integer> ret = new ArrayList<Integer>(count);
+
+            for (int mfn = mfns.nextSetBit(0); mfn >= 0;
+                                             mfn = mfns.nextSetBit(mfn + 1)) {
+                ret.add(mfn);
+            }
+
+            return ret;
+        }
+    }
+
+    private static final int[] FOLD = new int[256];
+
+    static {
+        for (int ch = 0; ch < 256; ch++) {
+            FOLD[ch] = ((ch >= 'A') && (ch <= 'Z')) ? (ch + 'a' - 'A') : ch;
+        }
+    }
+
+    private final List<Term> terms;
+    private boolean ignoreCase;
+    private int threads;
+
+    public MasterSearch() {
+        terms = new ArrayList<Term>();
+        ignoreCase = false;
+        threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Adds a literal to be looked for in all record fields.
+     * @param literal the searched string
+     * @return this object
+     * @throws BrumaException
+     */
+    public MasterSearch addLiteral(final String literal)
+                                                        throws BrumaException {
+        return addLiteral(literal, null);
+    }
+
+    /**
+     * Adds a literal to be looked for in some record fields.
+     * @param literal the searched string
+     * @param tags the tags of the fields to be searched or null for all
+     * @return this object
+     * @throws BrumaException
+     */
+    public MasterSearch addLiteral(final String literal,
+                                   final Set<Integer> tags)
+                                                        throws BrumaException {
+        if ((literal == null) || literal.isEmpty()) {
+            throw new BrumaException("addLiteral/null or empty literal");
+        }
+        terms.add(new Term(literal, true, tags));
+
+        return this;
+    }
+
+    /**
+     * Adds a regular expression to be looked for in all record fields.
+     * @param expression the searched regular expression
+     * @return this object
+     * @throws BrumaException
+     */
+    public MasterSearch addRegExp(final String expression)
+                                                        throws BrumaException {
+        return addRegExp(expression, null);
+    }
+
+    /**
+     * Adds a regular expression to be looked for in some record fields.
+     * @param expression the searched regular expression
+     * @param tags the tags of the fields to be searched or null for all
+     * @return this object
+     * @throws BrumaException
+     */
+    public MasterSearch addRegExp(final String expression,
+                                  final Set<Integer> tags)
+                                                        throws BrumaException {
+        if (expression == null) {
+            throw new BrumaException("addRegExp/null regular expression");
+        }
+        try {
+            Pattern.compile(expression);
+        } catch (Exception ex) {
+            throw new BrumaException("addRegExp/" + ex);
+        }
+        terms.add(new Term(expression, false, tags));
+
+        return this;
+    }
+
+    /**
+     * @param ignoreCase if true the terms ascii letters are matched ignoring
+     *                   case, as the Pattern.CASE_INSENSITIVE flag does
+     * @return this object
+     */
+    public MasterSearch setIgnoreCase(final boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+        return this;
+    }
+
+    /**
+     * @param threads number of threads used to search a Master object
+     * @return this object
+     * @throws BrumaException
+     */
+    public MasterSearch setThreads(final int threads) throws BrumaException {
+        if (threads <= 0) {
+            throw new BrumaException("setThreads/threads[" + threads
+                                                                   + "] <= 0");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Searches the master active records.
+     * @param mst the master to be searched
+     * @param maxHits maximum number of returned mfns
+     * @return the lowest maxHits mfns of the records where one of the terms
+     *         was found, in ascending order
+     * @throws BrumaException
+     */
+    public List<Integer> search(final MasterInterface mst,
+                                final int maxHits) throws BrumaException {
+        if (mst == null) {
+            throw new BrumaException("search/null master");
+        }
+        if (maxHits < 1) {
+            throw new BrumaException("search/maxHits <= 0");
+        }
+        if (terms.isEmpty()) {
+            throw new BrumaException("search/no search terms");
+        }
+
+        return (mst instanceof Master) ? searchViews((Master)mst, maxHits)
+                                       : searchRecords(mst, maxHits);
+    }
+
+    private Pattern[] compile() {
+        final Pattern[] patterns = new Pattern[terms.size()];
+        final int flags = ignoreCase ? Pattern.CASE_INSENSITIVE : 0;
+
+        for (int idx = 0; idx < patterns.length; idx++) {
+            final Term term = terms.get(idx);
+
+            patterns[idx] = term.literal
+                           ? Pattern.compile(term.expression, Pattern.LITERAL
+                                                                      | flags)
+                           : Pattern.compile(term.expression, flags);
+        }
+
+        return patterns;
+    }
+
+    private List<Integer> searchRecords(final MasterInterface mst,
+                                        final int maxHits)
+                                                        throws BrumaException {
+        final Term[] aterms = terms.toArray(new Term[terms.size()]);
+        final Pattern[] patterns = compile();
+        final Matcher[] mats = new Matcher[patterns.length];
+        final List<Integer> ret = new ArrayList<Integer>();
+
+        for (int idx = 0; idx < patterns.length; idx++) {
+            mats[idx] = patterns[idx].matcher("");
+        }
+        for (Record rec : mst) {
+            if (rec.getStatus() == Record.Status.ACTIVE) {
+                boolean found = false;
+
+                for (Field fld : rec) {
+                    for (int idx = 0; idx < aterms.length; idx++) {
+                        if (aterms[idx].accepts(fld.getId())
+                           && mats[idx].reset(fld.getContent()).find()) {
+                            found = true;
+                            break;
+                        }
+                    }
+                    if (found) {
+                        break;
+                    }
+                }
+                if (found) {
+                    ret.add(rec.getMfn());
+                    if (ret.size() == maxHits) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    private List<Integer> searchViews(final Master mst,
+                                      final int maxHits)
+                                                        throws BrumaException {
+        final Term[] aterms = terms.toArray(new Term[terms.size()]);
+        final Pattern[] patterns = compile();
+        final Charset charset;
+
+        try {
+            charset = Charset.forName(mst.getEncoding());
+        } catch (Exception ex) {
+            throw new BrumaException("search/" + ex);
+        }
+        final boolean ascii = isAsciiCompatible(charset);
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        final List<Integer> ids = new ArrayList<Integer>();
+        final List<Integer> decoded = new ArrayList<Integer>();
+        final boolean[] filtered = new boolean[aterms.length];
+
+        // Literals are matched on the raw bytes if their encoding is exact.
+        // Ascii case folding is only safe on ascii compatible encodings.
+        // The required literal of a regular expression is a prefilter only.
+        for (int idx = 0; idx < aterms.length; idx++) {
+            final Term term = aterms[idx];
+            final String literal = term.literal ? term.expression
+                                          : requiredLiteral(term.expression);
+            boolean raw = false;
+
+            if ((literal != null) && (ascii || !ignoreCase)) {
+                final byte[] key = literal.getBytes(charset);
+
+                if (new String(key, charset).equals(literal)) {
+                    keys.add(key);
+                    ids.add(idx);
+                    raw = term.literal;
+                    filtered[idx] = !term.literal;
+                }
+            }
+            if (!raw) {
+                decoded.add(idx);
+            }
+        }
+
+        final Automaton automaton = keys.isEmpty() ? null
+                                     : new Automaton(keys, ids, ignoreCase);
+        final int[] dterms = new int[decoded.size()];
+        for (int idx = 0; idx < dterms.length; idx++) {
+            dterms[idx] = decoded.get(idx);
+        }
+        final ThreadLocal<boolean[]> founds = new ThreadLocal<boolean[]>() {
+            @Override
+            protected boolean[] initialValue() {
+                return new boolean[aterms.length];
+            }
+        };
+        final ThreadLocal<Matcher[]> matchers = new ThreadLocal<Matcher[]>() {
+            @Override
+            protected Matcher[] initialValue() {
+                final Matcher[] mats = new Matcher[patterns.length];
+
+                for (int idx : dterms) {
+                    mats[idx] = patterns[idx].matcher("");
+                }
+                return mats;
+            }
+        };
+        final Hits hits = new Hits(maxHits);
+
+        mst.parallelScanViews(new RecordViewVisitor() {
+            @Override
+            public void visit(final RecordView view) throws BrumaException {
+                if (view.isActive() && hits.isCandidate(view.getMfn())
+                    && matches(view, aterms, automaton, dterms, filtered,
+                                             matchers.get(), founds.get())) {
+                    hits.add(view.getMfn());
+                }
+            }
+        }, hits, threads);
+
+        return hits.toList();
+    }
+
+    /**
+     * @param filtered regular expression terms whose required literal is in
+     *                 the automaton
+     * @param found work array of the required literals found in a field
+     */
+    private static boolean matches(final RecordView view,
+                                   final Term[] aterms,
+                                   final Automaton automaton,
+                                   final int[] dterms,
+                                   final boolean[] filtered,
+                                   final Matcher[] mats,
+                                   final boolean[] found)
+                                                        throws BrumaException {
+        final int nvf = view.getNvf();
+        final ByteBuffer buffer = view.getBuffer();
+
+        for (int pos = 0; pos < nvf; pos++) {
+            final int tag = view.getTag(pos);
+
+            if (automaton != null) {
+                final int from = view.getBytesPos(pos);
+
+                Arrays.fill(found, false);
+                if (automaton.find(buffer, from, from + view.getBytesLen(pos),
+                                                       tag, aterms, found)) {
+                    return true;
+                }
+            }
+            for (int idx : dterms) {
+                if (aterms[idx].accepts(tag) && (found[idx] || !filtered[idx])
+                    && mats[idx].reset(view.getContent(pos)).find()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the longest literal that every match of a regular expression
+     * contains. Only the top level of the expression is looked at: groups,
+     * character classes, escaped classes and quantified characters end a
+     * literal. Expressions with alternations, embedded flags, quotes or
+     * escapes with arguments (\x41, \pL, \1 ...) have no required
+     * literal.
+     * @param expression regular expression
+     * @return the required literal or null if none was found
+     */
+    static String requiredLiteral(final String expression) {
+        final int len = expression.length();
+        final StringBuilder run = new StringBuilder();
+        String best = null;
+        int depth = 0;     // group nesting
+        int classes = 0;   // character class nesting
+        int pos = 0;
+
+        if (expression.contains("(?") || expression.contains("\\Q")) {
+            return null;
+        }
+        while (pos < len) {
+            final char ch = expression.charAt(pos);
+            boolean lit = false;
+            char litCh = ch;
+
+            if (ch == '\\') {
+                if (pos + 1 >= len) {
+                    return null;
+                }
+                litCh = expression.charAt(++pos);
+                if (Character.isDigit(litCh) || ("xuckNpPg".indexOf(litCh)
+                                                                    != -1)) {
+                    return null;      // escapes with arguments
+                }
+                lit = (classes == 0) && (depth == 0)
+                                         && !Character.isLetter(litCh);
+            } else if (ch == '[') {
+                classes++;
+            } else if (classes > 0) {
+                if (ch == ']') {
+                    classes--;
+                }
+            } else if (ch == '{') {
+                pos = expression.indexOf('}', pos);   // quantifier bounds
+                if (pos == -1) {
+                    return null;
+                }
+            } else if (ch == '(') {
+                depth++;
+            } else if (ch == ')') {
+                depth--;
+            } else if ((ch == '|') && (depth == 0)) {
+                return null;
+            } else if (depth == 0) {
+                lit = (".^$*+?}|".indexOf(ch) == -1);
+            }
+            pos++;
+            if (lit) {
+                run.append(litCh);
+                if (pos < len) {
+                    final char quant = expression.charAt(pos);
+
+                    if ((quant == '?') || (quant == '*') || (quant == '{')) {
+                        run.setLength(run.length() - 1);  // optional char
+                        best = longest(best, run);
+                    } else if (quant == '+') {
+                        best = longest(best, run);        // char repeated
+                    }
+                }
+            } else {
+                best = longest(best, run);
+            }
+        }
+        best = longest(best, run);
+
+        return best;
+    }
+
+    /**
+     * Empties the run after comparing it with the current best literal.
+     */
+    private static String longest(final String best,
+                                  final StringBuilder run) {
+        final String ret = ((run.length() > 0) && ((best == null)
+                        || (run.length() > best.length()))) ? run.toString()
+                                                            : best;
+        run.setLength(0);
+
+        return ret;
+    }
+
+    private static boolean isAsciiCompatible(final Charset charset) {
+        final byte[] ascii = new byte[128];
+
+        for (int idx = 0; idx < ascii.length; idx++) {
+            ascii[idx] = (byte)idx;
+        }
+        final String str = new String(ascii, charset);
+        boolean ret = (str.length() == ascii.length)
+                      && Arrays.equals(ascii, str.getBytes(charset));
+
+        for (int idx = 0; ret && (idx < ascii.length); idx++) {
+            ret = (str.charAt(idx) == idx);
+        }
+
+        return ret;
+    }
+}
@@ -27,8 +27,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  *
@@ -121,7 +119,7 @@ public class MemoryMaster implements MasterInterface {
             throw new BrumaException("deleteRecord/mfn[" + mfn 
                                                  + "] is outside valid range.");
         }
-        recs.get(mfn).setStatus(Record.Status.LOGDEL);        
+        recs.get(mfn - 1).setStatus(Record.Status.LOGDEL);        
     }
 
     /**
@@ -296,25 +294,8 @@ public class MemoryMaster implements MasterInterface {
         if (maxHits < 1) {
             throw new BrumaException("maxHits <= 0");
         }
-        final List<Integer> ret = new ArrayList<Integer>();
-        final Matcher mat = Pattern.compile(expression).matcher("");
-        int curHits = 0;
-
-        for (Record rec : this) {
-            if (rec.getStatus() == Record.Status.ACTIVE) {
-                for (Field fld : rec) {
-                    mat.reset(fld.getContent());
-                    if (mat.find()) {
-                        if (++curHits > maxHits) {
-                            break;
-                        }
-                        ret.add(rec.getMfn());
-                    }
-                }
-            }
-        }
-
-        return ret;        
+        return new MasterSearch().addRegExp(expression)
+                                 .search(this, maxHits);
     }
 
     /**
@@ -374,7 +355,11 @@ public class MemoryMaster implements MasterInterface {
         for (int cur = last + 1; cur < mfn; cur++) {
             recs.add(new Record().setMfn(cur));
         }
-        recs.add(mfn - 1, record);
+        if (mfn <= last) {
+            recs.set(mfn - 1, record);
+        } else {
+            recs.add(record);
+        }
         
         return mfn;
     }    
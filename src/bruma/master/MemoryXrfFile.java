@@ -0,0 +1,301 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Xrf file fully loaded in memory. All pointers (and the block headers) are
+ * kept in one int array, so lookups never read the file. The changed blocks
+ * are tracked and only they are written back when the changes are
+ * committed. The pointers are read without locking: a grown array is
+ * published before the block count, and readers read the count first, so a
+ * block they count is always in the array they read.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class MemoryXrfFile extends XrfFile {
+    private static final int BLOCK_INTS = XRF_NRINBUFFER + 1;
+
+    private volatile int[] ptrs;  // xrf file image (header + 127 pointers)
+    private volatile int nblocks; // number of valid blocks in ptrs
+    private BitSet dirty;         // blocks changed since the last flush
+    private boolean autoCommit;
+    private boolean batch;
+
+    /**
+     * Create a new MemoryXrfFile object.
+     * @param dbasename database name
+     * @param shift master file shift
+     * @param swapped tells if the master bytes are litle or big engian
+     * @param create tells if the xrf file should be created.
+     * @param autoCommit true if each xrf pointer change should be immediately
+     *                   written to the file.
+     * @throws BrumaException
+     */
+    MemoryXrfFile(final String dbasename,
+                  final int shift,
+                  final boolean swapped,
+                  final boolean create,
+                  final boolean autoCommit) throws BrumaException {
+        super(dbasename, shift, swapped, create);
+
+        this.autoCommit = autoCommit;
+        batch = false;
+        load();
+    }
+
+    /**
+     * Writes the changed blocks and closes files.
+     * @throws BrumaException
+     */
+    @Override
+    synchronized void close() throws BrumaException {
+        flush();
+        super.close();
+    }
+
+    /**
+     * Initializes the xrf file and the pointer array.
+     * @throws BrumaException
+     */
+    @Override
+    synchronized void reset() throws BrumaException {
+        super.reset();
+        load();
+    }
+
+    @Override
+    synchronized void beginBatch() throws BrumaException {
+        if (batch) {
+            throw new BrumaException("beginBatch/already in batch mode");
+        }
+        flush();
+        batch = true;
+    }
+
+    @Override
+    synchronized void commitBatch() throws BrumaException {
+        if (batch) {
+            batch = false;
+            flush();
+        }
+    }
+
+    /**
+     * Leaves the batch mode loading the pointers again from the file, that
+     * has no batch change.
+     * @param lastMfn last mfn of the master control record
+     * @throws BrumaException
+     */
+    @Override
+    synchronized void abortBatch(final int lastMfn) throws BrumaException {
+        if (batch) {
+            batch = false;
+            load();
+        }
+    }
+
+    @Override
+    boolean inBatch() {
+        return batch;
+    }
+
+    /**
+     * Reads the xrf info of a specif record.
+     * @param mfn record id
+     * @return XrfInfo - xrf pointer information
+     * @throws BrumaException
+     */
+    @Override
+    public XrfInfo readXrfInfo(final int mfn) throws BrumaException {
+        if (mfn <= 0) {
+            throw new BrumaException("readXrfInfo/mfn <= 0");
+        }
+        final int[] aptrs = ptrs;
+        final int pos = (((mfn - 1) / XRF_NRINBUFFER) * BLOCK_INTS)
+                                           + ((mfn - 1) % XRF_NRINBUFFER) + 1;
+
+        if (pos >= aptrs.length) {
+            throw new BrumaException("readXrfInfo/id[" + mfn + "] too big");
+        }
+
+        return readXrfInfoAux(mfn, aptrs[pos]);
+    }
+
+    /**
+     * Reads the xrf info of a specif record. Reading the array does not
+     * change this object state, so it is the same as readXrfInfo().
+     * @param mfn record id
+     * @return XrfInfo - xrf pointer information
+     * @throws BrumaException
+     */
+    @Override
+    public XrfInfo readXrfInfoConcurrent(final int mfn)
+                                                        throws BrumaException {
+        return readXrfInfo(mfn);
+    }
+
+    /**
+     * Copies the pointers of a block from the pointer array.
+     * @param blk block number (0..)
+     * @param out array that receives the pointers
+     * @return false if the block does not exist
+     * @throws BrumaException
+     */
+    @Override
+    boolean readBlock(final int blk,
+                      final int[] out) throws BrumaException {
+        final int count = nblocks;  // before ptrs, see the class comment
+        final int[] aptrs = ptrs;   // same instance during the copy
+        final int pos = (blk * BLOCK_INTS) + 1;
+
+        if ((blk >= count) || (pos + XRF_NRINBUFFER > aptrs.length)) {
+            return false;
+        }
+        System.arraycopy(aptrs, pos, out, 0, XRF_NRINBUFFER);
+
+        return true;
+    }
+
+    /**
+     * Writes the xrf pointer of a record in the pointer array. It is written
+     * to the file when flush() is called (or immediately if auto commit is
+     * set).
+     * @param info XrfInfo xrf pointer info
+     * @return the packed master file position
+     * @throws BrumaException
+     */
+    @Override
+    public synchronized int writeXrfInfo(final XrfInfo info)
+                                                        throws BrumaException {
+        if (info == null) {
+            throw new BrumaException("writeXrfInfo/null info");
+        }
+        final int packedMfp = packXrfInfo(info);
+        final int mfn = info.getMfn();
+        final int blk = ((mfn - 1) / XRF_NRINBUFFER);
+        final int idx = ((mfn - 1) % XRF_NRINBUFFER) + 1;
+        final int lblk = nblocks - 1;
+
+        if (blk > (lblk + 1)) {
+            throw new BrumaException(
+                        "writeMstPos/illegal argument id value = " + mfn);
+        }
+        ensureBlocks(blk + 1);
+        ptrs[(blk * BLOCK_INTS) + idx] = packedMfp;
+        dirty.set(blk);
+
+        if ((idx == XRF_NRINBUFFER) && (blk == lblk)) {// Ultima posicao
+            // Troca numero negativo do bloco (ultimo) para numero do bloco
+            // e cria o proximo bloco (ultimo).
+            ensureBlocks(blk + 2);
+            ptrs[blk * BLOCK_INTS] = blk + 1;
+            ptrs[(blk + 1) * BLOCK_INTS] = -1 * (blk + 2);
+            dirty.set(blk + 1);
+        }
+        if (autoCommit && !batch) {
+            flush();
+        }
+
+        return packedMfp;
+    }
+
+    /**
+     * Writes the changed blocks to the file. Consecutive blocks are written
+     * at once.
+     * @throws BrumaException
+     */
+    synchronized void flush() throws BrumaException {
+        int first = dirty.nextSetBit(0);
+
+        try {
+            while (first >= 0) {
+                final int last = dirty.nextClearBit(first) - 1;
+                final int nints = (last - first + 1) * BLOCK_INTS;
+                final ByteBuffer buffer = ByteBuffer.allocate(
+                                                       nints * XRF_PTRSIZE)
+                                .order(swapped ? ByteOrder.LITTLE_ENDIAN :
+                                                 ByteOrder.BIG_ENDIAN);
+                final long filePos = (long)first * XRF_BLOCKSIZE;
+
+                buffer.asIntBuffer().put(ptrs, first * BLOCK_INTS, nints);
+                while (buffer.hasRemaining()) {
+                    fc.write(buffer, filePos + buffer.position());
+                }
+                first = dirty.nextSetBit(last + 1);
+            }
+            dirty.clear();
+        } catch (IOException ioe) {
+            throw new BrumaException("flush/" + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Loads the whole xrf file into the pointer array.
+     * @throws BrumaException
+     */
+    private void load() throws BrumaException {
+        try {
+            final int size = (int)(fc.size() / XRF_BLOCKSIZE);
+            final ByteBuffer buffer = ByteBuffer.allocate(size * XRF_BLOCKSIZE)
+                                .order(swapped ? ByteOrder.LITTLE_ENDIAN :
+                                                 ByteOrder.BIG_ENDIAN);
+
+            while (buffer.hasRemaining()) {
+                if (fc.read(buffer, buffer.position()) < 0) {
+                    throw new IOException("unexpected end of file");
+                }
+            }
+            final int[] aptrs = new int[Math.max(1, size) * BLOCK_INTS];
+
+            buffer.flip();
+            buffer.asIntBuffer().get(aptrs, 0, size * BLOCK_INTS);
+            dirty = new BitSet();
+            ptrs = aptrs;
+            nblocks = size;
+        } catch (IOException ioe) {
+            throw new BrumaException("load/" + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Grows the pointer array if necessary. The array is published before
+     * the new block count.
+     * @param num minimum number of blocks
+     */
+    private void ensureBlocks(final int num) {
+        if (num > nblocks) {
+            final int len = num * BLOCK_INTS;
+
+            if (len > ptrs.length) {
+                ptrs = Arrays.copyOf(ptrs, Math.max(len, 2 * ptrs.length));
+            }
+            nblocks = num;
+        }
+    }
+}
@@ -0,0 +1,712 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * In memory master that keeps its records out of the java heap. Each record
+ * is stored with the same binary layout it has in the .mst file, inside
+ * large direct byte buffers (slabs), and a table with one offset per mfn
+ * points to it, so reading or replacing a record costs O(1) and the heap
+ * only holds the offset tables. A replaced record is written over the old
+ * one if it fits, otherwise it is appended and the old bytes are wasted until
+ * compact() is called. Many threads can read records at the same time;
+ * writes wait for the readers. The slabs count against the direct memory
+ * limit (-XX:MaxDirectMemorySize). Usage:
+ * <pre>
+ *   final OffHeapMaster mst = MasterFactory.getInstance("lilacs")
+ *                                          .openOffHeap();
+ *   ...
+ *   mst.snapshot("lilacs_copy");
+ * </pre>
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class OffHeapMaster implements MasterInterface {
+    /**
+     * Implements an iterator of the database records.
+     */
+    public class MstIterator implements Iterator<Record> {
+        private final int lastMfn;
+        private final Record reuse;
+        private int curMfn;
+        private Record rec;
+
+        private MstIterator(final boolean reusing) throws BrumaException {
+            lastMfn = getControlRecord().getNxtmfn() - 1;
+            reuse = reusing ? newRecord() : null;
+            curMfn = 0;
+        }
+        @Override
+        public boolean hasNext() {
+            return (curMfn + 1) <= lastMfn;
+        }
+        @Override
+        public Record next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                rec = getRecord(++curMfn, reuse);
+            } catch (BrumaException zex) {
+                rec = null;
+                Logger.getGlobal().severe(zex.getMessage());
+            }
+            return rec;
+        }
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final int FIRST_SLAB_SIZE = 1024 * 1024;
+    private static final int MAX_SLAB_SIZE = MAXMFRL_POSSIBLE;
+    private static final long NO_RECORD = -1;  // physically deleted record
+
+    private final MasterPlatformInfo info;
+    private final String encoding;
+    private final boolean FFI;
+    private final boolean swapped;
+    private final int filler;
+    private final int shift;
+    private final int statusPos;     // status position in the record leader
+    private final RecordByteBuffer rbb;
+    private final RecordCodec codec; // write codec
+    private final ThreadLocal<RecordCodec> codecs;  // read codecs
+    private final ReentrantReadWriteLock rwLock;
+    private final List<ByteBuffer> slabs;
+    private Map<Integer,String> tags;
+    private long[] offsets;          // (slab << 32) | position, index = mfn-1
+    private int[] capacities;        // bytes reserved for each record
+    private int lastMfn;
+    private int top;                 // used bytes of the last slab
+    private long wasted;             // bytes of replaced records
+
+    /**
+     * @param mpi internal information about the database.
+     * @exception BrumaException
+     */
+    OffHeapMaster(final MasterPlatformInfo mpi) throws BrumaException {
+        assert mpi != null;
+
+        final String enc = mpi.getEncoding();
+
+        info = mpi;
+        encoding = enc.equals(GUESS_ISO_IBM_ENCODING) ? Master.DEFAULT_ENCODING
+                                                      : enc;
+        FFI = mpi.isFfi();
+        swapped = mpi.isSwapped();
+        filler = (mpi.getDataAlignment() == 0) ? 0 : 2;
+        shift = mpi.getShift();
+        statusPos = 4 + (FFI ? 4 : 2) + ((FFI || (filler == 0)) ? 0 : 2)
+                  + 4 + 2 + ((FFI && (filler != 0)) ? 2 : 0)
+                  + (FFI ? 4 : 2) + 2;
+        rbb = new RecordByteBuffer(FFI, swapped, filler, shift);
+        codec = new RecordCodec(encoding);
+        codecs = new ThreadLocal<RecordCodec>();
+        rwLock = new ReentrantReadWriteLock();
+        slabs = new ArrayList<ByteBuffer>();
+        tags = null;
+        clear();
+    }
+
+    /**
+     * Copies all records of another master into this one. Records with the
+     * same mfn are replaced.
+     * @param from the master to be copied
+     * @return this object
+     * @throws BrumaException
+     */
+    public OffHeapMaster load(final MasterInterface from)
+                                                        throws BrumaException {
+        if (from == null) {
+            throw new BrumaException("load/null master");
+        }
+        final Iterator<Record> iter = (from instanceof Master)
+                                         ? ((Master)from).iterator(true)
+                                         : from.iterator();
+
+        if (iter == null) {
+            throw new BrumaException("load/master is not opened");
+        }
+
+        while (iter.hasNext()) {
+            final Record rec = iter.next();
+
+            if (rec == null) {
+                throw new BrumaException("load/record read error");
+            }
+            writeRecord(rec);
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes all records into a new Isis master (.mst and .xrf files). If
+     * the master files already exist they are replaced. The records are
+     * copied under a read lock, so writers wait until the snapshot ends.
+     * @param mstName name of the master to be created
+     * @throws BrumaException
+     */
+    public void snapshot(final String mstName) throws BrumaException {
+        if (mstName == null) {
+            throw new BrumaException("snapshot/null master name");
+        }
+        final MasterBulkWriter writer = MasterFactory.getInstance(mstName)
+                                          .setEncoding(encoding)
+                                          .setFFI(FFI)
+                                          .setDataAlignment(filler)
+                                          .setSwapped(swapped)
+                                          .setMaxGigaSize(getGigaSize())
+                                          .forceCreateBulkWriter();
+        if (tags != null) {
+            writer.setTags(tags);
+        }
+        rwLock.readLock().lock();
+        try {
+            final Record rec = newRecord();
+
+            for (int mfn = 1; mfn <= lastMfn; mfn++) {
+                writer.write(read(mfn, rec));
+            }
+        } finally {
+            rwLock.readLock().unlock();
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes all records into the master files with this master name.
+     * @throws BrumaException
+     */
+    public void snapshot() throws BrumaException {
+        snapshot(info.getMstName());
+    }
+
+    /**
+     * Copies the records into new slabs, releasing the bytes of the replaced
+     * records.
+     */
+    public void compact() {
+        rwLock.writeLock().lock();
+        try {
+            final List<ByteBuffer> old = new ArrayList<ByteBuffer>(slabs);
+
+            slabs.clear();
+            top = 0;
+            for (int idx = 0; idx < lastMfn; idx++) {
+                final long offset = offsets[idx];
+
+                if (offset != NO_RECORD) {
+                    final ByteBuffer slab = old.get((int)(offset >>> 32));
+                    final ByteBuffer src = slab.duplicate();
+                    final int pos = (int)offset;
+                    final int len = getLength(slab, pos);
+                    final long noffset = allocate(len);
+                    final ByteBuffer dest = slabs.get((int)(noffset >>> 32))
+                                                                 .duplicate();
+                    src.limit(pos + len);
+                    src.position(pos);
+                    dest.position((int)noffset);
+                    dest.put(src);
+                    offsets[idx] = noffset;
+                    capacities[idx] = len;
+                }
+            }
+            wasted = 0;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes of all slabs
+     */
+    public long getMemorySize() {
+        rwLock.readLock().lock();
+        try {
+            long size = 0;
+
+            for (ByteBuffer slab : slabs) {
+                size += slab.capacity();
+            }
+            return size;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of slab bytes of replaced or deleted records. See
+     *         compact()
+     */
+    public long getWastedBytes() {
+        rwLock.readLock().lock();
+        try {
+            return wasted;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Releases all records. The slabs are freed when they are garbage
+     * collected.
+     * @throws BrumaException
+     */
+    @Override
+    public void close() throws BrumaException {
+        rwLock.writeLock().lock();
+        try {
+            clear();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Deletes all records. The master files are not touched.
+     * @return true
+     * @throws BrumaException
+     */
+    @Override
+    public boolean delete() throws BrumaException {
+        close();
+
+        return true;
+    }
+
+    /**
+     * Deletes logically an active record. Only its status is changed.
+     * @param mfn master file number of the record.
+     * @throws BrumaException
+     */
+    @Override
+    public void deleteRecord(final int mfn) throws BrumaException {
+        rwLock.writeLock().lock();
+        try {
+            checkMfn("deleteRecord", mfn);
+
+            final long offset = offsets[mfn - 1];
+
+            if ((offset == NO_RECORD) || (getStatus(offset) != 0)) {
+                throw new BrumaException("deleteRecord/record status is not "
+                                                                  + "active");
+            }
+            slabs.get((int)(offset >>> 32)).putShort((int)offset + statusPos,
+                                                                    (short)1);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void forceUnlockRecord(final int mfn) throws BrumaException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Control getControlRecord() throws BrumaException {
+        final Control ctl = new Control();
+
+        rwLock.readLock().lock();
+        try {
+            ctl.setNxtmfn(lastMfn + 1);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+
+        return ctl;
+    }
+
+    @Override
+    public int getDataAlignment() {
+        return filler;
+    }
+
+    @Override
+    public String getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public int getGigaSize() {
+        return info.getMaxGigaSize();
+    }
+
+    @Override
+    public Record getLockRecord(final int mfn,
+                                final Lock.RecordLock[] recLock)
+                                                        throws BrumaException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getMasterName() {
+        return info.getMstName();
+    }
+
+    @Override
+    public int getMaxRecSize() throws BrumaException {
+        rwLock.readLock().lock();
+        try {
+            int max = 0;
+
+            for (int idx = 0; idx < lastMfn; idx++) {
+                final long offset = offsets[idx];
+
+                if ((offset != NO_RECORD) && (getStatus(offset) == 0)) {
+                    max = Math.max(max, getLength(offset));
+                }
+            }
+            return max;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads a record. This function can be called by many threads at the same
+     * time.
+     * @param mfn record master file number
+     * @return the readen record.
+     * @throws BrumaException
+     */
+    @Override
+    public Record getRecord(final int mfn) throws BrumaException {
+        return getRecord(mfn, null);
+    }
+
+    /**
+     * Reads a record into a caller owned Record object. See
+     * Master.getRecord(int, Record).
+     * @param mfn record master file number
+     * @param reuse the record to be refilled or null to create a new one
+     * @return the readen record (reuse if it is not null).
+     * @throws BrumaException
+     */
+    public Record getRecord(final int mfn,
+                            final Record reuse) throws BrumaException {
+        rwLock.readLock().lock();
+        try {
+            checkMfn("getRecord", mfn);
+            return read(mfn, reuse);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isFFI() {
+        return FFI;
+    }
+
+    public boolean isSwapped() {
+        return swapped;
+    }
+
+    @Override
+    public boolean isInMemoryMst() {
+        return true;
+    }
+
+    @Override
+    public boolean isMultiuser() {
+        return false;
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return iterator(false);
+    }
+
+    /**
+     * @param reusing if true, all calls to next() return the same Record
+     *                object. See Master.iterator(boolean)
+     * @return an iterator of the database records
+     */
+    public Iterator<Record> iterator(final boolean reusing) {
+        Iterator<Record> iter;
+
+        try {
+            iter = new MstIterator(reusing);
+        } catch (BrumaException zex) {
+            iter = null;
+        }
+
+        return iter;
+    }
+
+    @Override
+    public Lock.RecordLock lockRecord(final Record record)
+                                                         throws BrumaException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Record newRecord() throws BrumaException {
+        return new Record(shift, filler);
+    }
+
+    @Override
+    public List<Integer> regExpSearch(final String expression,
+                                      final int maxHits)
+                                                         throws BrumaException {
+        if (expression == null) {
+            throw new BrumaException("null regular expression");
+        }
+        if (maxHits < 1) {
+            throw new BrumaException("maxHits <= 0");
+        }
+        return new MasterSearch().addRegExp(expression)
+                                 .search(this, maxHits);
+    }
+
+    @Override
+    public void unlock() throws BrumaException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void unlockRecord(final Lock.RecordLock recLock)
+                                                         throws BrumaException {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Writes a record. If its mfn is zero the next mfn is used, if it is
+     * greater than the last one the missing records are physically deleted.
+     * @param record Isis record
+     * @return record master file number
+     * @throws BrumaException
+     */
+    @Override
+    public int writeRecord(final Record record) throws BrumaException {
+        if (record == null) {
+            throw new BrumaException("writeRecord/null record");
+        }
+        if (record.getMfn() < 0) {
+            throw new BrumaException("writeRecord/mfn < 0");
+        }
+
+        rwLock.writeLock().lock();
+        try {
+            final int mfn = (record.getMfn() == 0) ? (lastMfn + 1)
+                                                   : record.getMfn();
+            final int idx = mfn - 1;
+
+            record.setMfn(mfn);
+            ensureCapacity(mfn);
+            while (lastMfn < mfn) {
+                offsets[lastMfn] = NO_RECORD;
+                capacities[lastMfn++] = 0;
+            }
+            if (record.getStatus() == Record.Status.PHYDEL) {
+                wasted += capacities[idx];
+                offsets[idx] = NO_RECORD;
+                capacities[idx] = 0;
+            } else {
+                final int len = rbb.encode(record, codec);
+                final int max = FFI ? MAXMFRL_POSSIBLE : MAXMFRL_ISIS;
+
+                if (len > max) {
+                    throw new BrumaException("writeRecord/record size[" + len
+                                                              + "] > " + max);
+                }
+                final long offset;
+
+                if ((offsets[idx] != NO_RECORD) && (capacities[idx] >= len)) {
+                    offset = offsets[idx];
+                } else {
+                    wasted += capacities[idx];
+                    offset = allocate(len);
+                    capacities[idx] = len;
+                }
+                final ByteBuffer slot = slabs.get((int)(offset >>> 32))
+                                                                 .duplicate();
+                slot.limit((int)offset + len);
+                slot.position((int)offset);
+                record.setBlockNumber(0);
+                record.setBlockPos(0);
+                rbb.toByteBuffer(record, codec, slot.slice().order(
+                                    swapped ? ByteOrder.LITTLE_ENDIAN
+                                            : ByteOrder.BIG_ENDIAN));
+                offsets[idx] = offset;
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+
+        return record.getMfn();
+    }
+
+    /**
+     * Sets a map of tags and its names
+     * @param tags tags and tags names association
+     */
+    public void setTags(final Map<Integer,String> tags) {
+        final Map<String,Integer> stags = new HashMap<String,Integer>();
+
+        this.tags = tags;
+        for (Map.Entry<Integer,String> entry : tags.entrySet()) {
+            stags.put(entry.getValue(), entry.getKey());
+        }
+        rbb.setTags(tags, stags);
+    }
+
+    private void clear() {
+        slabs.clear();
+        offsets = new long[1024];
+        capacities = new int[1024];
+        lastMfn = 0;
+        top = 0;
+        wasted = 0;
+    }
+
+    private void checkMfn(final String function,
+                          final int mfn) throws BrumaException {
+        if ((mfn <= 0) || (mfn > lastMfn)) {
+            throw new BrumaException(function + "/mfn[" + mfn
+                                             + "] is outside valid range.");
+        }
+    }
+
+    private void ensureCapacity(final int mfn) {
+        if (mfn > offsets.length) {
+            final int size = Math.max(mfn, 2 * offsets.length);
+
+            offsets = Arrays.copyOf(offsets, size);
+            capacities = Arrays.copyOf(capacities, size);
+        }
+    }
+
+    /**
+     * Reserves slab bytes, creating a new slab if the last one is full. The
+     * slabs double their size up to MAX_SLAB_SIZE.
+     * @param len number of bytes
+     * @return the offset of the reserved bytes
+     */
+    private long allocate(final int len) {
+        assert (len > 0) && (len <= MAX_SLAB_SIZE);
+
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+
+        if ((slab == null) || (slab.capacity() - top < len)) {
+            final int size = (slab == null) ? FIRST_SLAB_SIZE
+                          : (int)Math.min(MAX_SLAB_SIZE, 2L * slab.capacity());
+
+            slab = ByteBuffer.allocateDirect(Math.max(size, len))
+                                .order(swapped ? ByteOrder.LITTLE_ENDIAN :
+                                                 ByteOrder.BIG_ENDIAN);
+            slabs.add(slab);
+            top = 0;
+        }
+        final long offset = ((long)(slabs.size() - 1) << 32) | top;
+
+        top += len;
+
+        return offset;
+    }
+
+    /**
+     * @param offset record offset
+     * @return the record length (mfrl) stored in the record leader
+     */
+    private int getLength(final long offset) {
+        return getLength(slabs.get((int)(offset >>> 32)), (int)offset);
+    }
+
+    private int getLength(final ByteBuffer slab,
+                          final int pos) {
+        return FFI ? slab.getInt(pos + 4) : slab.getShort(pos + 4);
+    }
+
+    /**
+     * @param offset record offset
+     * @return the record status stored in the record leader (0 - active,
+     *         1 - logically deleted)
+     */
+    private int getStatus(final long offset) {
+        return slabs.get((int)(offset >>> 32)).getShort((int)offset
+                                                                + statusPos);
+    }
+
+    /**
+     * Decodes a record. The caller should hold the read or the write lock.
+     */
+    private Record read(final int mfn,
+                        final Record reuse) throws BrumaException {
+        final long offset = offsets[mfn - 1];
+        final Record record;
+
+        if (offset == NO_RECORD) {
+            record = (reuse == null) ? newRecord()
+                                     : reuse.reset(shift, filler);
+            record.setMfn(mfn);
+            record.setStatus(Record.Status.PHYDEL);
+        } else {
+            final ByteBuffer buffer = slabs.get((int)(offset >>> 32))
+                                                                 .duplicate();
+            buffer.limit((int)offset + getLength(offset));
+            buffer.position((int)offset);
+            try {
+                record = rbb.fromByteBuffer(buffer.slice(), getCodec(), reuse);
+            } catch (BrumaException zex) {
+                throw new BrumaException("getRecord[mfn=" + mfn + "]/" + zex);
+            }
+        }
+        if (record.getStatus() == Record.Status.ACTIVE) {
+            record.setLockStatus(Record.LockStatus.NORMAL);
+            record.setActiveStatus(Record.ActiveStatus.NORMAL);
+        } else {
+            record.setLockStatus(null);
+            record.setActiveStatus(null);
+        }
+
+        return record;
+    }
+
+    private RecordCodec getCodec() throws BrumaException {
+        RecordCodec rcodec = codecs.get();
+
+        if (rcodec == null) {
+            rcodec = new RecordCodec(encoding);
+            codecs.set(rcodec);
+        }
+
+        return rcodec;
+    }
+}
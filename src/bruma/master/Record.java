@@ -22,6 +22,7 @@
 package bruma.master;
 
 import bruma.BrumaException;
+import java.io.IOException;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -49,8 +50,115 @@ public class Record implements Iterable<Field> {
            ((System.getProperty("os.name").startsWith("Win") == false) ? 2 : 0);
     private static final String DEFAULT_LINE_SEPARATOR =
                                            System.getProperty("line.separator");
+    // records with less fields are searched without the tag index
+    private static final int INDEX_MIN_FIELDS = 16;
 
-    private final List<Field> fields;
+    /**
+     * Field list that counts all its changes, including set() calls, so that
+     * the tag index can tell if it is up to date.
+     */
+    private static class FieldList extends ArrayList<Field> {
+        private static final long serialVersionUID = 1L;
+
+        private FieldList(final int capacity) {
+            super(capacity);
+        }
+
+        private int getModCount() {
+            return modCount;
+        }
+
+        @Override
+        public Field set(final int index,
+                         final Field element) {
+            modCount++;
+            return super.set(index, element);
+        }
+    }
+
+    /**
+     * Tag index of the field list: an open addressing table from each tag to
+     * the positions of its fields, in field order.
+     */
+    private static class TagIndex {
+        private final int modCount;   // field list modCount of the index
+        private final int[] keys;     // tags, 0 means an empty slot
+        private final int[] starts;   // first position of the tag slot
+        private final int[] counts;   // number of positions of the tag slot
+        private final int[] positions;
+        private final int mask;
+
+        private TagIndex(final List<Field> fields,
+                         final int modCount) throws BrumaException {
+            final int len = fields.size();
+            final int[] slots = new int[len];
+            int capacity = 4;
+
+            while (capacity < 2 * len) {
+                capacity *= 2;
+            }
+            this.modCount = modCount;
+            keys = new int[capacity];
+            starts = new int[capacity];
+            counts = new int[capacity];
+            positions = new int[len];
+            mask = capacity - 1;
+            for (int pos = 0; pos < len; pos++) {
+                final Field field = fields.get(pos);
+                if (field == null) {
+                    throw new BrumaException("null field");
+                }
+                final int slot = find(field.getId());
+
+                keys[slot] = field.getId();
+                counts[slot]++;
+                slots[pos] = slot;
+            }
+            int total = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                starts[slot] = total;
+                total += counts[slot];
+            }
+            final int[] next = starts.clone();
+            for (int pos = 0; pos < len; pos++) {
+                positions[next[slots[pos]]++] = pos;
+            }
+        }
+
+        private int find(final int tag) {
+            int slot = ((tag * 0x9E3779B9) >>> 16) & mask;
+
+            while ((keys[slot] != 0) && (keys[slot] != tag)) {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        /**
+         * @return the number of fields with the tag
+         */
+        private int getOccs(final int tag) {
+            return counts[find(tag)];
+        }
+
+        /**
+         * @return the position of the occ occurrence of the tag or -1
+         */
+        private int getPos(final int tag,
+                           final int occ) {
+            final int slot = find(tag);
+
+            return (occ > counts[slot]) ? -1
+                                        : positions[starts[slot] + occ - 1];
+        }
+    }
+
+    private final FieldList fields;
+    private TagIndex tagIndex;    // built on demand
+    private Field[] pool;         // fields of a reused record (see reset)
+    private int poolSize;         // number of created pool fields
+    private int poolUsed;         // number of pool fields of the last refill
     private final String separator;  // end of line symbol
     private  int filler;  // 2 bytes para ajuste de alinhamento da estrutura M1STRU
     private int shift;
@@ -86,7 +194,11 @@ public class Record implements Iterable<Field> {
             throw new BrumaException("illegal shift[" + filler + "]");
         }
         this.shift = shift;
-        fields = new ArrayList<Field>(50);
+        fields = new FieldList(50);
+        tagIndex = null;
+        pool = null;
+        poolSize = 0;
+        poolUsed = 0;
         status = Status.ACTIVE;
         actStatus = ActiveStatus.NORMAL;
         lckStatus = LockStatus.NORMAL;
@@ -313,8 +425,17 @@ public class Record implements Iterable<Field> {
     public Set<Integer> getRecordTags() {
         final Set<Integer> ret = new HashSet<Integer> ();
 
-        for (Field field : fields) {
-            ret.add(field.getId());
+        if ((tagIndex != null)
+                            && (tagIndex.modCount == fields.getModCount())) {
+            for (int slot = 0; slot < tagIndex.keys.length; slot++) {
+                if (tagIndex.counts[slot] > 0) {
+                    ret.add(tagIndex.keys[slot]);
+                }
+            }
+        } else {
+            for (Field field : fields) {
+                ret.add(field.getId());
+            }
         }
 
         return ret;
@@ -397,19 +518,20 @@ public class Record implements Iterable<Field> {
         }
 
         final int len = fields.size();
-        int pos = 0;
         int occ = 0;
-        Field field;
 
-        while (pos < len) {
-            field = fields.get(pos);
-            if (field == null) {
-                throw new BrumaException("null field");
-            }
-            if (field.getId() == tag) {
-                occ++;
+        if (len < INDEX_MIN_FIELDS) {
+            for (int pos = 0; pos < len; pos++) {
+                final Field field = fields.get(pos);
+                if (field == null) {
+                    throw new BrumaException("null field");
+                }
+                if (field.getId() == tag) {
+                    occ++;
+                }
             }
-            pos++;
+        } else {
+            occ = getTagIndex().getOccs(tag);
         }
 
         return occ;
@@ -440,12 +562,6 @@ public class Record implements Iterable<Field> {
      */
     public Field getField(final int tag,
                           final int occ) throws BrumaException {
-        final int len = fields.size();
-        Field ret = null;
-        int pos = 0;
-        int auxOcc = 0;
-        Field field;
-
         if (tag <= 0) {
             throw new BrumaException("parameter out of range tag[" +
                                                             tag + "] <= 0");
@@ -454,21 +570,9 @@ public class Record implements Iterable<Field> {
             throw new BrumaException("parameter out of range occ[" +
                                                             occ + "] <= 0");
         }
-        while (pos < len) {
-            field = fields.get(pos);
-            if (field == null) {
-                throw new BrumaException("null field");
-            }
-            if (field.getId() == tag) {
-                auxOcc++;
-                if (auxOcc == occ) {
-                    ret = field;
-                    break;
-                }
-            }
-            pos++;
-        }
-        return ret;
+        final int pos = findPos(tag, occ);
+
+        return (pos == -1) ? null : fields.get(pos);
     }
 
     /**
@@ -521,22 +625,29 @@ public class Record implements Iterable<Field> {
     public List<Field> getFieldList(final int tag) throws BrumaException {
         final List<Field> ret = new ArrayList<Field>();
         final int len = fields.size();
-        int pos = 0;
-        Field field;
 
         if (tag <= 0) {
             throw new BrumaException("parameter out of range tag[" +
                                                             tag + "] <= 0");
         }
-        while (pos < len) {
-            field = fields.get(pos);
-            if (field == null) {
-                throw new BrumaException("null field");
+        if (len < INDEX_MIN_FIELDS) {
+            for (int pos = 0; pos < len; pos++) {
+                final Field field = fields.get(pos);
+                if (field == null) {
+                    throw new BrumaException("null field");
+                }
+                if (field.getId() == tag) {
+                    ret.add(field);
+                }
             }
-            if (field.getId() == tag) {
-                ret.add(field);
+        } else {
+            final TagIndex index = getTagIndex();
+            final int slot = index.find(tag);
+            final int end = index.starts[slot] + index.counts[slot];
+
+            for (int idx = index.starts[slot]; idx < end; idx++) {
+                ret.add(fields.get(index.positions[idx]));
             }
-            pos++;
         }
         return ret;
     }
@@ -637,11 +748,6 @@ public class Record implements Iterable<Field> {
      */
     public String getFieldWithTag(final int tag,
                                   final int occ) throws BrumaException {
-        final int len = fields.size();
-        Field field = null;
-        int pos = 0;
-        int auxOcc = 0;
-
         if (tag <= 0) {
             throw new BrumaException("parameter out of range tag[" + tag +
                                                                     "] <= 0");
@@ -650,20 +756,9 @@ public class Record implements Iterable<Field> {
             throw new BrumaException("parameter out of range occ[" + occ +
                                                                     "] <= 0");
         }
-        while (pos < len) {
-            field = fields.get(pos);
-            if (field == null) {
-                throw new BrumaException("null field");
-            }
-            if (field.getId() == tag) {
-                auxOcc++;
-                if (auxOcc == occ) {
-                    break;
-                }
-            }
-            pos++;
-        }
-        return (field == null) ? null : field.toString();
+        final int pos = findPos(tag, occ);
+
+        return (pos == -1) ? null : fields.get(pos).toString();
     }
 
     /**
@@ -716,11 +811,6 @@ public class Record implements Iterable<Field> {
      */
     public String getFieldXML(final int tag,
                               final int occ) throws BrumaException {
-        final int len = fields.size();
-        Field field = null;
-        int pos = 0;
-        int auxOcc = 0;
-
         if (tag <= 0) {
             throw new BrumaException("parameter out of range tag[" + tag +
                                                                     "] <= 0");
@@ -729,20 +819,9 @@ public class Record implements Iterable<Field> {
             throw new BrumaException("parameter out of range occ[" + occ +
                                                                     "] <= 0");
         }
-        while (pos < len) {
-            field = fields.get(pos);
-            if (field == null) {
-                throw new BrumaException("null field");
-            }
-            if (field.getId() == tag) {
-                auxOcc++;
-                if (auxOcc == occ) {
-                    break;
-                }
-            }
-            pos++;
-        }
-        return (field == null) ? null : field.toXML();
+        final int pos = findPos(tag, occ);
+
+        return (pos == -1) ? null : fields.get(pos).toXML();
     }
 
     /**
@@ -805,20 +884,30 @@ public class Record implements Iterable<Field> {
      */
     public String getFieldsWithTags() throws BrumaException {
         final StringBuilder buf = new StringBuilder();
-        final int len = fields.size();
 
-        String fld;
-
-        for (int counter = 0; counter < len; counter++) {
-            fld = getFieldWithTag(counter);
-            assert (fld != null);
-            buf.append(fld);
-            buf.append(separator);
-        }
+        writeFieldsWithTags(buf);
 
         return buf.toString();
     }
 
+    /**
+     *  Writes all record fields in the getFieldsWithTags() format.
+     *
+     * @param out output sink
+     * @exception  BrumaException
+     */
+    public void writeFieldsWithTags(final Appendable out)
+                                                        throws BrumaException {
+        try {
+            for (Field field : fields) {
+                field.writeWithTag(out);
+                out.append(separator);
+            }
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+    }
+
     /**
      *  Get all record fields using the following xml format:
      *  &lt;field tag='tag'&gt;field content&lt;/field&gt;
@@ -830,20 +919,29 @@ public class Record implements Iterable<Field> {
      */
     public String getFieldsXML() throws BrumaException {
         final StringBuilder buf = new StringBuilder();
-        final int len = fields.size();
 
-        String fld;
-
-        for (int counter = 0; counter < len; counter++) {
-            fld = getFieldXML(counter);
-            assert (fld != null);
-            buf.append(fld);
-            buf.append(separator);
-        }
+        writeFieldsXML(buf);
 
         return buf.toString();
     }
 
+    /**
+     *  Writes all record fields in the getFieldsXML() format.
+     *
+     * @param out output sink
+     * @exception  BrumaException
+     */
+    public void writeFieldsXML(final Appendable out) throws BrumaException {
+        try {
+            for (Field field : fields) {
+                field.writeXML(out);
+                out.append(separator);
+            }
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+    }
+
     /**
      *  Adds a record field.
      *
@@ -977,7 +1075,6 @@ public class Record implements Iterable<Field> {
      */
     public Record deleteField(final int tag,
                               final int occ) throws BrumaException {
-        int auxOcc = 0;
         Field field;
 
         if  ((tag <= 0) || (tag > 32767)) {
@@ -989,17 +1086,19 @@ public class Record implements Iterable<Field> {
                                             "] parameter out of range < 0");
         }
 
-        for (Iterator<Field> i = fields.iterator(); i.hasNext();) {
-           field = i.next();
-            if  (field.getId() == tag) {
-                auxOcc++;
-                if  ((occ == auxOcc) || (occ == 0))  {
+        if (occ == 0) {
+            for (Iterator<Field> i = fields.iterator(); i.hasNext();) {
+                field = i.next();
+                if  (field.getId() == tag) {
                     i.remove();
-                    if (occ == auxOcc) {
-                        break;
-                    }
                 }
             }
+        } else {
+            final int pos = findPos(tag, occ);
+
+            if (pos != -1) {
+                fields.remove(pos);
+            }
         }
 
         return this;
@@ -1054,6 +1153,75 @@ public class Record implements Iterable<Field> {
         return this;
     }
 
+    /**
+     * Clears this record so that a master read can refill it. The Field
+     * objects created by the previous refills are kept and reused by the
+     * next ones, so they should not be retained by the caller.
+     * @param shift database shift
+     * @param filler database filler
+     * @return this object (Record).
+     */
+    Record reset(final int shift,
+                 final int filler) {
+        fields.clear();
+        this.shift = shift;
+        this.filler = filler;
+        status = Status.ACTIVE;
+        actStatus = ActiveStatus.NORMAL;
+        lckStatus = LockStatus.NORMAL;
+        mfn = 0;
+        mfbwb = 0;
+        mfbwp = 0;
+        if (pool == null) {
+            pool = new Field[16];
+        }
+        poolUsed = 0;
+
+        return this;
+    }
+
+    /**
+     * Adds a field read from a master file. If this record was reset, a
+     * Field object of a previous refill is reused.
+     * @param tag the field tag (0 < tag <= 32767) if strId == null.
+     * @param strId the field tag string.
+     * @param field the field content.
+     * @return  this object (Record).
+     * @exception  BrumaException
+     */
+    Record fillField(final int tag,
+                     final String strId,
+                     final String field) throws BrumaException {
+        if (pool == null) {
+            return addField(tag, strId, field);
+        }
+        if (((tag <= 0) || (tag > 32767)) && (strId == null)) {
+            throw new BrumaException("tag[" + tag
+                                + "] parameter out of range[1,32767]");
+        }
+        if (field == null) {
+            throw new BrumaException("null field content");
+        }
+        if (fields.size() > 32767) {
+            throw new BrumaException("nvf > 32767");
+        }
+        final Field fld;
+
+        if (poolUsed < poolSize) {
+            fld = pool[poolUsed++].reset(tag, strId, field);
+        } else {
+            fld = new Field(tag, strId, field);
+            if (poolSize == pool.length) {
+                pool = Arrays.copyOf(pool, 2 * poolSize);
+            }
+            pool[poolSize++] = fld;
+            poolUsed++;
+        }
+        fields.add(fld);
+
+        return this;
+    }
+
     /**
      *  Sets the record master file number (mfn).
      *
@@ -1083,6 +1251,48 @@ public class Record implements Iterable<Field> {
         return this;
     }
 
+    /**
+     * @return the position of the occ occurrence of the tag or -1 if it is
+     *         not found.
+     */
+    private int findPos(final int tag,
+                        final int occ) throws BrumaException {
+        final int len = fields.size();
+        int ret = -1;
+
+        if (len < INDEX_MIN_FIELDS) {
+            int auxOcc = 0;
+
+            for (int pos = 0; pos < len; pos++) {
+                final Field field = fields.get(pos);
+                if (field == null) {
+                    throw new BrumaException("null field");
+                }
+                if ((field.getId() == tag) && (++auxOcc == occ)) {
+                    ret = pos;
+                    break;
+                }
+            }
+        } else {
+            ret = getTagIndex().getPos(tag, occ);
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return the tag index, built again if the fields were changed.
+     */
+    private TagIndex getTagIndex() throws BrumaException {
+        final int modCount = fields.getModCount();
+
+        if ((tagIndex == null) || (tagIndex.modCount != modCount)) {
+            tagIndex = new TagIndex(fields, modCount);
+        }
+
+        return tagIndex;
+    }
+
     public Record sortFields() {
         Collections.sort(fields);
 
@@ -1151,30 +1361,38 @@ public class Record implements Iterable<Field> {
      */
     public String toXML() throws BrumaException {
         final StringBuilder buf = new StringBuilder();
-        final int len = fields.size();
 
-        String fld;
+        writeXML(buf);
 
-        buf.append("<record mfn='");
-        buf.append(mfn);
-        buf.append("' nvf='");
-        buf.append(getNvf());
-        buf.append("' status='");
-        buf.append(status);
-        buf.append("'>");
-        buf.append(separator);
+        return buf.toString();
+    }
 
-        for (int counter = 0; counter < len; counter++) {
-            fld = getFieldXML(counter);
-            assert (fld != null);
-            buf.append("  ");
-            buf.append(fld);
-            buf.append(separator);
+    /**
+     *  Writes the record in the toXML() format.
+     *
+     * @param out output sink
+     * @exception  BrumaException
+     */
+    public void writeXML(final Appendable out) throws BrumaException {
+        try {
+            out.append("<record mfn='");
+            out.append(Integer.toString(mfn));
+            out.append("' nvf='");
+            out.append(Integer.toString(getNvf()));
+            out.append("' status='");
+            out.append(String.valueOf(status));
+            out.append("'>");
+            out.append(separator);
+            for (Field field : fields) {
+                out.append("  ");
+                field.writeXML(out);
+                out.append(separator);
+            }
+            out.append("</record>");
+            out.append(separator);
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
         }
-        buf.append("</record>");
-        buf.append(separator);
-
-        return buf.toString();
     }
 
     /**
@@ -1222,6 +1440,18 @@ public class Record implements Iterable<Field> {
 
     public String toJSON() throws BrumaException {
         final StringBuilder builder = new StringBuilder();
+
+        writeJSON(builder);
+
+        return builder.toString();
+    }
+
+    /**
+     * Writes the record in the toJSON() format.
+     * @param out output sink
+     * @throws BrumaException
+     */
+    public void writeJSON(final Appendable out) throws BrumaException {
         final List<Field> sFields = new ArrayList<Field>();
         final List<Subfield> sSubFields = new ArrayList<Subfield>();
         boolean firstFld = true;
@@ -1229,111 +1459,128 @@ public class Record implements Iterable<Field> {
         int lastFldId = 0;
         int lstSubId;
 
-        for (Field fld: fields) {
-            sFields.add(fld);
-        }
-        Collections.sort(sFields);
+        try {
+            for (Field fld: fields) {
+                sFields.add(fld);
+            }
+            Collections.sort(sFields);
 
-        builder.append("{\n  \"mfn\" : \"");
-        builder.append(mfn);
-        builder.append("\",\n  \"nvf\" : ");
-        builder.append(getNvf());
-        builder.append("");
+            out.append("{\n  \"mfn\" : \"");
+            out.append(Integer.toString(mfn));
+            out.append("\",\n  \"nvf\" : ");
+            out.append(Integer.toString(getNvf()));
 
-        for (Field fld: sFields) {
-            if (fld.getId() == lastFldId) {
-                builder.append(",\n    {      ");
-            } else {
-                lastFldId = fld.getId();
-                if (firstFld) {
-                    firstFld = false;
-                    builder.append(",");
+            for (Field fld: sFields) {
+                if (fld.getId() == lastFldId) {
+                    out.append(",\n    {      ");
                 } else {
-                    builder.append("\n  ],");
+                    lastFldId = fld.getId();
+                    if (firstFld) {
+                        firstFld = false;
+                        out.append(",");
+                    } else {
+                        out.append("\n  ],");
+                    }
+                    out.append("\n  \"v");
+                    out.append(Integer.toString(fld.getId()));
+                    out.append("\" : [\n    {      ");
                 }
-                builder.append("\n  \"v");
-                builder.append(fld.getId());
-                builder.append("\" : [\n    {      ");
-            }
-            sSubFields.clear();
-            lstSubId = 0;
-            firstSub = true;
+                sSubFields.clear();
+                lstSubId = 0;
+                firstSub = true;
 
-            for (Subfield sub: fld.getSubfields()) {
-                sSubFields.add(sub);
-            }
-            Collections.sort(sSubFields);
+                for (Subfield sub: fld.getSubfields()) {
+                    sSubFields.add(sub);
+                }
+                Collections.sort(sSubFields);
 
-            for (Subfield sub: sSubFields) {
-                if (sub.getId() == lstSubId) {
-                    builder.append(", ");
-                } else {
-                    lstSubId = sub.getId();
-                    if (firstSub) {
-                        firstSub = false;
+                for (Subfield sub: sSubFields) {
+                    if (sub.getId() == lstSubId) {
+                        out.append(", ");
                     } else {
-                        builder.append("],");
+                        lstSubId = sub.getId();
+                        if (firstSub) {
+                            firstSub = false;
+                        } else {
+                            out.append("],");
+                        }
+                        out.append("\n      \"");
+                        out.append(sub.getId());
+                        out.append("\" : [");
                     }
-                    builder.append("\n      \"");
-                    builder.append(sub.getId());
-                    builder.append("\" : [");
+                    out.append("\"");
+                    Field.appendEscaped(out, sub.getContent(),
+                                       Field.QUOTE_CHARS, Field.QUOTE_ENTITIES);
+                    out.append("\"");
+                }
+                if (!sSubFields.isEmpty()) {
+                    out.append("]");
                 }
-                builder.append("\"");
-                builder.append(sub.getContent().replace("\"", "&quot;"));
-                builder.append("\"");
+                out.append("\n    }");
             }
-            if (!sSubFields.isEmpty()) {
-                builder.append("]");
+            if (! sFields.isEmpty()) {
+                out.append("\n  ]");
             }
-            builder.append("\n    }");
+            out.append("\n}");
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
         }
-        if (! sFields.isEmpty()) {
-            builder.append("\n  ]");
-        }
-        builder.append("\n}");
-
-        return builder.toString();
     }
 
     public String toJSON2() throws BrumaException {
         final StringBuilder builder = new StringBuilder();
+
+        writeJSON2(builder);
+
+        return builder.toString();
+    }
+
+    /**
+     * Writes the record in the toJSON2() format.
+     * @param out output sink
+     * @throws BrumaException
+     */
+    public void writeJSON2(final Appendable out) throws BrumaException {
         boolean firstFld = true;
         boolean firstSub;
 
-        builder.append("{\n  \"mfn\" : \"");
-        builder.append(mfn);
-        builder.append("\",\n  \"nvf\" : ");
-        builder.append(getNvf());
-        builder.append(",\n  \"fields\" : [");
+        try {
+            out.append("{\n  \"mfn\" : \"");
+            out.append(Integer.toString(mfn));
+            out.append("\",\n  \"nvf\" : ");
+            out.append(Integer.toString(getNvf()));
+            out.append(",\n  \"fields\" : [");
 
-        for (Field fld: fields) {
-            if (firstFld) {
-                firstFld = false;
-            } else {
-                builder.append(",");
-            }
-            builder.append("\n    {\n      \"v");
-            builder.append(fld.getId());
-            builder.append("\" : [");
-
-            firstSub = true;
-            for (Subfield sub: fld.getSubfields()) {
-                if (firstSub) {
-                    firstSub = false;
+            for (Field fld: fields) {
+                if (firstFld) {
+                    firstFld = false;
                 } else {
-                    builder.append(",");
+                    out.append(",");
+                }
+                out.append("\n    {\n      \"v");
+                out.append(Integer.toString(fld.getId()));
+                out.append("\" : [");
+
+                firstSub = true;
+                for (Subfield sub: fld.getSubfields()) {
+                    if (firstSub) {
+                        firstSub = false;
+                    } else {
+                        out.append(",");
+                    }
+                    out.append("\n        {\"");
+                    out.append(sub.getId());
+                    out.append("\" : \"");
+                    Field.appendEscaped(out, sub.getContent(),
+                                       Field.QUOTE_CHARS, Field.QUOTE_ENTITIES);
+                    out.append("\"}");
                 }
-                builder.append("\n        {\"");
-                builder.append(sub.getId());
-                builder.append("\" : \"");
-                builder.append(sub.getContent().replace("\"", "&quot;"));
-                builder.append("\"}");
+                out.append("\n      ]\n    }");
             }
-            builder.append("\n      ]\n    }");
+            out.append("\n  ]\n}");
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
         }
-        builder.append("\n  ]\n}");
-
-        return builder.toString();
     }
 
     public String toJSON3() throws BrumaException {
@@ -1344,6 +1591,23 @@ public class Record implements Iterable<Field> {
                           final Map<String,String> tagsMap) 
                                                          throws BrumaException {
         final StringBuilder builder = new StringBuilder();
+
+        writeJSON3(builder, idTag, tagsMap);
+
+        return builder.toString();
+    }
+
+    /**
+     * Writes the record in the toJSON3(idTag, tagsMap) format.
+     * @param out output sink
+     * @param idTag tag of the field with the record id or -1 to use the mfn
+     * @param tagsMap tag (and tag.subfield) names or null
+     * @throws BrumaException
+     */
+    public void writeJSON3(final Appendable out,
+                           final int idTag,
+                           final Map<String,String> tagsMap)
+                                                         throws BrumaException {
         final Map<Integer, List<Field>> flds =
                                         new TreeMap<Integer,List<Field>> ();
         final Map<String,List<Subfield>> subflds =
@@ -1358,147 +1622,149 @@ public class Record implements Iterable<Field> {
         int cur = 0;
         int rtag = mfn;
 
-        if (idTag > 0) {
-            final Field f = getField(idTag,1);
-            if (f != null) {
-                final String sf = f.getContent();
-                if ((sf != null) && !sf.isEmpty()) {
-                    rtag = Integer.parseInt(sf);
+        try {
+            if (idTag > 0) {
+                final Field f = getField(idTag,1);
+                if (f != null) {
+                    final String sf = f.getContent();
+                    if ((sf != null) && !sf.isEmpty()) {
+                        rtag = Integer.parseInt(sf);
+                    }
                 }
             }
-        }
-
-        builder.append("  {\n    \"_id\": \"");
-        builder.append(Integer.toString(rtag));
-        builder.append("\",\n    \"nvf\": ");
-        builder.append(getNvf());
-        //builder.append("\"");
 
-        for (Field fld: fields) {
-            fldLst = flds.get(fld.getId());
-            if (fldLst == null) {
-                fldLst = new ArrayList<Field>();
-                flds.put(fld.getId(), fldLst);
+            out.append("  {\n    \"_id\": \"");
+            out.append(Integer.toString(rtag));
+            out.append("\",\n    \"nvf\": ");
+            out.append(Integer.toString(getNvf()));
+            //out.append("\"");
+
+            for (Field fld: fields) {
+                fldLst = flds.get(fld.getId());
+                if (fldLst == null) {
+                    fldLst = new ArrayList<Field>();
+                    flds.put(fld.getId(), fldLst);
+                }
+                fldLst.add(fld);
             }
-            fldLst.add(fld);
-        }
 
-        size = flds.size();
+            size = flds.size();
 
-        for (Map.Entry<Integer,List<Field>> entry : flds.entrySet()) {
-            final String itag = entry.getKey().toString();
-            //final String stag = tags.get(itag);
-            final String stag = entry.getValue().get(0).getIdStr();
-            fldLst = entry.getValue();
+            for (Map.Entry<Integer,List<Field>> entry : flds.entrySet()) {
+                final String itag = entry.getKey().toString();
+                //final String stag = tags.get(itag);
+                final String stag = entry.getValue().get(0).getIdStr();
+                fldLst = entry.getValue();
 
-            if (++cur <= size) {
-                builder.append(",");
-            }
-            builder.append("\n    ");
-            if (stag == null) {
-                final String mtag = (tagsMap == null) ? null 
-                                                      : tagsMap.get(itag);
-                if (mtag == null) {
-                    builder.append("\"v");
-                    builder.append(itag);
-                } else {
-                     builder.append("\"");
-                     builder.append(mtag);
+                if (++cur <= size) {
+                    out.append(",");
                 }
-            } else {
-                builder.append("\"");
-                builder.append(stag);
-            }
-            builder.append("\": ");
-            if (fldLst.size() > 1) {
-                builder.append("[ ");
-            }
-            fldFirst = true;
-
-            for (Field fld : fldLst) {                
-                if (fldFirst) {
-                    fldFirst = false;
-                } else {
-                    builder.append(", ");
-                }                
-                subflds.clear();
-                for (Subfield sub: fld) {
-                    final String subTag = Character.toString(sub.getId());
-                    
-                    subFldLst = subflds.get(subTag);
-                    if (subFldLst == null) {                        
-                        final String subId = (tagsMap == null) 
-                                      ? subTag
-                                      : tagsMap.get(itag + "." + subTag); 
-                        subFldLst = new ArrayList<Subfield>();
-                        
-                        subflds.put((subId == null) ? subTag : subId, subFldLst);
+                out.append("\n    ");
+                if (stag == null) {
+                    final String mtag = (tagsMap == null) ? null 
+                                                          : tagsMap.get(itag);
+                    if (mtag == null) {
+                        out.append("\"v");
+                        out.append(itag);
+                    } else {
+                         out.append("\"");
+                         out.append(mtag);
                     }
-                    subFldLst.add(sub);
+                } else {
+                    out.append("\"");
+                    out.append(stag);
+                }
+                out.append("\": ");
+                if (fldLst.size() > 1) {
+                    out.append("[ ");
                 }
-                if ((subflds.size() == 1) && (subFldLst != null) 
-                                                   && (subFldLst.size() == 1)) {
-                    final Subfield auxsub = subFldLst.get(0);
-                    final char sid = auxsub.getId();
-                    
-                    if (sid == Subfield.FIRST_SUB_ID) {
-                        builder.append("\"");
-                        builder.append(auxsub.getContent());
-                        builder.append("\"");
+                fldFirst = true;
+
+                for (Field fld : fldLst) {                
+                    if (fldFirst) {
+                        fldFirst = false;
                     } else {
-                        builder.append("{ \"");
-                        builder.append(sid);
-                        builder.append("\": \"");
-                        builder.append(auxsub.getContent());
-                        builder.append("\" }");
-                    }                                            
-                } else {
-                    builder.append("{");
-                    subFirst = true;
-                    for (Map.Entry<String,List<Subfield>> entrys
-                                                         : subflds.entrySet()) {
-                        subFldLst = entrys.getValue();
-                        subMulti = (subFldLst.size() > 1);
-                        subMultiFirst = true;
-
-                        if (subFirst) {
-                            subFirst = false;
-                        } else {
-                            builder.append(",");
-                        }
-                        builder.append(" \"");
-                        builder.append(entrys.getKey());
-                        builder.append("\": ");
-                        if (subMulti) {
-                            builder.append("[ ");
+                        out.append(", ");
+                    }                
+                    subflds.clear();
+                    for (Subfield sub: fld) {
+                        final String subTag = Character.toString(sub.getId());
+
+                        subFldLst = subflds.get(subTag);
+                        if (subFldLst == null) {                        
+                            final String subId = (tagsMap == null) 
+                                          ? subTag
+                                          : tagsMap.get(itag + "." + subTag); 
+                            subFldLst = new ArrayList<Subfield>();
+
+                            subflds.put((subId == null) ? subTag : subId,
+                                                                  subFldLst);
                         }
-                        for (Subfield sub : subFldLst) {
+                        subFldLst.add(sub);
+                    }
+                    if ((subflds.size() == 1) && (subFldLst != null)
+                                                 && (subFldLst.size() == 1)) {
+                        final Subfield auxsub = subFldLst.get(0);
+                        final char sid = auxsub.getId();
+
+                        if (sid == Subfield.FIRST_SUB_ID) {
+                            out.append("\"");
+                            out.append(auxsub.getContent());
+                            out.append("\"");
+                        } else {
+                            out.append("{ \"");
+                            out.append(sid);
+                            out.append("\": \"");
+                            out.append(auxsub.getContent());
+                            out.append("\" }");
+                        }                                            
+                    } else {
+                        out.append("{");
+                        subFirst = true;
+                        for (Map.Entry<String,List<Subfield>> entrys
+                                                       : subflds.entrySet()) {
+                            subFldLst = entrys.getValue();
+                            subMulti = (subFldLst.size() > 1);
+                            subMultiFirst = true;
+
+                            if (subFirst) {
+                                subFirst = false;
+                            } else {
+                                out.append(",");
+                            }
+                            out.append(" \"");
+                            out.append(entrys.getKey());
+                            out.append("\": ");
                             if (subMulti) {
-                                if (subMultiFirst) {
-                                    subMultiFirst = false;
-                                } else {
-                                    builder.append(", ");
+                                out.append("[ ");
+                            }
+                            for (Subfield sub : subFldLst) {
+                                if (subMulti) {
+                                    if (subMultiFirst) {
+                                        subMultiFirst = false;
+                                    } else {
+                                        out.append(", ");
+                                    }
                                 }
+                                out.append("\"");
+                                Field.appendEscaped(out, sub.getContent(),
+                                       Field.JSON_CHARS, Field.JSON_ESCAPES);
+                                out.append("\"");
+                            }
+                            if (subMulti) {
+                                out.append("]");
                             }
-                            builder.append("\"");
-                            builder.append(sub.getContent()
-                                              .replace("\\", "\\\\")
-                                              .replace("\"", "\\\""));
-                            builder.append("\"");
-                        }
-                        if (subMulti) {
-                            builder.append("]");
                         }
+                        out.append(" }");
                     }
-                    builder.append(" }");
+                }
+                if (fldLst.size() > 1) {
+                    out.append(" ]");
                 }
             }
-            if (fldLst.size() > 1) {
-                builder.append(" ]");
-            }
+            out.append("\n  }");
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
         }
-        builder.append("\n  }");
-
-        return builder.toString();
     }    
 }
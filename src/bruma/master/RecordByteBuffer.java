@@ -24,8 +24,6 @@ package bruma.master;
 import bruma.BrumaException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -75,19 +73,41 @@ class RecordByteBuffer {
     
     Record fromByteBuffer(final ByteBuffer bbuffer,
                           final String encoding) throws BrumaException {
+        if (encoding == null) {
+            throw new NullPointerException("encoding");
+        }
+
+        return fromByteBuffer(bbuffer, new RecordCodec(encoding));
+    }
+
+    Record fromByteBuffer(final ByteBuffer bbuffer,
+                          final RecordCodec codec) throws BrumaException {
+        return fromByteBuffer(bbuffer, codec, null);
+    }
+
+    /**
+     * @param bbuffer raw record bytes
+     * @param codec field contents decoder
+     * @param reuse record to be cleared and refilled or null to create a
+     *              new one
+     * @return the filled record
+     * @throws BrumaException
+     */
+    Record fromByteBuffer(final ByteBuffer bbuffer,
+                          final RecordCodec codec,
+                          final Record reuse) throws BrumaException {
         if (bbuffer == null) {
             throw new NullPointerException("bbuffer");
         }
-        if (encoding == null) {
-            throw new NullPointerException("encoding");
+        if (codec == null) {
+            throw new NullPointerException("codec");
         }
                 
-        final Record record = new Record(shift, filler);        
+        final Record record = (reuse == null) ? new Record(shift, filler)
+                                              : reuse.reset(shift, filler);
                     
         try {            
             final Record.Status recStatus;
-            final Charset charset = Charset.forName(encoding); 
-            final CharsetDecoder decoder = charset.newDecoder();
         
             bbuffer.order(swapped ? ByteOrder.LITTLE_ENDIAN 
                                   : ByteOrder.BIG_ENDIAN);
@@ -143,8 +163,8 @@ class RecordByteBuffer {
                 bbuffer.limit(bpos + len);
                 bbuffer.position(bpos);                
 //System.out.println("tag=" + tag + " base=" + base + " pos=" + pos + " len=" + len + " lendo campo da pos=" + bpos + " ate pos=" + (bpos+len));                
-                record.addField(tag, (tags == null) ? null : tags.get(tag), 
-                                                      decoder.decode(bbuffer));
+                record.fillField(tag, (tags == null) ? null : tags.get(tag),
+                                                      codec.decode(bbuffer));
                 bbuffer.reset();
             }            
         } catch (Exception ex) {
@@ -155,14 +175,150 @@ class RecordByteBuffer {
         return record;
     }
 
+    /**
+     * Parses the leader and directory of a record, leaving the field contents
+     * undecoded.
+     * @param bbuffer buffer with the record bytes. It should not be changed
+     *                while the view is used.
+     * @param encoding character encoding of the field contents
+     * @return the record view
+     * @throws BrumaException
+     */
+    RecordView viewFromByteBuffer(final ByteBuffer bbuffer,
+                                  final String encoding) throws BrumaException {
+        if (bbuffer == null) {
+            throw new NullPointerException("bbuffer");
+        }
+        if (encoding == null) {
+            throw new NullPointerException("encoding");
+        }
+
+        final RecordView view;
+
+        try {
+            bbuffer.order(swapped ? ByteOrder.LITTLE_ENDIAN
+                                  : ByteOrder.BIG_ENDIAN);
+            bbuffer.rewind();
+
+            final int mfn = bbuffer.getInt();
+            if (isFFI) {
+                bbuffer.getInt();
+            } else {
+                bbuffer.getShort();
+            } //mfrl
+            if ((!isFFI) && (filler != 0)) {
+                bbuffer.getShort();
+            }
+            bbuffer.getInt();   // mfbwb
+            bbuffer.getShort(); // mfbwp
+            if (isFFI && (filler != 0)) {
+                bbuffer.getShort();
+            }
+
+            final int base = (isFFI ? bbuffer.getInt() : bbuffer.getShort());
+            final int nvf = bbuffer.getShort();
+            final int status = bbuffer.getShort();
+            final int[] dirTag = new int[nvf];
+            final int[] dirPos = new int[nvf];
+            final int[] dirLen = new int[nvf];
+
+            if ((status != 0) && (status != 1)) {
+                throw new BrumaException("viewFromByteBuffer/invalid status["
+                                                                + status + "]");
+            }
+            for (int counter = 0; counter < nvf; counter++) {
+                dirTag[counter] = bbuffer.getShort();
+                if (isFFI && (filler != 0)){
+                    bbuffer.getShort();
+                }
+                dirPos[counter] = base +
+                                (isFFI ? bbuffer.getInt() : bbuffer.getShort());
+                dirLen[counter] = (isFFI ? bbuffer.getInt()
+                                         : bbuffer.getShort());
+                if ((dirPos[counter] < base) || (dirLen[counter] < 0) ||
+                        (dirPos[counter] + dirLen[counter] > bbuffer.limit())) {
+                    throw new BrumaException("viewFromByteBuffer/invalid "
+                                    + "directory entry[" + counter + "]");
+                }
+            }
+            view = new RecordView(this, bbuffer, encoding, tags, mfn, dirTag,
+                                                                dirPos, dirLen);
+            view.setStatus((status == 0) ? Record.Status.ACTIVE
+                                         : Record.Status.LOGDEL);
+        } catch (BrumaException zex) {
+            throw zex;
+        } catch (Exception ex) {
+            throw new BrumaException("viewFromByteBuffer/" + ex);
+        }
+
+        return view;
+    }
+
+    /**
+     * @return an empty record with this master shift and filler.
+     * @throws BrumaException
+     */
+    Record newRecord() throws BrumaException {
+        return new Record(shift, filler);
+    }
+
     void toByteBuffer(final Record record,
                       final String encoding,
                       final ByteBuffer bbuffer) throws BrumaException {
+        if (encoding == null) {
+            throw new NullPointerException("encoding");
+        }
+        final RecordCodec codec = new RecordCodec(encoding);
+
+        encode(record, codec);
+        toByteBuffer(record, codec, bbuffer);
+    }
+
+    /**
+     * Encodes the record fields. The encoded bytes are kept in the codec and
+     * used by the next toByteBuffer(record, codec, bbuffer) call.
+     * @param record record to be encoded
+     * @param codec field content encoder
+     * @return the record length in bytes (the same as
+     *         Record.getRecordLength())
+     * @throws BrumaException
+     */
+    int encode(final Record record,
+               final RecordCodec codec) throws BrumaException {
         if (record == null) {
             throw new NullPointerException("record");
         }
-        if (encoding == null) {
-            throw new NullPointerException("encoding");
+        if (codec == null) {
+            throw new NullPointerException("codec");
+        }
+        record.setShift(shift);
+        record.setFiller(filler);
+
+        final List<Field> fields = record.getFields();
+        final int fsize = fields.size();
+        final int base = (isFFI ? 22 : 18) + filler
+                                       + (fsize * (isFFI ? (10 + filler) : 6));
+        final int len = base + codec.encode(fields);
+
+        return len + record.getFillSize(len);
+    }
+
+    /**
+     * Writes a record into a buffer using the field contents encoded by the
+     * last encode(record, codec) call.
+     * @param record record to be written
+     * @param codec field content encoder with the encoded fields
+     * @param bbuffer output buffer
+     * @throws BrumaException
+     */
+    void toByteBuffer(final Record record,
+                      final RecordCodec codec,
+                      final ByteBuffer bbuffer) throws BrumaException {
+        if (record == null) {
+            throw new NullPointerException("record");
+        }
+        if (codec == null) {
+            throw new NullPointerException("codec");
         }
         if (bbuffer == null) {
             throw new NullPointerException("bbuffer");
@@ -171,17 +327,23 @@ class RecordByteBuffer {
         record.setShift(shift);
         record.setFiller(filler);
 
-        final int recLen = record.getRecordLength(encoding, isFFI);
         final List<Field> fields = record.getFields();
         final int fsize = fields.size();
         final int dirSize = (fsize * (isFFI ? (10 + filler) : 6));
         final int base = ((isFFI ? 22 : 18) + filler + dirSize);        
         final Record.Status recStatus = record.getStatus();
+        final ByteBuffer fldBytes = codec.getBytes();
+        final int dataLen = fldBytes.remaining();
+        final int recLen = base + dataLen + record.getFillSize(base + dataLen);
         final short status;
         int tag;
         int pos = 0;
-        byte[] fld;
         int fldLen;
+        int idx = 0;
+
+        if (codec.getNumberOfFields() != fsize) {
+            throw new BrumaException("toByteBuffer/record not encoded");
+        }
 
 //System.out.println("toByteArray");
         try {
@@ -234,18 +396,17 @@ class RecordByteBuffer {
                 } else {
                     bbuffer.putShort((short)pos);
                 }
-                fld = field.getContent().getBytes(encoding);
-                fldLen = fld.length;
+                fldLen = codec.getLength(idx++);
                 if (isFFI) {
                     bbuffer.putInt(fldLen);
                 } else {
                     bbuffer.putShort((short)fldLen);
                 }
                 bbuffer.mark();
-                bbuffer.position(base + pos);
-                bbuffer.put(fld);                
                 pos += fldLen;
             }
+            bbuffer.position(base);
+            bbuffer.put(fldBytes);
 
             // Preenche com espacos.
             final int fill = record.getFillSize(base + pos);
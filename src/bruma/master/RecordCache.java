@@ -0,0 +1,82 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+/**
+ * Cache of raw record bytes keyed by mfn. See CachedMaster. Implementations
+ * must be thread safe.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public interface RecordCache {
+    /**
+     * @param mfn record master file number
+     * @return the cached record bytes or null if they are not in the cache.
+     *         The returned array should not be modified.
+     */
+    byte[] get(final int mfn);
+
+    /**
+     * Stores the record bytes, replacing the previous ones. Other records
+     * can be evicted to make room for it.
+     * @param mfn record master file number
+     * @param bytes record bytes
+     */
+    void put(final int mfn,
+             final byte[] bytes);
+
+    /**
+     * Removes a record from the cache.
+     * @param mfn record master file number
+     */
+    void remove(final int mfn);
+
+    /**
+     * Removes all records from the cache.
+     */
+    void clear();
+
+    /**
+     * @return the number of get calls that found the record
+     */
+    long getHits();
+
+    /**
+     * @return the number of get calls that did not find the record
+     */
+    long getMisses();
+
+    /**
+     * @return the number of records removed to make room for other ones
+     */
+    long getEvictions();
+
+    /**
+     * @return the number of cached records
+     */
+    int getSize();
+
+    /**
+     * @return the number of bytes used by the cached records
+     */
+    long getWeight();
+}
@@ -0,0 +1,416 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Converts field contents from/to bytes of a given character encoding. The
+ * charset decoder, encoder and work buffers are created once and reused, so
+ * an object of this class should not be used by more than one thread at the
+ * same time. The encoder replaces malformed and unmappable characters, as
+ * String.getBytes() does, and the decoder reports them, as
+ * CharsetDecoder.decode() does.
+ * Encodings where every byte is decoded into exactly one character and every
+ * character is encoded into exactly one byte (ISO-8859-1, IBM850 ...) are
+ * converted through 256/65536 entry tables instead of the charset coders.
+ * Setting the system property bruma.codec.tables to false makes the codecs
+ * created afterwards use the charset coders for every encoding (used to
+ * compare both conversions).
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+class RecordCodec {
+    /**
+     * Conversion tables of a single byte encoding.
+     */
+    private static class ByteTable {
+        private final char[] toChar = new char[256];
+        private final byte[] toByte = new byte[65536];
+        private byte replacement;
+    }
+
+    /**
+     * Tables of the already checked encodings (NO_TABLE if the encoding is
+     * not a single byte one).
+     */
+    private static final ConcurrentMap<String,ByteTable> TABLES =
+                                   new ConcurrentHashMap<String,ByteTable>();
+    private static final ByteTable NO_TABLE = new ByteTable();
+
+    static final String TABLES_PROPERTY = "bruma.codec.tables";
+
+    /**
+     * Codecs of the current thread, by encoding (see forThread()).
+     */
+    private static final ThreadLocal<Map<String,RecordCodec>> THREAD_CODECS =
+                                new ThreadLocal<Map<String,RecordCodec>>() {
+        @Override
+        protected Map<String,RecordCodec> initialValue() {
+            return new HashMap<String,RecordCodec>();
+        }
+    };
+
+    private final String encoding;
+    private final ByteTable table; // null if the charset coders are used
+    private final CharsetDecoder decoder;
+    private final CharsetEncoder encoder;
+    private char[] work;          // table decoded characters
+    private byte[] workBytes;     // bytes of a direct buffer to be decoded
+    private CharBuffer chars;     // decoded characters
+    private ByteBuffer bytes;     // encoded fields of the last encoded record
+    private int[] lengths;        // byte length of each encoded field
+    private int nfields;          // number of fields of the last encoded record
+
+    RecordCodec(final String encoding) throws BrumaException {
+        this(encoding, !"false".equals(System.getProperty(TABLES_PROPERTY)));
+    }
+
+    /**
+     * @param encoding character encoding
+     * @param useTable if false the charset coders are used even with single
+     *                 byte encodings
+     * @throws BrumaException
+     */
+    RecordCodec(final String encoding,
+                final boolean useTable) throws BrumaException {
+        if (encoding == null) {
+            throw new BrumaException("RecordCodec/null encoding");
+        }
+        final Charset charset;
+
+        try {
+            charset = Charset.forName(encoding);
+        } catch (Exception ex) {
+            throw new BrumaException("RecordCodec/" + ex);
+        }
+        this.encoding = encoding;
+        decoder = charset.newDecoder();
+        encoder = charset.newEncoder()
+                         .onMalformedInput(CodingErrorAction.REPLACE)
+                         .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        table = useTable ? getTable(charset) : null;
+        work = null;
+        workBytes = null;
+        chars = null;
+        bytes = ByteBuffer.allocate(4096);
+        lengths = new int[64];
+        nfields = 0;
+    }
+
+    /**
+     * Returns the codec of an encoding owned by the current thread. It is
+     * created once and reused by the next calls of this thread, so it must
+     * not be kept by objects that other threads can use.
+     * @param encoding character encoding
+     * @return the current thread codec
+     * @throws BrumaException
+     */
+    static RecordCodec forThread(final String encoding) throws BrumaException {
+        if (encoding == null) {
+            throw new BrumaException("forThread/null encoding");
+        }
+        final Map<String,RecordCodec> codecs = THREAD_CODECS.get();
+        RecordCodec codec = codecs.get(encoding);
+
+        if (codec == null) {
+            codec = new RecordCodec(encoding);
+            codecs.put(encoding, codec);
+        }
+
+        return codec;
+    }
+
+    String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return true if this codec uses the single byte conversion tables.
+     */
+    boolean isSingleByte() {
+        return table != null;
+    }
+
+    /**
+     * Decodes the remaining bytes of a buffer.
+     * @param src buffer with the field content bytes
+     * @return the field content
+     * @throws CharacterCodingException
+     */
+    String decode(final ByteBuffer src) throws CharacterCodingException {
+        if (table != null) {
+            return tableDecode(src);
+        }
+        final int max = (int)(src.remaining() * decoder.maxCharsPerByte()) + 1;
+        CoderResult result;
+
+        if ((chars == null) || (chars.capacity() < max)) {
+            chars = CharBuffer.allocate(Math.max(max, 1024));
+        }
+        chars.clear();
+        decoder.reset();
+        result = decoder.decode(src, chars, true);
+        if (result.isUnderflow()) {
+            result = decoder.flush(chars);
+        }
+        if (!result.isUnderflow()) {
+            result.throwException();
+        }
+        chars.flip();
+
+        return chars.toString();
+    }
+
+    /**
+     * Encodes the contents of all fields. The encoded bytes are kept until
+     * the next call to this function.
+     * @param fields record fields
+     * @return the total number of bytes of the encoded fields
+     * @throws BrumaException
+     */
+    int encode(final List<Field> fields) throws BrumaException {
+        assert fields != null;
+
+        nfields = fields.size();
+        if (lengths.length < nfields) {
+            lengths = new int[Math.max(nfields, 2 * lengths.length)];
+        }
+        bytes.clear();
+        for (int idx = 0; idx < nfields; idx++) {
+            final int start = bytes.position();
+
+            encode(fields.get(idx).getContent());
+            lengths[idx] = bytes.position() - start;
+        }
+
+        return bytes.position();
+    }
+
+    /**
+     * @return the number of fields of the last encoded record.
+     */
+    int getNumberOfFields() {
+        return nfields;
+    }
+
+    /**
+     * @param idx field position
+     * @return the number of bytes of a field of the last encoded record.
+     */
+    int getLength(final int idx) {
+        assert (idx >= 0) && (idx < nfields);
+        return lengths[idx];
+    }
+
+    /**
+     * @return a buffer with the encoded fields of the last encoded record
+     * (from position zero to limit).
+     */
+    ByteBuffer getBytes() {
+        final ByteBuffer ret = bytes.duplicate();
+
+        ret.flip();
+        return ret;
+    }
+
+    private void encode(final String content) throws BrumaException {
+        if (table != null) {
+            tableEncode(content);
+            return;
+        }
+        final CharBuffer in = CharBuffer.wrap(content);
+        CoderResult result;
+
+        encoder.reset();
+        while (true) {
+            result = encoder.encode(in, bytes, true);
+            if (result.isOverflow()) {
+                grow();
+            } else {
+                break;
+            }
+        }
+        if (result.isUnderflow()) {
+            while (true) {
+                result = encoder.flush(bytes);
+                if (result.isOverflow()) {
+                    grow();
+                } else {
+                    break;
+                }
+            }
+        }
+        if (!result.isUnderflow()) {
+            throw new BrumaException("encode/" + result);
+        }
+    }
+
+    private void grow() {
+        final ByteBuffer nbytes = ByteBuffer.allocate(2 * bytes.capacity());
+
+        bytes.flip();
+        nbytes.put(bytes);
+        bytes = nbytes;
+    }
+
+    private String tableDecode(final ByteBuffer src) {
+        final char[] toChar = table.toChar;
+        final int len = src.remaining();
+        final byte[] array;
+        final int offset;
+
+        if ((work == null) || (work.length < len)) {
+            work = new char[Math.max(len, 1024)];
+        }
+        if (src.hasArray()) {
+            array = src.array();
+            offset = src.arrayOffset() + src.position();
+        } else {
+            if ((workBytes == null) || (workBytes.length < len)) {
+                workBytes = new byte[Math.max(len, 1024)];
+            }
+            array = workBytes;
+            offset = 0;
+            src.duplicate().get(array, 0, len);
+        }
+        for (int idx = 0; idx < len; idx++) {
+            work[idx] = toChar[array[offset + idx] & 0xff];
+        }
+        src.position(src.limit());
+
+        return new String(work, 0, len);
+    }
+
+    private void tableEncode(final String content) {
+        final byte[] toByte = table.toByte;
+        final int len = content.length();
+
+        while (bytes.remaining() < len) {
+            grow();
+        }
+        if ((work == null) || (work.length < len)) {
+            work = new char[Math.max(len, 1024)];
+        }
+        content.getChars(0, len, work, 0);
+
+        final byte[] array = bytes.array();
+        final int start = bytes.arrayOffset() + bytes.position();
+        int pos = start;
+
+        for (int idx = 0; idx < len; idx++) {
+            final char ch = work[idx];
+
+            if (Character.isSurrogate(ch)) {
+                // A surrogate pair is one unmappable character.
+                if (Character.isHighSurrogate(ch) && (idx + 1 < len)
+                                  && Character.isLowSurrogate(work[idx + 1])) {
+                    idx++;
+                }
+                array[pos++] = table.replacement;
+            } else {
+                array[pos++] = toByte[ch];
+            }
+        }
+        bytes.position(bytes.position() + (pos - start));
+    }
+
+    /**
+     * Gets the conversion tables of an encoding.
+     * @param charset the encoding charset
+     * @return the tables or null if the encoding is not a single byte one
+     */
+    private static ByteTable getTable(final Charset charset) {
+        final String name = charset.name();
+        ByteTable tab = TABLES.get(name);
+
+        if (tab == null) {
+            tab = createTable(charset);
+            TABLES.putIfAbsent(name, (tab == null) ? NO_TABLE : tab);
+        }
+
+        return (tab == NO_TABLE) ? null : tab;
+    }
+
+    private static ByteTable createTable(final Charset charset) {
+        final ByteTable tab = new ByteTable();
+        final CharsetDecoder dec;
+        final CharsetEncoder enc;
+
+        try {
+            if (!charset.canEncode()) {
+                return null;
+            }
+            dec = charset.newDecoder();
+            enc = charset.newEncoder()
+                         .onMalformedInput(CodingErrorAction.REPLACE)
+                         .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            if ((dec.maxCharsPerByte() != 1) || (enc.maxBytesPerChar() != 1)
+                                           || (enc.replacement().length != 1)) {
+                return null;
+            }
+            tab.replacement = enc.replacement()[0];
+
+            // Every byte should be decoded into one character.
+            final byte[] all = new byte[256];
+            for (int idx = 0; idx < 256; idx++) {
+                all[idx] = (byte)idx;
+            }
+            final CharBuffer cb = dec.decode(ByteBuffer.wrap(all));
+            if (cb.remaining() != 256) {
+                return null;
+            }
+            cb.get(tab.toChar);
+
+            // Every non surrogate character should be encoded into one byte.
+            final CharBuffer in = CharBuffer.allocate(65536);
+            for (int ch = 0; ch < 65536; ch++) {
+                in.put(Character.isSurrogate((char)ch) ? ' ' : (char)ch);
+            }
+            in.flip();
+            final ByteBuffer bb = enc.encode(in);
+            if (bb.remaining() != 65536) {
+                return null;
+            }
+            bb.get(tab.toByte);
+        } catch (CharacterCodingException ex) {
+            return null;
+        } catch (UnsupportedOperationException ex) {
+            return null;
+        }
+
+        return tab;
+    }
+}
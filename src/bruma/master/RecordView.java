@@ -0,0 +1,343 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read only view of a master record. It keeps the raw record bytes and its
+ * directory, and the field contents are only decoded when they are asked
+ * for. Use it when just a few fields of each record are needed. This class
+ * is not thread safe.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class RecordView {
+    private final RecordByteBuffer rbb;
+    private final ByteBuffer buffer;  // raw record bytes (null if PHYDEL)
+    private final String encoding;
+    private final Map<Integer,String> tags;
+    private final int mfn;
+    private final int[] dirTag;
+    private final int[] dirPos;       // position in the buffer
+    private final int[] dirLen;
+    private final String[] contents;  // already decoded fields
+    private Record.Status status;
+    private Record.ActiveStatus actStatus;
+    private Record.LockStatus lckStatus;
+
+    RecordView(final RecordByteBuffer rbb,
+               final ByteBuffer buffer,
+               final String encoding,
+               final Map<Integer,String> tags,
+               final int mfn,
+               final int[] dirTag,
+               final int[] dirPos,
+               final int[] dirLen) {
+        assert rbb != null;
+        assert encoding != null;
+        assert dirTag != null;
+        assert dirPos != null;
+        assert dirLen != null;
+
+        this.rbb = rbb;
+        this.buffer = buffer;
+        this.encoding = encoding;
+        this.tags = tags;
+        this.mfn = mfn;
+        this.dirTag = dirTag;
+        this.dirPos = dirPos;
+        this.dirLen = dirLen;
+        contents = new String[dirTag.length];
+        status = Record.Status.ACTIVE;
+        actStatus = Record.ActiveStatus.NORMAL;
+        lckStatus = Record.LockStatus.NORMAL;
+    }
+
+    public int getMfn() {
+        return mfn;
+    }
+
+    public Record.Status getStatus() {
+        return status;
+    }
+
+    void setStatus(final Record.Status stat) {
+        status = stat;
+    }
+
+    public boolean isActive() {
+        return (status == Record.Status.ACTIVE);
+    }
+
+    public Record.ActiveStatus getActiveStatus() {
+        return actStatus;
+    }
+
+    void setActiveStatus(final Record.ActiveStatus stat) {
+        actStatus = stat;
+    }
+
+    public Record.LockStatus getLockStatus() {
+        return lckStatus;
+    }
+
+    void setLockStatus(final Record.LockStatus stat) {
+        lckStatus = stat;
+    }
+
+    /**
+     * @return the number of fields of the record directory.
+     */
+    public int getNvf() {
+        return dirTag.length;
+    }
+
+    /**
+     * @param pos position of the field in the record directory(pos >= 0).
+     * @return the tag of the field.
+     * @throws BrumaException
+     */
+    public int getTag(final int pos) throws BrumaException {
+        checkPos(pos);
+        return dirTag[pos];
+    }
+
+    /**
+     *  Get the number of occurrences of a field.
+     * @param tag field tag
+     * @return the number of occurrences of a field
+     * @exception  BrumaException
+     */
+    public int getFieldOccs(final int tag) throws BrumaException {
+        if (tag <= 0) {
+            throw new BrumaException("parameter out of range tag["
+                                                            + tag + "] <= 0");
+        }
+        int occ = 0;
+
+        for (int t : dirTag) {
+            if (t == tag) {
+                occ++;
+            }
+        }
+
+        return occ;
+    }
+
+    /**
+     *  Get a record field. Only this field is decoded.
+     * @param pos position of the field in the record directory(pos >= 0).
+     * @return  the record field.
+     * @exception  BrumaException
+     */
+    public Field getField(final int pos) throws BrumaException {
+        checkPos(pos);
+        return new Field(dirTag[pos], (tags == null) ? null
+                                       : tags.get(dirTag[pos]), decode(pos));
+    }
+
+    /**
+     *  Get a record field. Only this field is decoded.
+     * @param tag the field tag (tag > 0).
+     * @param occ the field tag occurrence (occ > 0).
+     * @return  the record field or null if it is not found.
+     * @exception  BrumaException
+     */
+    public Field getField(final int tag,
+                          final int occ) throws BrumaException {
+        final int pos = findPos(tag, occ);
+
+        return (pos == -1) ? null : getField(pos);
+    }
+
+    /**
+     *  Get the content of a record field. Only this field is decoded.
+     * @param tag the field tag (tag > 0).
+     * @param occ the field tag occurrence (occ > 0).
+     * @return  the field content or null if it is not found.
+     * @exception  BrumaException
+     */
+    public String getFieldContent(final int tag,
+                                  final int occ) throws BrumaException {
+        final int pos = findPos(tag, occ);
+
+        return (pos == -1) ? null : decode(pos);
+    }
+
+    /**
+     *  Get the raw (not decoded) bytes of a record field.
+     * @param tag the field tag (tag > 0).
+     * @param occ the field tag occurrence (occ > 0).
+     * @return  the field bytes or null if it is not found.
+     * @exception  BrumaException
+     */
+    public byte[] getFieldBytes(final int tag,
+                                final int occ) throws BrumaException {
+        final int pos = findPos(tag, occ);
+        byte[] ret = null;
+
+        if (pos != -1) {
+            final ByteBuffer bb = buffer.duplicate();
+
+            ret = new byte[dirLen[pos]];
+            bb.position(dirPos[pos]);
+            bb.get(ret);
+        }
+
+        return ret;
+    }
+
+    /**
+     *  Get all occurrences of a field. Only these fields are decoded.
+     * @param tag the field tag (tag > 0).
+     * @return  the list of fields.
+     * @exception  BrumaException
+     */
+    public List<Field> getFieldList(final int tag) throws BrumaException {
+        if (tag <= 0) {
+            throw new BrumaException("parameter out of range tag["
+                                                            + tag + "] <= 0");
+        }
+        final List<Field> lst = new ArrayList<Field>();
+
+        for (int pos = 0; pos < dirTag.length; pos++) {
+            if (dirTag[pos] == tag) {
+                lst.add(getField(pos));
+            }
+        }
+
+        return lst;
+    }
+
+    /**
+     * Decodes all fields.
+     * @return a Record object with the same contents of this view.
+     * @throws BrumaException
+     */
+    public Record toRecord() throws BrumaException {
+        final Record record;
+
+        if (buffer == null) {
+            record = rbb.newRecord();
+            record.setMfn(mfn);
+        } else {
+            record = rbb.fromByteBuffer(buffer.duplicate(),
+                                        RecordCodec.forThread(encoding));
+        }
+        record.setStatus(status);
+        record.setActiveStatus(actStatus);
+        record.setLockStatus(lckStatus);
+
+        return record;
+    }
+
+    /**
+     * @return the raw record bytes or null if the record is physically
+     *         deleted. The buffer should not be modified.
+     */
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @param pos position of the field in the record directory
+     * @return the position of the field bytes in the raw buffer
+     */
+    int getBytesPos(final int pos) {
+        return dirPos[pos];
+    }
+
+    /**
+     * @param pos position of the field in the record directory
+     * @return the length of the field bytes in the raw buffer
+     */
+    int getBytesLen(final int pos) {
+        return dirLen[pos];
+    }
+
+    /**
+     * @param pos position of the field in the record directory
+     * @return the decoded field content
+     * @throws BrumaException
+     */
+    String getContent(final int pos) throws BrumaException {
+        checkPos(pos);
+        return decode(pos);
+    }
+
+    private void checkPos(final int pos) throws BrumaException {
+        if ((pos < 0) || (pos >= dirTag.length)) {
+            throw new BrumaException("parameter out of range [0, " +
+                                                    (dirTag.length - 1) + "]");
+        }
+    }
+
+    private int findPos(final int tag,
+                        final int occ) throws BrumaException {
+        if (tag <= 0) {
+            throw new BrumaException("parameter out of range tag[" +
+                                                            tag + "] <= 0");
+        }
+        if  (occ <= 0) {
+            throw new BrumaException("parameter out of range occ[" +
+                                                            occ + "] <= 0");
+        }
+        int auxOcc = 0;
+        int ret = -1;
+
+        for (int pos = 0; pos < dirTag.length; pos++) {
+            if (dirTag[pos] == tag) {
+                auxOcc++;
+                if (auxOcc == occ) {
+                    ret = pos;
+                    break;
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    private String decode(final int pos) throws BrumaException {
+        String content = contents[pos];
+
+        if (content == null) {
+            try {
+                final ByteBuffer bb = buffer.duplicate();
+
+                bb.limit(dirPos[pos] + dirLen[pos]);
+                bb.position(dirPos[pos]);
+                content = RecordCodec.forThread(encoding).decode(bb);
+                contents[pos] = content;
+            } catch (Exception ex) {
+                throw new BrumaException("decode/" + ex);
+            }
+        }
+
+        return content;
+    }
+}
@@ -0,0 +1,40 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+
+/**
+ * Receives the not decoded records of a master scan. See
+ * Master.parallelScanViews(). The visit function can be called by many
+ * threads at the same time, so implementations should be thread safe.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public interface RecordViewVisitor {
+    /**
+     * Called once for each master record, including the deleted ones.
+     * @param view the visited record view
+     * @throws BrumaException
+     */
+    void visit(final RecordView view) throws BrumaException;
+}
@@ -0,0 +1,37 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+/**
+ * Limits a master scan. See Master.parallelScanViews(). It is read many
+ * times during the scan, by many threads, so the scan can stop as soon as
+ * the limit is lowered.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public interface ScanLimit {
+    /**
+     * @return the records whose mfn is equal to or greater than it are not
+     *         read
+     */
+    int getLimit();
+}
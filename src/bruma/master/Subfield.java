@@ -22,6 +22,7 @@
 package bruma.master;
 
 import bruma.BrumaException;
+import java.io.IOException;
 
 /**
  *
@@ -93,13 +94,24 @@ public class Subfield implements Comparable<Subfield> {
         if (in == null) {
             throw new BrumaException("null in");
         }
+        try {
+            writeJSON(in);
+        } catch (IOException ioe) {
+            throw new BrumaException(ioe);
+        }
+    }
 
-        final String subContent = content.replace("\"", "\\\"");
-
-        in.append("          { \"id\": \"");
-        in.append(id);
-        in.append("\", \"content\":  \"");
-        in.append(subContent);
-        in.append("\" }");
+    /**
+     * Writes the subfield in the toJSON(StringBuilder) format.
+     * @param out output sink
+     * @throws IOException
+     */
+    public void writeJSON(final Appendable out) throws IOException {
+        out.append("          { \"id\": \"");
+        out.append(id);
+        out.append("\", \"content\":  \"");
+        Field.appendEscaped(out, content, Field.QUOTE_CHARS,
+                                                       Field.QUOTE_ESCAPES);
+        out.append("\" }");
     }
-}
\ No newline at end of file
+}
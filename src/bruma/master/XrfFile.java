@@ -30,7 +30,11 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 //  bits 01 a 11 - deslocamento, sendo bit 10 (precisa atualizar) e bit 11 (novo
 //                 registro)
@@ -49,6 +53,8 @@ public class XrfFile {
     final FileChannel fc;
 
     private RandomAccessFile raf;
+    private volatile Map<Integer,int[]> batchBlocks; // batch mode blocks
+    private int batchLastBlock;
     ByteBuffer bBuffer;
     boolean swapped;
 
@@ -58,6 +64,7 @@ public class XrfFile {
         private int offset;
         private Record.Status status;
         private Record.ActiveStatus actStatus;
+        private boolean pending;  // inverted file update pending
 
         XrfInfo(final int mfn,
                 final int block,
@@ -71,6 +78,8 @@ public class XrfFile {
             this.offset = offset;
             this.status = status;
             this.actStatus = actStatus;
+            this.pending = (actStatus == Record.ActiveStatus.NEW)
+                        || (actStatus == Record.ActiveStatus.PENDING);
         }
 
         public void setBlock(final int block) {
@@ -113,6 +122,15 @@ public class XrfFile {
             return status;
         }
 
+        /**
+         * @return true if the new or pending xrf bits are set, that is, the
+         * inverted file update of the record (active or logically deleted)
+         * is pending
+         */
+        public boolean isUpdatePending() {
+            return pending;
+        }
+
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder();
@@ -147,6 +165,7 @@ public class XrfFile {
 
         this.shift = shift;
         this.swapped = swapped;
+        batchBlocks = null;
         page = new byte[XRF_BLOCKSIZE];
         bBuffer = ByteBuffer.allocate(XRF_BLOCKSIZE)
         //bBuffer = ByteBuffer.allocateDirect(XRF_BLOCKSIZE)
@@ -214,10 +233,130 @@ public class XrfFile {
         }
     }
 
-    public XrfInfo readXrfInfo(final int mfn) throws BrumaException {
+    /**
+     * Starts the batch mode. Until commitBatch() is called the changed xrf
+     * blocks are kept in memory.
+     * @throws BrumaException
+     */
+    synchronized void beginBatch() throws BrumaException {
+        if (batchBlocks != null) {
+            throw new BrumaException("beginBatch/already in batch mode");
+        }
+        try {
+            batchLastBlock = (int)(((raf.length() / XRF_PTRSIZE)
+                                                  / (XRF_NRINBUFFER + 1)) - 1);
+        } catch(IOException ioe) {
+            throw new BrumaException("beginBatch/" + ioe.getMessage());
+        }
+        batchBlocks = new TreeMap<Integer,int[]>();
+    }
+
+    /**
+     * Writes the xrf blocks changed in batch mode and leaves it. Consecutive
+     * blocks are written at once. The batch mode ends only after the blocks
+     * are written, readers that do not lock (see inBatch()) would otherwise
+     * read pointers not written yet.
+     * @throws BrumaException
+     */
+    synchronized void commitBatch() throws BrumaException {
+        if (batchBlocks != null) {
+            final Map<Integer,int[]> blocks = batchBlocks;
+            int first = -1;
+            int last = -1;
+
+            try {
+                for (int blk : blocks.keySet()) {
+                    if ((first != -1) && (blk != last + 1)) {
+                        writeBlocks(blocks, first, last);
+                        first = -1;
+                    }
+                    if (first == -1) {
+                        first = blk;
+                    }
+                    last = blk;
+                }
+                if (first != -1) {
+                    writeBlocks(blocks, first, last);
+                }
+            } catch(IOException ioe) {
+                throw new BrumaException("commitBatch/" + ioe.getMessage());
+            } finally {
+                batchBlocks = null;
+            }
+        }
+    }
+
+    /**
+     * Leaves the batch mode discarding the xrf blocks changed in it. Used
+     * when the batch master bytes could not be written.
+     * @param lastMfn last mfn of the master control record
+     * @throws BrumaException
+     */
+    synchronized void abortBatch(final int lastMfn) throws BrumaException {
+        batchBlocks = null;
+    }
+
+    /**
+     * @return true if in batch mode
+     */
+    boolean inBatch() {
+        return (batchBlocks != null);
+    }
+
+    private void writeBlocks(final Map<Integer,int[]> blocks,
+                             final int first,
+                             final int last) throws IOException {
+        final int size = (last - first + 1) * XRF_BUFSIZE;
+        final ByteBuffer buffer = ByteBuffer.allocate(size)
+                                .order(swapped ? ByteOrder.LITTLE_ENDIAN :
+                                                 ByteOrder.BIG_ENDIAN);
+        final long filePos = (long)first * XRF_BUFSIZE;
+
+        for (int blk = first; blk <= last; blk++) {
+            for (int ptr : blocks.get(blk)) {
+                buffer.putInt(ptr);
+            }
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fc.write(buffer, filePos + buffer.position());
+        }
+    }
+
+    private int[] getBatchBlock(final int blk) throws IOException {
+        int[] block = batchBlocks.get(blk);
+
+        if (block == null) {
+            block = new int[XRF_NRINBUFFER + 1];
+            if (blk <= batchLastBlock) {
+                bBuffer.clear();
+                bBuffer.limit(XRF_BUFSIZE);
+                if (fc.read(bBuffer, (long)blk * XRF_BUFSIZE) != XRF_BUFSIZE) {
+                    throw new IOException("read error");
+                }
+                bBuffer.rewind();
+                bBuffer.asIntBuffer().get(block);
+            } else {
+                batchLastBlock = blk;
+            }
+            batchBlocks.put(blk, block);
+        }
+
+        return block;
+    }
+
+    public synchronized XrfInfo readXrfInfo(final int mfn)
+                                                        throws BrumaException {
         if (mfn <= 0) {
             throw new BrumaException("readXrfInfo/mfn <= 0");
         }
+        if (batchBlocks != null) {
+            final int[] block = batchBlocks.get((mfn - 1) / XRF_NRINBUFFER);
+            if (block != null) {
+                return readXrfInfoAux(mfn,
+                                    block[((mfn - 1) % XRF_NRINBUFFER) + 1]);
+            }
+        }
 
         final int packedMfp;
 
@@ -248,6 +387,38 @@ public class XrfFile {
         return readXrfInfoAux(mfn, packedMfp);
     }
 
+    /**
+     * Reads the xrf info of a specif record without using the shared
+     * object buffer, so it can be called by many threads at the same time.
+     * @param mfn record id
+     * @return XrfInfo - xrf pointer information
+     * @throws BrumaException
+     */
+    public XrfInfo readXrfInfoConcurrent(final int mfn)
+                                                        throws BrumaException {
+        if (mfn <= 0) {
+            throw new BrumaException("readXrfInfoConcurrent/mfn <= 0");
+        }
+
+        final ByteBuffer auxBuffer = ByteBuffer.allocate(4)
+                                .order(swapped ? ByteOrder.LITTLE_ENDIAN :
+                                                 ByteOrder.BIG_ENDIAN);
+        final int packedMfp;
+
+        try {
+            if (fc.read(auxBuffer, calcXrfPos(mfn)) != 4) {
+                throw new IOException("read error");
+            }
+            auxBuffer.rewind();
+            packedMfp = auxBuffer.getInt();
+        } catch(IOException ioe) {
+            throw new BrumaException("readXrfInfoConcurrent/"
+                                                          + ioe.getMessage());
+        }
+
+        return readXrfInfoAux(mfn, packedMfp);
+    }
+
     protected XrfInfo readXrfInfoAux(final int mfn,
                                      final int pckMfn) throws BrumaException {
         if (mfn <= 0) {
@@ -301,13 +472,21 @@ public class XrfFile {
 
         //mfpos = ((Math.abs(block) - 1) * MF_BLOCKSIZE) + (offset & 0X1ff);
 
-        return new XrfInfo(mfn, block, offset, status, actStatus);
+        final XrfInfo info = new XrfInfo(mfn, block, offset, status,
+                                                                   actStatus);
+        info.pending = pending && (status != Record.Status.PHYDEL);
+
+        return info;
     }
 
-    public int writeXrfInfo(final XrfInfo info) throws BrumaException {
-        if (info == null) {
-            throw new BrumaException("writeXrfInfo/null info");
-        }
+    /**
+     * Checks the xrf info values and packs them into a xrf pointer.
+     * @param info XrfInfo xrf pointer info
+     * @return the packed master file position
+     * @throws BrumaException
+     */
+    int packXrfInfo(final XrfInfo info) throws BrumaException {
+        assert info != null;
 
         final long block = Math.abs(info.block);
         //final int bmax = (2 << (21 + shift - 1));   // valor maximo do bloco
@@ -327,13 +506,44 @@ public class XrfFile {
             throw new BrumaException("writeMstPos/block[" + info.block + "] > "
              + bmax + ". Try increasing the master max size (shift) parameter");
         }
+        final long nblock = (block << lshift);
+
+        packedMfp = (int)(nblock + (info.offset >>> shift));
+        if (packedMfp < 0) {
+/*System.err.println("bmax=" + bmax);
+System.err.println("block=" + block);
+System.err.println("lshift=" + lshift);
+System.err.println("info.offset=" + info.offset);
+System.err.println("shift=" + shift);
+System.err.println("(block << lshift)=" + (block << lshift));
+System.err.println("(info.offset >>> shift)" + (info.offset >>> shift));
+System.err.println("nblock=" + nblock);
+System.err.println("packedMfp=" + packedMfp);*/
+            throw new BrumaException("writeMstPos/packedMfp < 0");
+        }
+        if (info.block < 0) {
+            packedMfp = -packedMfp;
+        }
+
+        return packedMfp;
+    }
+
+    public synchronized int writeXrfInfo(final XrfInfo info)
+                                                        throws BrumaException {
+        if (info == null) {
+            throw new BrumaException("writeXrfInfo/null info");
+        }
+
+        final int packedMfp = packXrfInfo(info);
 
         try {
             final int blk = ((info.mfn - 1) / XRF_NRINBUFFER);
             final int pos = (((info.mfn - 1) % XRF_NRINBUFFER) * XRF_PTRSIZE
                                                                 + XRF_PTRSIZE);
             final int len = (int) raf.length();
-            final int lblk = (((len / XRF_PTRSIZE) / (XRF_NRINBUFFER + 1)) - 1);
+            final int lblk = (batchBlocks == null)
+                   ? (((len / XRF_PTRSIZE) / (XRF_NRINBUFFER + 1)) - 1)
+                   : batchLastBlock;
             final long blkPos = blk * XRF_BUFSIZE;
             final long filePos = blkPos + pos;
 
@@ -341,26 +551,16 @@ public class XrfFile {
                 throw new BrumaException(
                         "writeMstPos/illegal argument id value = " + info.mfn);
             }
-            final long nblock = (block << lshift);
 
-            packedMfp = (int)(nblock + (info.offset >>> shift));
-            if (packedMfp < 0) {
-/*System.err.println("bmax=" + bmax);
-System.err.println("block=" + block);
-System.err.println("lshift=" + lshift);
-System.err.println("info.offset=" + info.offset);
-System.err.println("shift=" + shift);
-System.err.println("(block << lshift)=" + (block << lshift));
-System.err.println("(info.offset >>> shift)" + (info.offset >>> shift));
-System.err.println("nblock=" + nblock);
-System.err.println("packedMfp=" + packedMfp);*/
-                throw new BrumaException("writeMstPos/packedMfp < 0");
-            }
-            if (info.block < 0) {
-                packedMfp = -packedMfp;
-            }
+            if (batchBlocks != null) {
+                final int[] bblock = getBatchBlock(blk);
 
-            if (pos == (MF_BLOCKSIZE - XRF_PTRSIZE)) {// Ultima posicao do bloco
+                bblock[pos / XRF_PTRSIZE] = packedMfp;
+                if ((pos == (MF_BLOCKSIZE - XRF_PTRSIZE)) && (blk == lblk)) {
+                    bblock[0] = blk + 1;
+                    getBatchBlock(blk + 1)[0] = -1 * (blk + 2);
+                }
+            } else if (pos == (MF_BLOCKSIZE - XRF_PTRSIZE)) {// Ultima posicao
                 if (blk == lblk) {
                     // Troca numero numero negativo do bloco (ultimo)
                     // para numero do bloco
@@ -410,6 +610,119 @@ System.err.println("packedMfp=" + packedMfp);*/
         return packedMfp;
     }
 
+    /**
+     * Reads the 127 packed pointers of a xrf block without changing this
+     * object state. Subclasses that keep pointers not yet written to the
+     * file should override it.
+     * @param blk block number (0..)
+     * @param ptrs array that receives the pointers
+     * @return false if the block is not in the file
+     * @throws BrumaException
+     */
+    boolean readBlock(final int blk,
+                      final int[] ptrs) throws BrumaException {
+        assert blk >= 0;
+        assert ptrs.length >= XRF_NRINBUFFER;
+
+        if (batchBlocks != null) {
+            final int[] block = batchBlocks.get(blk);
+            if (block != null) {
+                System.arraycopy(block, 1, ptrs, 0, XRF_NRINBUFFER);
+                return true;
+            }
+        }
+        final ByteBuffer auxBuffer = ByteBuffer.allocate(XRF_BUFSIZE)
+                                .order(swapped ? ByteOrder.LITTLE_ENDIAN :
+                                                 ByteOrder.BIG_ENDIAN);
+        try {
+            if (fc.read(auxBuffer, (long)blk * XRF_BUFSIZE) != XRF_BUFSIZE) {
+                return false;
+            }
+        } catch (IOException ioe) {
+            throw new BrumaException("readBlock/" + ioe.getMessage());
+        }
+        auxBuffer.position(XRF_PTRSIZE);
+        auxBuffer.asIntBuffer().get(ptrs, 0, XRF_NRINBUFFER);
+
+        return true;
+    }
+
+    /**
+     * Gets the pointers of the records whose inverted file update is pending
+     * (new or pending bits set), including the logically deleted ones.
+     * Only the xrf file is read, a whole block at a time.
+     * @param lastMfn last mfn to be checked (usually nxtmfn - 1)
+     * @return the pointers of the pending records in mfn order
+     * @throws BrumaException
+     */
+    public List<XrfInfo> getPendingUpdates(final int lastMfn)
+                                                        throws BrumaException {
+        final List<XrfInfo> ret = new ArrayList<XrfInfo>();
+        final int[] ptrs = new int[XRF_NRINBUFFER];
+        final int pendingMask = 0x600 >>> shift;
+        final int lastBlk = (lastMfn - 1) / XRF_NRINBUFFER;
+
+        for (int blk = 0; blk <= lastBlk; blk++) {
+            if (!readBlock(blk, ptrs)) {
+                break;
+            }
+            for (int pos = 0; pos < XRF_NRINBUFFER; pos++) {
+                final int mfn = blk * XRF_NRINBUFFER + pos + 1;
+                final int packedMfp = ptrs[pos];
+
+                if (mfn > lastMfn) {
+                    break;
+                }
+                if ((packedMfp != 0)
+                        && ((Math.abs(packedMfp) & pendingMask) != 0)) {
+                    final XrfInfo info = readXrfInfoAux(mfn, packedMfp);
+                    if (info.pending) {
+                        ret.add(info);
+                    }
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Clears the new and pending bits of a record pointer if it was not
+     * changed since it was read. Master writes that happen meanwhile keep
+     * their bits, so the record will be updated again. The pointer writes of
+     * this object are synchronized, but only within the process: in
+     * multiuser mode use Master.clearPendingUpdate(), which also takes the
+     * data entry and control record locks.
+     * @param info the record pointer returned by getPendingUpdates()
+     * @return false if the pointer was changed and was not cleared
+     * @throws BrumaException
+     */
+    public synchronized boolean clearPendingUpdate(final XrfInfo info)
+                                                        throws BrumaException {
+        if (info == null) {
+            throw new BrumaException("clearPendingUpdate/null info");
+        }
+        final XrfInfo current = readXrfInfo(info.mfn);
+        final boolean same = (current.block == info.block)
+                          && (current.offset == info.offset)
+                          && (current.status == info.status)
+                          && (current.actStatus == info.actStatus)
+                          && (current.pending == info.pending);
+
+        if (same && current.pending) {
+            final boolean deleted = (current.status == Record.Status.LOGDEL);
+
+            writeXrfInfo(new XrfInfo(current.mfn,
+                                     deleted ? -current.block : current.block,
+                                     current.offset & 0x1ff,
+                                     current.status,
+                                     deleted ? null
+                                             : Record.ActiveStatus.NORMAL));
+        }
+
+        return same;
+    }
+
     private int calcXrfPos(final int mfn) throws BrumaException {
         assert (mfn > 0);
 
@@ -26,7 +26,7 @@ import bruma.iterator.AbstractRecordIterator;
 import bruma.iterator.ISO2709RecordIterator;
 import bruma.iterator.IdFileRecordIterator;
 import bruma.iterator.IsisRecordIterator;
-import bruma.master.Master;
+import bruma.master.MasterBulkWriter;
 import bruma.master.MasterFactory;
 import bruma.master.Record;
 import java.io.File;
@@ -62,12 +62,12 @@ public class ImportMaster {
         }
 
         final boolean isFFI = ((args.length > 3) &&(args[3].equals("--isFFI")));
-        final Master to = (Master)MasterFactory.getInstance(args[2])
-                                               .setEncoding(args[1])
-                                               .setFFI(isFFI)
-                                               .create();
+        final MasterBulkWriter to = MasterFactory.getInstance(args[2])
+                                                 .setEncoding(args[1])
+                                                 .setFFI(isFFI)
+                                                 .createBulkWriter();
         for (Record rec : iterator) {
-            to.writeRecord(rec);
+            to.write(rec);
         }
 
         iterator.close();
@@ -23,6 +23,7 @@ package bruma.tools;
 
 import bruma.BrumaException;
 import bruma.master.Master;
+import bruma.master.MasterBulkWriter;
 import bruma.master.MasterFactory;
 import bruma.master.Record;
 import java.io.File;
@@ -85,11 +86,11 @@ public class RegExpImportMaster {
             }
         }
         final Scanner scanRec;        
-        final Master to = (Master)MasterFactory.getInstance(out)
-                                               .setEncoding(outEncoding)
-                                               .setFFI(isFFI)
-                                               .forceCreate();
-        final Record rec = to.newRecord();
+        final MasterBulkWriter to = MasterFactory.getInstance(out)
+                                                 .setEncoding(outEncoding)
+                                                 .setFFI(isFFI)
+                                                 .forceCreateBulkWriter();
+        final Record rec = new Record();
         final Pattern pat = Pattern.compile(
                               (fieldDelim == null) ? fieldPattern : fieldDelim);
 
@@ -132,7 +133,7 @@ public class RegExpImportMaster {
                     }
                 }
             }
-            to.writeRecord(rec);
+            to.write(rec);
         }
         
         scanRec.close();
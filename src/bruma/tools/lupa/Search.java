@@ -22,16 +22,13 @@
 package bruma.tools.lupa;
 
 import bruma.BrumaException;
-import bruma.master.Field;
 import bruma.master.Master;
 import bruma.master.MasterFactory;
-import bruma.master.Record;
+import bruma.master.MasterSearch;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  *
@@ -44,7 +41,6 @@ public class Search {
     private final List<Integer> hits;
     private int max;
     private int current;
-    private Matcher mat;
 
     public Search(final Master mst) throws BrumaException {
         if (mst == null) {
@@ -62,7 +58,6 @@ public class Search {
     private void clear() {
         max = 0;
         current = -1;
-        mat = null;
         hits.clear();
     }
 
@@ -72,36 +67,28 @@ public class Search {
         if (exp == null) {
             throw new BrumaException("null expression");
         }
-        clear();
-        mat = Pattern.compile(exp, (ignoreCase ? Pattern.CASE_INSENSITIVE : 0))
-                                                                   .matcher("");
 
-        //mst.open();
-        for (Record rec: mst) {
-            if (rec.getStatus() == Record.Status.ACTIVE) {
-                for (Field fld : rec) {
-                    if ((tags == null) || (tags.contains(fld.getId()))) {
-                        mat.reset(fld.getContent());
-                        if (mat.find() && (max < MAX_HITS)) {
-                            hits.add(rec.getMfn());
-                            max++;
-                            break;
-                        }
-                    }
-                }
-            }
-            if (max == MAX_HITS) {
-                break;
-            }
-        }
-        
-        return hits.size();
+        return search(new MasterSearch().addRegExp(exp, tags), ignoreCase);
     }
 
     public int search(final String exp,
                       final Set<Integer>tags,
                       final boolean ignoreCase) throws BrumaException {
-        return searchRegExp(Pattern.quote(exp), tags, ignoreCase);
+        if (exp == null) {
+            throw new BrumaException("null expression");
+        }
+
+        return search(new MasterSearch().addLiteral(exp, tags), ignoreCase);
+    }
+
+    private int search(final MasterSearch msearch,
+                       final boolean ignoreCase) throws BrumaException {
+        clear();
+        //mst.open();
+        hits.addAll(msearch.setIgnoreCase(ignoreCase).search(mst, MAX_HITS));
+        max = hits.size();
+
+        return max;
     }
 
     public int numOfHits() {
@@ -0,0 +1,71 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Temporary directories of the tests databases.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public final class TempDir {
+    private TempDir() {
+    }
+
+    /**
+     * Creates an empty temporary directory.
+     * @param prefix directory name prefix
+     * @return the new directory
+     * @throws IOException
+     */
+    public static File create(final String prefix) throws IOException {
+        final File dir = File.createTempFile(prefix, "");
+
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("create/" + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Removes a directory and all its files.
+     * @param dir the directory, can be null
+     */
+    public static void delete(final File dir) {
+        if (dir != null) {
+            final File[] files = dir.listFiles();
+
+            if (files != null) {
+                for (File file : files) {
+                    if (file.isDirectory()) {
+                        delete(file);
+                    } else {
+                        file.delete();
+                    }
+                }
+            }
+            dir.delete();
+        }
+    }
+}
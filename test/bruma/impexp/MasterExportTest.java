@@ -0,0 +1,202 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.impexp;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import bruma.master.Master;
+import bruma.master.MasterFactory;
+import bruma.master.Record;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * XML and JSON exports written straight into the output, checked against
+ * the exports of the getRecord() strings, and the record strings checked
+ * against the ones of the serializers before the streaming ones.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class MasterExportTest {
+    private static final String CHARS =
+                               "ab <>&'\"\\/^^1\t\n\r\u00e3\u0001{}[],:";
+    private static final int RECORDS = 500;
+
+    private File dir;
+    private Master mst;
+
+    @Before
+    public void setUp() throws IOException, BrumaException {
+        dir = TempDir.create("export");
+        mst = (Master)MasterFactory.getInstance(new File(dir, "mst").getPath())
+                                   .setEncoding("UTF-8").forceCreate();
+
+        final Random random = new Random(22);
+
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            final Record rec = new Record();
+
+            rec.addField(1, Integer.toString(7 * mfn));
+            for (int fld = random.nextInt(6); fld > 0; fld--) {
+                final StringBuilder builder = new StringBuilder("x");
+
+                for (int idx = random.nextInt(15); idx > 0; idx--) {
+                    builder.append(CHARS.charAt(
+                                         random.nextInt(CHARS.length())));
+                }
+                rec.addField(10 * (1 + random.nextInt(3)),
+                                                        builder.toString());
+            }
+            mst.writeRecord(rec);
+        }
+        mst.deleteRecord(2);
+        mst.deleteRecord(RECORDS);
+    }
+
+    @After
+    public void tearDown() throws BrumaException {
+        mst.close();
+        TempDir.delete(dir);
+    }
+
+    private static String read(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            final byte[] bytes = new byte[(int)raf.length()];
+
+            raf.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeString(final String str,
+                                    final Writer writer) throws IOException {
+        if ((str != null) && (!str.isEmpty())) {
+            writer.write(str);
+        }
+    }
+
+    /** XML export of the getRecord() strings. */
+    private static class XmlStringExport extends XmlMasterExport {
+        XmlStringExport(final Master mst,
+                        final String outFile) throws BrumaException {
+            super(mst, outFile, "UTF-8", false);
+        }
+
+        @Override
+        protected void writeRecord(final Record rec,
+                                   final Writer writer)
+                                          throws BrumaException, IOException {
+            writeString(getRecord(rec), writer);
+        }
+    }
+
+    /** JSON export of the getRecord() strings. */
+    private static class JSONStringExport extends JSONMasterExport {
+        JSONStringExport(final Master mst,
+                         final String outFile,
+                         final int idTag) throws BrumaException {
+            super(mst, outFile, "UTF-8", false, idTag);
+        }
+
+        @Override
+        protected void writeRecord(final Record rec,
+                                   final Writer writer)
+                                          throws BrumaException, IOException {
+            writeString(getRecord(rec), writer);
+        }
+    }
+
+    @Test
+    public void xmlExport() throws IOException, BrumaException {
+        final File streamed = new File(dir, "streamed.xml");
+        final File strings = new File(dir, "strings.xml");
+
+        new XmlMasterExport(mst, streamed.getPath(), "UTF-8", false)
+                                                                 .export(0);
+        new XmlStringExport(mst, strings.getPath()).export(0);
+        assertEquals(read(strings), read(streamed));
+    }
+
+    @Test
+    public void jsonExport() throws IOException, BrumaException {
+        for (int idTag = -1; idTag <= 1; idTag += 2) {
+            final File streamed = new File(dir, "streamed" + idTag + ".json");
+            final File strings = new File(dir, "strings" + idTag + ".json");
+
+            new JSONMasterExport(mst, streamed.getPath(), "UTF-8", false,
+                                                           idTag).export(0);
+            new JSONStringExport(mst, strings.getPath(), idTag).export(0);
+            assertEquals(read(strings), read(streamed));
+        }
+    }
+
+    /**
+     * Escaping of a record with XML, JSON and subfield special characters.
+     * The expected strings are the output of the previous serializers.
+     */
+    @Test
+    public void recordStrings() throws BrumaException {
+        final Record rec = new Record().setMfn(3);
+
+        rec.addField(10, "a<b&c'd\"e>");
+        rec.addField(20, "^aJo\\\u00e3o^bx/y\tz");
+        rec.addField(20, "^a\"q\"");
+
+        assertEquals("<record mfn='3' nvf='3' status='ACTIVE'>\n"
+            + "  <field tag='10'>a&lt;b&c'd\"e&gt;</field>\n"
+            + "  <field tag='20'>^aJo\\\u00e3o^bx/y\tz</field>\n"
+            + "  <field tag='20'>^a\"q\"</field>\n"
+            + "</record>\n", rec.toXML());
+        assertEquals("{\n  \"mfn\" : \"3\",\n  \"nvf\" : 3,\n"
+            + "  \"v10\" : [\n    {      \n"
+            + "      \"_\" : [\"a<b&c'd&quot;e>\"]\n    }\n  ],\n"
+            + "  \"v20\" : [\n    {      \n"
+            + "      \"a\" : [\"Jo\\\u00e3o\"],\n"
+            + "      \"b\" : [\"x/y\tz\"]\n    },\n    {      \n"
+            + "      \"a\" : [\"&quot;q&quot;\"]\n    }\n  ]\n}",
+                                                             rec.toJSON());
+        assertEquals("{\n  \"mfn\" : \"3\",\n  \"nvf\" : 3,\n"
+            + "  \"fields\" : [\n    {\n      \"v10\" : [\n"
+            + "        {\"_\" : \"a<b&c'd&quot;e>\"}\n      ]\n    },\n"
+            + "    {\n      \"v20\" : [\n"
+            + "        {\"a\" : \"Jo\\\u00e3o\"},\n"
+            + "        {\"b\" : \"x/y\tz\"}\n      ]\n    },\n"
+            + "    {\n      \"v20\" : [\n"
+            + "        {\"a\" : \"&quot;q&quot;\"}\n      ]\n    }\n"
+            + "  ]\n}", rec.toJSON2());
+        assertEquals("  {\n    \"_id\": \"3\",\n    \"nvf\": 3,\n"
+            + "    \"v10\": \"a<b&c'd\"e>\",\n"
+            + "    \"v20\": [ { \"a\": \"Jo\\\\\u00e3o\", \"b\": \"x/y\tz\" },"
+            + " { \"a\": \"\"q\"\" } ]\n  }", rec.toJSON3());
+    }
+}
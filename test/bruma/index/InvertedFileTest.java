@@ -0,0 +1,603 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.index;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import bruma.master.Master;
+import bruma.master.MasterFactory;
+import bruma.master.Record;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Inverted files written by InvertedFileBuilder and read by InvertedFile.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class InvertedFileTest {
+    private static final String ENCODING = "ISO-8859-1";
+    private static final int RECORDS = 3000;
+    private static final String[] WORDS = {
+        "alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta",
+        "theta", "iota", "kappa", "lambda", "mu", "nu", "xi", "omicron",
+        "pi", "rho", "sigma", "tau", "upsilon", "phi", "chi", "psi", "omega"
+    };
+    private static final String[] EXTENSIONS = {
+        ".cnt", ".n01", ".n02", ".l01", ".l02", ".ifp"
+    };
+
+    private File dir;
+    private Master mst;
+    private Fst fst;
+
+    @Before
+    public void setUp() throws IOException, BrumaException {
+        dir = TempDir.create("inverted");
+        mst = (Master)MasterFactory.getInstance(
+                   new File(dir, "mst").getPath()).setEncoding(ENCODING)
+                                                  .forceCreate();
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            mst.writeRecord(record(mfn));
+        }
+        // Deleted records are not indexed.
+        for (int mfn = 10; mfn < RECORDS; mfn += 100) {
+            mst.deleteRecord(mfn);
+        }
+        fst = new Fst(Arrays.asList("1 4 v1", "2 0 v2", "3 1 v3"));
+    }
+
+    @After
+    public void tearDown() throws BrumaException {
+        mst.close();
+        TempDir.delete(dir);
+    }
+
+    private static Record record(final int mfn) throws BrumaException {
+        final StringBuilder words = new StringBuilder();
+        final StringBuilder title = new StringBuilder("title ");
+
+        for (int idx = 0; idx < 1 + mfn % 7; idx++) {
+            words.append(WORDS[(mfn * 31 + idx * 7) % WORDS.length])
+                 .append(' ');
+        }
+        title.append(mfn % 97);
+        if (mfn % 3 == 0) {  // longer than the long keys
+            title.append(" with a long subtitle number ").append(mfn % 11);
+        }
+        return new Record().addField(1, words.toString())
+                           .addField(2, title.toString())
+                           .addField(3, "^a" + WORDS[mfn % WORDS.length]
+                                      + "^bcode" + (mfn % 50));
+    }
+
+    /**
+     * @return the index keys (cut as stored by the builder) and their mfns
+     */
+    private Map<String,Set<Integer>> expected() throws BrumaException {
+        final Map<String,Set<Integer>> ret =
+                                       new TreeMap<String,Set<Integer>>();
+
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            final Record rec = mst.getRecord(mfn);
+
+            if (rec.isActive()) {
+                for (String key : fst.getKeys(rec)) {
+                    String cut = (key.length() > InvertedFile.LE2)
+                                 ? key.substring(0, InvertedFile.LE2) : key;
+                    while (cut.endsWith(" ")) {
+                        cut = cut.substring(0, cut.length() - 1);
+                    }
+                    if (!cut.isEmpty()) {
+                        Set<Integer> mfns = ret.get(cut);
+                        if (mfns == null) {
+                            mfns = new TreeSet<Integer>();
+                            ret.put(cut, mfns);
+                        }
+                        mfns.add(mfn);
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static int[] toArray(final Set<Integer> set) {
+        final int[] ret = new int[set.size()];
+        int pos = 0;
+
+        for (Integer mfn : set) {
+            ret[pos++] = mfn;
+        }
+        return ret;
+    }
+
+    private String build(final String name,
+                         final int threads,
+                         final int runSize) throws BrumaException {
+        final String indexName = new File(dir, name).getPath();
+
+        new InvertedFileBuilder(indexName, fst).setEncoding(ENCODING)
+                                               .setThreads(threads)
+                                               .setRunSize(runSize)
+                                               .setTempDir(dir)
+                                               .build(mst);
+        return indexName;
+    }
+
+    @Test
+    public void keysAndPostingsAreReadBack() throws BrumaException {
+        final Map<String,Set<Integer>> expected = expected();
+        final String indexName = new File(dir, "index").getPath();
+        final int keys = new InvertedFileBuilder(indexName, fst)
+                                  .setEncoding(ENCODING).setThreads(1)
+                                  .setTempDir(dir).build(mst);
+        final InvertedFile inv = new InvertedFile(indexName, ENCODING);
+
+        assertEquals(expected.size(), keys);
+        try {
+            for (Map.Entry<String,Set<Integer>> entry : expected.entrySet()) {
+                final String key = entry.getKey();
+                final int[] mfns = toArray(entry.getValue());
+                final Set<Integer> postingMfns = new TreeSet<Integer>();
+                final List<Posting> postings = inv.getPostings(key);
+
+                assertTrue(key, inv.containsKey(key));
+                assertArrayEquals(key, mfns, inv.getMfns(key));
+                assertEquals(key, postings.size(), inv.getTotalPostings(key));
+                for (Posting posting : postings) {
+                    postingMfns.add(posting.getMfn());
+                }
+                assertArrayEquals(key, mfns, toArray(postingMfns));
+            }
+            assertFalse(inv.containsKey("NOT INDEXED"));
+            assertEquals(0, inv.getMfns("NOT INDEXED").length);
+            assertEquals(0, inv.getPostings("NOT INDEXED").size());
+        } finally {
+            inv.close();
+        }
+    }
+
+    @Test
+    public void prefixSearches() throws BrumaException {
+        final Map<String,Set<Integer>> expected = expected();
+        final InvertedFile inv = new InvertedFile(build("prefix", 1, 100000),
+                                                  ENCODING);
+
+        try {
+            for (String prefix : new String[] {"", "A", "TITLE 1",
+                                               "TITLE 12 WITH", "CODE4",
+                                               "OMEGA", "Q"}) {
+                final List<String> keys = new ArrayList<String>();
+                final Set<Integer> mfns = new TreeSet<Integer>();
+
+                for (Map.Entry<String,Set<Integer>> entry
+                                                     : expected.entrySet()) {
+                    if (entry.getKey().startsWith(prefix)) {
+                        keys.add(entry.getKey());
+                        mfns.addAll(entry.getValue());
+                    }
+                }
+                assertEquals(prefix, keys,
+                             inv.getKeys(prefix, Integer.MAX_VALUE));
+                assertEquals(prefix, keys.subList(0, Math.min(5, keys.size())),
+                             inv.getKeys(prefix, 5));
+                assertArrayEquals(prefix, toArray(mfns),
+                                  inv.getPrefixMfns(prefix));
+            }
+        } finally {
+            inv.close();
+        }
+    }
+
+    /**
+     * A tiny run size makes more runs than two merge passes can take.
+     */
+    @Test
+    public void multiPassMergeWritesTheSameFiles()
+                                        throws BrumaException, IOException {
+        final int runSize = 3;
+        int entries = 0;
+
+        for (Set<Integer> mfns : expected().values()) {
+            entries += mfns.size();
+        }
+        assertTrue(entries / runSize > InvertedFileBuilder.MAX_MERGE_RUNS
+                                      * InvertedFileBuilder.MAX_MERGE_RUNS);
+
+        final String sequential = build("oneRun", 1, 1000000);
+        final String passes = build("passes", 2, runSize);
+
+        for (String ext : EXTENSIONS) {
+            assertArrayEquals(ext,
+                   Files.readAllBytes(new File(sequential + ext).toPath()),
+                   Files.readAllBytes(new File(passes + ext).toPath()));
+        }
+        for (String name : dir.list()) {
+            assertFalse(name, name.endsWith(".run"));
+        }
+    }
+
+    /**
+     * The .cnt file can not be written (a directory has its name), so the
+     * other index files are removed instead of being left truncated.
+     */
+    @Test
+    public void failedBuildLeavesNoIndexFiles() throws IOException {
+        final File cnt = new File(dir, "failed.cnt");
+
+        assertTrue(cnt.mkdir());
+        assertTrue(new File(cnt, "file").createNewFile());
+        try {
+            build("failed", 2, 100);
+            fail("build should fail");
+        } catch (BrumaException zex) {
+            // expected
+        }
+        for (String ext : EXTENSIONS) {
+            if (!ext.equals(".cnt")) {
+                assertFalse(ext, new File(dir, "failed" + ext).exists());
+            }
+        }
+        for (String name : dir.list()) {
+            assertFalse(name, name.endsWith(".run"));
+        }
+    }
+
+    /**
+     * The parallel build, spilling many small runs, writes the same files as
+     * the sequential one.
+     */
+    @Test
+    public void parallelBuildWritesTheSameFiles()
+                                        throws BrumaException, IOException {
+        final String sequential = build("sequential", 1, 1000000);
+        final String parallel = build("parallel", 4, 100);
+
+        for (String ext : EXTENSIONS) {
+            assertArrayEquals(ext,
+                   Files.readAllBytes(new File(sequential + ext).toPath()),
+                   Files.readAllBytes(new File(parallel + ext).toPath()));
+        }
+        // The run files are removed.
+        for (String name : dir.list()) {
+            assertFalse(name, name.endsWith(".run"));
+        }
+    }
+
+    /**
+     * Short keys (first tree: two leaves under a root node) and long keys
+     * (second tree: a single leaf, no nodes) of the CISIS layout fixture.
+     */
+    private static final String[] CISIS_SHORT = {"AIDS", "BRASIL", "CANCER",
+        "DENGUE", "FEBRE", "HIV", "MALARIA", "PARIS", "SAUDE", "TB", "VIRUS",
+        "X", "ZIKA"};
+    private static final String[] CISIS_LONG = {"FEBRE AMARELA",
+        "SAO PAULO BRASIL", "VIGILANCIA EPIDEMIOLOGICA",
+        "ZZZZZZZZZZZZZZZZZZZZZZZZZZZZZZ"};
+
+    /**
+     * @return the postings of a fixture key: MALARIA has 150 of them (two
+     *         segments crossing ifp blocks), mfns above 65535 and tags
+     *         above 255 test the posting byte fields
+     */
+    private static List<Posting> cisisPostings(final String key) {
+        final int total = key.equals("MALARIA") ? 150 : 1 + key.length() % 4;
+        final List<Posting> ret = new ArrayList<Posting>();
+
+        for (int idx = 0; idx < total; idx++) {
+            ret.add(new Posting(key.length() + idx * 997, 1 + (idx * 70) % 400,
+                                                 1 + idx % 3, 1 + idx % 7));
+        }
+        return ret;
+    }
+
+    /**
+     * Ifp words of the fixture. Word 0 of each 512 bytes block is the block
+     * number and the words 1 and 2 of block 1 are the next free position.
+     */
+    private static final class CisisIfp {
+        private final ByteBuffer buffer;
+        private int blk = 1;
+        private int word = 3;
+
+        private CisisIfp(final ByteOrder order) {
+            buffer = ByteBuffer.allocate(16 * InvertedFile.IFP_BLOCKSIZE)
+                               .order(order);
+        }
+
+        private int position() {
+            return (blk - 1) * InvertedFile.IFP_WORDS + word;
+        }
+
+        private int offset() {
+            final int ret = 4 * position();
+
+            if (++word == InvertedFile.IFP_WORDS) {
+                blk++;
+                word = 1;
+            }
+            return ret;
+        }
+
+        private void putInt(final int value) {
+            buffer.putInt(offset(), value);
+        }
+
+        /** 3 bytes mfn, 2 bytes tag, 1 byte occ, 2 bytes cnt, big endian */
+        private void putPosting(final Posting posting) {
+            final byte[] bytes = {(byte)(posting.getMfn() >> 16),
+                (byte)(posting.getMfn() >> 8), (byte)posting.getMfn(),
+                (byte)(posting.getTag() >> 8), (byte)posting.getTag(),
+                (byte)posting.getOcc(), (byte)(posting.getCnt() >> 8),
+                (byte)posting.getCnt()};
+
+            for (int half = 0; half < 8; half += 4) {
+                final int off = offset();
+
+                for (int bt = 0; bt < 4; bt++) {
+                    buffer.put(off + bt, bytes[half + bt]);
+                }
+            }
+        }
+
+        /**
+         * Writes a segment header (next segment block and word, total
+         * postings, segment postings and capacity) and the postings.
+         * @return the header position {block, word}
+         */
+        private int[] putSegment(final int[] next,
+                                 final int total,
+                                 final List<Posting> postings) {
+            final int[] ret = {blk, word};
+
+            putInt(next[0]);
+            putInt(next[1]);
+            putInt(total);
+            putInt(postings.size());
+            putInt(postings.size());
+            for (Posting posting : postings) {
+                putPosting(posting);
+            }
+            return ret;
+        }
+
+        private byte[] toBytes() {
+            final int blocks = (word == 1) ? blk - 1 : blk;
+
+            for (int num = 1; num <= blocks; num++) {
+                buffer.putInt((num - 1) * InvertedFile.IFP_BLOCKSIZE, num);
+            }
+            buffer.putInt(4, blk);    // next free block
+            buffer.putInt(8, word);   // next free word
+            return Arrays.copyOf(buffer.array(),
+                                 blocks * InvertedFile.IFP_BLOCKSIZE);
+        }
+    }
+
+    private static void putKey(final ByteBuffer bb,
+                               final int offset,
+                               final String key,
+                               final int keyLen) {
+        for (int pos = 0; pos < keyLen; pos++) {
+            bb.put(offset + pos, (pos < key.length()) ? (byte)key.charAt(pos)
+                                                      : InvertedFile.BLANK);
+        }
+    }
+
+    /**
+     * @return the leaf records (pos, ock, it, ps, TWORDF * [key, ifp block,
+     *         ifp word]) holding the keys, TWORDF per leaf
+     */
+    private static byte[] cisisLeaves(final String[] keys,
+                                      final int keyLen,
+                                      final Map<String,int[]> ifpPos,
+                                      final ByteOrder order) {
+        final int size = InvertedFile.leafSize(keyLen);
+        final int leaves = (keys.length + InvertedFile.TWORDF - 1)
+                                                     / InvertedFile.TWORDF;
+        final ByteBuffer bb = ByteBuffer.allocate(leaves * size).order(order);
+
+        for (int leaf = 0; leaf < leaves; leaf++) {
+            final int base = leaf * size;
+            final int first = leaf * InvertedFile.TWORDF;
+            final int ock = Math.min(InvertedFile.TWORDF, keys.length - first);
+
+            bb.putInt(base, leaf + 1);
+            bb.putShort(base + 4, (short)ock);
+            bb.putShort(base + 6, (short)1);
+            bb.putInt(base + 8, (leaf + 1 < leaves) ? leaf + 2 : 0);
+            for (int idx = 0; idx < InvertedFile.TWORDF; idx++) {
+                final int off = base + 12 + idx * (keyLen + 8);
+
+                if (idx < ock) {
+                    final int[] pos = ifpPos.get(keys[first + idx]);
+
+                    putKey(bb, off, keys[first + idx], keyLen);
+                    bb.putInt(off + keyLen, pos[0]);
+                    bb.putInt(off + keyLen + 4, pos[1]);
+                } else {
+                    putKey(bb, off, "", keyLen);
+                }
+            }
+        }
+        return bb.array();
+    }
+
+    /**
+     * @return a root node (pos, ock, it, TWORDN * [key, punt]) whose
+     *         entries are the first key of each leaf (negative punt)
+     */
+    private static byte[] cisisRoot(final String[] keys,
+                                    final int keyLen,
+                                    final ByteOrder order) {
+        final ByteBuffer bb = ByteBuffer.allocate(
+                                InvertedFile.nodeSize(keyLen)).order(order);
+        final int leaves = (keys.length + InvertedFile.TWORDF - 1)
+                                                     / InvertedFile.TWORDF;
+
+        bb.putInt(0, 1);
+        bb.putShort(4, (short)leaves);
+        bb.putShort(6, (short)1);
+        for (int idx = 0; idx < InvertedFile.TWORDN; idx++) {
+            final int off = 8 + idx * (keyLen + 4);
+
+            putKey(bb, off, (idx < leaves) ? keys[idx * InvertedFile.TWORDF]
+                                           : "", keyLen);
+            bb.putInt(off + keyLen, (idx < leaves) ? -(idx + 1) : 0);
+        }
+        return bb.array();
+    }
+
+    /**
+     * Control record: idtype, ordn, ordf, n, k, liv (shorts), posrx,
+     * nmaxpos, fmaxpos (ints), abnormal (short).
+     */
+    private static void putCnt(final ByteBuffer bb,
+                               final int idtype,
+                               final int liv,
+                               final int posrx,
+                               final int nmaxpos,
+                               final int fmaxpos) {
+        bb.putShort((short)idtype).putShort((short)5).putShort((short)5)
+          .putShort((short)15).putShort((short)5).putShort((short)liv)
+          .putInt(posrx).putInt(nmaxpos).putInt(fmaxpos).putShort((short)0);
+    }
+
+    /**
+     * Writes an inverted file in the CISIS layout (cisis.h CNSTRU, N0x and
+     * L0x records, ifp blocks and segments) byte by byte, without
+     * InvertedFileWriter.
+     */
+    private static void writeCisisFixture(final String indexName,
+                                          final ByteOrder order)
+                                                          throws IOException {
+        final CisisIfp ifp = new CisisIfp(order);
+        final Map<String,int[]> ifpPos = new TreeMap<String,int[]>();
+        final List<Posting> malaria = cisisPostings("MALARIA");
+
+        for (String[] keys : new String[][] {CISIS_SHORT, CISIS_LONG}) {
+            for (String key : keys) {
+                final List<Posting> postings = cisisPostings(key);
+
+                if (!key.equals("MALARIA")) {   // written after the others
+                    ifpPos.put(key, ifp.putSegment(new int[] {0, 0},
+                                                   postings.size(), postings));
+                }
+            }
+        }
+        final int[] second = ifp.putSegment(new int[] {0, 0}, malaria.size(),
+                                                  malaria.subList(90, 150));
+        ifpPos.put("MALARIA", ifp.putSegment(second, malaria.size(),
+                                                  malaria.subList(0, 90)));
+
+        final ByteBuffer cnt = ByteBuffer.allocate(2 * InvertedFile.CNT_SIZE)
+                                         .order(order);
+        putCnt(cnt, 1, 0, 1, 1, 2);      // a node level over two leaves
+        putCnt(cnt, 2, -1, -1, 0, 1);    // a single leaf
+        Files.write(new File(indexName + ".cnt").toPath(), cnt.array());
+        Files.write(new File(indexName + ".n01").toPath(),
+                    cisisRoot(CISIS_SHORT, InvertedFile.LE1, order));
+        Files.write(new File(indexName + ".l01").toPath(),
+                    cisisLeaves(CISIS_SHORT, InvertedFile.LE1, ifpPos, order));
+        Files.write(new File(indexName + ".n02").toPath(), new byte[0]);
+        Files.write(new File(indexName + ".l02").toPath(),
+                    cisisLeaves(CISIS_LONG, InvertedFile.LE2, ifpPos, order));
+        Files.write(new File(indexName + ".ifp").toPath(), ifp.toBytes());
+    }
+
+    private void checkCisisFixture(final ByteOrder order)
+                                            throws BrumaException, IOException {
+        final String indexName = new File(dir, "cisis").getPath();
+        final List<String> all = new ArrayList<String>();
+
+        writeCisisFixture(indexName, order);
+        all.addAll(Arrays.asList(CISIS_SHORT));
+        all.addAll(Arrays.asList(CISIS_LONG));
+        Collections.sort(all);
+
+        final InvertedFile inv = new InvertedFile(indexName, ENCODING);
+
+        try {
+            for (String key : all) {
+                final List<Posting> postings = cisisPostings(key);
+                final Set<Integer> mfns = new TreeSet<Integer>();
+
+                for (Posting posting : postings) {
+                    mfns.add(posting.getMfn());
+                }
+                assertTrue(key, inv.containsKey(key));
+                assertEquals(key, postings.size(), inv.getTotalPostings(key));
+                assertEquals(key, postings, inv.getPostings(key));
+                assertArrayEquals(key, toArray(mfns), inv.getMfns(key));
+            }
+            assertEquals(all, inv.getKeys("", 100));
+            assertEquals(Arrays.asList("FEBRE", "FEBRE AMARELA"),
+                         inv.getKeys("FEBRE", 100));
+            assertEquals(Arrays.asList("VIGILANCIA EPIDEMIOLOGICA",
+                         "VIRUS"), inv.getKeys("VI", 100));
+            assertFalse(inv.containsKey("MALARIA X"));
+            assertFalse(inv.containsKey("A"));
+            assertFalse(inv.containsKey("ZZZ"));
+            assertEquals(0, inv.getPostings("DENGUES").size());
+        } finally {
+            inv.close();
+        }
+    }
+
+    /**
+     * An inverted file laid out as CISIS writes it. It is assembled in the
+     * test from the cisis.h record layouts because no file generated by
+     * mx/ifload is shipped with the tests; one should replace it when
+     * available.
+     */
+    @Test
+    public void readsCisisLayoutLittleEndian()
+                                        throws BrumaException, IOException {
+        checkCisisFixture(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Test
+    public void readsCisisLayoutBigEndian()
+                                        throws BrumaException, IOException {
+        checkCisisFixture(ByteOrder.BIG_ENDIAN);
+    }
+}
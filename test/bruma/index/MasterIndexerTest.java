@@ -0,0 +1,308 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.index;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import bruma.master.Master;
+import bruma.master.MasterFactory;
+import bruma.master.Record;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Lucene indexes written by MasterIndexer checked against the words of the
+ * master records.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class MasterIndexerTest {
+    private static final int RECORDS = 3000;
+    private static final String[] WORDS = {
+        "alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta",
+        "theta", "iota", "kappa", "lambda", "mu", "nu", "xi", "omicron"
+    };
+
+    /** Record whose extraction fails, 0 for none. */
+    private static volatile int failMfn;
+
+    /** Words of field 1. */
+    public static class TitleExtractor implements Extractor {
+        @Override
+        public String extract(final Record rec) throws BrumaException {
+            if (rec.getMfn() == failMfn) {
+                throw new BrumaException("extract/mfn=" + failMfn);
+            }
+            final bruma.master.Field fld = rec.getField(1, 1);
+
+            return (fld == null) ? null : fld.getContent();
+        }
+    }
+
+    private File dir;
+    private Master mst;
+    private MasterIndexer indexer;
+    private String indexDir;
+
+    @Before
+    public void setUp() throws IOException, BrumaException {
+        final File fit = new File(dir = TempDir.create("indexer"), "mst.fit");
+        final FileWriter writer = new FileWriter(fit);
+
+        try {
+            writer.write("# field analyzer extractor\n"
+                   + "title whitespace bruma.index.MasterIndexerTest$"
+                   + "TitleExtractor\n");
+        } finally {
+            writer.close();
+        }
+        failMfn = 0;
+        indexDir = new File(dir, "lucene").getPath();
+        indexer = new MasterIndexer(indexDir,
+                                    new FieldIndexTable(fit.getPath()));
+        mst = (Master)MasterFactory.getInstance(new File(dir, "mst").getPath())
+                                   .setEncoding("ISO-8859-1").forceCreate();
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            mst.writeRecord(record(mfn, 0));
+        }
+        for (int mfn = 7; mfn <= RECORDS; mfn += 50) {
+            mst.deleteRecord(mfn);
+        }
+    }
+
+    @After
+    public void tearDown() throws BrumaException {
+        mst.close();
+        TempDir.delete(dir);
+    }
+
+    private static Record record(final int mfn,
+                                 final int version) throws BrumaException {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int idx = (mfn + version) % 4; idx >= 0; idx--) {
+            builder.append(WORDS[(mfn * 7 + version + idx * 3) % WORDS.length])
+                   .append(' ');
+        }
+        final Record rec = new Record().setMfn(mfn);
+
+        if (mfn % 13 != 0) {                         // records without title
+            rec.addField(1, builder.toString());
+        }
+        return rec.addField(2, "version " + version);
+    }
+
+    /**
+     * @return the mfns of each word of the active records
+     */
+    private Map<String,Set<Integer>> expected() throws BrumaException {
+        final Map<String,Set<Integer>> ret =
+                                         new TreeMap<String,Set<Integer>>();
+        final int last = mst.getControlRecord().getNxtmfn() - 1;
+
+        for (int mfn = 1; mfn <= last; mfn++) {
+            final Record rec = mst.getRecord(mfn);
+            final bruma.master.Field fld = rec.getField(1, 1);
+
+            if (rec.isActive() && (fld != null)) {
+                for (String word : fld.getContent().trim().split(" +")) {
+                    Set<Integer> mfns = ret.get(word);
+                    if (mfns == null) {
+                        mfns = new TreeSet<Integer>();
+                        ret.put(word, mfns);
+                    }
+                    mfns.add(mfn);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the mfns of each term of the title field of the index
+     */
+    private Map<String,Set<Integer>> indexed() throws IOException {
+        final Map<String,Set<Integer>> ret =
+                                         new TreeMap<String,Set<Integer>>();
+        final IndexReader reader = IndexReader.open(
+                                      FSDirectory.open(new File(indexDir)));
+
+        try {
+            final TermEnum terms = reader.terms(new Term("title", ""));
+            final TermDocs docs = reader.termDocs();
+
+            do {
+                final Term term = terms.term();
+                if ((term == null) || !term.field().equals("title")) {
+                    break;
+                }
+                final Set<Integer> mfns = new TreeSet<Integer>();
+
+                docs.seek(term);
+                while (docs.next()) {
+                    mfns.add(Integer.valueOf(reader.document(docs.doc())
+                                           .get(MasterIndexer.MFN_FIELD)));
+                }
+                if (!mfns.isEmpty()) {
+                    ret.put(term.text(), mfns);
+                }
+            } while (terms.next());
+            terms.close();
+            docs.close();
+        } finally {
+            reader.close();
+        }
+        return ret;
+    }
+
+    private int numDocs() throws IOException {
+        final IndexReader reader = IndexReader.open(
+                                      FSDirectory.open(new File(indexDir)));
+        try {
+            return reader.numDocs();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int active() {
+        return RECORDS - (RECORDS - 7 + 50) / 50;
+    }
+
+    @Test
+    public void indexHasTheRecordWords() throws Exception {
+        assertEquals(active(), indexer.setThreads(1).index(mst));
+        assertEquals(expected(), indexed());
+        assertEquals(active(), numDocs());
+
+        assertEquals(active(), indexer.setThreads(4).setOptimize(true)
+                                                               .index(mst));
+        assertEquals(expected(), indexed());
+        assertEquals(active(), numDocs());
+    }
+
+    @Test
+    public void failedIndexKeepsThePreviousOne() throws Exception {
+        indexer.setThreads(4).index(mst);
+
+        final Map<String,Set<Integer>> before = indexed();
+        final int threads = Thread.activeCount();
+
+        for (int mfn = 1; mfn <= 30; mfn++) {
+            mst.writeRecord(record(mfn, 1));
+        }
+        failMfn = 2000;
+        for (int pass = 0; pass < 2; pass++) {
+            try {
+                indexer.setThreads(1 + pass * 3).index(mst);
+                fail("extractor error");
+            } catch (BrumaException zex) {
+                assertEquals("extract/mfn=2000", zex.getMessage());
+            }
+            assertEquals(before, indexed());
+            assertEquals(threads, Thread.activeCount());  // no thread left
+        }
+        failMfn = 0;
+        try {
+            indexer.update(mst, Arrays.asList(10, 20, RECORDS + 10));
+            fail("record read error");
+        } catch (BrumaException zex) {
+            // expected
+        }
+        assertEquals(before, indexed());
+        assertEquals(threads, Thread.activeCount());
+    }
+
+    @Test
+    public void updateChangesOnlyTheGivenRecords() throws Exception {
+        indexer.setThreads(3).index(mst);
+        mst.writeRecord(record(10, 1));
+        mst.writeRecord(record(20, 1));
+        mst.deleteRecord(30);
+        mst.writeRecord(record(40, 1));
+        assertEquals(3, indexer.update(mst, Arrays.asList(10, 20, 30)));
+
+        mst.writeRecord(record(40, 0));                 // was not updated
+        assertEquals(expected(), indexed());
+        assertEquals(active() - 1, numDocs());
+    }
+
+    @Test
+    public void updatePendingReindexesChangedRecords() throws Exception {
+        // new records and logically deleted ones are pending
+        assertEquals(RECORDS, indexer.setThreads(2).updatePending(mst));
+        assertEquals(expected(), indexed());
+        assertEquals(0, indexer.updatePending(mst));
+        assertEquals(0, mst.getXrf().getPendingUpdates(RECORDS).size());
+
+        for (int mfn = 100; mfn <= 2000; mfn += 100) {
+            mst.writeRecord(record(mfn, 2));
+        }
+        mst.deleteRecord(150);
+        mst.deleteRecord(250);
+        mst.writeRecord(record(0, 5));
+        mst.writeRecord(record(0, 6));
+        assertEquals(24, mst.getXrf().getPendingUpdates(RECORDS + 2).size());
+        assertEquals(24, indexer.updatePending(mst));
+        assertEquals(expected(), indexed());
+        assertEquals(active() - 2 + 2, numDocs());
+        assertEquals(0, indexer.updatePending(mst));
+    }
+
+    @Test
+    public void invalidParameters() throws BrumaException {
+        try {
+            indexer.setThreads(0);
+            fail("threads 0");
+        } catch (BrumaException zex) {
+            // expected
+        }
+        try {
+            indexer.setMergePolicy(1, 10);
+            fail("segments per tier 1");
+        } catch (BrumaException zex) {
+            // expected
+        }
+        try {
+            new MasterIndexer(indexDir, null);
+            fail("null field index table");
+        } catch (BrumaException zex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * BufferedMaster dirty records, flush and write behind mode.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class BufferedMasterTest {
+    private static final String ENCODING = "ISO-8859-1";
+    private static final int RECORDS = 2000;
+    private static final long MAX_DIRTY = 16 * 1024;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TempDir.create("buffered");
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    private MasterFactory factory(final String name) throws BrumaException {
+        return MasterFactory.getInstance(new File(dir, name).getPath())
+                            .setEncoding(ENCODING);
+    }
+
+    private static String content(final int mfn,
+                                  final int version) {
+        final StringBuilder builder = new StringBuilder();
+
+        builder.append(mfn).append('/').append(version);
+        for (int idx = 0; idx < (mfn * 7 + version * 13) % 200; idx++) {
+            builder.append((char)('a' + (idx % 26)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the record version written for a mfn by writeAll()
+     */
+    private static int version(final int mfn) {
+        return (mfn < RECORDS) && (mfn % 3 == 0) ? 1 : 0;
+    }
+
+    /**
+     * Appends the records and then rewrites (growing some) all but the last
+     * one, whose in place rewrite is not covered here.
+     */
+    private static void writeAll(final MasterInterface mst)
+                                                        throws BrumaException {
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            assertEquals(mfn, mst.writeRecord(
+                              new Record().addField(1, content(mfn, 0))));
+        }
+        for (int mfn = 3; mfn < RECORDS; mfn += 3) {
+            mst.writeRecord(new Record().setMfn(mfn)
+                                        .addField(1, content(mfn, 1)));
+        }
+    }
+
+    private static void checkAll(final MasterInterface mst)
+                                                        throws BrumaException {
+        assertEquals(RECORDS + 1, mst.getControlRecord().getNxtmfn());
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            assertEquals(content(mfn, version(mfn)),
+                         mst.getRecord(mfn).getField(1, 1).getContent());
+        }
+    }
+
+    private void checkRoundTrip(final String name,
+                                final boolean writeBehind)
+                                                        throws BrumaException {
+        final MasterFactory factory = factory(name).setWriteBehind(writeBehind)
+                                                   .setMaxDirtyBytes(MAX_DIRTY);
+        final BufferedMaster buffered = factory.createBuffered();
+
+        try {
+            assertEquals(writeBehind, buffered.isWriteBehind());
+            writeAll(buffered);
+            checkAll(buffered);
+
+            buffered.flush();
+            assertEquals(0, buffered.getDirtyBytes());
+
+            // The flushed records are in the master files.
+            final Master mst = factory(name).open();
+            try {
+                checkAll(mst);
+            } finally {
+                mst.close();
+            }
+            buffered.writeRecord(new Record().setMfn(1)
+                                             .addField(1, "after flush"));
+        } finally {
+            buffered.close();
+        }
+
+        final Master mst = factory(name).open();
+        try {
+            assertEquals("after flush",
+                         mst.getRecord(1).getField(1, 1).getContent());
+        } finally {
+            mst.close();
+        }
+    }
+
+    @Test
+    public void roundTrip() throws BrumaException {
+        checkRoundTrip("sync", false);
+    }
+
+    @Test
+    public void roundTripWithWriteBehind() throws BrumaException {
+        checkRoundTrip("behind", true);
+    }
+
+    @Test
+    public void returnedRecordsAreCopies() throws BrumaException {
+        final BufferedMaster buffered = factory("copies").createBuffered();
+
+        try {
+            final Record rec = new Record().addField(1, "first");
+            final int mfn = buffered.writeRecord(rec);
+
+            rec.addField(2, "changed after the write");
+            buffered.getRecord(mfn).addField(3, "changed after the read");
+            assertEquals(1, buffered.getRecord(mfn).getFields().size());
+        } finally {
+            buffered.close();
+        }
+    }
+
+    @Test
+    public void writeBehindWritesInBackground()
+                                   throws BrumaException, InterruptedException {
+        final BufferedMaster buffered = factory("background")
+                          .setWriteBehind(true).setMaxDirtyBytes(MAX_DIRTY)
+                          .createBuffered();
+
+        try {
+            for (int mfn = 1; mfn <= 100; mfn++) {
+                buffered.writeRecord(new Record().addField(1,
+                                                          content(mfn, 0)));
+            }
+            final long deadline = System.currentTimeMillis() + 10000;
+            while ((buffered.getDirtyBytes() > 0)
+                               && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, buffered.getDirtyBytes());
+        } finally {
+            buffered.close();
+        }
+    }
+
+    /**
+     * The master channel is replaced by a closed one, so the background
+     * flush fails and the records stay dirty. With the channel back, the
+     * next write is accepted and the flusher writes all of them.
+     */
+    @Test
+    public void failedBackgroundFlushIsRetried() throws Exception {
+        final BufferedMaster buffered = factory("retry")
+                          .setWriteBehind(true).setMaxDirtyBytes(MAX_DIRTY)
+                          .createBuffered();
+        final Field mstField = BufferedMaster.class.getDeclaredField("mst");
+        final Field fcField = Master.class.getDeclaredField("fc");
+
+        mstField.setAccessible(true);
+        fcField.setAccessible(true);
+        try {
+            final Master inner = (Master)mstField.get(buffered);
+            final Object fc = fcField.get(inner);
+            final RandomAccessFile closed = new RandomAccessFile(
+                                         new File(dir, "closed.tmp"), "rw");
+
+            for (int mfn = 1; mfn <= 10; mfn++) {
+                buffered.writeRecord(new Record().addField(1,
+                                                          content(mfn, 0)));
+            }
+            buffered.flush();
+            closed.close();
+            fcField.set(inner, closed.getChannel());
+            try {
+                for (int mfn = 11; mfn <= 20; mfn++) {
+                    buffered.writeRecord(new Record().addField(1,
+                                                          content(mfn, 0)));
+                }
+                buffered.flush();
+                fail("flush should fail");
+            } catch (BrumaException zex) {
+                // expected
+            } finally {
+                fcField.set(inner, fc);
+            }
+            assertTrue(buffered.getDirtyBytes() > 0);
+            assertEquals(21, buffered.writeRecord(new Record().addField(1,
+                                                          content(21, 0))));
+
+            final long deadline = System.currentTimeMillis() + 10000;
+            while ((buffered.getDirtyBytes() > 0)
+                               && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, buffered.getDirtyBytes());
+        } finally {
+            buffered.close();
+        }
+
+        final Master mst = factory("retry").open();
+        try {
+            assertEquals(22, mst.getControlRecord().getNxtmfn());
+            for (int mfn = 1; mfn <= 21; mfn++) {
+                assertEquals(content(mfn, 0),
+                             mst.getRecord(mfn).getField(1, 1).getContent());
+            }
+        } finally {
+            mst.close();
+        }
+    }
+
+    /**
+     * Each thread rewrites its own records and reads back its last write,
+     * while the dirty set is written many times.
+     */
+    private void checkConcurrentWriters(final String name,
+                                        final boolean writeBehind)
+                                   throws BrumaException, InterruptedException {
+        final MasterFactory factory = factory(name).setWriteBehind(writeBehind)
+                                                   .setMaxDirtyBytes(MAX_DIRTY);
+        final BufferedMaster buffered = factory.createBuffered();
+        final Thread[] writers = new Thread[4];
+        final int rounds = 20;
+        final AtomicReference<Throwable> error =
+                                           new AtomicReference<Throwable>();
+
+        try {
+            writeAll(buffered);
+            for (int idx = 0; idx < writers.length; idx++) {
+                final int first = idx + 1;
+
+                writers[idx] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int round = 2; round < rounds; round++) {
+                                for (int mfn = first; mfn < RECORDS;
+                                                      mfn += writers.length) {
+                                    final String value = content(mfn, round);
+
+                                    buffered.writeRecord(new Record()
+                                        .setMfn(mfn).addField(1, value));
+                                    assertEquals(value, buffered.getRecord(mfn)
+                                                 .getField(1, 1).getContent());
+                                }
+                            }
+                        } catch (Throwable thr) {
+                            error.compareAndSet(null, thr);
+                        }
+                    }
+                };
+                writers[idx].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertNull(String.valueOf(error.get()), error.get());
+        } finally {
+            buffered.close();
+        }
+
+        final Master mst = factory(name).open();
+        try {
+            assertEquals(RECORDS + 1, mst.getControlRecord().getNxtmfn());
+            for (int mfn = 1; mfn < RECORDS; mfn++) {
+                assertEquals(content(mfn, rounds - 1),
+                             mst.getRecord(mfn).getField(1, 1).getContent());
+            }
+            assertTrue(mst.getRecord(RECORDS).isActive());
+        } finally {
+            mst.close();
+        }
+    }
+
+    @Test
+    public void concurrentWriters()
+                                   throws BrumaException, InterruptedException {
+        checkConcurrentWriters("concSync", false);
+    }
+
+    @Test
+    public void concurrentWritersWithWriteBehind()
+                                   throws BrumaException, InterruptedException {
+        checkConcurrentWriters("concBehind", true);
+    }
+}
@@ -0,0 +1,248 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CachedMaster reads checked against the reads of the cached master, cache
+ * invalidation on writes and ClockRecordCache eviction.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class CachedMasterTest {
+    private static final int RECORDS = 300;
+
+    private File dir;
+    private Master mst;
+
+    @Before
+    public void setUp() throws IOException, BrumaException {
+        dir = TempDir.create("cached");
+        mst = (Master)MasterFactory.getInstance(new File(dir, "mst").getPath())
+                                   .setEncoding("ISO-8859-1").forceCreate();
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            mst.writeRecord(record(0, mfn, 0));
+        }
+    }
+
+    @After
+    public void tearDown() throws BrumaException {
+        mst.close();
+        TempDir.delete(dir);
+    }
+
+    private static Record record(final int mfn,
+                                 final int key,
+                                 final int version) throws BrumaException {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int idx = 0; idx < (key * 13) % 200; idx++) {
+            builder.append((char)('a' + ((idx + version) % 26)));
+        }
+        return new Record().setMfn(mfn)
+                           .addField(1, key + "/" + version)
+                           .addField(2, "^a\u00e7\u00e3o^b" + builder)
+                           .addField(2, builder.toString());
+    }
+
+    private static CachedMaster cached(final MasterInterface master)
+                                                        throws BrumaException {
+        return new CachedMaster(master, new ClockRecordCache(1 << 20));
+    }
+
+    @Test
+    public void readsAreTheMasterRecords() throws BrumaException {
+        final ClockRecordCache cache = new ClockRecordCache(20000);
+        final CachedMaster cached = new CachedMaster(mst, cache);
+        final Random random = new Random(19);
+
+        for (int count = 0; count < 5000; count++) {
+            final int mfn = random.nextBoolean() ? 1 + random.nextInt(10)
+                                                 : 1 + random.nextInt(RECORDS);
+            final Record rec = cached.getRecord(mfn);
+
+            assertEquals(mst.getRecord(mfn).toString(), rec.toString());
+            assertTrue(cache.getWeight() <= cache.getMaxWeight());
+        }
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getEvictions() > 0);
+        assertEquals(5000, cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    public void returnedRecordsAreCopies() throws BrumaException {
+        final CachedMaster cached = cached(mst);
+        final String expected = mst.getRecord(3).toString();
+
+        cached.getRecord(3).addField(5, "changed").setMfn(4);
+        assertEquals(expected, cached.getRecord(3).toString());
+        cached.getRecord(3).getField(1, 1);
+        assertEquals(expected, cached.getRecord(3).toString());
+        assertEquals(3, cached.getCache().getHits());
+    }
+
+    @Test
+    public void writesInvalidateTheCache() throws BrumaException {
+        final CachedMaster cached = cached(mst);
+
+        cached.getRecord(5);
+        assertEquals("5/0", cached.getRecord(5).getField(1, 1).getContent());
+        assertEquals(1, cached.getCache().getHits());
+
+        cached.writeRecord(record(5, 5, 1));
+        assertEquals("5/1", cached.getRecord(5).getField(1, 1).getContent());
+        assertEquals(mst.getRecord(5).toString(),
+                                              cached.getRecord(5).toString());
+
+        cached.deleteRecord(5);
+        assertEquals(Record.Status.LOGDEL, cached.getRecord(5).getStatus());
+
+        final int mfn = cached.writeRecord(record(0, RECORDS + 1, 0));
+        assertEquals(RECORDS + 1, mfn);
+        assertEquals(mst.getRecord(mfn).toString(),
+                                            cached.getRecord(mfn).toString());
+    }
+
+    /**
+     * A record read from the master before a write of it and put into the
+     * cache after the write must not be kept.
+     */
+    @Test
+    public void writeDuringReadIsNotCached() throws Exception {
+        final CountDownLatch read = new CountDownLatch(1);
+        final CountDownLatch written = new CountDownLatch(1);
+        final Thread[] reader = new Thread[1];
+        final MasterInterface slow = (MasterInterface)Proxy.newProxyInstance(
+                MasterInterface.class.getClassLoader(),
+                new Class<?>[] {MasterInterface.class},
+                new InvocationHandler() {
+            @Override
+            public Object invoke(final Object proxy,
+                                 final Method method,
+                                 final Object[] args) throws Throwable {
+                final Object ret;
+
+                try {
+                    ret = method.invoke(mst, args);
+                } catch (InvocationTargetException ite) {
+                    throw ite.getCause();
+                }
+                if (method.getName().equals("getRecord")
+                                   && (Thread.currentThread() == reader[0])) {
+                    read.countDown();   // old record read
+                    written.await();    // until the new one is written
+                }
+                return ret;
+            }
+        });
+        final CachedMaster cached = cached(slow);
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+
+        reader[0] = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result.set(cached.getRecord(5));
+                } catch (Throwable thr) {
+                    result.set(thr);
+                }
+            }
+        };
+        reader[0].start();
+        read.await();
+        cached.writeRecord(record(5, 5, 1));
+        written.countDown();
+        reader[0].join();
+
+        assertEquals("5/0",
+                     ((Record)result.get()).getField(1, 1).getContent());
+        assertEquals("5/1", cached.getRecord(5).getField(1, 1).getContent());
+    }
+
+    @Test
+    public void clockKeepsTheReadRecords() throws BrumaException {
+        final ClockRecordCache cache = new ClockRecordCache(10 * (36 + 64));
+
+        for (int mfn = 1; mfn <= 10; mfn++) {
+            cache.put(mfn, new byte[36]);
+        }
+        for (int mfn = 1; mfn <= 3; mfn++) {
+            assertNotNull(cache.get(mfn));
+            assertNotNull(cache.get(mfn));
+        }
+        for (int mfn = 11; mfn <= 17; mfn++) {   // read once each
+            cache.put(mfn, new byte[36]);
+        }
+        assertEquals(7, cache.getEvictions());
+        assertEquals(10, cache.getSize());
+        assertEquals(cache.getMaxWeight(), cache.getWeight());
+        for (int mfn = 1; mfn <= 17; mfn++) {
+            if ((mfn <= 3) || (mfn > 10)) {
+                assertNotNull("mfn=" + mfn, cache.get(mfn));
+            } else {
+                assertNull("mfn=" + mfn, cache.get(mfn));
+            }
+        }
+    }
+
+    @Test
+    public void cacheWeight() throws BrumaException {
+        final ClockRecordCache cache = new ClockRecordCache(1000);
+
+        cache.put(1, new byte[100]);
+        cache.put(1, new byte[200]);                  // replaces
+        assertEquals(1, cache.getSize());
+        assertEquals(200 + 64, cache.getWeight());
+        cache.put(2, new byte[1000]);                 // larger than the cache
+        assertNull(cache.get(2));
+        assertEquals(200 + 64, cache.getWeight());
+        cache.put(3, new byte[800]);                  // evicts 1
+        assertNull(cache.get(1));
+        assertEquals(800 + 64, cache.getWeight());
+        cache.remove(3);
+        assertEquals(0, cache.getWeight());
+        cache.put(4, new byte[10]);
+        cache.put(5, new byte[10]);
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getWeight());
+        assertNull(cache.get(4));
+    }
+}
@@ -0,0 +1,166 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertNull;
+
+/**
+ * getRecord calls from many threads on a single Master opened with
+ * setConcurrentReads(true), checked against single threaded reads, with
+ * each kind of xrf file.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class ConcurrentReadTest {
+    private static final int RECORDS = 2000;
+    private static final int READS = 20000;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TempDir.create("concurrent");
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    private MasterFactory factory(final String name) throws BrumaException {
+        return MasterFactory.getInstance(new File(dir, name).getPath())
+                            .setEncoding("ISO-8859-1");
+    }
+
+    /**
+     * Creates the master and keeps the single threaded reads of its
+     * records, some of them bigger than the initial record buffer.
+     */
+    private String[] create(final MasterFactory factory)
+                                                        throws BrumaException {
+        final Master mst = (Master)factory.forceCreate();
+        final String[] expected = new String[RECORDS + 1];
+
+        try {
+            for (int mfn = 1; mfn <= RECORDS; mfn++) {
+                final StringBuilder builder = new StringBuilder();
+                final int len = (mfn % 100 == 0) ? 20000 : (mfn * 17) % 700;
+
+                for (int idx = 0; idx < len; idx++) {
+                    builder.append((char)('a' + ((mfn + idx) % 26)));
+                }
+                mst.writeRecord(new Record().addField(1, Integer.toString(mfn))
+                                            .addField(2, builder.toString()));
+            }
+            for (int mfn = 5; mfn <= RECORDS; mfn += 97) {
+                mst.deleteRecord(mfn);
+            }
+            for (int mfn = 1; mfn <= RECORDS; mfn++) {
+                expected[mfn] = mst.getRecord(mfn).toString();
+            }
+        } finally {
+            mst.close();
+        }
+
+        return expected;
+    }
+
+    private void check(final MasterFactory factory)
+                                   throws BrumaException, InterruptedException {
+        final String[] expected = create(factory);
+        final Master mst = factory.setConcurrentReads(true).open();
+        final AtomicReference<String> error = new AtomicReference<String>();
+        final Thread[] readers = new Thread[8];
+
+        try {
+            for (int idx = 0; idx < readers.length; idx++) {
+                final int seed = idx;
+
+                readers[idx] = new Thread() {
+                    @Override
+                    public void run() {
+                        final Random random = new Random(seed);
+
+                        for (int count = 0; (count < READS)
+                                          && (error.get() == null); count++) {
+                            final int mfn = 1 + random.nextInt(RECORDS);
+
+                            try {
+                                final String rec =
+                                                  mst.getRecord(mfn).toString();
+
+                                if (!rec.equals(expected[mfn])) {
+                                    error.compareAndSet(null, "mfn=" + mfn
+                                                                + " " + rec);
+                                }
+                            } catch (BrumaException zex) {
+                                error.compareAndSet(null, "mfn=" + mfn
+                                                                + " " + zex);
+                            }
+                        }
+                    }
+                };
+                readers[idx].start();
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        } finally {
+            mst.close();
+        }
+        assertNull(error.get(), error.get());
+    }
+
+    @Test
+    public void notBufferedXrf() throws Exception {
+        check(factory("plain").setInMemoryXrf(false));
+    }
+
+    @Test
+    public void bufferedXrf() throws Exception {
+        check(factory("buffered"));
+    }
+
+    @Test
+    public void preloadedXrf() throws Exception {
+        check(factory("preload").setXrfPreload(true));
+    }
+
+    @Test
+    public void memoryMapped() throws Exception {
+        check(factory("mapped").setMemoryMapped(true));
+    }
+
+    @Test
+    public void swappedFFI() throws Exception {
+        check(factory("ffi").setFFI(true).setSwapped(true));
+    }
+}
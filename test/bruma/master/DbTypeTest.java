@@ -0,0 +1,125 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Byte order detection of masters opened without telling it. The control
+ * record next block and next position of a big endian master can be
+ * negative when read as little endian; that must not stop the big endian
+ * probe.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class DbTypeTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TempDir.create("dbtype");
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    private static String content(final int mfn) {
+        final StringBuilder builder = new StringBuilder();
+
+        builder.append(mfn).append(':');
+        for (int idx = 0; idx < (mfn * 11) % 90; idx++) {
+            builder.append((char)('a' + (idx % 26)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes records until the next block or next position (the low byte of
+     * its big endian value) is at least 0x80, then reopens the master
+     * letting the byte order be detected.
+     * @param block check the next block (true) or the next position
+     */
+    private void check(final String name,
+                       final boolean swapped,
+                       final boolean block) throws BrumaException {
+        final String path = new File(dir, name).getPath();
+        Master mst = (Master)MasterFactory.getInstance(path)
+                                        .setSwapped(swapped).forceCreate();
+        int last = 0;
+
+        while (true) {
+            final Control ctl = mst.getControlRecord();
+            final int value = block ? ctl.getNxtmfb() : ctl.getNxtmfp();
+
+            if ((last > 0) && ((value & 0xff) >= 0x80)) {
+                break;
+            }
+            last = mst.writeRecord(new Record().addField(1,
+                                                       content(last + 1)));
+        }
+        mst.close();
+
+        mst = MasterFactory.getInstance(path).open();
+        try {
+            assertEquals(swapped, mst.isSwapped());
+            assertEquals(last + 1, mst.getControlRecord().getNxtmfn());
+            for (int mfn = 1; mfn <= last; mfn++) {
+                assertEquals(content(mfn),
+                             mst.getRecord(mfn).getField(1, 1).getContent());
+            }
+        } finally {
+            mst.close();
+        }
+        assertTrue(last > 0);
+    }
+
+    @Test
+    public void bigEndianWithNegativeSwappedBlock() throws BrumaException {
+        check("bigBlock", false, true);
+    }
+
+    @Test
+    public void bigEndianWithNegativeSwappedPosition()
+                                                        throws BrumaException {
+        check("bigPos", false, false);
+    }
+
+    @Test
+    public void littleEndianBlock() throws BrumaException {
+        check("littleBlock", true, true);
+    }
+
+    @Test
+    public void littleEndianPosition() throws BrumaException {
+        check("littlePos", true, false);
+    }
+}
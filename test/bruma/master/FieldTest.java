@@ -0,0 +1,173 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Field subfield scanner checked against the regular expression it replaced.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class FieldTest {
+    /** The subfield expression used before the scanner. */
+    private static final Pattern OLD_PAT = Pattern.compile(
+                        "(\\^([A-Za-z0-9]))?(.*?)(?=\\^[A-Za-z0-9]|$)");
+    private static final String[] EDGES = {"", "^", "^^", "^^a", "^a", "a^",
+        "^a^", "^a^^", "^ab", "x^ab", "^ax^", "^a^b^c", "^a^a^a", "x^^ay",
+        "^_x", "^-x^1y", "^Zz^9", "^\u00e3x^by", "a^ ^b", "^^^a^^b^", "abc",
+        "^a^1^A^z^Z^0^9", "^a^", "x^ay^", "^A", "^a^b", " ^a"};
+    private static final String IDS = "_aAbz19-^\u00e3";
+
+    /**
+     * @return the subfields found by the old expression
+     */
+    private static List<String> oldSubfields(final String content) {
+        final Matcher matcher = OLD_PAT.matcher(content);
+        final List<String> ret = new ArrayList<String>();
+
+        while (matcher.find()) {
+            final String sid = matcher.group(2);
+            final String subfield = matcher.group(3);
+
+            if (sid == null) {
+                if (!subfield.isEmpty()) {
+                    ret.add(Subfield.FIRST_SUB_ID + subfield);
+                }
+            } else {
+                ret.add(sid + subfield);
+            }
+        }
+        return ret;
+    }
+
+    private static List<String> oldTagSubfields(final String content,
+                                                final char id) {
+        final List<String> ret = new ArrayList<String>();
+
+        if (id == Subfield.FIRST_SUB_ID) {
+            final int idx = content.indexOf('^');
+
+            ret.add(id + ((idx == -1) ? content : content.substring(0, idx)));
+        } else {
+            for (String sub : oldSubfields(content)) {
+                if (sub.charAt(0) == id) {
+                    ret.add(sub);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static List<String> strings(final List<Subfield> subfields) {
+        final List<String> ret = new ArrayList<String>();
+
+        for (Subfield sub : subfields) {
+            ret.add(sub.getId() + sub.getContent());
+        }
+        return ret;
+    }
+
+    private static void check(final String content) throws BrumaException {
+        final Field field = new Field(1, content);
+
+        assertEquals(content, oldSubfields(content),
+                                               strings(field.getSubfields()));
+        for (int idx = 0; idx < IDS.length(); idx++) {
+            final char id = IDS.charAt(idx);
+            final List<String> expected = oldTagSubfields(content, id);
+
+            assertEquals(content + " " + id, expected,
+                                 strings(new Field(1, content)
+                                                   .getTagSubfields(id)));
+            for (int occ = 1; occ <= expected.size() + 1; occ++) {
+                final Subfield sub = new Field(1, content).getSubfield(id,
+                                                                         occ);
+                assertEquals(content + " " + id + " " + occ,
+                             (occ > expected.size()) ? null
+                                                     : expected.get(occ - 1),
+                             (sub == null) ? null
+                                           : sub.getId() + sub.getContent());
+            }
+        }
+    }
+
+    @Test
+    public void caretEdgeCases() throws BrumaException {
+        for (String content : EDGES) {
+            check(content);
+        }
+    }
+
+    @Test
+    public void randomContents() throws BrumaException {
+        final String chars = "^^^aAb1z_ -\u00e3";
+        final Random random = new Random(20);
+
+        for (int count = 0; count < 20000; count++) {
+            final StringBuilder builder = new StringBuilder();
+
+            for (int idx = random.nextInt(12); idx > 0; idx--) {
+                builder.append(chars.charAt(random.nextInt(chars.length())));
+            }
+            check(builder.toString());
+        }
+    }
+
+    /**
+     * A field reused by a record read must not keep the subfields of its
+     * previous content.
+     */
+    @Test
+    public void resetDropsSubfields() throws BrumaException {
+        final Field field = new Field(1, "^aone^btwo");
+
+        assertEquals("one", field.getSubfield('a', 1).getContent());
+        field.reset(2, null, "^bthree^aiv");
+        assertEquals(2, field.getId());
+        assertEquals(oldSubfields("^bthree^aiv"),
+                                               strings(field.getSubfields()));
+        assertEquals("iv", field.getSubfield('a', 1).getContent());
+    }
+
+    @Test
+    public void tagSubfieldsOfSubfieldList() throws BrumaException {
+        final List<Subfield> list = new ArrayList<Subfield>();
+
+        list.add(new Subfield('a', "one"));
+        list.add(new Subfield('b', "two"));
+        list.add(new Subfield('a', "three"));
+
+        final Field field = new Field(1, list);
+
+        assertEquals(2, field.getTagSubfields('a').size());
+        assertEquals("three", field.getSubfield('a', 2).getContent());
+        assertEquals(null, field.getSubfield('c', 1));
+    }
+}
@@ -0,0 +1,365 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * In process locks of LockManager and of the Lock flags built on it.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class LockManagerTest {
+    private static final int CONTROL_SIZE = 32;
+    private static final int RECORDS = 10;
+
+    private File dir;
+    private String mstName;
+
+    @Before
+    public void setUp() throws IOException, BrumaException {
+        dir = TempDir.create("lock");
+        mstName = new File(dir, "lock").getPath();
+
+        final Master mst = (Master)MasterFactory.getInstance(mstName)
+                                                .forceCreate();
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            mst.writeRecord(new Record().addField(1, "record " + mfn));
+        }
+        mst.close();
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    private static LockWaitPolicy policy(final LockWaitPolicy.Strategy strat,
+                                         final long deadline) {
+        return new LockWaitPolicy(strat).setDeadline(deadline);
+    }
+
+    private LockManager manager() throws BrumaException {
+        return LockManager.getInstance(mstName + ".mst", CONTROL_SIZE);
+    }
+
+    @Test
+    public void managerIsSharedByPath() throws BrumaException {
+        final LockManager manager1 = manager();
+        final LockManager manager2 = manager();
+
+        try {
+            assertSame(manager1, manager2);
+        } finally {
+            manager2.release();
+            manager1.release();
+        }
+    }
+
+    @Test
+    public void sharedLocksAreHeldTogether()
+                                   throws BrumaException, InterruptedException {
+        final LockManager manager = manager();
+        final LockWaitPolicy policy =
+                           policy(LockWaitPolicy.Strategy.FIXED_SLEEP, 2000);
+        final Thread[] threads = new Thread[8];
+        final CountDownLatch locked = new CountDownLatch(threads.length);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Throwable> error =
+                                           new AtomicReference<Throwable>();
+
+        try {
+            for (int idx = 0; idx < threads.length; idx++) {
+                threads[idx] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            final LockManager.Hold hold = manager.lock(64, 16,
+                                      true, policy, policy.start("segment"));
+                            locked.countDown();
+                            try {
+                                release.await();
+                            } finally {
+                                manager.unlock(hold);
+                            }
+                        } catch (Throwable thr) {
+                            error.compareAndSet(null, thr);
+                            locked.countDown();
+                        }
+                    }
+                };
+                threads[idx].start();
+            }
+            // All readers get the lock before any of them releases it.
+            assertTrue(locked.await(10, TimeUnit.SECONDS));
+            release.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertNull(error.get());
+        } finally {
+            manager.release();
+        }
+    }
+
+    @Test
+    public void exclusiveLockMakesOtherThreadsTimeOut()
+                                   throws BrumaException, InterruptedException {
+        final LockManager manager = manager();
+        final LockWaitPolicy policy =
+                           policy(LockWaitPolicy.Strategy.FIXED_SLEEP, 100);
+        final AtomicReference<Throwable> error =
+                                           new AtomicReference<Throwable>();
+
+        try {
+            final LockManager.Hold hold = manager.lock(64, 16, false, policy,
+                                                     policy.start("segment"));
+            final Thread other = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        manager.unlock(manager.lock(64, 16, true, policy,
+                                                    policy.start("segment")));
+                        fail("segment should be locked");
+                    } catch (Throwable thr) {
+                        error.set(thr);
+                    }
+                }
+            };
+            other.start();
+            other.join();
+            manager.unlock(hold);
+            assertTrue(String.valueOf(error.get()),
+                       error.get() instanceof BrumaException);
+
+            // The region is free again.
+            manager.unlock(manager.lock(64, 16, false, policy,
+                                        policy.start("segment")));
+        } finally {
+            manager.release();
+        }
+    }
+
+    @Test
+    public void regionsAreLockedAgainAfterUnlock() throws BrumaException {
+        final LockManager manager = manager();
+        final LockWaitPolicy policy =
+                           policy(LockWaitPolicy.Strategy.FIXED_SLEEP, 1000);
+
+        try {
+            // An OverlappingFileLockException would mean a file lock left
+            // behind by a released region.
+            for (int idx = 0; idx < 1000; idx++) {
+                final boolean shared = (idx % 2 == 0);
+
+                manager.unlock(manager.lock(0, 4, shared, policy,
+                                            policy.start("control")));
+                manager.unlock(manager.lock(64 + (idx % 5) * 8, 8, shared,
+                                          policy, policy.start("segment")));
+            }
+        } finally {
+            manager.release();
+        }
+    }
+
+    /**
+     * Shared holders of the same region come and go: the last one to leave
+     * releases the file lock while the others take it again.
+     */
+    @Test
+    public void sharedRegionsAreReleasedAndLockedConcurrently()
+                                   throws BrumaException, InterruptedException {
+        final LockManager manager = manager();
+        final LockWaitPolicy policy =
+                           policy(LockWaitPolicy.Strategy.FIXED_SLEEP, 5000);
+        final Thread[] threads = new Thread[8];
+        final AtomicReference<Throwable> error =
+                                           new AtomicReference<Throwable>();
+
+        try {
+            for (int idx = 0; idx < threads.length; idx++) {
+                threads[idx] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int cnt = 0; cnt < 20000; cnt++) {
+                                manager.unlock(manager.lock(64, 16, true,
+                                             policy, policy.start("segment")));
+                            }
+                        } catch (Throwable thr) {
+                            error.compareAndSet(null, thr);
+                        }
+                    }
+                };
+                threads[idx].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertNull(String.valueOf(error.get()), error.get());
+        } finally {
+            manager.release();
+        }
+    }
+
+    @Test
+    public void recordOwnersWaitForEachOther()
+                                   throws BrumaException, InterruptedException {
+        final LockManager manager = manager();
+        final LockWaitPolicy policy =
+                           policy(LockWaitPolicy.Strategy.FIXED_SLEEP, 100);
+        final Object owner1 = new Object();
+        final Object owner2 = new Object();
+
+        try {
+            manager.lockRecord(3, owner1, policy.start("record"));
+            try {
+                manager.lockRecord(3, owner2, policy.start("record"));
+                fail("record should be locked");
+            } catch (BrumaException zex) {
+                // expected
+            }
+            manager.lockRecord(4, owner2, policy.start("record"));
+            manager.unlockRecord(4, owner2);
+
+            // Another owner does not remove the lock.
+            manager.unlockRecord(3, owner2);
+            final Thread waiter = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    manager.unlockRecord(3, owner1);
+                }
+            };
+            waiter.start();
+            manager.lockRecord(3, owner2,
+                 policy(LockWaitPolicy.Strategy.FIXED_SLEEP, 5000)
+                                                      .start("record"));
+            waiter.join();
+            manager.unlockRecord(3, owner2);
+        } finally {
+            manager.release();
+        }
+    }
+
+    /**
+     * Threads sharing two Lock instances of the same master take the data
+     * entry, record and segment locks over and over. No lock may fail and
+     * the control flags must be clean at the end.
+     */
+    private void checkStress(final LockWaitPolicy.Strategy strat)
+                                   throws BrumaException, InterruptedException {
+        final Master mst = MasterFactory.getInstance(mstName)
+                       .setLockWaitPolicy(policy(strat, 30000)).open();
+        final Lock lock1 = new Lock(mst);
+        final Lock lock2 = new Lock(mst);
+        final Thread[] threads = new Thread[8];
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicReference<Throwable> error =
+                                           new AtomicReference<Throwable>();
+
+        try {
+            for (int idx = 0; idx < threads.length; idx++) {
+                final Lock lock = (idx % 2 == 0) ? lock1 : lock2;
+
+                threads[idx] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int cnt = 0; cnt < 200; cnt++) {
+                                lock.setDataEntryLock();
+                                lock.resetDataEntryLock();
+
+                                final Lock.RecordLock rlock =
+                                         lock.lockRecord(1 + (cnt % 3));
+                                lock.unlockRecord(rlock);
+
+                                final Lock.SegmentLock slock =
+                                         lock.lockSegment(0, 32, false);
+                                lock.releaseLockSegment(slock);
+                            }
+                        } catch (Throwable thr) {
+                            errors.incrementAndGet();
+                            error.compareAndSet(null, thr);
+                        }
+                    }
+                };
+                threads[idx].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(String.valueOf(error.get()), 0, errors.get());
+
+            // Fails if a data entry or exclusive write flag was left set.
+            lock1.setExclusiveWriteLock();
+            lock1.forceResetControlLocks();
+        } finally {
+            lock2.close();
+            lock1.close();
+            mst.close();
+        }
+    }
+
+    @Test
+    public void stressWithFixedSleep()
+                                   throws BrumaException, InterruptedException {
+        checkStress(LockWaitPolicy.Strategy.FIXED_SLEEP);
+    }
+
+    @Test
+    public void stressWithSpinThenPark()
+                                   throws BrumaException, InterruptedException {
+        checkStress(LockWaitPolicy.Strategy.SPIN_THEN_PARK);
+    }
+
+    @Test
+    public void stressWithBackoff()
+                                   throws BrumaException, InterruptedException {
+        checkStress(LockWaitPolicy.Strategy.EXPONENTIAL_BACKOFF);
+    }
+
+    @Test
+    public void stressWithBlocking()
+                                   throws BrumaException, InterruptedException {
+        checkStress(LockWaitPolicy.Strategy.BLOCKING);
+    }
+}
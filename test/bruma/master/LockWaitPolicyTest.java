@@ -0,0 +1,204 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * LockWaitPolicy delays, deadlines and listener reports.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class LockWaitPolicyTest {
+    private static long delay(final LockWaitPolicy policy,
+                              final int tries) throws Exception {
+        final Method method = LockWaitPolicy.class.getDeclaredMethod(
+                                                        "getDelay", int.class);
+
+        method.setAccessible(true);
+        return (Long)method.invoke(policy, tries);
+    }
+
+    private static long millis(final long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * The default policy waits as long as the old 3000 tries of 50
+     * milliseconds, and FIXED_SLEEP waits as the old tries.
+     */
+    @Test
+    public void defaults() throws Exception {
+        final LockWaitPolicy policy = LockWaitPolicy.getDefault();
+
+        assertEquals(LockWaitPolicy.Strategy.EXPONENTIAL_BACKOFF,
+                                                      policy.getStrategy());
+        assertEquals(3000 * 50, policy.getDeadline());
+        assertEquals(millis(50), delay(new LockWaitPolicy(
+                                 LockWaitPolicy.Strategy.FIXED_SLEEP), 7));
+    }
+
+    @Test
+    public void delays() throws Exception {
+        final LockWaitPolicy spin = new LockWaitPolicy(
+                                 LockWaitPolicy.Strategy.SPIN_THEN_PARK)
+                                                .setSpins(3).setPark(1000);
+        final LockWaitPolicy backoff = new LockWaitPolicy(
+                            LockWaitPolicy.Strategy.EXPONENTIAL_BACKOFF)
+                                             .setBackoff(1, 8).setJitter(false);
+        final long[] expected = {1, 2, 4, 8, 8, 8};
+
+        assertEquals(millis(20), delay(new LockWaitPolicy(
+                 LockWaitPolicy.Strategy.FIXED_SLEEP).setInterval(20), 0));
+        for (int tries = 0; tries < 6; tries++) {
+            assertEquals((tries < 3) ? 0 : 1000, delay(spin, tries));
+            assertEquals(millis(expected[tries]), delay(backoff, tries));
+        }
+        assertEquals(millis(8), delay(backoff, 63));
+        assertEquals(millis(8), delay(backoff, Integer.MAX_VALUE));
+
+        backoff.setJitter(true);
+        for (int tries = 0; tries < 200; tries++) {
+            final long max = millis(expected[Math.min(tries, 5)]);
+            final long delay = delay(backoff, tries);
+
+            assertTrue((delay >= max / 2) && (delay <= max));
+        }
+    }
+
+    @Test
+    public void pauseStopsAtTheDeadline() {
+        final LockWaitPolicy policy = new LockWaitPolicy(
+                             LockWaitPolicy.Strategy.FIXED_SLEEP)
+                                            .setInterval(10).setDeadline(100);
+        final LockWaitPolicy.Wait wait = policy.start("segment");
+        final long start = System.nanoTime();
+        int pauses = 0;
+
+        while (wait.pause()) {
+            pauses++;
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        assertTrue(elapsed >= millis(100));
+        assertTrue(elapsed < millis(5000));
+        assertTrue((pauses > 0) && (pauses <= 10));
+        assertEquals(0, wait.remaining());
+        assertEquals(Long.MAX_VALUE, new LockWaitPolicy(
+                        LockWaitPolicy.Strategy.FIXED_SLEEP).setDeadline(0)
+                                               .start("record").remaining());
+    }
+
+    @Test
+    public void listenerGetsOnlyRealWaits() {
+        final List<String> reports = new ArrayList<String>();
+        final LockWaitPolicy policy = new LockWaitPolicy(
+                             LockWaitPolicy.Strategy.FIXED_SLEEP)
+                                                           .setInterval(1);
+
+        policy.setListener(new LockWaitListener() {
+            @Override
+            public synchronized void lockWaited(final String lockName,
+                                                final long nanos,
+                                                final boolean acquired) {
+                assertTrue(nanos >= 0);
+                reports.add(lockName + " " + acquired);
+            }
+        });
+
+        policy.start("record").done(true);             // got at first try
+        assertTrue(reports.isEmpty());
+
+        LockWaitPolicy.Wait wait = policy.start("segment");
+        assertTrue(wait.pause());
+        wait.done(true);
+        wait.done(true);                               // reported once
+        assertEquals(1, reports.size());
+        assertEquals("segment true", reports.get(0));
+
+        wait = policy.start("exclusiveWrite");
+        wait.blocked();
+        wait.done(false);
+        policy.start("dataEntry").done(false, true);
+        assertEquals("exclusiveWrite false", reports.get(1));
+        assertEquals("dataEntry false", reports.get(2));
+    }
+
+    @Test
+    public void profileNames() {
+        assertEquals(LockWaitPolicy.Strategy.FIXED_SLEEP,
+                     LockWaitPolicy.fromName("fixed").getStrategy());
+        assertEquals(LockWaitPolicy.Strategy.SPIN_THEN_PARK,
+                     LockWaitPolicy.fromName("SPIN").getStrategy());
+        assertEquals(LockWaitPolicy.Strategy.EXPONENTIAL_BACKOFF,
+                     LockWaitPolicy.fromName("backoff").getStrategy());
+        assertEquals(LockWaitPolicy.Strategy.BLOCKING,
+                     LockWaitPolicy.fromName("blocking").getStrategy());
+        assertTrue(LockWaitPolicy.fromName("blocking").isBlocking());
+        assertFalse(LockWaitPolicy.fromName("backoff").isBlocking());
+        try {
+            LockWaitPolicy.fromName("sleep");
+            fail("unknown policy name");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+
+    @Test
+    public void invalidValues() {
+        final LockWaitPolicy policy = new LockWaitPolicy(
+                                     LockWaitPolicy.Strategy.SPIN_THEN_PARK);
+
+        try {
+            policy.setBackoff(0, 10);
+            fail("initial delay 0");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        try {
+            policy.setBackoff(10, 5);
+            fail("max delay < initial delay");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        try {
+            policy.setSpins(-1);
+            fail("negative spins");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        try {
+            new LockWaitPolicy(null);
+            fail("null strategy");
+        } catch (NullPointerException npe) {
+            // expected
+        }
+    }
+}
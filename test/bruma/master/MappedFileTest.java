@@ -0,0 +1,243 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Memory mapped reads checked against file channel reads: MappedFile across
+ * a chunk boundary and after the file grows, and masters opened with
+ * setMemoryMapped(true).
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class MappedFileTest {
+    private static final int RECORDS = 600;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TempDir.create("mapped");
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    private static ByteBuffer read(final FileChannel fc,
+                                   final long pos,
+                                   final int len,
+                                   final boolean swapped) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(len).order(
+                    swapped ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            fc.read(buffer, pos + buffer.position());
+        }
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * A sparse file a little bigger than a chunk, with bytes written around
+     * the chunk boundary.
+     */
+    private void checkChunkBoundary(final boolean swapped) throws IOException {
+        final long boundary = MappedFile.CHUNK_SIZE;
+        final RandomAccessFile raf = new RandomAccessFile(
+                                          new File(dir, "sparse"), "rw");
+
+        try {
+            raf.setLength(boundary + 64);
+            raf.seek(boundary - 32);
+            for (int idx = 0; idx < 64; idx++) {
+                raf.write(idx * 7 + 1);
+            }
+
+            final FileChannel fc = raf.getChannel();
+            final MappedFile mapped = new MappedFile(fc, swapped);
+
+            for (long pos = boundary - 8; pos <= boundary + 4; pos++) {
+                final ByteBuffer expected = read(fc, pos, 4, swapped);
+                final ByteBuffer buffer = ByteBuffer.allocate(12);
+
+                assertEquals("pos=" + pos, expected.getInt(0),
+                                                         mapped.getInt(pos));
+                assertEquals("pos=" + pos, expected.getShort(0),
+                                                       mapped.getShort(pos));
+                mapped.get(pos - 4, buffer);
+                buffer.flip();
+                assertEquals(read(fc, pos - 4, 12, swapped), buffer);
+            }
+            assertNull(mapped.slice(boundary - 2, 4));
+            assertEquals(read(fc, boundary - 6, 6, swapped),
+                                             mapped.slice(boundary - 6, 6));
+            assertEquals(read(fc, boundary, 20, swapped),
+                                                 mapped.slice(boundary, 20));
+            mapped.close();
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void readsAcrossChunkBoundary() throws IOException {
+        checkChunkBoundary(false);
+    }
+
+    @Test
+    public void readsAcrossChunkBoundarySwapped() throws IOException {
+        checkChunkBoundary(true);
+    }
+
+    @Test
+    public void remapsWhenTheFileGrows() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(
+                                          new File(dir, "grows"), "rw");
+
+        try {
+            raf.writeInt(1);
+
+            final MappedFile mapped = new MappedFile(raf.getChannel(), false);
+
+            assertEquals(4, mapped.size());
+            raf.writeInt(2);
+            assertEquals(2, mapped.getInt(4));
+            assertEquals(8, mapped.size());
+            try {
+                mapped.getInt(6);
+                fail("read past the end of the file");
+            } catch (IOException ioe) {
+                // expected
+            }
+            mapped.close();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Record record(final int mfn,
+                                 final int version) throws BrumaException {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int idx = (mfn * 131 + version) % 9000; idx >= 0; idx--) {
+            builder.append((char)('a' + ((idx + version) % 26)));
+        }
+        return new Record().setMfn(mfn)
+                           .addField(1, mfn + "/" + version)
+                           .addField(2, builder.toString());
+    }
+
+    private MasterFactory factory(final String name,
+                                  final boolean ffi,
+                                  final boolean swapped)
+                                                        throws BrumaException {
+        return MasterFactory.getInstance(new File(dir, name).getPath())
+                            .setEncoding("ISO-8859-1")
+                            .setFFI(ffi)
+                            .setSwapped(swapped);
+    }
+
+    private static void compare(final Master expected,
+                                final Master mst) throws BrumaException {
+        final int next = expected.getControlRecord().getNxtmfn();
+
+        assertEquals(next, mst.getControlRecord().getNxtmfn());
+        for (int mfn = 1; mfn < next; mfn++) {
+            assertEquals("mfn=" + mfn, expected.getRecord(mfn).toString(),
+                                               mst.getRecord(mfn).toString());
+        }
+    }
+
+    /**
+     * Mapped reads of a master are the channel reads, also for records
+     * written after the master was mapped.
+     */
+    private void checkMaster(final String name,
+                             final boolean ffi,
+                             final boolean swapped) throws BrumaException {
+        final Master created = (Master)factory(name, ffi, swapped)
+                                                             .forceCreate();
+
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            created.writeRecord(record(0, mfn));
+        }
+        created.deleteRecord(3);
+        created.close();
+
+        final Master mapped = factory(name, ffi, swapped)
+                                              .setMemoryMapped(true).open();
+        try {
+            final Master plain = factory(name, ffi, swapped)
+                                             .setInMemoryXrf(false).open();
+            try {
+                compare(plain, mapped);
+            } finally {
+                plain.close();
+            }
+            for (int mfn = 1; mfn <= 100; mfn++) {
+                mapped.writeRecord(record(0, RECORDS + mfn));
+                mapped.writeRecord(record(mfn, 1));
+            }
+            final Master plain2 = factory(name, ffi, swapped)
+                                             .setInMemoryXrf(false).open();
+            try {
+                compare(plain2, mapped);
+            } finally {
+                plain2.close();
+            }
+        } finally {
+            mapped.close();
+        }
+    }
+
+    @Test
+    public void mappedMaster() throws BrumaException {
+        checkMaster("isis", false, false);
+    }
+
+    @Test
+    public void mappedMasterFFI() throws BrumaException {
+        checkMaster("ffi", true, false);
+    }
+
+    @Test
+    public void mappedMasterSwapped() throws BrumaException {
+        checkMaster("swapped", false, true);
+    }
+}
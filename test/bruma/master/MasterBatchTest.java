@@ -0,0 +1,370 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Master batch mode: beginBatch(), commit() and writeRecords().
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class MasterBatchTest {
+    private static final String ENCODING = "ISO-8859-1";
+    private static final int RECORDS = 3000;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TempDir.create("batch");
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    private MasterFactory factory(final String name) throws BrumaException {
+        return MasterFactory.getInstance(new File(dir, name).getPath())
+                            .setEncoding(ENCODING);
+    }
+
+    private static String content(final int mfn,
+                                  final int version) {
+        final StringBuilder builder = new StringBuilder();
+
+        builder.append(mfn).append('/').append(version);
+        for (int idx = 0; idx < (mfn * 7 + version * 13) % 300; idx++) {
+            builder.append((char)('a' + (idx % 26)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Appends and then rewrites (growing some records) all but the last
+     * record, whose in place rewrite is not covered here.
+     */
+    private static List<Record> records() throws BrumaException {
+        final List<Record> ret = new ArrayList<Record>();
+
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            ret.add(new Record().setMfn(mfn).addField(1, content(mfn, 0)));
+        }
+        for (int mfn = 1; mfn < RECORDS; mfn += 3) {
+            ret.add(new Record().setMfn(mfn).addField(1, content(mfn, 1))
+                                            .addField(2, content(mfn, 2)));
+        }
+        for (int mfn = RECORDS + 1; mfn <= RECORDS + 500; mfn++) {
+            ret.add(new Record().setMfn(mfn).addField(1, content(mfn, 0)));
+        }
+        return ret;
+    }
+
+    private void assertSameFiles(final String name1,
+                                 final String name2) throws IOException {
+        for (String ext : new String[] {".mst", ".xrf"}) {
+            assertArrayEquals(name1 + ext,
+                   Files.readAllBytes(new File(dir, name1 + ext).toPath()),
+                   Files.readAllBytes(new File(dir, name2 + ext).toPath()));
+        }
+    }
+
+    private void checkBatchFiles(final String suffix,
+                                 final MasterFactory single,
+                                 final MasterFactory batch)
+                                     throws BrumaException, IOException {
+        Master mst = (Master)single.forceCreate();
+
+        for (Record rec : records()) {
+            mst.writeRecord(rec);
+        }
+        mst.close();
+
+        mst = (Master)batch.forceCreate();
+        assertEquals(records().size(), mst.writeRecords(records()));
+        assertFalse(mst.isBatch());
+        mst.close();
+
+        assertSameFiles("single" + suffix, "batch" + suffix);
+    }
+
+    @Test
+    public void batchFilesAreTheSameAsSingleWriteFiles()
+                                        throws BrumaException, IOException {
+        checkBatchFiles("", factory("single"), factory("batch"));
+    }
+
+    @Test
+    public void batchFilesWithNotBufferedXrf()
+                                        throws BrumaException, IOException {
+        checkBatchFiles("File", factory("singleFile").setInMemoryXrf(false),
+                                factory("batchFile").setInMemoryXrf(false));
+    }
+
+    @Test
+    public void batchFilesWithPreloadedXrf()
+                                        throws BrumaException, IOException {
+        checkBatchFiles("Pre", factory("singlePre").setXrfPreload(true),
+                                factory("batchPre").setXrfPreload(true));
+    }
+
+    @Test
+    public void recordsAreReadInsideTheBatch() throws BrumaException {
+        final MasterFactory factory = factory("inside");
+        Master mst = (Master)factory.forceCreate();
+
+        mst.beginBatch();
+        assertTrue(mst.isBatch());
+        for (int mfn = 1; mfn <= 100; mfn++) {
+            assertEquals(mfn, mst.writeRecord(
+                          new Record().addField(1, content(mfn, 0))));
+            assertEquals(content(mfn, 0),
+                         mst.getRecord(mfn).getField(1, 1).getContent());
+        }
+        assertEquals(101, mst.getControlRecord().getNxtmfn());
+        mst.commit();
+        assertFalse(mst.isBatch());
+        mst.close();
+
+        mst = factory.open();
+        assertEquals(101, mst.getControlRecord().getNxtmfn());
+        for (int mfn = 1; mfn <= 100; mfn++) {
+            assertEquals(content(mfn, 0),
+                         mst.getRecord(mfn).getField(1, 1).getContent());
+        }
+        mst.close();
+    }
+
+    @Test
+    public void closeCommitsTheBatch() throws BrumaException {
+        final MasterFactory factory = factory("close");
+        Master mst = (Master)factory.forceCreate();
+
+        mst.beginBatch();
+        for (int mfn = 1; mfn <= 10; mfn++) {
+            mst.writeRecord(new Record().addField(1, content(mfn, 0)));
+        }
+        mst.close();
+
+        mst = factory.open();
+        assertEquals(11, mst.getControlRecord().getNxtmfn());
+        assertEquals(content(10, 0),
+                     mst.getRecord(10).getField(1, 1).getContent());
+        mst.close();
+    }
+
+    @Test(expected = BrumaException.class)
+    public void nestedBatchIsRefused() throws BrumaException {
+        final Master mst = (Master)factory("nested").forceCreate();
+
+        try {
+            mst.beginBatch();
+            mst.beginBatch();
+        } finally {
+            mst.close();
+        }
+    }
+
+    /**
+     * The master bytes of a batch can not be written (its channel is
+     * closed). The batch is discarded and the master can still be written.
+     * Record 5 is rewritten before new records of the third xrf block, so
+     * a buffered xrf writes the first block in the batch.
+     */
+    private void checkFailedCommit(final MasterFactory factory)
+                                                            throws Exception {
+        final Field fcField = Master.class.getDeclaredField("fc");
+        final int last = 300;
+        Master mst = (Master)factory.forceCreate();
+
+        fcField.setAccessible(true);
+        for (int mfn = 1; mfn <= last; mfn++) {
+            mst.writeRecord(new Record().addField(1, content(mfn, 0)));
+        }
+        mst.beginBatch();
+        mst.writeRecord(new Record().setMfn(5).addField(1, content(5, 1))
+                                              .addField(2, content(5, 2)));
+        for (int mfn = last + 1; mfn <= last + 10; mfn++) {
+            mst.writeRecord(new Record().addField(1, content(mfn, 0)));
+        }
+
+        final Object fc = fcField.get(mst);
+        final RandomAccessFile closed = new RandomAccessFile(
+                                     new File(dir, "closed.tmp"), "rw");
+        closed.close();
+        fcField.set(mst, closed.getChannel());
+        try {
+            mst.commit();
+            fail("commit should fail");
+        } catch (BrumaException zex) {
+            // expected
+        } finally {
+            fcField.set(mst, fc);
+        }
+        assertFalse(mst.isBatch());
+        assertEquals(last + 1, mst.getControlRecord().getNxtmfn());
+        assertEquals(content(5, 0),
+                     mst.getRecord(5).getField(1, 1).getContent());
+
+        mst.beginBatch();
+        for (int mfn = last + 1; mfn <= last + 10; mfn++) {
+            assertEquals(mfn, mst.writeRecord(
+                          new Record().addField(1, content(mfn, 1))));
+        }
+        mst.commit();
+        assertEquals(last + 11, mst.writeRecord(
+                          new Record().addField(1, content(last + 11, 1))));
+        mst.close();
+
+        mst = factory.open();
+        assertEquals(last + 12, mst.getControlRecord().getNxtmfn());
+        assertEquals(content(5, 0),
+                     mst.getRecord(5).getField(1, 1).getContent());
+        for (int mfn = last + 1; mfn <= last + 11; mfn++) {
+            assertEquals(content(mfn, 1),
+                         mst.getRecord(mfn).getField(1, 1).getContent());
+        }
+        mst.close();
+    }
+
+    @Test
+    public void failedCommit() throws Exception {
+        checkFailedCommit(factory("failed"));
+    }
+
+    @Test
+    public void failedCommitWithNotBufferedXrf() throws Exception {
+        checkFailedCommit(factory("failedFile").setInMemoryXrf(false));
+    }
+
+    @Test
+    public void failedCommitWithPreloadedXrf() throws Exception {
+        checkFailedCommit(factory("failedPre").setXrfPreload(true));
+    }
+
+    /**
+     * Concurrent readers of the same master read the records being written
+     * in batch mode. Depending on the xrf the pointers are visible before
+     * the commit or not, but a visible pointer must never lead to master
+     * bytes still in the batch buffer.
+     */
+    private void checkConcurrentReaders(final MasterFactory factory)
+                                   throws BrumaException, InterruptedException {
+        final int total = 20000;
+        final Master mst;
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicInteger seen = new AtomicInteger();
+        final AtomicReference<String> error = new AtomicReference<String>();
+        final Thread[] readers = new Thread[4];
+
+        ((Master)factory.forceCreate()).close();
+        mst = factory.setConcurrentReads(true).open();
+        for (int idx = 0; idx < readers.length; idx++) {
+            final int first = idx + 1;
+
+            readers[idx] = new Thread() {
+                @Override
+                public void run() {
+                    while (!done.get() && (error.get() == null)) {
+                        final int last = seen.get();
+
+                        for (int mfn = first; mfn <= last; mfn += 7) {
+                            check(mfn);
+                        }
+                    }
+                }
+
+                private void check(final int mfn) {
+                    try {
+                        mst.getXrf().readXrfInfoConcurrent(mfn);
+                    } catch (BrumaException zex) {
+                        return;    // pointer not visible yet
+                    }
+                    try {
+                        final String value =
+                             mst.getRecord(mfn).getField(1, 1).getContent();
+                        if (!value.equals(content(mfn, 0))) {
+                            error.compareAndSet(null, mfn + ": " + value);
+                        }
+                    } catch (BrumaException zex) {
+                        error.compareAndSet(null, mfn + ": " + zex);
+                    }
+                }
+            };
+            readers[idx].start();
+        }
+        try {
+            mst.beginBatch();
+            for (int mfn = 1; mfn <= total; mfn++) {
+                mst.writeRecord(new Record().addField(1, content(mfn, 0)));
+                seen.set(mfn);
+            }
+            mst.commit();
+        } finally {
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            mst.close();
+        }
+        assertNull(error.get());
+    }
+
+    @Test
+    public void concurrentReadersWithPreloadedXrf()
+                                   throws BrumaException, InterruptedException {
+        checkConcurrentReaders(factory("concPre").setXrfPreload(true));
+    }
+
+    @Test
+    public void concurrentReadersWithMappedMaster()
+                                   throws BrumaException, InterruptedException {
+        checkConcurrentReaders(factory("concMap").setMemoryMapped(true));
+    }
+
+    @Test
+    public void concurrentReadersWithBufferedXrf()
+                                   throws BrumaException, InterruptedException {
+        checkConcurrentReaders(factory("concBuf").setInMemoryXrf(true));
+    }
+}
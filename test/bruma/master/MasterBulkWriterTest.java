@@ -0,0 +1,163 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * MasterBulkWriter masters read back by Master.getRecord(): active, logically
+ * and physically deleted records, with next and explicit mfns leaving gaps.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class MasterBulkWriterTest {
+    private static final int LAST = 500;
+
+    private File dir;
+    private Record.Status[] status;   // expected status, index = mfn
+    private String[] contents;        // expected field 1, index = mfn
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TempDir.create("bulk");
+        status = new Record.Status[LAST + 1];
+        contents = new String[LAST + 1];
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    private MasterFactory factory(final String name) throws BrumaException {
+        return MasterFactory.getInstance(new File(dir, name).getPath())
+                            .setEncoding("ISO-8859-1");
+    }
+
+    private static String content(final int mfn) {
+        final StringBuilder builder = new StringBuilder();
+
+        builder.append(mfn).append(':');
+        for (int idx = 0; idx < (mfn * 37) % 1500; idx++) {
+            builder.append((char)('a' + (idx % 26)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes a record and keeps what getRecord() should read.
+     * @param mfn record mfn or zero for the next one
+     * @param stat record status
+     */
+    private void write(final MasterBulkWriter writer,
+                       final int mfn,
+                       final Record.Status stat) throws BrumaException {
+        final int next = writer.getNextMfn();
+        final int expected = (mfn == 0) ? next : mfn;
+        final Record rec = new Record().setMfn(mfn);
+
+        if (stat != Record.Status.PHYDEL) {
+            rec.addField(1, content(expected));
+        }
+        rec.setStatus(stat);
+        assertEquals(expected, writer.write(rec));
+        for (int gap = next; gap < expected; gap++) {
+            status[gap] = Record.Status.PHYDEL;
+        }
+        status[expected] = stat;
+        contents[expected] = (stat == Record.Status.PHYDEL) ? null
+                                                          : content(expected);
+        assertEquals(expected + 1, writer.getNextMfn());
+    }
+
+    private void check(final MasterFactory factory) throws BrumaException {
+        final MasterBulkWriter writer = factory.forceCreateBulkWriter();
+
+        for (int mfn = 1; mfn <= 5; mfn++) {
+            write(writer, 0, Record.Status.ACTIVE);
+        }
+        write(writer, 0, Record.Status.PHYDEL);       // 6
+        write(writer, 9, Record.Status.PHYDEL);       // 7 and 8 left out
+        write(writer, 12, Record.Status.ACTIVE);      // 10 and 11 left out
+        write(writer, 0, Record.Status.LOGDEL);       // 13
+        while (writer.getNextMfn() < 300) {           // next xrf blocks
+            write(writer, 0, (writer.getNextMfn() % 10 == 0)
+                           ? Record.Status.LOGDEL : Record.Status.ACTIVE);
+        }
+        write(writer, 400, Record.Status.PHYDEL);     // gap over a block
+        write(writer, 0, Record.Status.ACTIVE);       // 401
+        write(writer, 450, Record.Status.PHYDEL);
+        write(writer, LAST, Record.Status.ACTIVE);
+        writer.close();
+
+        final Master mst = factory.open();
+
+        try {
+            assertEquals(LAST + 1, mst.getControlRecord().getNxtmfn());
+            for (int mfn = 1; mfn <= LAST; mfn++) {
+                final Record rec = mst.getRecord(mfn);
+
+                assertEquals("mfn=" + mfn, status[mfn], rec.getStatus());
+                if (contents[mfn] == null) {
+                    assertEquals("mfn=" + mfn, 0, rec.getNvf());
+                } else {
+                    assertEquals("mfn=" + mfn, contents[mfn],
+                                           rec.getField(1, 1).getContent());
+                }
+            }
+        } finally {
+            mst.close();
+        }
+    }
+
+    @Test
+    public void roundTrip() throws BrumaException {
+        check(factory("isis"));
+    }
+
+    @Test
+    public void roundTripFFI() throws BrumaException {
+        check(factory("ffi").setFFI(true));
+    }
+
+    @Test
+    public void roundTripSwapped() throws BrumaException {
+        check(factory("swapped").setSwapped(true));
+    }
+
+    @Test
+    public void roundTripShift() throws BrumaException {
+        check(factory("shift").setMaxGigaSize(16));
+    }
+
+    @Test
+    public void roundTripFFISwappedShift() throws BrumaException {
+        check(factory("all").setFFI(true).setSwapped(true).setMaxGigaSize(8));
+    }
+}
@@ -0,0 +1,220 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MasterSearch raw byte search of Master objects, checked against the record
+ * by record search of other MasterInterface objects.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class MasterSearchTest {
+    private static final int RECORDS = 3000;
+    private static final String[] WORDS = {"malaria", "Malaria", "dengue",
+        "colour", "color", "1984", "2011", "zika", "S\u00e3o Paulo", "a.b",
+        "febre amarela", "MALARIA"};
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TempDir.create("search");
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    private Master create(final String name,
+                          final String encoding) throws BrumaException {
+        final Master mst = (Master)MasterFactory.getInstance(
+                                        new File(dir, name).getPath())
+                                        .setEncoding(encoding).forceCreate();
+        final Random random = new Random(name.hashCode());
+
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            final Record rec = new Record();
+
+            for (int tag = 10; tag <= 30; tag += 10) {
+                final StringBuilder builder = new StringBuilder();
+
+                for (int idx = random.nextInt(4); idx > 0; idx--) {
+                    builder.append(WORDS[random.nextInt(WORDS.length)])
+                           .append(' ');
+                }
+                builder.append(mfn);
+                rec.addField(tag, builder.toString());
+            }
+            mst.writeRecord(rec);
+        }
+        mst.deleteRecord(7);
+
+        return mst;
+    }
+
+    private static Set<Integer> tags(final Integer... tags) {
+        return new HashSet<Integer>(Arrays.asList(tags));
+    }
+
+    /**
+     * The hits of the raw search of a Master (views, automaton and required
+     * literals) must be the ones of the record by record search.
+     */
+    private static void check(final Master mst,
+                              final MasterSearch search,
+                              final int maxHits) throws BrumaException {
+        final MasterInterface other =
+                      new CachedMaster(mst, new ClockRecordCache(1 << 20));
+        final List<Integer> expected = search.search(other, maxHits);
+
+        assertEquals(expected, search.search(mst, maxHits));
+        assertEquals(expected, search.setThreads(1).search(mst, maxHits));
+    }
+
+    private void checkMixed(final String encoding) throws BrumaException {
+        final Master mst = create("mixed" + encoding, encoding);
+
+        try {
+            check(mst, new MasterSearch().addLiteral("dengue", tags(20))
+                                 .addRegExp("^colou?r [0-9]+$", tags(10)),
+                                                                  RECORDS);
+            check(mst, new MasterSearch().addLiteral("zika", tags(30))
+                                         .addRegExp("malaria 2[0-9]{3}"),
+                                                                  RECORDS);
+            check(mst, new MasterSearch().addLiteral("zika", tags(30))
+                                         .addRegExp("malaria 2[0-9]{3}")
+                                         .setIgnoreCase(true), RECORDS);
+            check(mst, new MasterSearch().addRegExp("S\u00e3o Paulo 1\\d+")
+                                         .addRegExp("a\\.b 19", tags(20)),
+                                                                  RECORDS);
+            check(mst, new MasterSearch().addRegExp("febre +amarela (1|2)")
+                                         .addLiteral("1984 2011"), 50);
+            check(mst, new MasterSearch().addRegExp("dengue|zika", tags(10)),
+                                                                  RECORDS);
+        } finally {
+            mst.close();
+        }
+    }
+
+    @Test
+    public void mixedLiteralAndRegExpQueries() throws BrumaException {
+        checkMixed("ISO-8859-1");
+    }
+
+    @Test
+    public void mixedLiteralAndRegExpQueriesUtf8() throws BrumaException {
+        checkMixed("UTF-8");
+    }
+
+    @Test
+    public void requiredLiterals() {
+        assertEquals("19", MasterSearch.requiredLiteral("^19[0-9]{2}$"));
+        assertEquals("mala", MasterSearch.requiredLiteral("mala+ria"));
+        assertEquals("colo", MasterSearch.requiredLiteral("colou?r"));
+        assertEquals("yz", MasterSearch.requiredLiteral("x{2,3}yz"));
+        assertEquals("zz", MasterSearch.requiredLiteral("[a[b]]zz"));
+        assertEquals(".com", MasterSearch.requiredLiteral("\\.com$"));
+        assertEquals("ab", MasterSearch.requiredLiteral("ab(c|d)ef"));
+        assertNull(MasterSearch.requiredLiteral("(?i)abc"));
+        assertNull(MasterSearch.requiredLiteral("abc|d"));
+        assertNull(MasterSearch.requiredLiteral("\\x41bc"));
+        assertNull(MasterSearch.requiredLiteral("\\Qabc\\E"));
+        assertNull(MasterSearch.requiredLiteral("[0-9]+"));
+    }
+
+    /**
+     * Random expressions: any string matched by an expression contains its
+     * required literal.
+     */
+    @Test
+    public void requiredLiteralIsInEveryMatch() {
+        final String[] atoms = {"a", "b", "c", "ab", ".", "\\.", "[ab]",
+            "[^a]", "(ab|c)", "(a)", "x", "^", "$", "\\d", "\\w", "|",
+            "[a[b]]", "\\\\", "\\t", "\\x61", "\\pL", "\\1"};
+        final String[] quants = {"", "", "", "?", "*", "+", "{2}", "{0,1}",
+                                                                "+?", "*?"};
+        final String chars = "abcABx.\\\t1 ";
+        final Random random = new Random(1);
+        int checked = 0;
+
+        for (int count = 0; count < 20000; count++) {
+            final StringBuilder builder = new StringBuilder();
+
+            for (int idx = random.nextInt(6); idx >= 0; idx--) {
+                builder.append(atoms[random.nextInt(atoms.length)])
+                       .append(quants[random.nextInt(quants.length)]);
+            }
+            final String expression = builder.toString();
+            final boolean ignoreCase = random.nextBoolean();
+            final Pattern pattern;
+
+            try {
+                pattern = Pattern.compile(expression,
+                                  ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+            } catch (Exception ex) {
+                continue;
+            }
+            final String literal = MasterSearch.requiredLiteral(expression);
+
+            if (literal == null) {
+                continue;
+            }
+            assertFalse(literal.isEmpty());
+            for (int str = 0; str < 20; str++) {
+                final StringBuilder text = new StringBuilder();
+
+                for (int idx = random.nextInt(10); idx > 0; idx--) {
+                    text.append(chars.charAt(random.nextInt(chars.length())));
+                }
+                final String content = text.toString();
+
+                if (pattern.matcher(content).find()) {
+                    assertTrue(expression + " " + literal + " " + content,
+                            ignoreCase ? content.toLowerCase().contains(
+                                                      literal.toLowerCase())
+                                       : content.contains(literal));
+                    checked++;
+                }
+            }
+        }
+        assertTrue(checked > 1000);
+    }
+}
@@ -0,0 +1,280 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * MemoryXrfFile pointers in memory and in the file: auto commit, flush,
+ * batch mode and growth across the 127 pointers blocks.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class MemoryXrfFileTest {
+    private static final int NR = XrfFile.XRF_NRINBUFFER;
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TempDir.create("memxrf");
+        file = new File(dir, "test.xrf");
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    private static XrfFile.XrfInfo info(final XrfFile xrf,
+                                        final int mfn,
+                                        final int version) {
+        return xrf.new XrfInfo(mfn, 1 + mfn / 4 + version,
+                          (mfn * 8) % 512, Record.Status.ACTIVE,
+                          Record.ActiveStatus.NORMAL);
+    }
+
+    private static int packed(final XrfFile xrf,
+                              final int mfn,
+                              final int version) throws BrumaException {
+        return xrf.packXrfInfo(info(xrf, mfn, version));
+    }
+
+    /**
+     * @return the int at a file position or 0 if it is past the end
+     */
+    private int fileInt(final long pos) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            if (pos + 4 > raf.length()) {
+                return 0;
+            }
+            raf.seek(pos);
+            return raf.readInt();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private int filePointer(final int mfn) throws IOException {
+        return fileInt(((mfn - 1) / NR) * (long)XrfFile.XRF_BLOCKSIZE
+                       + (((mfn - 1) % NR) + 1) * XrfFile.XRF_PTRSIZE);
+    }
+
+    /**
+     * Checks the block headers: block numbers, the last one negative.
+     */
+    private void checkHeaders(final int blocks) throws IOException {
+        assertEquals(blocks * (long)XrfFile.XRF_BLOCKSIZE, file.length());
+        for (int blk = 1; blk <= blocks; blk++) {
+            assertEquals((blk == blocks) ? -blk : blk,
+                         fileInt((blk - 1) * (long)XrfFile.XRF_BLOCKSIZE));
+        }
+    }
+
+    private void checkFile(final XrfFile xrf,
+                           final int first,
+                           final int last,
+                           final int version)
+                                          throws IOException, BrumaException {
+        for (int mfn = first; mfn <= last; mfn++) {
+            assertEquals("mfn=" + mfn, packed(xrf, mfn, version),
+                                                         filePointer(mfn));
+        }
+    }
+
+    private static void checkMemory(final XrfFile xrf,
+                                    final int first,
+                                    final int last,
+                                    final int version)
+                                                        throws BrumaException {
+        for (int mfn = first; mfn <= last; mfn++) {
+            final XrfFile.XrfInfo info = xrf.readXrfInfo(mfn);
+
+            assertEquals("mfn=" + mfn, 1 + mfn / 4 + version,
+                                                          info.getBlock());
+            assertEquals("mfn=" + mfn, (mfn * 8) % 512, info.getOffset());
+        }
+    }
+
+    @Test
+    public void autoCommitWritesEachPointer()
+                                          throws IOException, BrumaException {
+        final MemoryXrfFile xrf = new MemoryXrfFile(file.getPath(), 0, false,
+                                                    true, true);
+
+        try {
+            for (int mfn = 1; mfn <= 2 * NR + 50; mfn++) {
+                xrf.writeXrfInfo(info(xrf, mfn, 0));
+                assertEquals("mfn=" + mfn, packed(xrf, mfn, 0),
+                                                         filePointer(mfn));
+                if ((mfn == NR - 1) || (mfn == NR) || (mfn == NR + 1)) {
+                    checkHeaders((mfn < NR) ? 1 : 2);
+                }
+            }
+            checkHeaders(3);
+            checkFile(xrf, 1, 2 * NR + 50, 0);
+            checkMemory(xrf, 1, 2 * NR + 50, 0);
+        } finally {
+            xrf.close();
+        }
+    }
+
+    @Test
+    public void pointersAreWrittenOnFlush()
+                                          throws IOException, BrumaException {
+        final MemoryXrfFile xrf = new MemoryXrfFile(file.getPath(), 0, false,
+                                                    true, false);
+
+        try {
+            for (int mfn = 1; mfn <= 2 * NR + 50; mfn++) {
+                xrf.writeXrfInfo(info(xrf, mfn, 0));
+            }
+            checkHeaders(1);
+            assertEquals(0, filePointer(1));
+            checkMemory(xrf, 1, 2 * NR + 50, 0);
+            xrf.flush();
+            checkHeaders(3);
+            checkFile(xrf, 1, 2 * NR + 50, 0);
+        } finally {
+            xrf.close();
+        }
+    }
+
+    @Test
+    public void batchIsWrittenOnCommitAndDroppedOnAbort()
+                                          throws IOException, BrumaException {
+        final MemoryXrfFile xrf = new MemoryXrfFile(file.getPath(), 0, false,
+                                                    true, true);
+
+        try {
+            for (int mfn = 1; mfn <= 100; mfn++) {
+                xrf.writeXrfInfo(info(xrf, mfn, 0));
+            }
+            xrf.beginBatch();
+            for (int mfn = 101; mfn <= 2 * NR + 50; mfn++) {
+                xrf.writeXrfInfo(info(xrf, mfn, 0));
+            }
+            assertTrue(xrf.inBatch());
+            checkHeaders(1);
+            assertEquals(0, filePointer(101));
+            checkMemory(xrf, 1, 2 * NR + 50, 0);
+            xrf.commitBatch();
+            checkHeaders(3);
+            checkFile(xrf, 1, 2 * NR + 50, 0);
+
+            // Rewrites a pointer and crosses the next block, then aborts.
+            xrf.beginBatch();
+            xrf.writeXrfInfo(info(xrf, 5, 1));
+            for (int mfn = 2 * NR + 51; mfn <= 3 * NR + 10; mfn++) {
+                xrf.writeXrfInfo(info(xrf, mfn, 0));
+            }
+            checkMemory(xrf, 5, 5, 1);
+            xrf.abortBatch(2 * NR + 50);
+            checkMemory(xrf, 1, 2 * NR + 50, 0);
+            try {
+                xrf.readXrfInfo(2 * NR + 51);
+                fail("pointer of an aborted batch");
+            } catch (BrumaException zex) {
+                // expected
+            }
+            checkHeaders(3);
+            checkFile(xrf, 1, 2 * NR + 50, 0);
+        } finally {
+            xrf.close();
+        }
+    }
+
+    /**
+     * Readers copy blocks and read pointers without locking while the
+     * writer grows the array across many blocks.
+     */
+    @Test
+    public void readersSeeGrownBlocks()
+                                   throws BrumaException, InterruptedException {
+        final int total = 100 * NR;
+        final MemoryXrfFile xrf = new MemoryXrfFile(file.getPath(), 0, false,
+                                                    true, false);
+        final AtomicInteger seen = new AtomicInteger();
+        final AtomicReference<Throwable> error =
+                                           new AtomicReference<Throwable>();
+        final Thread[] readers = new Thread[4];
+
+        try {
+            for (int idx = 0; idx < readers.length; idx++) {
+                readers[idx] = new Thread() {
+                    @Override
+                    public void run() {
+                        final int[] out = new int[NR];
+
+                        try {
+                            while (seen.get() < total) {
+                                final int last = seen.get();
+
+                                if (last == 0) {
+                                    continue;
+                                }
+                                final int blk = (last - 1) / NR;
+                                if (!xrf.readBlock(blk, out)) {
+                                    throw new AssertionError("block " + blk);
+                                }
+                                assertEquals(packed(xrf, last, 0),
+                                             out[(last - 1) % NR]);
+                                assertEquals(1 + last / 4,
+                                        xrf.readXrfInfo(last).getBlock());
+                            }
+                        } catch (Throwable thr) {
+                            error.compareAndSet(null, thr);
+                        }
+                    }
+                };
+                readers[idx].start();
+            }
+            for (int mfn = 1; mfn <= total; mfn++) {
+                xrf.writeXrfInfo(info(xrf, mfn, 0));
+                seen.set(mfn);
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            assertNull(String.valueOf(error.get()), error.get());
+            checkMemory(xrf, 1, total, 0);
+        } finally {
+            xrf.close();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * OffHeapMaster records checked against the ones of the Master they were
+ * loaded from, and snapshots read back by Master.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class OffHeapMasterTest {
+    private static final int RECORDS = 400;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TempDir.create("offheap");
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    private String path(final String name) {
+        return new File(dir, name).getPath();
+    }
+
+    private MasterFactory factory(final String name) throws BrumaException {
+        return MasterFactory.getInstance(path(name))
+                            .setEncoding("ISO-8859-1");
+    }
+
+    /**
+     * Record content of a version: all characters of the second field are
+     * the same, so a record mixing two versions is detected.
+     */
+    private static Record record(final int mfn,
+                                 final int version) throws BrumaException {
+        final StringBuilder builder = new StringBuilder();
+        final char ch = (char)('a' + (version % 26));
+
+        for (int idx = (version * 101) % 3000; idx >= 0; idx--) {
+            builder.append(ch);
+        }
+        return new Record().setMfn(mfn)
+                           .addField(1, Integer.toString(version))
+                           .addField(2, builder.toString())
+                           .addField(3, "^a\u00e7\u00e3o^b" + mfn);
+    }
+
+    private static void checkRecord(final Record rec) throws BrumaException {
+        final int version = Integer.parseInt(rec.getField(1, 1).getContent());
+        final String content = rec.getField(2, 1).getContent();
+
+        assertEquals(record(0, version).getField(2, 1).getContent(), content);
+    }
+
+    /**
+     * Writes a master with active, logically and physically deleted records.
+     */
+    private void create(final MasterFactory factory) throws BrumaException {
+        final MasterBulkWriter writer = factory.forceCreateBulkWriter();
+
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            final Record rec = record(mfn, mfn);
+
+            if (mfn % 50 == 0) {
+                rec.setStatus(Record.Status.PHYDEL);
+            } else if (mfn % 7 == 0) {
+                rec.setStatus(Record.Status.LOGDEL);
+            }
+            writer.write(rec);
+        }
+        writer.close();
+    }
+
+    private static void compare(final MasterInterface expected,
+                                final MasterInterface mst)
+                                                        throws BrumaException {
+        final int next = expected.getControlRecord().getNxtmfn();
+
+        assertEquals(next, mst.getControlRecord().getNxtmfn());
+        for (int mfn = 1; mfn < next; mfn++) {
+            assertEquals("mfn=" + mfn, expected.getRecord(mfn).toString(),
+                                               mst.getRecord(mfn).toString());
+        }
+    }
+
+    private void roundTrip(final String name,
+                           final boolean ffi,
+                           final boolean swapped) throws BrumaException {
+        final MasterFactory factory = factory(name).setFFI(ffi)
+                                                   .setSwapped(swapped);
+        create(factory);
+
+        final Master mst = factory.open();
+        final OffHeapMaster offHeap = factory.openOffHeap();
+
+        try {
+            compare(mst, offHeap);
+            assertEquals(mst.getMaxRecSize(), offHeap.getMaxRecSize());
+
+            final Iterator<Record> iter = offHeap.iterator(true);
+            for (int mfn = 1; mfn <= RECORDS; mfn++) {
+                assertTrue(iter.hasNext());
+                assertEquals(mst.getRecord(mfn).toString(),
+                                                     iter.next().toString());
+            }
+            assertFalse(iter.hasNext());
+
+            offHeap.snapshot(path(name + "Copy"));
+            final Master snapshot = factory(name + "Copy").open();
+
+            assertEquals(ffi, snapshot.isFFI());
+            assertEquals(swapped, snapshot.isSwapped());
+            try {
+                compare(mst, snapshot);
+            } finally {
+                snapshot.close();
+            }
+        } finally {
+            offHeap.close();
+            mst.close();
+        }
+    }
+
+    @Test
+    public void roundTrip() throws BrumaException {
+        roundTrip("isis", false, false);
+    }
+
+    @Test
+    public void roundTripFFI() throws BrumaException {
+        roundTrip("ffi", true, false);
+    }
+
+    @Test
+    public void roundTripSwapped() throws BrumaException {
+        roundTrip("swapped", false, true);
+    }
+
+    /**
+     * Records replaced by smaller (written over) and larger (appended)
+     * versions, deleted records and compact().
+     */
+    @Test
+    public void replaceDeleteAndCompact() throws BrumaException {
+        final OffHeapMaster offHeap = factory("mem").createOffHeap();
+        final Record[] expected = new Record[RECORDS + 1];
+        final Random random = new Random(24);
+
+        try {
+            for (int mfn = 1; mfn <= RECORDS; mfn++) {
+                expected[mfn] = record(0, mfn);
+                assertEquals(mfn, offHeap.writeRecord(expected[mfn]));
+            }
+            for (int count = 0; count < 2000; count++) {
+                final int mfn = 1 + random.nextInt(RECORDS);
+                final int op = random.nextInt(20);
+
+                if (op == 0) {
+                    expected[mfn] = new Record().setMfn(mfn);
+                    expected[mfn].setStatus(Record.Status.PHYDEL);
+                    offHeap.writeRecord(expected[mfn]);
+                } else if ((op == 1) && (expected[mfn].getStatus()
+                                                == Record.Status.ACTIVE)) {
+                    offHeap.deleteRecord(mfn);
+                    expected[mfn].setStatus(Record.Status.LOGDEL);
+                } else {
+                    expected[mfn] = record(mfn, random.nextInt(1000));
+                    offHeap.writeRecord(expected[mfn]);
+                }
+            }
+            assertTrue(offHeap.getWastedBytes() > 0);
+            check(expected, offHeap);
+
+            offHeap.compact();
+            assertEquals(0, offHeap.getWastedBytes());
+            check(expected, offHeap);
+
+            offHeap.snapshot(path("memCopy"));
+            final Master snapshot = factory("memCopy").open();
+            try {
+                compare(offHeap, snapshot);
+            } finally {
+                snapshot.close();
+            }
+        } finally {
+            offHeap.close();
+        }
+    }
+
+    private static void check(final Record[] expected,
+                              final OffHeapMaster offHeap)
+                                                        throws BrumaException {
+        assertEquals(expected.length, offHeap.getControlRecord().getNxtmfn());
+        for (int mfn = 1; mfn < expected.length; mfn++) {
+            final Record rec = offHeap.getRecord(mfn);
+
+            assertEquals("mfn=" + mfn, expected[mfn].getStatus(),
+                                                             rec.getStatus());
+            assertEquals("mfn=" + mfn, expected[mfn].getFields().toString(),
+                                                 rec.getFields().toString());
+        }
+    }
+
+    /**
+     * Readers never see a record mixing two versions while a writer replaces
+     * records in place and appends larger versions.
+     */
+    @Test
+    public void concurrentReads() throws Exception {
+        final OffHeapMaster offHeap = factory("concurrent").createOffHeap();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<Throwable> error =
+                                           new AtomicReference<Throwable>();
+        final Thread[] readers = new Thread[4];
+
+        try {
+            for (int mfn = 1; mfn <= RECORDS; mfn++) {
+                offHeap.writeRecord(record(0, mfn));
+            }
+            for (int idx = 0; idx < readers.length; idx++) {
+                final int seed = idx;
+
+                readers[idx] = new Thread() {
+                    @Override
+                    public void run() {
+                        final Random random = new Random(seed);
+                        Record rec = null;
+
+                        try {
+                            while (!done.get()) {
+                                rec = offHeap.getRecord(
+                                           1 + random.nextInt(RECORDS), rec);
+                                checkRecord(rec);
+                            }
+                        } catch (Throwable thr) {
+                            error.compareAndSet(null, thr);
+                        }
+                    }
+                };
+                readers[idx].start();
+            }
+            final Random random = new Random(42);
+            for (int count = 0; count < 5000; count++) {
+                offHeap.writeRecord(record(1 + random.nextInt(RECORDS),
+                                           random.nextInt(1000)));
+            }
+        } finally {
+            done.set(true);
+            for (Thread reader : readers) {
+                if (reader != null) {
+                    reader.join();
+                }
+            }
+            offHeap.close();
+        }
+        assertNull(String.valueOf(error.get()), error.get());
+    }
+}
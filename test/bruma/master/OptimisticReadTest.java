@@ -0,0 +1,215 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Optimistic record reads of multiuser masters.
+ * Multiuser mode can not be set by MasterFactory yet, so the tests give the
+ * master its Lock directly.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class OptimisticReadTest {
+    private static final String ENCODING = "ISO-8859-1";
+    private static final int RECORDS = 40;
+    private static final int LENGTH = 30000;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = TempDir.create("optimistic");
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    /**
+     * Record content of a version: all characters are the same so a record
+     * mixing two versions is detected.
+     */
+    private static String content(final int version) {
+        final StringBuilder builder = new StringBuilder(LENGTH);
+        final char ch = (char)('a' + (version % 26));
+
+        for (int idx = 0; idx < LENGTH; idx++) {
+            builder.append(ch);
+        }
+        return builder.toString();
+    }
+
+    private static Record record(final int mfn,
+                                 final int version) throws BrumaException {
+        return new Record().setMfn(mfn)
+                           .addField(1, Integer.toString(version % 26))
+                           .addField(2, content(version));
+    }
+
+    private MasterFactory factory(final String name) throws BrumaException {
+        return MasterFactory.getInstance(new File(dir, name).getPath())
+                            .setEncoding(ENCODING)
+                            .setInMemoryXrf(false);
+    }
+
+    /**
+     * Creates the master and opens it as a multiuser reader.
+     */
+    private Master open(final String name,
+                        final boolean optimistic,
+                        final boolean mapped) throws Exception {
+        final Master created = (Master)factory(name).forceCreate();
+
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            created.writeRecord(record(mfn, mfn));
+        }
+        created.close();
+
+        return multiuser(factory(name).setOptimisticReads(optimistic)
+                                      .setMemoryMapped(mapped)
+                                      .setConcurrentReads(true)
+                                      .open());
+    }
+
+    private static Master multiuser(final Master mst) throws Exception {
+        final Field field = Master.class.getDeclaredField("lock");
+
+        field.setAccessible(true);
+        field.set(mst, new Lock(mst));
+
+        return mst;
+    }
+
+    private static void checkRecord(final Record rec) throws BrumaException {
+        final int version = Integer.parseInt(rec.getField(1, 1).getContent());
+
+        assertEquals("mfn=" + rec.getMfn(), content(version),
+                     rec.getField(2, 1).getContent());
+    }
+
+    @Test
+    public void optimisticReadsAreTheSameAsLockedReads() throws Exception {
+        final Master locked = open("locked", false, false);
+        final Master optimistic = open("optimistic", true, false);
+
+        try {
+            for (int mfn = 1; mfn <= RECORDS; mfn++) {
+                final Record rec = optimistic.getRecord(mfn);
+
+                checkRecord(rec);
+                assertEquals(locked.getRecord(mfn).toString(), rec.toString());
+            }
+        } finally {
+            optimistic.close();
+            locked.close();
+        }
+    }
+
+    /**
+     * Readers read the records while another multiuser master of the same
+     * files rewrites them in place (same size) and, from time to time, moves
+     * them to the end of the file. No reader may see a record mixing two
+     * versions.
+     */
+    private void checkConcurrentRewrites(final boolean mapped)
+                                                            throws Exception {
+        final String name = mapped ? "mapped" : "plain";
+        final Master mst = open(name, true, mapped);
+        final Master writer = multiuser(factory(name).open());
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicReference<Throwable> error =
+                                           new AtomicReference<Throwable>();
+        final Thread[] readers = new Thread[4];
+
+        try {
+            for (int idx = 0; idx < readers.length; idx++) {
+                final int first = idx + 1;
+
+                readers[idx] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (!done.get()) {
+                                for (int mfn = first; mfn < RECORDS;
+                                                        mfn += readers.length) {
+                                    checkRecord(mst.getRecord(mfn));
+                                    reads.incrementAndGet();
+                                }
+                            }
+                        } catch (Throwable thr) {
+                            error.compareAndSet(null, thr);
+                        }
+                    }
+                };
+                readers[idx].start();
+            }
+            // The last record is not rewritten, its in place update is not
+            // covered here.
+            for (int version = 0; version < 30; version++) {
+                for (int mfn = 1; mfn < RECORDS; mfn++) {
+                    final Record rec = record(mfn, mfn + version);
+
+                    if ((mfn + version) % 50 == 0) {
+                        rec.addField(3, "moved");
+                    }
+                    writer.writeRecord(rec);
+                }
+            }
+        } finally {
+            done.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            writer.close();
+            mst.close();
+        }
+        assertNull(String.valueOf(error.get()), error.get());
+        assertTrue(reads.get() > 0);
+    }
+
+    @Test
+    public void concurrentRewrites() throws Exception {
+        checkConcurrentRewrites(false);
+    }
+
+    @Test
+    public void concurrentRewritesOfMappedMaster() throws Exception {
+        checkConcurrentRewrites(true);
+    }
+}
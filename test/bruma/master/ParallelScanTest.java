@@ -0,0 +1,128 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Master.parallelScan() visits checked against the records read one by one.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class ParallelScanTest {
+    private static final int RECORDS = 10000;  // more than one scan chunk
+
+    private File dir;
+    private Master mst;
+
+    @Before
+    public void setUp() throws IOException, BrumaException {
+        dir = TempDir.create("scan");
+        mst = (Master)MasterFactory.getInstance(new File(dir, "mst").getPath())
+                                   .setEncoding("ISO-8859-1").forceCreate();
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            final StringBuilder builder = new StringBuilder();
+
+            for (int idx = (mfn * 7) % 300; idx >= 0; idx--) {
+                builder.append((char)('a' + ((mfn + idx) % 26)));
+            }
+            mst.writeRecord(new Record().addField(1, Integer.toString(mfn))
+                                        .addField(2, builder.toString()));
+        }
+        for (int mfn = 3; mfn <= RECORDS; mfn += 101) {
+            mst.deleteRecord(mfn);
+        }
+    }
+
+    @After
+    public void tearDown() throws BrumaException {
+        mst.close();
+        TempDir.delete(dir);
+    }
+
+    private void check(final int parallelism) throws BrumaException {
+        final ConcurrentMap<Integer,String> visited =
+                                      new ConcurrentHashMap<Integer,String>();
+
+        mst.parallelScan(new RecordVisitor() {
+            @Override
+            public void visit(final Record rec) throws BrumaException {
+                assertNull("mfn=" + rec.getMfn() + " visited twice",
+                           visited.putIfAbsent(rec.getMfn(), rec.toString()));
+            }
+        }, parallelism);
+
+        assertEquals(RECORDS, visited.size());
+        for (int mfn = 1; mfn <= RECORDS; mfn++) {
+            assertEquals("mfn=" + mfn, mst.getRecord(mfn).toString(),
+                                                           visited.get(mfn));
+        }
+    }
+
+    @Test
+    public void visitsEachRecordOnce() throws BrumaException {
+        check(1);
+        check(4);
+    }
+
+    @Test
+    public void visitorExceptionIsThrown() throws BrumaException {
+        try {
+            mst.parallelScan(new RecordVisitor() {
+                @Override
+                public void visit(final Record rec) throws BrumaException {
+                    if (rec.getMfn() == RECORDS - 1) {
+                        throw new BrumaException("visit/stop");
+                    }
+                }
+            }, 4);
+            fail("visitor exception");
+        } catch (BrumaException zex) {
+            assertEquals("visit/stop", zex.getMessage());
+        }
+    }
+
+    @Test
+    public void invalidParallelism() {
+        try {
+            mst.parallelScan(new RecordVisitor() {
+                @Override
+                public void visit(final Record rec) {
+                }
+            }, 0);
+            fail("parallelism 0");
+        } catch (BrumaException zex) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RecordCodec conversions checked against the ones used before it:
+ * String.getBytes() to encode and CharsetDecoder.decode() to decode, with
+ * the charset coders and with the single byte tables.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class RecordCodecTest {
+    private static final String[] ENCODINGS = {"ISO-8859-1", "IBM850",
+        "IBM437", "windows-1252", "US-ASCII", "UTF-8", "UTF-16BE"};
+
+    private static String randomString(final Random random) {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int idx = random.nextInt(40); idx > 0; idx--) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    builder.append((char)random.nextInt(128));
+                    break;
+                case 1:
+                    builder.append((char)random.nextInt(256));
+                    break;
+                case 2:
+                    builder.appendCodePoint(0x10000 + random.nextInt(1000));
+                    break;
+                case 3:                                 // lone surrogate
+                    builder.append((char)(0xD800 + random.nextInt(0x800)));
+                    break;
+                default:
+                    builder.append((char)random.nextInt(65536));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the old decoding or null if it reports an error
+     */
+    private static String oldDecode(final byte[] bytes,
+                                    final String encoding) {
+        try {
+            return Charset.forName(encoding).newDecoder()
+                                     .decode(ByteBuffer.wrap(bytes)).toString();
+        } catch (CharacterCodingException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the decoding or null if it reports an error
+     */
+    private static String decode(final RecordCodec codec,
+                                 final ByteBuffer buffer) {
+        try {
+            return codec.decode(buffer);
+        } catch (CharacterCodingException ex) {
+            return null;
+        }
+    }
+
+    private static void checkDecode(final RecordCodec codec,
+                                    final byte[] bytes) {
+        final String expected = oldDecode(bytes, codec.getEncoding());
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 3);
+        final ByteBuffer array = ByteBuffer.allocate(bytes.length + 3);
+
+        assertEquals(expected, decode(codec, ByteBuffer.wrap(bytes)));
+
+        // Buffers with an offset, like the field views of a record buffer.
+        direct.put(new byte[] {1, 2, 3}).put(bytes).position(3);
+        array.put(new byte[] {1, 2, 3}).put(bytes).position(3);
+        assertEquals(expected, decode(codec, direct.slice()));
+        assertEquals(expected, decode(codec, array.slice()));
+    }
+
+    private static void check(final String encoding,
+                              final boolean useTable)
+                      throws BrumaException, UnsupportedEncodingException {
+        final RecordCodec codec = new RecordCodec(encoding, useTable);
+        final Random random = new Random(encoding.hashCode());
+        final byte[] all = new byte[256];
+
+        for (int idx = 0; idx < 256; idx++) {
+            all[idx] = (byte)idx;
+            checkDecode(codec, new byte[] {(byte)idx});
+        }
+        checkDecode(codec, all);
+        for (int count = 0; count < 2000; count++) {
+            final List<Field> fields = new ArrayList<Field>();
+            final ByteBuffer expected = ByteBuffer.allocate(1 << 16);
+
+            for (int idx = random.nextInt(5); idx >= 0; idx--) {
+                fields.add(new Field(1 + idx, randomString(random)));
+            }
+            for (Field field : fields) {
+                expected.put(field.getContent().getBytes(encoding));
+            }
+            expected.flip();
+            assertEquals(encoding, expected.remaining(), codec.encode(fields));
+            assertEquals(encoding, expected, codec.getBytes());
+            assertEquals(fields.size(), codec.getNumberOfFields());
+            for (int idx = 0; idx < fields.size(); idx++) {
+                final byte[] bytes = fields.get(idx).getContent()
+                                                         .getBytes(encoding);
+
+                assertEquals(bytes.length, codec.getLength(idx));
+                checkDecode(codec, bytes);
+            }
+
+            final byte[] rbytes = new byte[random.nextInt(30)];
+            random.nextBytes(rbytes);
+            checkDecode(codec, rbytes);
+        }
+    }
+
+    @Test
+    public void charsetCoders() throws Exception {
+        for (String encoding : ENCODINGS) {
+            if (Charset.isSupported(encoding)) {
+                check(encoding, false);
+            }
+        }
+    }
+
+    @Test
+    public void singleByteTables() throws Exception {
+        for (String encoding : ENCODINGS) {
+            if (Charset.isSupported(encoding)) {
+                check(encoding, true);
+            }
+        }
+    }
+
+    @Test
+    public void tablesOnlyForSingleByteEncodings() throws BrumaException {
+        for (String encoding : Arrays.asList("ISO-8859-1", "IBM850")) {
+            if (Charset.isSupported(encoding)) {
+                assertTrue(encoding,
+                           new RecordCodec(encoding, true).isSingleByte());
+                assertFalse(encoding,
+                            new RecordCodec(encoding, false).isSingleByte());
+            }
+        }
+        assertFalse(new RecordCodec("UTF-8", true).isSingleByte());
+        assertFalse(new RecordCodec("UTF-16BE", true).isSingleByte());
+    }
+}
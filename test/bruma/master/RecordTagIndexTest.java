@@ -0,0 +1,175 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Record tag lookups checked against a linear scan of the fields, while the
+ * field list is changed by the Record methods and through getFields().
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class RecordTagIndexTest {
+    private static final int[] TAGS = {
+        1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 16, 32, 64, 999, 32767
+    };
+
+    private static int tag(final Random random) {
+        return TAGS[random.nextInt(TAGS.length)];
+    }
+
+    private static Field field(final Random random) throws BrumaException {
+        return new Field(tag(random), "c" + random.nextInt(1000));
+    }
+
+    private static List<Field> scan(final List<Field> fields,
+                                    final int tag) {
+        final List<Field> ret = new ArrayList<Field>();
+
+        for (Field field : fields) {
+            if (field.getId() == tag) {
+                ret.add(field);
+            }
+        }
+        return ret;
+    }
+
+    private static void check(final Record rec,
+                              final List<Field> model) throws BrumaException {
+        final Set<Integer> tags = new HashSet<Integer>();
+
+        assertEquals(model, rec.getFields());
+        for (Field field : model) {
+            tags.add(field.getId());
+        }
+        assertEquals(tags, rec.getRecordTags());
+        for (int tag : TAGS) {
+            final List<Field> expected = scan(model, tag);
+            final List<Field> list = rec.getFieldList(tag);
+
+            assertEquals(expected.size(), rec.getFieldOccs(tag));
+            assertEquals(expected.size(), list.size());
+            for (int occ = 1; occ <= expected.size(); occ++) {
+                final Field field = expected.get(occ - 1);
+
+                assertSame(field, list.get(occ - 1));
+                assertSame(field, rec.getField(tag, occ));
+                assertEquals(field.toString(), rec.getFieldWithTag(tag, occ));
+                assertEquals(field.toXML(), rec.getFieldXML(tag, occ));
+            }
+            assertNull(rec.getField(tag, expected.size() + 1));
+            assertNull(rec.getFieldWithTag(tag, expected.size() + 1));
+            assertNull(rec.getFieldXML(tag, expected.size() + 1));
+        }
+        assertNull(rec.getField(13, 1));
+        assertEquals(0, rec.getFieldOccs(13));
+        assertEquals(0, rec.getFieldList(13).size());
+    }
+
+    /**
+     * Random changes of records with less and more fields than the index
+     * threshold, checking the lookups after some of them, so that the
+     * lookups see both current and outdated indexes.
+     */
+    @Test
+    public void lookupsAreTheLinearScan() throws BrumaException {
+        final Random random = new Random(21);
+
+        for (int count = 0; count < 200; count++) {
+            final Record rec = new Record();
+            final List<Field> model = new ArrayList<Field>();
+            final int max = 1 + random.nextInt(80);
+
+            for (int step = 0; step < 300; step++) {
+                final int size = model.size();
+                final int op = random.nextInt(8);
+
+                if ((op <= 1) && (size < max)) {
+                    final Field field = field(random);
+                    rec.addField(field);
+                    model.add(field);
+                } else if ((op == 2) && (size < max)) {
+                    final Field field = field(random);
+                    final int pos = random.nextInt(size + 1);
+                    rec.getFields().add(pos, field);
+                    model.add(pos, field);
+                } else if ((op == 3) && (size > 0)) {
+                    final Field field = field(random);
+                    final int pos = random.nextInt(size);
+                    rec.getFields().set(pos, field);
+                    model.set(pos, field);
+                } else if ((op == 4) && (size > 0)) {
+                    final int pos = random.nextInt(size);
+                    rec.getFields().remove(pos);
+                    model.remove(pos);
+                } else if (op == 5) {
+                    final int tag = tag(random);
+                    final int occ = random.nextInt(4);
+                    final List<Field> occs = scan(model, tag);
+                    rec.deleteField(tag, occ);
+                    if (occ == 0) {
+                        model.removeAll(occs);
+                    } else if (occ <= occs.size()) {
+                        model.remove(occs.get(occ - 1));
+                    }
+                } else if (op == 6) {
+                    rec.sortFields();
+                    Collections.sort(model);
+                } else if (random.nextInt(20) == 0) {
+                    rec.deleteFields();
+                    model.clear();
+                }
+                if (random.nextInt(3) == 0) {
+                    check(rec, model);
+                }
+            }
+            check(rec, model);
+        }
+    }
+
+    @Test
+    public void manyOccurrences() throws BrumaException {
+        final Record rec = new Record();
+
+        for (int idx = 0; idx < 5000; idx++) {
+            rec.addField(1 + (idx % 3), Integer.toString(idx));
+        }
+        assertEquals(1667, rec.getFieldOccs(1));
+        assertEquals("4998", rec.getField(1, 1667).getContent());
+        assertEquals("2", rec.getField(3, 1).getContent());
+        rec.deleteField(2, 0);
+        assertEquals(0, rec.getFieldOccs(2));
+        assertEquals(3333, rec.getNvf());
+        assertEquals("4997", rec.getField(3, 1666).getContent());
+    }
+}
@@ -0,0 +1,193 @@
+/*=========================================================================
+
+    Copyright © 2011 BIREME/PAHO/WHO
+
+    This file is part of Bruma.
+
+    Bruma is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as
+    published by the Free Software Foundation, either version 3 of
+    the License, or (at your option) any later version.
+
+    Bruma is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public
+    License along with Bruma. If not, see <http://www.gnu.org/licenses/>.
+
+=========================================================================*/
+
+package bruma.master;
+
+import bruma.BrumaException;
+import bruma.TempDir;
+import bruma.iterator.IsisRecordIterator;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Reads that refill a reused record checked against reads of new records.
+ * @author Heitor Barbieri
+ * @date 18/10/2026
+ */
+public class ReusableReadTest {
+    private static final int RECORDS = 1500;
+
+    private File dir;
+    private String name;
+
+    @Before
+    public void setUp() throws IOException, BrumaException {
+        dir = TempDir.create("reuse");
+        name = new File(dir, "mst").getPath();
+
+        final Random random = new Random(23);
+        final Master mst = (Master)MasterFactory.getInstance(name)
+                                   .setEncoding("ISO-8859-1").forceCreate();
+        try {
+            for (int mfn = 1; mfn <= RECORDS; mfn++) {
+                // records with no fields up to records with a tag index
+                final Record rec = new Record();
+
+                for (int idx = random.nextInt(40); idx > 0; idx--) {
+                    rec.addField(1 + random.nextInt(8), "^a" + mfn + "^b"
+                                          + random.nextInt(100) + "^c" + idx);
+                }
+                mst.writeRecord(rec);
+            }
+            for (int mfn = 2; mfn <= RECORDS; mfn += 9) {
+                mst.deleteRecord(mfn);
+            }
+        } finally {
+            mst.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        TempDir.delete(dir);
+    }
+
+    /**
+     * Checks the record contents, its status and its lookups.
+     */
+    private static void check(final Record expected,
+                              final Record rec) throws BrumaException {
+        assertEquals(expected.getMfn(), rec.getMfn());
+        assertEquals(expected.getStatus(), rec.getStatus());
+        assertEquals(expected.getActiveStatus(), rec.getActiveStatus());
+        assertEquals(expected.toString(), rec.toString());
+        assertEquals(expected.toXML(), rec.toXML());
+        for (int tag = 1; tag <= 8; tag++) {
+            assertEquals(expected.getFieldOccs(tag), rec.getFieldOccs(tag));
+            for (int occ = 1; occ <= expected.getFieldOccs(tag); occ++) {
+                final Field exp = expected.getField(tag, occ);
+                final Field field = rec.getField(tag, occ);
+
+                assertEquals(exp.toString(), field.toString());
+                assertEquals(exp.getSubfield('b', 1).getContent(),
+                                      field.getSubfield('b', 1).getContent());
+            }
+        }
+    }
+
+    private void checkGetRecord(final Master mst) throws BrumaException {
+        final Random random = new Random(mst.hashCode());
+        final Record reuse = new Record();
+
+        for (int count = 0; count < 5000; count++) {
+            final int mfn = 1 + random.nextInt(RECORDS);
+
+            assertSame(reuse, mst.getRecord(mfn, reuse));
+            check(mst.getRecord(mfn), reuse);
+        }
+    }
+
+    @Test
+    public void getRecordRefillsTheRecord() throws BrumaException {
+        final Master mst = MasterFactory.getInstance(name).open();
+
+        try {
+            checkGetRecord(mst);
+        } finally {
+            mst.close();
+        }
+    }
+
+    @Test
+    public void concurrentReadsRefillTheRecord() throws BrumaException {
+        final Master mst = MasterFactory.getInstance(name)
+                                        .setConcurrentReads(true).open();
+        try {
+            checkGetRecord(mst);
+        } finally {
+            mst.close();
+        }
+    }
+
+    @Test
+    public void iteratorReusesOneRecord() throws BrumaException {
+        final Master mst = MasterFactory.getInstance(name).open();
+
+        try {
+            final Iterator<Record> iter = mst.iterator(true);
+            final Record first = iter.next();
+            int mfn = 1;
+
+            check(mst.getRecord(mfn), first);
+            while (iter.hasNext()) {
+                final Record rec = iter.next();
+
+                assertSame(first, rec);
+                check(mst.getRecord(++mfn), rec);
+            }
+            assertEquals(RECORDS, mfn);
+        } finally {
+            mst.close();
+        }
+    }
+
+    /**
+     * The reusing iterator reads a record ahead, so the record returned by
+     * next() must stay valid until the following next() call.
+     */
+    @Test
+    public void isisRecordIteratorKeepsTheReturnedRecord()
+                                                       throws BrumaException {
+        final List<String> expected = new ArrayList<String>();
+        final IsisRecordIterator plain = new IsisRecordIterator(name,
+                                                                "ISO-8859-1");
+        final IsisRecordIterator reusing = new IsisRecordIterator(name,
+                                                          "ISO-8859-1", true);
+        try {
+            for (Record rec : plain) {
+                expected.add(rec.toString());
+            }
+            int idx = 0;
+            while (reusing.hasNext()) {
+                final Record rec = reusing.next();
+
+                assertEquals(expected.get(idx), rec.toString());
+                reusing.hasNext();
+                assertEquals(expected.get(idx++), rec.toString());
+            }
+            assertEquals(expected.size(), idx);
+            assertFalse(expected.isEmpty());
+        } finally {
+            plain.close();
+            reusing.close();
+        }
+    }
+}